@@ -1,9 +1,15 @@
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * REST API Server for OPD Token Allocation Engine
@@ -12,215 +18,906 @@ import java.util.*;
  *   POST /doctors              - Add a doctor
  *   POST /doctors/{name}/slots - Add slot to doctor
  *   POST /tokens               - Book a token
+ *   POST /tokens/batch         - Book an array of tokens in one pass per doctor
+ *   GET /tokens/{id}           - Find where a token is
  *   DELETE /tokens/{id}        - Cancel a token
  *   PUT /tokens/{id}/noshow    - Mark token as no-show
  *   PUT /doctors/{name}/delay/{slotIndex} - Delay a slot
+ *   PUT /doctors/{name}/rebalance - Fill free seats from the waiting list now
  *   GET /doctors               - Get all doctors status
  *   GET /doctors/{name}        - Get specific doctor status
+ *   GET /events?doctor=X       - Server-Sent Events: snapshot, then each change
+ *   GET /metrics               - Latency, bumps, waiting lists, HTTP codes (Prometheus text)
+ *   GET /availability          - Next free slot per doctor, earliest first (?earliest=true
+ *                                for just the first one, ?after=10:30 instead of now)
+ *
+ * While a restarted server is still recovering, the two GET /doctors routes
+ * are served from the mapped day.map file, /metrics still answers and
+ * everything else gets a 503.
+ *
+ * Run: java ApiServer [--port=8080] [--executor=virtual|platform|dispatcher]
+ *                     [--transport=jdk|nio]
+ *                     [--threads=N] [--backlog=N] [--node=0-99]
+ *                     [--data=dir] [--sync=group_commit|every_record|none]
+ *                     [--events=async|console|none] [--rebalance=ms (0 = off)]
+ *                     [--name-pool=N (0 = off)] [--single-writer=N engine threads (0 = off)]
  */
 public class ApiServer {
+    /**
+     * Which threads run the request handlers
+     */
+    public enum ExecutorKind {
+        VIRTUAL,     // one virtual thread per request (Java 21+), the default
+        PLATFORM,    // fixed pool of platform threads
+        DISPATCHER   // the HttpServer's single dispatcher thread (old behaviour)
+    }
+
+    /**
+     * What accepts connections and parses HTTP; the handlers are the same for both
+     */
+    public enum Transport {
+        JDK,  // com.sun.net.httpserver.HttpServer, the default
+        NIO   // NioHttpServer: one selector thread, pooled direct buffers, pipelining
+    }
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final byte[] DOCTORS_OPEN = "{\"doctors\": [".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DOCTORS_CLOSE = "]}".getBytes(StandardCharsets.US_ASCII);
+
     private final TokenManager manager;
     private HttpServer server;
+    private NioHttpServer nioServer;
+    private Transport transport = Transport.JDK;
+    private ExecutorService executor;
+    private ExecutorKind executorKind = ExecutorKind.VIRTUAL;
+    private int platformThreads = Runtime.getRuntime().availableProcessors() * 4;
+    private int backlog = 0;
+    private int singleWriterShards = 0;
+    private CommandPipeline pipeline;
+    private final List<Filter> filters = new ArrayList<>();
+    private volatile MappedDaySnapshot readOnlySnapshot;
+    private final Router router = buildRouter();
+    private final Router readOnlyRouter = buildReadOnlyRouter();
+    private final EventStream events = new EventStream();
+    // GET /doctors/{name} bodies by doctor, reused while the doctor's version is unchanged
+    private final Map<Doctor, DoctorJson> jsonCache = new java.util.concurrent.ConcurrentHashMap<>();
+    // versions restart with the process, so ETags carry the start time too
+    private final String etagPrefix = "\"" + Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    /**
+     * A doctor's JSON as of one version
+     */
+    static class DoctorJson {
+        final long version;
+        final byte[] json;
+
+        DoctorJson(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
 
     public ApiServer(TokenManager manager) {
         this.manager = manager;
+        manager.setChangeListener(events);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        String dataDir = null;
+        BookingJournal.SyncMode sync = BookingJournal.SyncMode.GROUP_COMMIT;
+        String events = "async";
+        long rebalanceMillis = 1000;
+        TokenManager manager = new TokenManager();
+        ApiServer api = new ApiServer(manager);
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            String value = kv.length == 2 ? kv[1] : "";
+            switch (kv[0]) {
+                case "--port": port = Integer.parseInt(value); break;
+                case "--executor": api.setExecutorKind(ExecutorKind.valueOf(value.toUpperCase())); break;
+                case "--transport": api.setTransport(Transport.valueOf(value.toUpperCase())); break;
+                case "--single-writer": api.setSingleWriterShards(Integer.parseInt(value)); break;
+                case "--threads": api.setPlatformThreads(Integer.parseInt(value)); break;
+                case "--backlog": api.setBacklog(Integer.parseInt(value)); break;
+                case "--node": Token.setIdGenerator(new TokenIdGenerator(Integer.parseInt(value))); break;
+                case "--data": dataDir = value; break;
+                case "--sync": sync = BookingJournal.SyncMode.valueOf(value.toUpperCase()); break;
+                case "--events": events = value; break;
+                case "--rebalance": rebalanceMillis = Long.parseLong(value); break;
+                case "--name-pool":
+                    int maxNames = Integer.parseInt(value);
+                    Token.setNamePool(maxNames > 0 ? new NamePool(maxNames) : null);
+                    break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+
+        // booking narration: printed by a background thread, on the request thread, or not at all
+        switch (events) {
+            case "async": manager.setListener(new AsyncBookingListener(new ConsoleBookingListener())); break;
+            case "console": manager.setListener(new ConsoleBookingListener()); break;
+            case "none": break;
+            default:
+                System.out.println("Unknown --events value: " + events);
+                return;
+        }
+
+        boolean started = false;
+        if (dataDir != null) {
+            Persistence persistence = new Persistence(java.nio.file.Paths.get(dataDir), sync);
+            persistence.setMappedSnapshots(true);
+            MappedDaySnapshot mapped = persistence.openMappedSnapshot();
+            if (mapped != null) {
+                // answer reads from the last snapshot while the full state is rebuilt
+                api.setReadOnlySnapshot(mapped);
+                api.start(port);
+                started = true;
+            }
+            persistence.recover(manager);
+            api.setReadOnlySnapshot(null);
+            persistence.startSnapshots(60);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                api.stop();
+                try {
+                    persistence.close();
+                } catch (IOException e) {
+                    System.out.println("✗ Final snapshot failed: " + e.getMessage());
+                }
+            }));
+        }
+        if (!started) {
+            api.start(port);
+        }
+        // only after recovery: rebalancing is journaled, replay must not race with it
+        if (rebalanceMillis > 0) {
+            new WaitingListCompactor(manager, api.getPipeline()).start(rebalanceMillis);
+        }
+    }
+
+    public void setExecutorKind(ExecutorKind executorKind) {
+        this.executorKind = executorKind;
+    }
+
+    /**
+     * Executor actually in use (VIRTUAL falls back to PLATFORM before Java 21)
+     */
+    public ExecutorKind getExecutorKind() {
+        return executorKind;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Run every change (doctors, slots, bookings, cancels, delays, rebalancing)
+     * on this many CommandPipeline engine threads instead of the request
+     * threads (0, the default, calls TokenManager directly)
+     */
+    public void setSingleWriterShards(int shards) {
+        this.singleWriterShards = shards;
+    }
+
+    /**
+     * Run a filter around every request, on either transport (before start;
+     * filters run in the order they were added)
+     */
+    public void addFilter(Filter filter) {
+        filters.add(filter);
+    }
+
+    /**
+     * The pipeline in use after start, or null
+     */
+    public CommandPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Pool size used by ExecutorKind.PLATFORM (and as the fallback for VIRTUAL)
+     */
+    public void setPlatformThreads(int platformThreads) {
+        this.platformThreads = platformThreads;
+    }
+
+    /**
+     * Listen backlog passed to the server socket (0 = system default)
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Serve GET /doctors from this mapped snapshot and refuse everything else
+     * (null goes back to normal handling)
+     */
+    public void setReadOnlySnapshot(MappedDaySnapshot readOnlySnapshot) {
+        this.readOnlySnapshot = readOnlySnapshot;
+    }
+
+    /**
+     * Port the server is bound to (useful when started on port 0)
+     */
+    public int getPort() {
+        return nioServer != null ? nioServer.getPort() : server.getAddress().getPort();
     }
 
     public void start(int port) throws IOException {
-        server = HttpServer.create(new InetSocketAddress(port), 0);
-        
-        // Register endpoints
-        server.createContext("/doctors", this::handleDoctors);
-        server.createContext("/tokens", this::handleTokens);
-        
-        server.setExecutor(null);
-        server.start();
-        System.out.println("API Server started on http://localhost:" + port);
+        if (singleWriterShards > 0) {
+            pipeline = new CommandPipeline(manager, singleWriterShards);
+        }
+        executor = createExecutor();
+        if (transport == Transport.NIO) {
+            nioServer = new NioHttpServer(new InetSocketAddress(port), backlog, this::dispatch, executor);
+            nioServer.getFilters().addAll(filters);
+            nioServer.start();
+        } else {
+            // Without TCP_NODELAY small responses wait ~40ms on delayed ACKs.
+            // Read once when the HttpServer implementation is first loaded.
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            server = HttpServer.create(new InetSocketAddress(port), backlog);
+
+            // Register endpoints
+            server.createContext("/", this::dispatch).getFilters().addAll(filters);
+
+            server.setExecutor(executor);
+            server.start();
+        }
+        System.out.println("API Server started on http://localhost:" + getPort() +
+            " (" + transport.name().toLowerCase() + " transport, " + describeExecutor() +
+            ", backlog " + backlog +
+            (pipeline != null ? ", " + pipeline.getShardCount() + " single-writer engine threads" : "") + ")");
         System.out.println("\nAvailable Endpoints:");
         System.out.println("  POST   /doctors              - Add doctor {\"name\": \"...\"}");
         System.out.println("  POST   /doctors/{name}/slots - Add slot {\"start\": \"9:00 AM\", \"end\": \"10:00 AM\", \"capacity\": 5}");
         System.out.println("  POST   /tokens               - Book token {\"doctor\": \"...\", \"slot\": 0, \"patient\": \"...\", \"type\": \"ONLINE\"}");
-        System.out.println("  DELETE /tokens/{id}?doctor=X - Cancel token");
-        System.out.println("  PUT    /tokens/{id}/noshow?doctor=X - Mark no-show");
+        System.out.println("                                 (or \"time\": \"10:30 AM\" instead of \"slot\")");
+        System.out.println("  POST   /tokens/batch         - Book many tokens [{...}, {...}] in one pass");
+        System.out.println("  GET    /tokens/{id}          - Find token");
+        System.out.println("  DELETE /tokens/{id}          - Cancel token (?doctor=X optional)");
+        System.out.println("  PUT    /tokens/{id}/noshow   - Mark no-show (?doctor=X optional)");
         System.out.println("  PUT    /doctors/{name}/delay/{slot} - Delay slot");
+        System.out.println("  PUT    /doctors/{name}/rebalance - Fill free seats from the waiting list");
         System.out.println("  GET    /doctors              - Get all doctors");
         System.out.println("  GET    /doctors/{name}       - Get specific doctor");
+        System.out.println("  GET    /events?doctor=X      - Live changes (Server-Sent Events)");
+        System.out.println("  GET    /metrics              - Prometheus metrics");
+        System.out.println("  GET    /availability         - Next free slot per doctor (?earliest=true, ?after=10:30)");
     }
 
     public void stop() {
+        events.close();
         if (server != null) {
             server.stop(0);
         }
+        if (nioServer != null) {
+            nioServer.close();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        switch (executorKind) {
+            case DISPATCHER:
+                return null;
+            case PLATFORM:
+                return Executors.newFixedThreadPool(platformThreads);
+            default:
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                System.out.println("⚠ Virtual threads need Java 21+, using " +
+                    platformThreads + " platform threads instead");
+                executorKind = ExecutorKind.PLATFORM;
+                return Executors.newFixedThreadPool(platformThreads);
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() looked up at runtime, so the
+     * server still compiles and runs on Java 17 (returns null there)
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private String describeExecutor() {
+        switch (executorKind) {
+            case DISPATCHER: return "single dispatcher thread";
+            case PLATFORM: return platformThreads + " platform threads";
+            default: return "virtual threads";
+        }
+    }
+
+    /**
+     * The route table, built once: method + path pattern -> handler
+     */
+    Router buildRouter() {
+        return new Router()
+            .add("GET", "/doctors", (exchange, match) -> sendAllDoctors(exchange))
+            .add("POST", "/doctors", this::addDoctor)
+            .add("GET", "/doctors/{name}", this::getDoctor)
+            .add("POST", "/doctors/{name}/slots", this::addSlot)
+            .add("PUT", "/doctors/{name}/delay/{slot}", this::delaySlot)
+            .add("PUT", "/doctors/{name}/rebalance", this::rebalance)
+            .add("POST", "/tokens", this::bookToken)
+            .add("POST", "/tokens/batch", this::bookTokens)
+            .add("GET", "/tokens/{id}", this::findToken)
+            .add("DELETE", "/tokens/{id}", this::cancelToken)
+            .add("PUT", "/tokens/{id}/noshow", this::markNoShow)
+            .add("GET", "/metrics", (exchange, match) -> sendMetrics(exchange))
+            .add("GET", "/availability", (exchange, match) -> sendAvailability(exchange))
+            .add("GET", "/events", (exchange, match) -> streamEvents(exchange));
+    }
+
+    /**
+     * Routes answered from the mapped snapshot while recovering
+     */
+    private Router buildReadOnlyRouter() {
+        return new Router()
+            .add("GET", "/doctors", (exchange, match) -> sendMappedDoctors(exchange, null))
+            .add("GET", "/doctors/{name}", (exchange, match) -> sendMappedDoctors(exchange, match.get("name")))
+            .add("GET", "/metrics", (exchange, match) -> sendMetrics(exchange));
+    }
+
+    /**
+     * Every request comes in here; its status and time are counted for /metrics
+     */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            serve(exchange);
+        } finally {
+            manager.getMetrics().recordHttp(exchange.getResponseCode(), System.nanoTime() - start);
+        }
     }
 
-    private void handleDoctors(HttpExchange exchange) throws IOException {
+    private void serve(HttpExchange exchange) throws IOException {
         String path = exchange.getRequestURI().getPath();
         String method = exchange.getRequestMethod();
-        String response = "";
-        int statusCode = 200;
+        Router.Match match = router.route(method, path);
+
+        if (readOnlySnapshot != null) {
+            Router.Match readOnly = readOnlyRouter.route(method, path);
+            if (readOnly.getStatus() == Router.Match.FOUND) {
+                match = readOnly;
+            } else if (match.getStatus() == Router.Match.FOUND) {
+                sendError(exchange, 503, "Recovering, try again shortly");
+                return;
+            }
+        }
+
+        if (match.getStatus() == Router.Match.NOT_FOUND) {
+            sendError(exchange, 404, "No such endpoint: " + method + " " + path);
+            return;
+        }
+        if (match.getStatus() == Router.Match.METHOD_NOT_ALLOWED) {
+            exchange.getResponseHeaders().set("Allow", match.getAllowed());
+            sendError(exchange, 405, method + " not allowed here, use " + match.getAllowed());
+            return;
+        }
 
         try {
-            if (path.equals("/doctors")) {
-                if ("GET".equals(method)) {
-                    response = getAllDoctorsJson();
-                } else if ("POST".equals(method)) {
-                    Map<String, String> body = parseJsonBody(exchange);
-                    String name = body.get("name");
-                    if (name != null) {
-                        manager.addDoctor(name);
-                        response = "{\"success\": true, \"message\": \"Doctor " + name + " added\"}";
-                    } else {
-                        statusCode = 400;
-                        response = "{\"error\": \"name is required\"}";
-                    }
+            match.getHandler().handle(exchange, match);
+        } catch (JsonReader.MalformedJsonException e) {
+            sendErrorIfPossible(exchange, 400, e.getMessage());
+        } catch (NumberFormatException e) {
+            sendErrorIfPossible(exchange, 400, "Not a number: " + e.getMessage());
+        } catch (Exception e) {
+            sendErrorIfPossible(exchange, 500, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void addDoctor(HttpExchange exchange, Router.Match match) throws IOException {
+        JsonReader reader = new JsonReader(exchange.getRequestBody());
+        String name = DoctorRequest.read(reader).getName();
+        reader.endDocument();
+        Doctor doctor = pipeline != null ? await(pipeline.addDoctor(name)) : manager.addDoctor(name);
+        if (doctor == null) {
+            sendError(exchange, 409, "Doctor " + name + " already exists");
+            return;
+        }
+        sendResponse(exchange, 200, "{\"success\": true, \"message\": " + JsonWriter.quote("Doctor " + name + " added") + "}");
+    }
+
+    private void getDoctor(HttpExchange exchange, Router.Match match) throws IOException {
+        Doctor doctor = manager.getDoctor(match.get("name"));
+        if (doctor != null) {
+            sendDoctor(exchange, doctor);
+        } else {
+            sendError(exchange, 404, "Doctor not found");
+        }
+    }
+
+    private void addSlot(HttpExchange exchange, Router.Match match) throws IOException {
+        JsonReader reader = new JsonReader(exchange.getRequestBody());
+        SlotRequest slot = SlotRequest.read(reader);
+        reader.endDocument();
+        String doctorName = match.get("name");
+        boolean added = pipeline != null
+            ? await(pipeline.addSlot(doctorName, slot.getStart(), slot.getEnd(), slot.getCapacity()))
+            : manager.addSlot(doctorName, slot.getStart(), slot.getEnd(), slot.getCapacity());
+        if (added) {
+            sendResponse(exchange, 200, "{\"success\": true, \"message\": \"Slot added\"}");
+        } else {
+            sendError(exchange, 404, "Doctor not found");
+        }
+    }
+
+    private void delaySlot(HttpExchange exchange, Router.Match match) throws IOException {
+        String doctorName = match.get("name");
+        int slotIndex = Integer.parseInt(match.get("slot"));
+        boolean delayed = pipeline != null
+            ? await(pipeline.delaySlot(doctorName, slotIndex))
+            : manager.delaySlot(doctorName, slotIndex, true);
+        if (delayed) {
+            sendResponse(exchange, 200, "{\"success\": true, \"message\": \"Slot delayed\"}");
+        } else {
+            sendError(exchange, 404, "Doctor or slot not found");
+        }
+    }
+
+    private void rebalance(HttpExchange exchange, Router.Match match) throws IOException {
+        String doctorName = match.get("name");
+        int filled = pipeline != null ? await(pipeline.rebalance(doctorName)) : manager.rebalance(doctorName);
+        if (filled >= 0) {
+            sendResponse(exchange, 200, "{\"success\": true, \"seatsFilled\": " + filled + "}");
+        } else {
+            sendError(exchange, 404, "Doctor not found");
+        }
+    }
+
+    private void bookToken(HttpExchange exchange, Router.Match match) throws IOException {
+        JsonReader reader = new JsonReader(exchange.getRequestBody());
+        BookingRequest booking = BookingRequest.read(reader);
+        reader.endDocument();
+
+        Token token;
+        if (pipeline != null) {
+            token = await(booking.getTime() != null
+                ? pipeline.bookTokenAt(booking.getDoctor(), booking.getTime(), booking.getPatient(), booking.getType())
+                : pipeline.bookToken(booking.getDoctor(), booking.getSlot(), booking.getPatient(), booking.getType()));
+        } else {
+            token = booking.getTime() != null
+                ? manager.bookTokenAt(booking.getDoctor(), booking.getTime(), booking.getPatient(), booking.getType())
+                : manager.bookToken(booking.getDoctor(), booking.getSlot(), booking.getPatient(), booking.getType());
+        }
+        if (token != null) {
+            sendResponse(exchange, 200, "{\"success\": true, \"tokenId\": " + JsonWriter.quote(token.getId()) +
+                ", \"patient\": " + JsonWriter.quote(token.getPatientName()) +
+                ", \"type\": \"" + token.getType() + "\"}");
+        } else {
+            sendError(exchange, 400, "Failed to book token");
+        }
+    }
+
+    /**
+     * POST /tokens/batch with an array of bookings; one result per booking, in order
+     */
+    private void bookTokens(HttpExchange exchange, Router.Match match) throws IOException {
+        JsonReader reader = new JsonReader(exchange.getRequestBody());
+        List<BookingRequest> bookings = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            bookings.add(BookingRequest.read(reader));
+        }
+        reader.endArray();
+        reader.endDocument();
+
+        List<Token> tokens = pipeline != null ? await(pipeline.bookTokens(bookings)) : manager.bookTokens(bookings);
+        JsonWriter w = JsonWriter.acquire();
+        try {
+            w.ascii("{\"success\": true, \"tokens\": [");
+            for (int i = 0; i < tokens.size(); i++) {
+                if (i > 0) w.ascii(", ");
+                Token token = tokens.get(i);
+                if (token == null) {
+                    w.ascii("{\"error\": \"Failed to book token\"}");
+                } else {
+                    w.ascii("{\"tokenId\": ").string(token.getId())
+                        .ascii(", \"patient\": ").string(token.getPatientName())
+                        .ascii(", \"type\": \"").ascii(token.getType().name()).ascii("\"}");
                 }
-            } else if (path.matches("/doctors/[^/]+/slots")) {
-                String doctorName = path.split("/")[2];
-                if ("POST".equals(method)) {
-                    Map<String, String> body = parseJsonBody(exchange);
-                    Doctor doctor = manager.getDoctor(doctorName);
-                    if (doctor != null) {
-                        doctor.addSlot(body.get("start"), body.get("end"), 
-                            Integer.parseInt(body.getOrDefault("capacity", "5")));
-                        response = "{\"success\": true, \"message\": \"Slot added\"}";
-                    } else {
-                        statusCode = 404;
-                        response = "{\"error\": \"Doctor not found\"}";
+            }
+            w.ascii("]}");
+            sendJson(exchange, 200, w);
+        } finally {
+            JsonWriter.release(w);
+        }
+    }
+
+    private void findToken(HttpExchange exchange, Router.Match match) throws IOException {
+        TokenLocation location = manager.findToken(match.get("id"));
+        if (location != null) {
+            sendResponse(exchange, 200, getTokenLocationJson(location));
+        } else {
+            sendError(exchange, 404, "Token not found");
+        }
+    }
+
+    private void cancelToken(HttpExchange exchange, Router.Match match) throws IOException {
+        String doctorName = getQueryParam(exchange.getRequestURI().getQuery(), "doctor");
+        boolean success = pipeline != null
+            ? await(pipeline.cancelToken(doctorName, match.get("id")))
+            : manager.cancelToken(doctorName, match.get("id"));
+        sendResponse(exchange, 200, "{\"success\": " + success + "}");
+    }
+
+    private void markNoShow(HttpExchange exchange, Router.Match match) throws IOException {
+        String doctorName = getQueryParam(exchange.getRequestURI().getQuery(), "doctor");
+        boolean success = pipeline != null
+            ? await(pipeline.markNoShow(doctorName, match.get("id")))
+            : manager.markNoShow(doctorName, match.get("id"));
+        sendResponse(exchange, 200, "{\"success\": " + success + "}");
+    }
+
+    /**
+     * GET /events?doctor=X: the doctor as it is now (event "snapshot"), then every
+     * change as it happens, until the client disconnects. A screen reconnecting
+     * with Last-Event-ID carries on from there if the ring still has it.
+     * The request thread is released at once; the stream has its own thread.
+     */
+    private void streamEvents(HttpExchange exchange) throws IOException {
+        String doctorName = getQueryParam(exchange.getRequestURI().getQuery(), "doctor");
+        if (doctorName == null) {
+            sendError(exchange, 400, "Missing ?doctor=");
+            return;
+        }
+        Doctor doctor = manager.getDoctor(doctorName);
+        if (doctor == null) {
+            sendError(exchange, 404, "Doctor not found");
+            return;
+        }
+
+        EventStream.Subscriber subscriber = events.subscribe(doctorName);  // keeps changes from here on
+        try {
+            long from = -1;
+            String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (lastEventId != null) {
+                try {
+                    from = Long.parseLong(lastEventId.trim()) + 1;
+                } catch (NumberFormatException e) {
+                    // not one of ours, start over
+                }
+            }
+            byte[] snapshot = null;
+            if (!events.canResume(from)) {
+                ByteArrayOutputStream json = new ByteArrayOutputStream();
+                JsonWriter w = JsonWriter.acquire();
+                try {
+                    synchronized (doctor) {
+                        from = events.position();
+                        writeDoctor(w, doctor);
                     }
+                    w.writeTo(json);
+                } finally {
+                    JsonWriter.release(w);
                 }
-            } else if (path.matches("/doctors/[^/]+/delay/\\d+")) {
-                String[] parts = path.split("/");
-                String doctorName = parts[2];
-                int slotIndex = Integer.parseInt(parts[4]);
-                if ("PUT".equals(method)) {
-                    manager.delaySlot(doctorName, slotIndex);
-                    response = "{\"success\": true, \"message\": \"Slot delayed\"}";
+                snapshot = EventStream.snapshotFrame(from, json.toString(StandardCharsets.UTF_8));
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream os = exchange.getResponseBody();
+            if (snapshot != null) {
+                os.write(snapshot);
+            }
+            os.flush();
+            subscriber.start(os, from);
+        } catch (IOException | RuntimeException e) {
+            subscriber.close();
+            throw e;
+        }
+    }
+
+    /**
+     * GET /availability: each doctor's next free slot from now (or ?after=), earliest
+     * first; ?earliest=true answers with the first one only, from the FreeSeatIndex
+     */
+    private void sendAvailability(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String after = getQueryParam(query, "after");
+        int minute = Slot.minuteOfDay(java.time.LocalTime.now());
+        if (after != null) {
+            minute = Slot.parseMinuteOfDay(java.net.URLDecoder.decode(after, StandardCharsets.UTF_8));
+            if (minute == Slot.NO_TIME) {
+                sendError(exchange, 400, "Not a time: " + after);
+                return;
+            }
+        }
+        JsonWriter w = JsonWriter.acquire();
+        try {
+            if ("true".equals(getQueryParam(query, "earliest"))) {
+                Doctor doctor = manager.findEarliestAvailable(minute);
+                w.ascii("{\"available\": ");
+                int mark = w.size();
+                if (doctor == null || !writeFreeSlot(w.ascii("true, "), doctor, minute)) {
+                    w.truncate(mark);  // none, or filled up meanwhile
+                    w.ascii("false");
                 }
-            } else if (path.matches("/doctors/[^/]+")) {
-                String doctorName = path.split("/")[2];
-                if ("GET".equals(method)) {
-                    Doctor doctor = manager.getDoctor(doctorName);
-                    if (doctor != null) {
-                        response = getDoctorJson(doctor);
+                w.ascii("}");
+            } else {
+                w.ascii("{\"available\": [");
+                boolean first = true;
+                for (Doctor doctor : manager.findAvailable(minute)) {
+                    int mark = w.size();
+                    if (!first) w.ascii(", ");
+                    w.ascii("{");
+                    if (writeFreeSlot(w, doctor, minute)) {
+                        w.ascii("}");
+                        first = false;
                     } else {
-                        statusCode = 404;
-                        response = "{\"error\": \"Doctor not found\"}";
+                        w.truncate(mark);  // filled up meanwhile
                     }
                 }
+                w.ascii("]}");
             }
-        } catch (Exception e) {
-            statusCode = 500;
-            response = "{\"error\": \"" + e.getMessage() + "\"}";
+            sendJson(exchange, 200, w);
+        } finally {
+            JsonWriter.release(w);
         }
+    }
 
-        sendResponse(exchange, statusCode, response);
+    /**
+     * "doctor": ..., "slot": i, "time": ..., "freeSeats": n for the doctor's next
+     * free slot; false (nothing written) when it filled up meanwhile
+     */
+    private static boolean writeFreeSlot(JsonWriter w, Doctor doctor, int minute) {
+        synchronized (doctor) {
+            int index = doctor.findNextFreeSlot(minute);
+            if (index < 0) {
+                return false;
+            }
+            Slot slot = doctor.getSlot(index);
+            w.ascii("\"doctor\": ").string(doctor.getName())
+              .ascii(", \"slot\": ").number(index)
+              .ascii(", \"time\": ").string(slot.getTimeRange())
+              .ascii(", \"freeSeats\": ").number(slot.getFreeSeats());
+            return true;
+        }
     }
 
-    private void handleTokens(HttpExchange exchange) throws IOException {
-        String path = exchange.getRequestURI().getPath();
-        String query = exchange.getRequestURI().getQuery();
-        String method = exchange.getRequestMethod();
-        String response = "";
-        int statusCode = 200;
+    /**
+     * GET /doctors streamed with chunked encoding, put together from the cached
+     * per-doctor bodies (only doctors changed since the last request are written
+     * again). The ETag is the doctor count and the sum of their versions: versions
+     * only go up, so any change gives a new one.
+     */
+    private void sendAllDoctors(HttpExchange exchange) throws IOException {
+        List<byte[]> parts = new ArrayList<>();
+        long versions = 0;
+        for (Doctor doctor : getDoctors()) {
+            DoctorJson cached = doctorJson(doctor);
+            parts.add(cached.json);
+            versions += cached.version;
+        }
+        String etag = etagPrefix + parts.size() + "-" + versions + "\"";
+        if (notModified(exchange, etag)) {
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(DOCTORS_OPEN);
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) os.write(',');
+                os.write(parts.get(i));
+            }
+            os.write(DOCTORS_CLOSE);
+        }
+    }
 
+    private void sendDoctor(HttpExchange exchange, Doctor doctor) throws IOException {
+        DoctorJson cached = doctorJson(doctor);
+        if (notModified(exchange, etagPrefix + cached.version + "\"")) {
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, cached.json.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(cached.json);
+        }
+    }
+
+    /**
+     * The doctor's JSON body, rebuilt under its lock only when it changed since last time
+     */
+    DoctorJson doctorJson(Doctor doctor) {
+        DoctorJson cached = jsonCache.get(doctor);
+        if (cached != null && cached.version == doctor.getVersion()) {
+            return cached;
+        }
+        JsonWriter w = JsonWriter.acquire();
         try {
-            if (path.equals("/tokens") && "POST".equals(method)) {
-                Map<String, String> body = parseJsonBody(exchange);
-                String doctor = body.get("doctor");
-                int slot = Integer.parseInt(body.getOrDefault("slot", "0"));
-                String patient = body.get("patient");
-                String type = body.getOrDefault("type", "ONLINE");
-                
-                Token token = manager.bookToken(doctor, slot, patient, TokenType.valueOf(type));
-                if (token != null) {
-                    response = "{\"success\": true, \"tokenId\": \"" + token.getId() + "\", \"patient\": \"" + 
-                        token.getPatientName() + "\", \"type\": \"" + token.getType() + "\"}";
-                } else {
-                    statusCode = 400;
-                    response = "{\"error\": \"Failed to book token\"}";
-                }
-            } else if (path.matches("/tokens/T\\d+/noshow")) {
-                String tokenId = path.split("/")[2];
-                String doctorName = getQueryParam(query, "doctor");
-                if ("PUT".equals(method)) {
-                    boolean success = manager.markNoShow(doctorName, tokenId);
-                    response = "{\"success\": " + success + "}";
-                }
-            } else if (path.matches("/tokens/T\\d+")) {
-                String tokenId = path.split("/")[2];
-                String doctorName = getQueryParam(query, "doctor");
-                if ("DELETE".equals(method)) {
-                    boolean success = manager.cancelToken(doctorName, tokenId);
-                    response = "{\"success\": " + success + "}";
-                }
+            long version;
+            synchronized (doctor) {
+                version = doctor.getVersion();
+                writeDoctor(w, doctor);
             }
-        } catch (Exception e) {
-            statusCode = 500;
-            response = "{\"error\": \"" + e.getMessage() + "\"}";
+            DoctorJson fresh = new DoctorJson(version, w.toByteArray());
+            // a slower rebuild of an older version must not replace a newer one
+            return jsonCache.merge(doctor, fresh, (old, built) -> built.version >= old.version ? built : old);
+        } finally {
+            JsonWriter.release(w);
         }
+    }
 
-        sendResponse(exchange, statusCode, response);
+    /**
+     * Set the ETag; answer 304 (no body) when the client already has it
+     */
+    private boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null || !matchesEtag(ifNoneMatch, etag)) {
+            return false;
+        }
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
     }
 
-    private String getAllDoctorsJson() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"doctors\": [");
-        boolean first = true;
-        for (Doctor doctor : getDoctors()) {
-            if (!first) sb.append(",");
-            sb.append(getDoctorJson(doctor));
-            first = false;
+    /**
+     * If-None-Match holds "*" or a comma-separated list of ETags (W/ prefix ignored)
+     */
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
         }
-        sb.append("]}");
-        return sb.toString();
+        return false;
     }
 
-    private String getDoctorJson(Doctor doctor) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"name\": \"").append(doctor.getName()).append("\", \"slots\": [");
+    /**
+     * One doctor, iterating the live slots (caller holds the doctor lock)
+     */
+    static void writeDoctor(JsonWriter w, Doctor doctor) {
+        w.ascii("{\"name\": ").string(doctor.getName()).ascii(", \"slots\": [");
         List<Slot> slots = doctor.getSlots();
         for (int i = 0; i < slots.size(); i++) {
-            if (i > 0) sb.append(",");
+            if (i > 0) w.ascii(",");
             Slot slot = slots.get(i);
-            sb.append("{\"time\": \"").append(slot.getTimeRange())
-              .append("\", \"capacity\": ").append(slot.getCapacity())
-              .append(", \"current\": ").append(slot.getCurrentCount())
-              .append(", \"tokens\": [");
-            List<Token> tokens = slot.getTokens();
-            for (int j = 0; j < tokens.size(); j++) {
-                if (j > 0) sb.append(",");
-                Token t = tokens.get(j);
-                sb.append("{\"id\": \"").append(t.getId())
-                  .append("\", \"patient\": \"").append(t.getPatientName())
-                  .append("\", \"type\": \"").append(t.getType()).append("\"}");
-            }
-            sb.append("]}");
-        }
-        sb.append("], \"waitingList\": ").append(doctor.getWaitingList().size()).append("}");
-        return sb.toString();
+            w.ascii("{\"time\": ").string(slot.getTimeRange())
+              .ascii(", \"capacity\": ").number(slot.getCapacity())
+              .ascii(", \"current\": ").number(slot.getCurrentCount())
+              .ascii(", \"tokens\": [");
+            boolean first = true;
+            for (Token t : slot) {
+                if (!first) w.ascii(",");
+                w.ascii("{\"id\": ").string(t.getId())
+                  .ascii(", \"patient\": ").string(t.getPatientName())
+                  .ascii(", \"type\": \"").ascii(t.getType().name()).ascii("\"}");
+                first = false;
+            }
+            w.ascii("]}");
+        }
+        w.ascii("], \"waitingList\": ").number(doctor.getWaitingList().size());
+        int[] waiting = new int[TYPES.length];
+        for (TokenType type : TYPES) {
+            waiting[type.ordinal()] = doctor.getWaitingList().size(type);
+        }
+        writeWaitingByType(w, waiting);
+        w.ascii("}");
     }
 
-    private Collection<Doctor> getDoctors() {
-        return manager.getAllDoctors();
+    /**
+     * "waitingByType": {"EMERGENCY": 0, ...} in priority order
+     */
+    private static void writeWaitingByType(JsonWriter w, int[] waiting) {
+        w.ascii(", \"waitingByType\": {");
+        for (TokenType type : TYPES) {
+            if (type.ordinal() > 0) w.ascii(", ");
+            w.ascii("\"").ascii(type.name()).ascii("\": ").number(waiting[type.ordinal()]);
+        }
+        w.ascii("}");
     }
 
-    private Map<String, String> parseJsonBody(HttpExchange exchange) throws IOException {
-        Map<String, String> result = new HashMap<>();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody()));
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            body.append(line);
+    /**
+     * GET /doctors (name == null) or GET /doctors/{name} straight from the mapped file
+     */
+    private void sendMappedDoctors(HttpExchange exchange, String name) throws IOException {
+        MappedDaySnapshot mapped = readOnlySnapshot;
+        if (mapped == null) {  // recovery finished meanwhile
+            if (name == null) {
+                sendAllDoctors(exchange);
+            } else {
+                getDoctor(exchange, router.route("GET", "/doctors/" + name));
+            }
+            return;
+        }
+        JsonWriter w = JsonWriter.acquire();
+        try {
+            if (name == null) {
+                w.ascii("{\"doctors\": [");
+                for (int d = 0; d < mapped.getDoctorCount(); d++) {
+                    if (d > 0) w.ascii(",");
+                    writeMappedDoctor(w, mapped, d);
+                }
+                w.ascii("]}");
+            } else {
+                int d = mapped.findDoctor(name);
+                if (d < 0) {
+                    sendError(exchange, 404, "Doctor not found");
+                    return;
+                }
+                writeMappedDoctor(w, mapped, d);
+            }
+            sendJson(exchange, 200, w);
+        } finally {
+            JsonWriter.release(w);
+        }
+    }
+
+    private void writeMappedDoctor(JsonWriter w, MappedDaySnapshot mapped, int d) {
+        w.ascii("{\"name\": ").string(mapped.getDoctorName(d)).ascii(", \"slots\": [");
+        for (int i = 0; i < mapped.getSlotCount(d); i++) {
+            if (i > 0) w.ascii(",");
+            int s = mapped.getSlot(d, i);
+            w.ascii("{\"time\": ").openString().chars(mapped.getSlotStartTime(s)).ascii(" - ")
+              .chars(mapped.getSlotEndTime(s)).closeString()
+              .ascii(", \"capacity\": ").number(mapped.getSlotCapacity(s))
+              .ascii(", \"current\": ").number(mapped.getSlotTokenCount(s))
+              .ascii(", \"tokens\": [");
+            for (int j = 0; j < mapped.getSlotTokenCount(s); j++) {
+                if (j > 0) w.ascii(",");
+                int t = mapped.getSlotToken(s, j);
+                w.ascii("{\"id\": ").string(mapped.getTokenId(t))
+                  .ascii(", \"patient\": ").string(mapped.getTokenPatient(t))
+                  .ascii(", \"type\": \"").ascii(mapped.getTokenType(t).name()).ascii("\"}");
+            }
+            w.ascii("]}");
         }
-        // Simple JSON parsing (no external libraries)
-        String json = body.toString().replaceAll("[{}\"]", "");
-        for (String pair : json.split(",")) {
-            String[] kv = pair.split(":");
-            if (kv.length == 2) {
-                result.put(kv[0].trim(), kv[1].trim());
+        w.ascii("], \"waitingList\": ").number(mapped.getWaitingCount(d));
+        int[] waiting = new int[TYPES.length];
+        for (int i = 0; i < mapped.getWaitingCount(d); i++) {
+            waiting[mapped.getTokenType(mapped.getWaitingToken(d, i)).ordinal()]++;
+        }
+        writeWaitingByType(w, waiting);
+        w.ascii("}");
+    }
+
+    private String getTokenLocationJson(TokenLocation location) {
+        Token t = location.getToken();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"id\": ").append(JsonWriter.quote(t.getId()))
+          .append(", \"patient\": ").append(JsonWriter.quote(t.getPatientName()))
+          .append(", \"type\": \"").append(t.getType())
+          .append("\", \"doctor\": ").append(JsonWriter.quote(location.getDoctor().getName()));
+        synchronized (location.getDoctor()) {
+            if (location.isInWaitingList()) {
+                sb.append(", \"waitingList\": true}");
+            } else {
+                sb.append(", \"slot\": ").append(location.getSlotIndex())
+                  .append(", \"time\": ").append(JsonWriter.quote(location.getSlot().getTimeRange())).append("}");
             }
         }
-        return result;
+        return sb.toString();
+    }
+
+    private Collection<Doctor> getDoctors() {
+        return manager.getAllDoctors();
     }
 
     private String getQueryParam(String query, String param) {
@@ -234,11 +931,66 @@ public class ApiServer {
         return null;
     }
 
+    /**
+     * GET /metrics in the Prometheus text format
+     */
+    private void sendMetrics(HttpExchange exchange) throws IOException {
+        StringBuilder out = new StringBuilder(4096);
+        manager.getMetrics().writePrometheus(out, manager);
+        byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
     private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
         exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
         OutputStream os = exchange.getResponseBody();
-        os.write(response.getBytes());
+        os.write(bytes);
         os.close();
     }
+
+    /**
+     * Wait for a pipelined command; a failure is rethrown as it was (500 in serve)
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+        sendResponse(exchange, statusCode, "{\"error\": " + JsonWriter.quote(message) + "}");
+    }
+
+    /**
+     * Report a failure unless the response has already started (then just drop the connection)
+     */
+    private void sendErrorIfPossible(HttpExchange exchange, int statusCode, String message) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendError(exchange, statusCode, message);
+        } else {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send what is in the writer with a Content-Length
+     */
+    private void sendJson(HttpExchange exchange, int statusCode, JsonWriter w) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, w.size());
+        try (OutputStream os = exchange.getResponseBody()) {
+            w.writeTo(os);
+        }
+    }
 }
@@ -0,0 +1,213 @@
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hands events to a ConsoleBookingListener running on its own thread
+ *
+ * Booking threads only claim a place in a fixed ring buffer and store a small
+ * event there; the printer thread does the formatting and the console I/O.
+ * Slot and doctor dumps are copied first, since the live ones keep changing.
+ * When the ring is full (printer can't keep up) events are dropped and counted
+ * instead of slowing bookings down.
+ */
+public class AsyncBookingListener implements BookingListener, Closeable {
+    private final ConsoleBookingListener console;
+    private final AtomicReferenceArray<Consumer<ConsoleBookingListener>> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();  // next sequence to hand out
+    private volatile long printed;                        // next sequence to print
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread printer;
+
+    public AsyncBookingListener(ConsoleBookingListener console) {
+        this(console, 16 * 1024);
+    }
+
+    /**
+     * capacity is rounded up to a power of two
+     */
+    public AsyncBookingListener(ConsoleBookingListener console, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.console = console;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.printer = new Thread(this::printLoop, "booking-events");
+        printer.setDaemon(true);
+        printer.start();
+    }
+
+    /**
+     * Events thrown away because the ring was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Print what is queued and stop the printer thread
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(printer);
+        try {
+            printer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(Consumer<ConsoleBookingListener> event) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (closed || seq - printed >= ring.length()) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        ring.set((int) seq & mask, event);
+        if (sleeping) {
+            LockSupport.unpark(printer);
+        }
+    }
+
+    private void printLoop() {
+        long next = 0;
+        while (true) {
+            int index = (int) next & mask;
+            Consumer<ConsoleBookingListener> event = ring.get(index);
+            if (event == null) {
+                if (closed && next == claimed.get()) return;
+                sleeping = true;
+                if (ring.get(index) == null && !closed) {
+                    LockSupport.parkNanos(10_000_000);
+                }
+                sleeping = false;
+                continue;
+            }
+            ring.set(index, null);
+            printed = ++next;
+            try {
+                event.accept(console);
+            } catch (RuntimeException e) {
+                // a broken event must not stop the printer
+            }
+        }
+    }
+
+    @Override
+    public void bookingStarted(String doctorName, String patientName, TokenType type) {
+        publish(c -> c.bookingStarted(doctorName, patientName, type));
+    }
+
+    @Override
+    public void cancelStarted(String tokenId) {
+        publish(c -> c.cancelStarted(tokenId));
+    }
+
+    @Override
+    public void delayStarted(String doctorName, int slotIndex) {
+        publish(c -> c.delayStarted(doctorName, slotIndex));
+    }
+
+    @Override
+    public void noShowStarted(String tokenId) {
+        publish(c -> c.noShowStarted(tokenId));
+    }
+
+    @Override
+    public void doctorNotFound(String doctorName) {
+        publish(c -> c.doctorNotFound(doctorName));
+    }
+
+    @Override
+    public void invalidSlot(int slotIndex) {
+        publish(c -> c.invalidSlot(slotIndex));
+    }
+
+    @Override
+    public void tokenNotFound(String tokenId) {
+        publish(c -> c.tokenNotFound(tokenId));
+    }
+
+    @Override
+    public void tokenCreated(Token token) {
+        publish(c -> c.tokenCreated(token));
+    }
+
+    @Override
+    public void allocated(Token token, Slot slot) {
+        publish(c -> c.allocated(token, slot));
+    }
+
+    @Override
+    public void slotFull(Slot slot, int count) {
+        publish(c -> c.slotFull(slot, count));
+    }
+
+    @Override
+    public void bumped(Token token) {
+        publish(c -> c.bumped(token));
+    }
+
+    @Override
+    public void movedToNextSlot(Token token) {
+        publish(c -> c.movedToNextSlot(token));
+    }
+
+    @Override
+    public void waitingListed(Token token) {
+        publish(c -> c.waitingListed(token));
+    }
+
+    @Override
+    public void cancelled(Token token, Slot slot) {
+        publish(c -> c.cancelled(token, slot));
+    }
+
+    @Override
+    public void removedFromWaitingList(String tokenId) {
+        publish(c -> c.removedFromWaitingList(tokenId));
+    }
+
+    @Override
+    public void noShow(Token token, Slot slot) {
+        publish(c -> c.noShow(token, slot));
+    }
+
+    @Override
+    public void filledFromWaitingList(Token token, Slot slot) {
+        publish(c -> c.filledFromWaitingList(token, slot));
+    }
+
+    @Override
+    public void slotDelaying(String doctorName, Slot slot) {
+        publish(c -> c.slotDelaying(doctorName, slot));
+    }
+
+    @Override
+    public void movingToken(Token token) {
+        publish(c -> c.movingToken(token));
+    }
+
+    @Override
+    public void delayCompleted(Doctor doctor) {
+        Doctor copy = doctor.copy();
+        publish(c -> c.delayCompleted(copy));
+    }
+
+    @Override
+    public void slotStatus(Doctor doctor, Slot slot) {
+        String name = doctor.getName();
+        Slot copy = slot.copy();
+        int waiting = doctor.getWaitingList().size();
+        publish(c -> c.printSlotStatus(name, copy, waiting));
+    }
+}
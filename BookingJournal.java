@@ -0,0 +1,500 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary write-ahead log of every TokenManager change
+ *
+ * Record layout: [int length][long lsn][byte op][fields...][int crc32]
+ * where length covers lsn..fields and the CRC is over the same bytes.
+ * A torn record at the end of a segment (crash mid-write) fails the length
+ * or CRC check and is cut off on recovery.
+ *
+ * Group commit: callers append into an in-memory buffer and get an LSN back;
+ * one flusher thread writes whatever piled up while the previous fsync was
+ * running and fsyncs it in one go, then wakes everyone waiting on those LSNs.
+ *
+ * The log is split into segments (journal-<first lsn>.log). Persistence starts
+ * a new segment before each snapshot and deletes the old ones afterwards.
+ */
+public class BookingJournal implements Closeable {
+    public enum SyncMode {
+        GROUP_COMMIT,  // fsync batches of records, callers wait for their batch
+        EVERY_RECORD,  // fsync each record on its own (slow, for comparison)
+        NONE           // leave it to the OS page cache, callers never wait
+    }
+
+    static final byte ADD_DOCTOR = 1;
+    static final byte ADD_SLOT = 2;
+    static final byte BOOK = 3;
+    static final byte CANCEL = 4;
+    static final byte NO_SHOW = 5;
+    static final byte DELAY = 6;
+    static final byte REBALANCE = 7;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path dir;
+    private final SyncMode mode;
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private Path segment;
+    private byte[] pending = new byte[64 * 1024];
+    private byte[] spare = new byte[64 * 1024];
+    private int pendingSize;
+    private long lastLsn;
+    private long durableLsn;
+    private long records;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Open a new segment after the given LSN (the last one seen during recovery)
+     */
+    public BookingJournal(Path dir, SyncMode mode, long lastLsn) throws IOException {
+        this.dir = dir;
+        this.mode = mode;
+        this.lastLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        Files.createDirectories(dir);
+        openSegment();
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public long logAddDoctor(String doctor) {
+        synchronized (lock) {
+            int start = begin(ADD_DOCTOR);
+            putString(doctor);
+            return end(start);
+        }
+    }
+
+    public long logAddSlot(String doctor, String startTime, String endTime, int capacity) {
+        synchronized (lock) {
+            int start = begin(ADD_SLOT);
+            putString(doctor);
+            putString(startTime);
+            putString(endTime);
+            putInt(capacity);
+            return end(start);
+        }
+    }
+
+    public long logBook(String doctor, int slotIndex, Token token) {
+        synchronized (lock) {
+            int start = begin(BOOK);
+            putString(doctor);
+            putInt(slotIndex);
+            putString(token.getId());
+            putString(token.getPatientName());
+            putByte((byte) token.getType().ordinal());
+            putLong(token.getCreatedAtNanos());
+            return end(start);
+        }
+    }
+
+    public long logCancel(String doctor, String tokenId) {
+        synchronized (lock) {
+            int start = begin(CANCEL);
+            putString(doctor);
+            putString(tokenId);
+            return end(start);
+        }
+    }
+
+    public long logNoShow(String doctor, String tokenId) {
+        synchronized (lock) {
+            int start = begin(NO_SHOW);
+            putString(doctor);
+            putString(tokenId);
+            return end(start);
+        }
+    }
+
+    public long logDelay(String doctor, int slotIndex) {
+        synchronized (lock) {
+            int start = begin(DELAY);
+            putString(doctor);
+            putInt(slotIndex);
+            return end(start);
+        }
+    }
+
+    public long logRebalance(String doctor) {
+        synchronized (lock) {
+            int start = begin(REBALANCE);
+            putString(doctor);
+            return end(start);
+        }
+    }
+
+    /**
+     * Block until the record with this LSN is on disk
+     */
+    public void awaitDurable(long lsn) {
+        if (mode == SyncMode.NONE) return;
+        synchronized (lock) {
+            while (durableLsn < lsn && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for journal");
+                }
+            }
+            if (failure != null && durableLsn < lsn) {
+                throw new UncheckedIOException("Journal write failed", failure);
+            }
+        }
+    }
+
+    public long getLastLsn() {
+        synchronized (lock) {
+            return lastLsn;
+        }
+    }
+
+    /**
+     * Records appended since this journal was opened
+     */
+    public long getRecordCount() {
+        synchronized (lock) {
+            return records;
+        }
+    }
+
+    /**
+     * Finish the current segment and start a new one; returns the old segment.
+     * Everything appended so far is on disk when this returns.
+     */
+    public Path rotate() throws IOException {
+        synchronized (lock) {
+            drain();
+            Path old = segment;
+            channel.close();
+            openSegment();
+            return old;
+        }
+    }
+
+    /**
+     * Delete segments older than the current one (they are covered by a snapshot)
+     */
+    public void deleteOldSegments() throws IOException {
+        Path current;
+        synchronized (lock) {
+            current = segment;
+        }
+        for (Path p : listSegments(dir)) {
+            if (p.getFileName().toString().compareTo(current.getFileName().toString()) < 0) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            drain();
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Writing
+    // ═══════════════════════════════════════════════════════════
+
+    private void openSegment() throws IOException {
+        segment = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, lastLsn + 1, SEGMENT_SUFFIX));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Wait (holding the lock between checks) until the flusher has written everything
+     */
+    private void drain() throws IOException {
+        if (mode == SyncMode.EVERY_RECORD) return;
+        while ((pendingSize > 0 || durableLsn < lastLsn) && failure == null) {
+            lock.notifyAll();
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while draining journal");
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private int begin(byte op) {
+        if (closed) throw new IllegalStateException("Journal is closed");
+        int start = pendingSize;
+        putInt(0);  // length, filled in by end()
+        putLong(++lastLsn);
+        putByte(op);
+        return start;
+    }
+
+    private long end(int start) {
+        int length = pendingSize - start - 4;
+        writeInt(pending, start, length);
+        crc.reset();
+        crc.update(pending, start + 4, length);
+        putInt((int) crc.getValue());
+        records++;
+
+        if (mode == SyncMode.EVERY_RECORD) {
+            try {
+                channel.write(ByteBuffer.wrap(pending, 0, pendingSize));
+                channel.force(false);
+                durableLsn = lastLsn;
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Journal write failed", e);
+            } finally {
+                pendingSize = 0;
+            }
+        } else {
+            lock.notifyAll();
+        }
+        return lastLsn;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            int size;
+            long batchLsn;
+            synchronized (lock) {
+                while (pendingSize == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pendingSize == 0) return;
+                batch = pending;
+                size = pendingSize;
+                batchLsn = lastLsn;
+                pending = spare;
+                pendingSize = 0;
+            }
+
+            IOException error = null;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch, 0, size);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (mode == SyncMode.GROUP_COMMIT) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+
+            synchronized (lock) {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durableLsn = batchLsn;
+                }
+                spare = batch;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (pendingSize + bytes > pending.length) {
+            byte[] bigger = new byte[Math.max(pending.length * 2, pendingSize + bytes)];
+            System.arraycopy(pending, 0, bigger, 0, pendingSize);
+            pending = bigger;
+        }
+    }
+
+    private void putByte(byte b) {
+        ensure(1);
+        pending[pendingSize++] = b;
+    }
+
+    private void putInt(int v) {
+        ensure(4);
+        writeInt(pending, pendingSize, v);
+        pendingSize += 4;
+    }
+
+    private void putLong(long v) {
+        putInt((int) (v >>> 32));
+        putInt((int) v);
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, pending, pendingSize, bytes.length);
+        pendingSize += bytes.length;
+    }
+
+    private static void writeInt(byte[] buf, int pos, int v) {
+        buf[pos] = (byte) (v >>> 24);
+        buf[pos + 1] = (byte) (v >>> 16);
+        buf[pos + 2] = (byte) (v >>> 8);
+        buf[pos + 3] = (byte) v;
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Reading (recovery)
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * One decoded journal record; fields not used by the op are left empty
+     */
+    public static class Record {
+        public long lsn;
+        public byte op;
+        public String doctor;
+        public int slotIndex;
+        public String tokenId;
+        public String patient;
+        public TokenType type;
+        public long createdAtNanos;
+        public String startTime;
+        public String endTime;
+        public int capacity;
+    }
+
+    public interface RecordHandler {
+        void apply(Record record);
+    }
+
+    /**
+     * Read every valid record of every segment in LSN order. A torn tail is
+     * truncated away. Returns the last LSN found (0 for an empty journal).
+     */
+    public static long replay(Path dir, RecordHandler handler) throws IOException {
+        long last = 0;
+        if (!Files.isDirectory(dir)) return last;
+        Record record = new Record();
+        CRC32 check = new CRC32();
+        for (Path p : listSegments(dir)) {
+            long valid = 0;
+            try (InputStream raw = Files.newInputStream(p);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 256 * 1024))) {
+                byte[] buf = new byte[256];
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length < 9 || length > 16 * 1024 * 1024) break;
+                    if (buf.length < length + 4) buf = new byte[length + 4];
+                    try {
+                        in.readFully(buf, 0, length + 4);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    check.reset();
+                    check.update(buf, 0, length);
+                    if ((int) check.getValue() != ByteBuffer.wrap(buf, length, 4).getInt()) break;
+
+                    decode(ByteBuffer.wrap(buf, 0, length), record);
+                    handler.apply(record);
+                    last = Math.max(last, record.lsn);
+                    valid += 4 + length + 4;
+                }
+            }
+            if (valid < Files.size(p)) {
+                try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE)) {
+                    ch.truncate(valid);
+                }
+            }
+        }
+        return last;
+    }
+
+    private static void decode(ByteBuffer in, Record r) {
+        r.lsn = in.getLong();
+        r.op = in.get();
+        r.doctor = getString(in);
+        switch (r.op) {
+            case ADD_SLOT:
+                r.startTime = getString(in);
+                r.endTime = getString(in);
+                r.capacity = in.getInt();
+                break;
+            case BOOK:
+                r.slotIndex = in.getInt();
+                r.tokenId = getString(in);
+                r.patient = getString(in);
+                r.type = TokenType.values()[in.get()];
+                r.createdAtNanos = in.getLong();
+                break;
+            case CANCEL:
+            case NO_SHOW:
+                r.tokenId = getString(in);
+                break;
+            case DELAY:
+                r.slotIndex = in.getInt();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : stream) {
+                segments.add(p);
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+}
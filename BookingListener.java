@@ -0,0 +1,69 @@
+/**
+ * Receives what TokenManager does, step by step (booking, bumps, cancels...)
+ *
+ * TokenManager itself prints nothing; Main plugs in a ConsoleBookingListener
+ * for the day narration, the API server a quiet or asynchronous one.
+ *
+ * Events are fired while the doctor's lock is held, so implementations must
+ * be quick. Tokens and a slot's time range never change and may be kept;
+ * a Doctor or a Slot's contents are only valid during the call.
+ * Every method does nothing by default.
+ */
+public interface BookingListener {
+    /**
+     * Listener that ignores everything
+     */
+    BookingListener NONE = new BookingListener() {};
+
+    // Start of each operation
+    default void bookingStarted(String doctorName, String patientName, TokenType type) {}
+
+    default void cancelStarted(String tokenId) {}
+
+    default void delayStarted(String doctorName, int slotIndex) {}
+
+    default void noShowStarted(String tokenId) {}
+
+    // Failures
+    default void doctorNotFound(String doctorName) {}
+
+    default void invalidSlot(int slotIndex) {}
+
+    default void tokenNotFound(String tokenId) {}
+
+    // Allocation and bumping
+    default void tokenCreated(Token token) {}
+
+    default void allocated(Token token, Slot slot) {}
+
+    /**
+     * The slot a token was aimed at is full (count = tokens in it right now)
+     */
+    default void slotFull(Slot slot, int count) {}
+
+    default void bumped(Token token) {}
+
+    default void movedToNextSlot(Token token) {}
+
+    default void waitingListed(Token token) {}
+
+    // Cancel, no-show, delay
+    default void cancelled(Token token, Slot slot) {}
+
+    default void removedFromWaitingList(String tokenId) {}
+
+    default void noShow(Token token, Slot slot) {}
+
+    default void filledFromWaitingList(Token token, Slot slot) {}
+
+    default void slotDelaying(String doctorName, Slot slot) {}
+
+    default void movingToken(Token token) {}
+
+    default void delayCompleted(Doctor doctor) {}
+
+    /**
+     * A slot changed; the console listener prints its tokens after each operation
+     */
+    default void slotStatus(Doctor doctor, Slot slot) {}
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.time.LocalTime;
+
+/**
+ * Body of POST /tokens: {"doctor": "...", "slot": 0, "patient": "...", "type": "ONLINE"}
+ * or {"doctor": "...", "time": "10:30 AM", ...} to book the slot running at that time
+ */
+public class BookingRequest {
+    private String doctor;
+    private int slot = 0;
+    private String patient;
+    private TokenType type = TokenType.ONLINE;
+    private LocalTime time;  // when given, picks the slot instead of "slot"
+
+    private BookingRequest() {
+    }
+
+    public BookingRequest(String doctor, int slot, String patient, TokenType type) {
+        this.doctor = doctor;
+        this.slot = slot;
+        this.patient = patient;
+        this.type = type;
+    }
+
+    /**
+     * Read one booking object; unknown fields are skipped
+     */
+    public static BookingRequest read(JsonReader reader) throws IOException {
+        BookingRequest request = new BookingRequest();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "doctor": request.doctor = reader.nextString(); break;
+                case "slot": request.slot = reader.nextInt(); break;
+                case "patient": request.patient = reader.nextString(); break;
+                case "type": request.type = parseType(reader.nextString()); break;
+                case "time": request.time = parseTime(reader.nextString()); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (request.doctor == null || request.patient == null) {
+            throw new JsonReader.MalformedJsonException("doctor and patient are required");
+        }
+        return request;
+    }
+
+    private static TokenType parseType(String value) throws JsonReader.MalformedJsonException {
+        if (value == null) return TokenType.ONLINE;
+        try {
+            return TokenType.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new JsonReader.MalformedJsonException("Unknown token type: " + value);
+        }
+    }
+
+    private static LocalTime parseTime(String value) throws JsonReader.MalformedJsonException {
+        int minute = Slot.parseMinuteOfDay(value);
+        if (minute == Slot.NO_TIME) {
+            throw new JsonReader.MalformedJsonException("Not a time: " + value);
+        }
+        return LocalTime.of(minute / 60, minute % 60);
+    }
+
+    public String getDoctor() {
+        return doctor;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public TokenType getType() {
+        return type;
+    }
+
+    /**
+     * Requested time of day, or null when the booking names a slot index
+     */
+    public LocalTime getTime() {
+        return time;
+    }
+}
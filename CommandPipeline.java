@@ -0,0 +1,526 @@
+import java.io.Closeable;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shard-per-doctor execution of every change to the day (optional)
+ *
+ * Doctors are split into shards by name; each shard has one engine thread
+ * and a fixed ring of pre-allocated Command objects. Request threads claim a
+ * sequence, fill in the command in place and publish it; the engine thread
+ * takes everything published since its last pass (up to maxBatch) and
+ * applies it to the TokenManager one command at a time, in publish order.
+ *
+ * While the pipeline runs, everything that changes a doctor goes through its
+ * shard: adding the doctor and its slots, book / cancel / no-show / delay,
+ * batches (split by shard and answered in request order) and rebalancing,
+ * including WaitingListCompactor's sweeps. Journal replay happens before the
+ * pipeline starts. The TokenManager calls still take the doctor locks - GETs,
+ * availability queries, snapshots and the event stream read under them - but
+ * only the shard's own thread ever takes them to write, so writers never
+ * contend with each other. It is not lock-free, and calling TokenManager
+ * directly at the same time is still safe, just not ordered with the shard.
+ *
+ * What it buys is the journal wait. Called directly, every request thread
+ * blocks in awaitDurable on the journal's monitor, and every append wakes
+ * all of them (a herd that grows with the request threads). Here the engine
+ * applies commands without waiting and hands the applied range to the
+ * shard's second thread, which waits once until everything journaled so far
+ * is on disk and only then completes those callers' futures - a change is
+ * never reported before it is durable. Meanwhile the engine goes on with the
+ * next batch, so applying and fsyncing overlap. Benchmark pipeline puts it
+ * ahead of direct calls with a group-commit journal and 64 or more request
+ * threads (about 1.2-1.4x on one core); with 16 it is within the noise.
+ * Without a journal the engine answers straight away, and the handoff costs
+ * more than the uncontended locks it avoids: direct calls are faster then.
+ *
+ * A full ring makes request threads wait for room (nothing is dropped).
+ */
+public class CommandPipeline implements Closeable {
+    public static final int DEFAULT_RING_SIZE = 4096;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private static final int BOOK = 1;
+    private static final int BOOK_AT = 2;
+    private static final int CANCEL = 3;
+    private static final int NO_SHOW = 4;
+    private static final int DELAY = 5;
+    private static final int ADD_DOCTOR = 6;
+    private static final int ADD_SLOT = 7;
+    private static final int REBALANCE = 8;
+    private static final int BATCH = 9;
+    private static final long CLOSED = Long.MIN_VALUE;  // claimed once an engine has stopped
+
+    private final TokenManager manager;
+    private final Shard[] shards;
+    private final int maxBatch;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * One command in the ring, overwritten each time its place comes round again
+     */
+    private static final class Command {
+        int kind;
+        String doctor;
+        int slotIndex;
+        LocalTime time;
+        String patient;
+        TokenType type;
+        String tokenId;
+        String startTime;
+        String endTime;
+        int capacity;
+        List<BookingRequest> bookings;
+        long publishedNanos;
+        CompletableFuture<Object> future;
+        Object result;
+
+        void clear() {
+            doctor = null;
+            time = null;
+            patient = null;
+            type = null;
+            tokenId = null;
+            startTime = null;
+            endTime = null;
+            bookings = null;
+            future = null;
+            result = null;
+        }
+    }
+
+    /**
+     * A ring and the engine thread draining it
+     */
+    private final class Shard {
+        final Command[] ring;
+        final int mask;
+        final AtomicLongArray published;  // sequence last published into each place
+        final AtomicLong claimed = new AtomicLong();  // next sequence to hand out, or CLOSED
+        volatile long applied;   // commands before this sequence have been applied
+        volatile long consumed;  // ... and answered: their places can be reused
+        volatile boolean sleeping;
+        volatile boolean answererSleeping;
+        volatile boolean engineDone;
+        final Thread engine;
+        final Thread answerer;
+
+        Shard(int ringSize, int index) {
+            int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+            ring = new Command[size];
+            published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                ring[i] = new Command();
+                published.set(i, -1);
+            }
+            mask = size - 1;
+            engine = new Thread(this::drainLoop, "engine-" + index);
+            engine.setDaemon(true);
+            answerer = new Thread(this::answerLoop, "engine-" + index + "-durable");
+            answerer.setDaemon(true);
+        }
+
+        /**
+         * Claim the next place (waiting while the ring is full), or CLOSED
+         */
+        long claim() {
+            while (true) {
+                long seq = claimed.get();
+                if (seq == CLOSED) {
+                    return CLOSED;
+                }
+                if (seq - consumed >= ring.length) {
+                    LockSupport.parkNanos(1_000);
+                } else if (claimed.compareAndSet(seq, seq + 1)) {
+                    return seq;
+                }
+            }
+        }
+
+        void publish(long seq) {
+            published.set((int) seq & mask, seq);
+            if (sleeping) {
+                LockSupport.unpark(engine);
+            }
+        }
+
+        private void drainLoop() {
+            long next = 0;
+            while (true) {
+                int n = 0;
+                while (n < maxBatch && published.get((int) (next + n) & mask) == next + n) {
+                    n++;
+                }
+                if (n == 0) {
+                    // everything claimed is applied: stop, and let no one claim again
+                    if (closed && claimed.compareAndSet(next, CLOSED)) {
+                        engineDone = true;
+                        LockSupport.unpark(answerer);
+                        return;
+                    }
+                    sleeping = true;
+                    if (published.get((int) next & mask) != next && !closed) {
+                        LockSupport.parkNanos(10_000_000);
+                    }
+                    sleeping = false;
+                    continue;
+                }
+                applyBatch(this, next, n);
+                next += n;
+                if (manager.getJournal() != null) {
+                    applied = next;
+                    if (answererSleeping) {
+                        LockSupport.unpark(answerer);
+                    }
+                } else {
+                    while (consumed != applied) {
+                        LockSupport.parkNanos(100_000);  // journaled commands still being answered
+                    }
+                    answer(this, applied, next, null);
+                    consumed = next;
+                    applied = next;
+                }
+            }
+        }
+
+        /**
+         * Wait for the journal to cover what was applied, then answer it
+         */
+        private void answerLoop() {
+            while (true) {
+                long from = consumed;
+                long upto = applied;
+                if (from < upto) {
+                    RuntimeException failure = null;
+                    BookingJournal journal = manager.getJournal();
+                    if (journal != null) {
+                        try {
+                            journal.awaitDurable(journal.getLastLsn());
+                        } catch (RuntimeException e) {
+                            failure = e;
+                        }
+                    }
+                    answer(this, from, upto, failure);
+                    consumed = upto;
+                    continue;
+                }
+                if (engineDone && consumed == applied) return;
+                answererSleeping = true;
+                if (applied == consumed && !engineDone) {
+                    LockSupport.parkNanos(10_000_000);
+                }
+                answererSleeping = false;
+            }
+        }
+    }
+
+    public CommandPipeline(TokenManager manager, int shardCount) {
+        this(manager, shardCount, DEFAULT_RING_SIZE, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * ringSize (per shard) is rounded up to a power of two
+     */
+    public CommandPipeline(TokenManager manager, int shardCount, int ringSize, int maxBatch) {
+        this.manager = manager;
+        this.maxBatch = maxBatch;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(ringSize, i);
+        }
+        for (Shard shard : shards) {
+            shard.engine.start();
+            shard.answerer.start();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Batches applied so far (commands / batches = average batch size)
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getCommandCount() {
+        return commands.sum();
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Commands (callable from any thread)
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * TokenManager.bookToken on the doctor's engine thread
+     */
+    public CompletableFuture<Token> bookToken(String doctorName, int slotIndex, String patientName, TokenType type) {
+        return submit(BOOK, doctorName, slotIndex, null, patientName, type, null);
+    }
+
+    /**
+     * TokenManager.bookTokenAt on the doctor's engine thread
+     */
+    public CompletableFuture<Token> bookTokenAt(String doctorName, LocalTime time, String patientName, TokenType type) {
+        return submit(BOOK_AT, doctorName, 0, time, patientName, type, null);
+    }
+
+    /**
+     * TokenManager.cancelToken; doctorName is optional, as there
+     */
+    public CompletableFuture<Boolean> cancelToken(String doctorName, String tokenId) {
+        return submit(CANCEL, doctorName, 0, null, null, null, tokenId);
+    }
+
+    public CompletableFuture<Boolean> markNoShow(String doctorName, String tokenId) {
+        return submit(NO_SHOW, doctorName, 0, null, null, null, tokenId);
+    }
+
+    /**
+     * TokenManager.delaySlot; completes with false when there is no such doctor or slot
+     */
+    public CompletableFuture<Boolean> delaySlot(String doctorName, int slotIndex) {
+        return submit(DELAY, doctorName, slotIndex, null, null, null, null);
+    }
+
+    /**
+     * TokenManager.addDoctor; completes with null when the name is taken
+     */
+    public CompletableFuture<Doctor> addDoctor(String doctorName) {
+        return submit(ADD_DOCTOR, doctorName, 0, null, null, null, null);
+    }
+
+    /**
+     * TokenManager.addSlot; completes with false when there is no such doctor
+     */
+    public CompletableFuture<Boolean> addSlot(String doctorName, String startTime, String endTime, int capacity) {
+        Shard shard = shardFor(doctorName, null);
+        long seq = shard.claim();
+        if (seq == CLOSED) {
+            return closedFuture();
+        }
+        Command command = shard.ring[(int) seq & shard.mask];
+        command.startTime = startTime;
+        command.endTime = endTime;
+        command.capacity = capacity;
+        return publish(shard, seq, command, ADD_SLOT, doctorName, 0, null, null, null, null);
+    }
+
+    /**
+     * TokenManager.rebalance; completes with -1 when there is no such doctor
+     */
+    public CompletableFuture<Integer> rebalance(String doctorName) {
+        return submit(REBALANCE, doctorName, 0, null, null, null, null);
+    }
+
+    /**
+     * TokenManager.rebalancePending, each marked doctor swept on its own
+     * shard; completes with the seats filled once every sweep has
+     */
+    public CompletableFuture<Integer> rebalancePending() {
+        List<CompletableFuture<Integer>> sweeps = new ArrayList<>();
+        for (Doctor doctor : manager.takeUnbalanced()) {
+            sweeps.add(rebalance(doctor.getName()));
+        }
+        return CompletableFuture.allOf(sweeps.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            int filled = 0;
+            for (CompletableFuture<Integer> sweep : sweeps) {
+                filled += Math.max(0, sweep.join());
+            }
+            return filled;
+        });
+    }
+
+    /**
+     * TokenManager.bookTokens: the requests are split by shard, each part
+     * booked as one batch on its engine thread, and the tokens put back in
+     * request order (null where the doctor or slot does not exist)
+     */
+    public CompletableFuture<List<Token>> bookTokens(List<BookingRequest> requests) {
+        Map<Shard, List<Integer>> byShard = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            byShard.computeIfAbsent(shardFor(requests.get(i).getDoctor(), null), s -> new ArrayList<>()).add(i);
+        }
+        List<CompletableFuture<List<Token>>> parts = new ArrayList<>();
+        for (Map.Entry<Shard, List<Integer>> entry : byShard.entrySet()) {
+            List<BookingRequest> part = new ArrayList<>(entry.getValue().size());
+            for (int i : entry.getValue()) {
+                part.add(requests.get(i));
+            }
+            Shard shard = entry.getKey();
+            long seq = shard.claim();
+            if (seq == CLOSED) {
+                parts.add(closedFuture());
+                continue;
+            }
+            Command command = shard.ring[(int) seq & shard.mask];
+            command.bookings = part;
+            parts.add(publish(shard, seq, command, BATCH, null, 0, null, null, null, null));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Token[] booked = new Token[requests.size()];
+            int p = 0;
+            for (List<Integer> indexes : byShard.values()) {
+                List<Token> tokens = parts.get(p++).join();
+                for (int i = 0; i < indexes.size(); i++) {
+                    booked[indexes.get(i)] = tokens.get(i);
+                }
+            }
+            return Arrays.asList(booked);
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(int kind, String doctorName, int slotIndex, LocalTime time,
+            String patientName, TokenType type, String tokenId) {
+        Shard shard = shardFor(doctorName, tokenId);
+        long seq = shard.claim();
+        if (seq == CLOSED) {
+            return closedFuture();
+        }
+        Command command = shard.ring[(int) seq & shard.mask];
+        return publish(shard, seq, command, kind, doctorName, slotIndex, time, patientName, type, tokenId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> publish(Shard shard, long seq, Command command, int kind,
+            String doctorName, int slotIndex, LocalTime time, String patientName, TokenType type, String tokenId) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        command.kind = kind;
+        command.doctor = doctorName;
+        command.slotIndex = slotIndex;
+        command.time = time;
+        command.patient = patientName;
+        command.type = type;
+        command.tokenId = tokenId;
+        command.future = future;
+        command.publishedNanos = System.nanoTime();
+        shard.publish(seq);
+        return (CompletableFuture<T>) (CompletableFuture<?>) future;
+    }
+
+    private static <T> CompletableFuture<T> closedFuture() {
+        return CompletableFuture.failedFuture(new IllegalStateException("Command pipeline closed"));
+    }
+
+    /**
+     * The doctor's shard; a token given by id alone goes to the shard of the
+     * doctor holding it (or anywhere when nobody does - it fails there)
+     */
+    private Shard shardFor(String doctorName, String tokenId) {
+        String key = doctorName;
+        if (key == null) {
+            TokenLocation location = manager.findToken(tokenId);
+            key = location != null ? location.getDoctor().getName() : tokenId;
+        }
+        return shards[Math.floorMod(key.hashCode(), shards.length)];
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Engine threads
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Apply n commands from seq on (the result, or what was thrown, stays in the command)
+     */
+    private void applyBatch(Shard shard, long seq, int n) {
+        for (int i = 0; i < n; i++) {
+            Command command = shard.ring[(int) (seq + i) & shard.mask];
+            try {
+                command.result = apply(command);
+            } catch (RuntimeException e) {
+                command.result = e;
+            }
+        }
+        batches.increment();
+        commands.add(n);
+    }
+
+    /**
+     * Complete the futures of the applied commands from..upto (all failed when
+     * the journal could not be written)
+     */
+    private void answer(Shard shard, long from, long upto, RuntimeException journalFailure) {
+        long now = System.nanoTime();
+        Metrics metrics = manager.getMetrics();
+        for (long seq = from; seq < upto; seq++) {
+            Command command = shard.ring[(int) seq & shard.mask];
+            CompletableFuture<Object> future = command.future;
+            Object result = command.result;
+            command.clear();
+            if (journalFailure != null) {
+                future.completeExceptionally(journalFailure);
+            } else if (result instanceof RuntimeException) {
+                future.completeExceptionally((RuntimeException) result);
+            } else {
+                recordSuccess(metrics, command.kind, result, now - command.publishedNanos);
+                future.complete(result);
+            }
+        }
+    }
+
+    private Object apply(Command c) {
+        switch (c.kind) {
+            case BOOK: return manager.bookToken(c.doctor, c.slotIndex, c.patient, c.type, false);
+            case BOOK_AT: return manager.bookTokenAt(c.doctor, c.time, c.patient, c.type, false);
+            case CANCEL: return manager.cancelToken(c.doctor, c.tokenId, false);
+            case NO_SHOW: return manager.markNoShow(c.doctor, c.tokenId, false);
+            case DELAY: return manager.delaySlot(c.doctor, c.slotIndex, false);
+            case ADD_DOCTOR: return manager.addDoctor(c.doctor, false);
+            case ADD_SLOT: return manager.addSlot(c.doctor, c.startTime, c.endTime, c.capacity, false);
+            case REBALANCE: return manager.rebalance(c.doctor, false);
+            case BATCH: return manager.bookTokens(c.bookings, false);
+            default: throw new IllegalStateException("Unknown command " + c.kind);
+        }
+    }
+
+    /**
+     * Latency of a successful command from publish to answer, queueing and
+     * journal wait included (what TokenManager records for direct calls)
+     */
+    private static void recordSuccess(Metrics metrics, int kind, Object result, long nanos) {
+        if (result == null || Boolean.FALSE.equals(result)) {
+            return;
+        }
+        switch (kind) {
+            case BOOK:
+            case BOOK_AT: metrics.recordOperation(Metrics.Operation.BOOK, nanos); break;
+            case CANCEL: metrics.recordOperation(Metrics.Operation.CANCEL, nanos); break;
+            case NO_SHOW: metrics.recordOperation(Metrics.Operation.NO_SHOW, nanos); break;
+            case DELAY: metrics.recordOperation(Metrics.Operation.DELAY, nanos); break;
+            case BATCH: metrics.recordOperation(Metrics.Operation.BOOK_BATCH, nanos); break;
+            default: break;  // not timed when called directly either
+        }
+    }
+
+    /**
+     * Apply and answer everything already published, then stop the engine threads
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.engine);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.engine.join();
+                shard.answerer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
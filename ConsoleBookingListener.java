@@ -0,0 +1,153 @@
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Pretty-prints every TokenManager step - the narration Main shows for the day
+ */
+public class ConsoleBookingListener implements BookingListener {
+    private final PrintStream out;
+
+    public ConsoleBookingListener() {
+        this(System.out);
+    }
+
+    public ConsoleBookingListener(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void bookingStarted(String doctorName, String patientName, TokenType type) {
+        printOperationHeader("Booking " + type + " token");
+    }
+
+    @Override
+    public void cancelStarted(String tokenId) {
+        printOperationHeader("Cancelling token " + tokenId);
+    }
+
+    @Override
+    public void delayStarted(String doctorName, int slotIndex) {
+        printOperationHeader("Delaying slot");
+    }
+
+    @Override
+    public void noShowStarted(String tokenId) {
+        printOperationHeader("Marking NO-SHOW: " + tokenId);
+    }
+
+    @Override
+    public void doctorNotFound(String doctorName) {
+        out.println("✗ Doctor not found: " + doctorName);
+    }
+
+    @Override
+    public void invalidSlot(int slotIndex) {
+        out.println("✗ Invalid slot index: " + slotIndex);
+    }
+
+    @Override
+    public void tokenNotFound(String tokenId) {
+        out.println("✗ Token " + tokenId + " not found");
+    }
+
+    @Override
+    public void tokenCreated(Token token) {
+        out.println("✓ Token " + token.getId() + " created");
+        out.println("  Patient: " + token.getPatientName());
+        out.println("  Priority: " + token.getPriority() + " (" + token.getType() + ")");
+    }
+
+    @Override
+    public void allocated(Token token, Slot slot) {
+        out.println("✓ " + token.getId() + " allocated to " + slot.getTimeRange());
+    }
+
+    @Override
+    public void slotFull(Slot slot, int count) {
+        out.println("\n⚠ Slot " + slot.getTimeRange() + " is FULL (" +
+            count + "/" + slot.getCapacity() + ")");
+    }
+
+    @Override
+    public void bumped(Token token) {
+        out.println("→ Bumping " + token.getId() + " (" +
+            token.getPatientName() + "-" + token.getType() +
+            ") to next slot");
+    }
+
+    @Override
+    public void movedToNextSlot(Token token) {
+        out.println("→ Moving " + token.getId() + " to next slot (lower priority)");
+    }
+
+    @Override
+    public void waitingListed(Token token) {
+        out.println("→ No slots available, adding to waiting list");
+    }
+
+    @Override
+    public void cancelled(Token token, Slot slot) {
+        out.println("✓ Token " + token.getId() + " (" + token.getPatientName() +
+            ") cancelled from " + slot.getTimeRange());
+    }
+
+    @Override
+    public void removedFromWaitingList(String tokenId) {
+        out.println("✓ Token " + tokenId + " removed from waiting list");
+    }
+
+    @Override
+    public void noShow(Token token, Slot slot) {
+        out.println("✗ Token " + token.getId() + " (" + token.getPatientName() +
+            ") marked as NO-SHOW from " + slot.getTimeRange());
+    }
+
+    @Override
+    public void filledFromWaitingList(Token token, Slot slot) {
+        out.println("→ " + token.getId() + " (" + token.getPatientName() +
+            ") moved from waiting list to " + slot.getTimeRange());
+    }
+
+    @Override
+    public void slotDelaying(String doctorName, Slot slot) {
+        out.println("⚠ Delaying " + slot.getTimeRange() + " for Dr. " + doctorName);
+        out.println("→ Shifting all tokens to subsequent slots...\n");
+    }
+
+    @Override
+    public void movingToken(Token token) {
+        out.println("  Moving " + token.getId() + " (" + token.getPatientName() + ")...");
+    }
+
+    @Override
+    public void delayCompleted(Doctor doctor) {
+        out.println("\n✓ Slot delay completed");
+        doctor.displayStatus(out);
+    }
+
+    @Override
+    public void slotStatus(Doctor doctor, Slot slot) {
+        printSlotStatus(doctor.getName(), slot, doctor.getWaitingList().size());
+    }
+
+    /**
+     * Slot status from values that need not be live (AsyncBookingListener passes a copy)
+     */
+    void printSlotStatus(String doctorName, Slot slot, int waiting) {
+        out.println("\nDR. " + doctorName.toUpperCase() + " - " + slot);
+        List<Token> tokens = slot.getTokens();
+        for (int i = 0; i < tokens.size(); i++) {
+            out.println("  " + (i + 1) + ". " + tokens.get(i));
+        }
+
+        if (waiting > 0) {
+            out.println("\nWAITING LIST: " + waiting + " patients");
+        }
+    }
+
+    private void printOperationHeader(String operation) {
+        out.println("\n" + "═".repeat(50));
+        out.println("OPERATION: " + operation);
+        out.println("═".repeat(50));
+    }
+}
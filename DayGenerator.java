@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible random OPD day for benchmarks: same seed, same day
+ *
+ * Doctors are named Dr0, Dr1, ...; each gets the same number of slots with
+ * "9:00 AM" style times, filled up to fill x capacity with tokens of a
+ * realistic type mix (mostly walk-ins and online, few emergencies) and
+ * patient names that repeat across the day.
+ *
+ * Usage:
+ *   DayGenerator day = new DayGenerator(42, 4, 100, 20);   // seed, doctors, slots, capacity
+ *   day.setFill(0.5);
+ *   TokenManager manager = day.build();
+ *   manager.bookToken(day.nextDoctor(), day.nextSlot(), day.nextPatient(), day.nextType());
+ */
+public class DayGenerator {
+    // EMERGENCY, PAID, FOLLOWUP, WALKIN, ONLINE out of 100
+    private static final int[] TYPE_WEIGHTS = {5, 10, 20, 40, 25};
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int PATIENTS = 5_000;
+
+    private final Random random;
+    private final int doctors;
+    private final int slots;
+    private final int capacity;
+    private double fill = 1.0;
+
+    public DayGenerator(long seed, int doctors, int slots, int capacity) {
+        if (slots > 24 * 60) {
+            throw new IllegalArgumentException("At most one slot per minute of the day: " + slots);
+        }
+        this.random = new Random(seed);
+        this.doctors = doctors;
+        this.slots = slots;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Share of every slot booked by build() (0 = empty day, 1 = every slot full)
+     */
+    public void setFill(double fill) {
+        this.fill = fill;
+    }
+
+    /**
+     * A fresh TokenManager holding the generated day
+     */
+    public TokenManager build() {
+        TokenManager manager = new TokenManager();
+        int perSlot = (int) Math.round(capacity * fill);
+        int minutes = Math.max(1, 10 * 60 / slots);
+        int first = Math.min(9 * 60, 24 * 60 - slots * minutes);
+        for (int d = 0; d < doctors; d++) {
+            Doctor doctor = manager.addDoctor("Dr" + d);
+            for (int s = 0; s < slots; s++) {
+                int start = first + s * minutes;
+                doctor.addSlot(clock(start), clock(start + minutes), capacity);
+                for (int i = 0; i < perSlot; i++) {
+                    Token token = new Token(nextPatient(), nextType());
+                    token.setAllocatedAtNanos(token.getCreatedAtNanos());
+                    manager.restoreToSlot(doctor, s, token);
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * Every token id of the day, shuffled (for cancel / no-show runs)
+     */
+    public List<String> shuffledIds(TokenManager manager) {
+        List<String> ids = new ArrayList<>();
+        for (Doctor doctor : manager.getAllDoctors()) {
+            for (Slot slot : doctor.getSlots()) {
+                for (Token token : slot) {
+                    ids.add(token.getId());
+                }
+            }
+        }
+        java.util.Collections.shuffle(ids, random);
+        return ids;
+    }
+
+    public String nextDoctor() {
+        return "Dr" + random.nextInt(doctors);
+    }
+
+    public int nextSlot() {
+        return random.nextInt(slots);
+    }
+
+    public String nextPatient() {
+        return "Patient " + random.nextInt(PATIENTS);
+    }
+
+    public TokenType nextType() {
+        int roll = random.nextInt(100);
+        for (int i = 0; i < TYPE_WEIGHTS.length; i++) {
+            roll -= TYPE_WEIGHTS[i];
+            if (roll < 0) return TYPES[i];
+        }
+        return TYPES[TYPES.length - 1];
+    }
+
+    public int getDoctors() {
+        return doctors;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Minutes since midnight as "9:00 AM" / "12:30 PM"
+     */
+    private static String clock(int minutes) {
+        int hour = (minutes / 60) % 24;
+        int h12 = hour % 12 == 0 ? 12 : hour % 12;
+        return h12 + ":" + (minutes % 60 < 10 ? "0" : "") + (minutes % 60) + (hour < 12 ? " AM" : " PM");
+    }
+}
@@ -1,20 +1,43 @@
+import java.io.PrintStream;
+import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
 
 /**
  * Represents a doctor with their time slots and waiting list
+ *
+ * Not thread-safe on its own: the Doctor object is the lock for its slots and
+ * waiting list, so callers synchronize on it (TokenManager does this).
+ *
+ * Slots stay addressed by index (the order they were added, which is the order
+ * bumped tokens move on in). Next to the list the start minutes are kept sorted
+ * in a primitive array, so "slot covering 10:30" is a binary search, and a
+ * max-tree of free seats over that same time order finds the next slot with a
+ * free seat in O(log n). Slots report every seat change back to their doctor,
+ * which keeps the tree and the manager's FreeSeatIndex current. Adding a slot
+ * updates the tree in place from its position on (O(log n) when it is the
+ * latest so far, the usual case).
  */
 public class Doctor {
     private final String name;
     private final List<Slot> slots;
-    private final Queue<Token> waitingList;
+    private final WaitingList waitingList;
+    // slot indexes ordered by start minute, and those minutes (untimed slots left out)
+    private int[] byStart = new int[8];
+    private int[] startMinutes = new int[8];
+    private int timedSlots;
+    // free seats of the timed slots in time order: leaves at [leaves, 2 * leaves), max above
+    private int[] freeTree = new int[2];
+    private int leaves = 1;
+    private FreeSeatIndex freeSeats;  // the manager's index, null for copies
+    private long lastLsn;
+    private volatile long version;  // only changed under the doctor lock
 
     public Doctor(String name) {
         this.name = name;
         this.slots = new ArrayList<>();
-        this.waitingList = new LinkedList<>();
+        this.waitingList = new WaitingList();
     }
 
     public String getName() {
@@ -25,15 +48,224 @@ public class Doctor {
         return slots;
     }
 
-    public Queue<Token> getWaitingList() {
+    /**
+     * Waiting tokens, highest priority first (see WaitingList)
+     */
+    public WaitingList getWaitingList() {
         return waitingList;
     }
 
+    /**
+     * Journal sequence number of the last change applied to this doctor
+     * (0 when persistence is off)
+     */
+    public long getLastLsn() {
+        return lastLsn;
+    }
+
+    void setLastLsn(long lastLsn) {
+        this.lastLsn = lastLsn;
+    }
+
+    /**
+     * Goes up with every change to the slots or waiting list, so anything
+     * derived from the doctor (ApiServer's cached JSON) is current while
+     * the version it was built from is
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Record a change (caller holds the doctor lock)
+     */
+    void changed() {
+        version++;
+    }
+
     /**
      * Add a time slot for this doctor
      */
-    public void addSlot(String startTime, String endTime, int capacity) {
-        slots.add(new Slot(startTime, endTime, capacity));
+    public synchronized void addSlot(String startTime, String endTime, int capacity) {
+        add(new Slot(startTime, endTime, capacity));
+        changed();
+    }
+
+    private void add(Slot slot) {
+        int index = slots.size();
+        slots.add(slot);
+        int minute = slot.getStartMinute();
+        if (minute == Slot.NO_TIME) {
+            return;
+        }
+        if (timedSlots == byStart.length) {
+            byStart = Arrays.copyOf(byStart, timedSlots * 2);
+            startMinutes = Arrays.copyOf(startMinutes, timedSlots * 2);
+        }
+        int pos = upperBound(minute);  // after equal starts, so they stay in index order
+        System.arraycopy(byStart, pos, byStart, pos + 1, timedSlots - pos);
+        System.arraycopy(startMinutes, pos, startMinutes, pos + 1, timedSlots - pos);
+        byStart[pos] = index;
+        startMinutes[pos] = minute;
+        timedSlots++;
+        if (timedSlots > leaves) {
+            buildFreeTree();
+        } else {
+            insertIntoFreeTree(pos);
+        }
+        if (freeSeats != null) {
+            freeSeats.update(this, index);
+        }
+    }
+
+    /**
+     * Rebuild the free-seat tree with twice the leaves (the slots outgrew it)
+     */
+    private void buildFreeTree() {
+        leaves = Integer.highestOneBit(Math.max(1, timedSlots - 1)) << 1;
+        freeTree = new int[2 * leaves];
+        for (int pos = 0; pos < timedSlots; pos++) {
+            Slot slot = slots.get(byStart[pos]);
+            slot.attach(this, pos);
+            freeTree[leaves + pos] = slot.getFreeSeats();
+        }
+        for (int i = leaves - 1; i >= 1; i--) {
+            freeTree[i] = Math.max(freeTree[2 * i], freeTree[2 * i + 1]);
+        }
+    }
+
+    /**
+     * A slot was inserted at pos of the time order: the leaves from pos on
+     * moved one to the right, so refill them and the maxima above them
+     */
+    private void insertIntoFreeTree(int pos) {
+        int last = timedSlots - 1;
+        for (int p = pos; p <= last; p++) {
+            Slot slot = slots.get(byStart[p]);
+            slot.attach(this, p);
+            freeTree[leaves + p] = slot.getFreeSeats();
+        }
+        for (int lo = (leaves + pos) >> 1, hi = (leaves + last) >> 1; lo >= 1; lo >>= 1, hi >>= 1) {
+            for (int i = lo; i <= hi; i++) {
+                freeTree[i] = Math.max(freeTree[2 * i], freeTree[2 * i + 1]);
+            }
+        }
+    }
+
+    /**
+     * A slot's seat count changed (called by Slot, caller holds the doctor lock)
+     */
+    void seatsChanged(int treePos, int free) {
+        int i = leaves + treePos;
+        freeTree[i] = free;
+        for (i >>= 1; i >= 1; i >>= 1) {
+            int max = Math.max(freeTree[2 * i], freeTree[2 * i + 1]);
+            if (freeTree[i] == max) break;  // nothing above changes either
+            freeTree[i] = max;
+        }
+        if (freeSeats != null) {
+            freeSeats.update(this, byStart[treePos]);
+        }
+    }
+
+    /**
+     * First position at or after from (in time order) whose slot has a free seat, or -1
+     */
+    private int firstFreeFrom(int from) {
+        if (from >= timedSlots) {
+            return -1;
+        }
+        int i = leaves + from;
+        if (freeTree[i] > 0) {
+            return from;
+        }
+        // climb until a right sibling holds a free seat, then take its leftmost one
+        while (true) {
+            if (i == 1) {
+                return -1;
+            }
+            if ((i & 1) == 0 && freeTree[i + 1] > 0) {
+                i++;
+                break;
+            }
+            i >>= 1;
+        }
+        while (i < leaves) {
+            i = freeTree[2 * i] > 0 ? 2 * i : 2 * i + 1;
+        }
+        return i - leaves;
+    }
+
+    /**
+     * Report seat changes to this index from now on (TokenManager sets it)
+     */
+    void setFreeSeatIndex(FreeSeatIndex freeSeats) {
+        synchronized (this) {
+            this.freeSeats = freeSeats;
+            for (int pos = 0; pos < timedSlots; pos++) {
+                freeSeats.update(this, byStart[pos]);
+            }
+        }
+    }
+
+    /**
+     * Number of sorted starts that are <= minute
+     */
+    private int upperBound(int minute) {
+        int lo = 0, hi = timedSlots;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (startMinutes[mid] <= minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Index of the slot running at minuteOfDay (the latest one starting by then),
+     * or -1 when no slot covers it
+     */
+    public int findSlotAt(int minuteOfDay) {
+        int pos = upperBound(minuteOfDay) - 1;
+        if (pos >= 0 && slots.get(byStart[pos]).covers(minuteOfDay)) {
+            return byStart[pos];
+        }
+        return -1;
+    }
+
+    public int findSlotAt(LocalTime time) {
+        return findSlotAt(Slot.minuteOfDay(time));
+    }
+
+    /**
+     * Slot to book a patient asking for minuteOfDay into: the one running then,
+     * else the next one to start; -1 when none is left that day
+     */
+    public int findSlotFrom(int minuteOfDay) {
+        int covering = findSlotAt(minuteOfDay);
+        if (covering >= 0) {
+            return covering;
+        }
+        int pos = upperBound(minuteOfDay);
+        return pos < timedSlots ? byStart[pos] : -1;
+    }
+
+    /**
+     * First slot, in time order, that is still running or yet to start at
+     * minuteOfDay and has a free seat; -1 when there is none. A binary search
+     * for the starting point, then one walk down the free-seat tree
+     * (caller holds the doctor lock).
+     */
+    public int findNextFreeSlot(int minuteOfDay) {
+        int covering = findSlotAt(minuteOfDay);
+        if (covering >= 0 && !slots.get(covering).isFull()) {
+            return covering;
+        }
+        int pos = firstFreeFrom(upperBound(minuteOfDay));
+        return pos < 0 ? -1 : byStart[pos];
     }
 
     /**
@@ -83,7 +315,7 @@ public class Doctor {
     }
 
     /**
-     * Remove and return first from waiting list
+     * Remove and return the highest-priority, longest-waiting token
      */
     public Token pollWaitingList() {
         return waitingList.poll();
@@ -93,50 +325,55 @@ public class Doctor {
      * Check if token is in waiting list
      */
     public boolean isInWaitingList(String tokenId) {
-        for (Token t : waitingList) {
-            if (t.getId().equals(tokenId)) {
-                return true;
-            }
-        }
-        return false;
+        return waitingList.contains(tokenId);
     }
 
     /**
      * Remove token from waiting list
      */
     public boolean removeFromWaitingList(String tokenId) {
-        // have to use iterator to avoid ConcurrentModificationException
-        java.util.Iterator<Token> it = waitingList.iterator();
-        while (it.hasNext()) {
-            if (it.next().getId().equals(tokenId)) {
-                it.remove();
-                return true;
-            }
+        return waitingList.remove(tokenId) != null;
+    }
+
+    /**
+     * Detached copy of the slots and waiting list, safe to print after the lock is released
+     */
+    Doctor copy() {
+        Doctor copy = new Doctor(name);
+        for (Slot slot : slots) {
+            copy.add(slot.copy());
+        }
+        for (Token t : waitingList) {
+            copy.waitingList.add(t);
         }
-        return false;
+        return copy;
     }
 
     public void displayStatus() {
-        System.out.println("\n" + "═".repeat(50));
-        System.out.println("DR. " + name.toUpperCase());
-        System.out.println("═".repeat(50));
+        displayStatus(System.out);
+    }
+
+    public void displayStatus(PrintStream out) {
+        out.println("\n" + "═".repeat(50));
+        out.println("DR. " + name.toUpperCase());
+        out.println("═".repeat(50));
         
         for (Slot slot : slots) {
-            System.out.println("\n" + slot);
+            out.println("\n" + slot);
             List<Token> tokens = slot.getTokens();
             for (int i = 0; i < tokens.size(); i++) {
-                System.out.println("  " + (i + 1) + ". " + tokens.get(i));
+                out.println("  " + (i + 1) + ". " + tokens.get(i));
             }
             if (tokens.isEmpty()) {
-                System.out.println("  (No tokens)");
+                out.println("  (No tokens)");
             }
         }
         
         if (!waitingList.isEmpty()) {
-            System.out.println("\n⏳ WAITING LIST: " + waitingList.size() + " patients");
+            out.println("\n⏳ WAITING LIST: " + waitingList.size() + " patients");
             int i = 1;
             for (Token t : waitingList) {
-                System.out.println("  " + i++ + ". " + t);
+                out.println("  " + i++ + ". " + t);
             }
         }
     }
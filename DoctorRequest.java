@@ -0,0 +1,32 @@
+import java.io.IOException;
+
+/**
+ * Body of POST /doctors: {"name": "..."}
+ */
+public class DoctorRequest {
+    private String name;
+
+    /**
+     * Read one doctor object; unknown fields are skipped
+     */
+    public static DoctorRequest read(JsonReader reader) throws IOException {
+        DoctorRequest request = new DoctorRequest();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("name")) {
+                request.name = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (request.name == null || request.name.isEmpty()) {
+            throw new JsonReader.MalformedJsonException("name is required");
+        }
+        return request;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
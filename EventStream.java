@@ -0,0 +1,304 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fans queue changes out to Server-Sent Events subscribers (GET /events)
+ *
+ * Each change is formatted once into an SSE frame and stored in a fixed ring
+ * under the next sequence number, which is also the frame's id. Every
+ * subscriber has its own thread and cursor into the ring and writes the
+ * frames of its doctor to its connection. Booking threads never wait on a
+ * subscriber: one that falls a whole ring behind is sent "resync" and
+ * closed, and its screen reconnects and starts from a fresh snapshot.
+ * With nobody subscribed a change costs one atomic increment.
+ *
+ * Frames:
+ *   event: allocated  data: {"token": "T001", "patient": "...", "type": "ONLINE", "slot": 2}
+ *   event: bumped     data: {"token": "T001", "slot": 2}
+ *   event: waiting    data: {"token": "T001", "patient": "...", "type": "ONLINE"}
+ *   event: cancelled  data: {"token": "T001"}
+ *   event: noshow     data: {"token": "T001"}
+ *   event: delayed    data: {"slot": 0}
+ */
+public class EventStream implements QueueChangeListener, Closeable {
+    private static final long KEEPALIVE_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final byte[] KEEPALIVE = ": keepalive\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESYNC = "event: resync\ndata: {}\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static class Event {
+        final long seq;
+        final String doctor;
+        final byte[] frame;
+
+        Event(long seq, String doctor, byte[] frame) {
+            this.seq = seq;
+            this.doctor = doctor;
+            this.frame = frame;
+        }
+    }
+
+    private final AtomicReferenceArray<Event> ring;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong(1);  // ids start at 1, so Last-Event-ID 0 means "from the start"
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final LongAdder resyncs = new LongAdder();
+    private volatile boolean closed;
+
+    public EventStream() {
+        this(8 * 1024);
+    }
+
+    /**
+     * capacity is rounded up to a power of two
+     */
+    public EventStream(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Id the next change will get; a snapshot taken under the doctor lock
+     * together with this is followed exactly by the frames from here on
+     */
+    public long position() {
+        return next.get();
+    }
+
+    /**
+     * True when every frame from seq up to now is still in the ring (a
+     * reconnecting screen can carry on after its Last-Event-ID)
+     */
+    public boolean canResume(long seq) {
+        long end = next.get();
+        if (seq < 1 || seq > end || end - seq > ring.length()) {
+            return false;
+        }
+        for (long s = seq; s < end; s++) {
+            Event event = ring.get((int) s & mask);
+            if (event == null || event.seq != s) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Register a subscriber for one doctor. Changes are kept from now on;
+     * call start() once the response has its headers (and snapshot).
+     */
+    public Subscriber subscribe(String doctor) {
+        if (closed) throw new IllegalStateException("Event stream closed");
+        Subscriber subscriber = new Subscriber(doctor);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Subscribers closed because they fell a whole ring behind
+     */
+    public long getResyncCount() {
+        return resyncs.sum();
+    }
+
+    /**
+     * Disconnect every subscriber
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // QueueChangeListener: one frame per change
+    // ═══════════════════════════════════════════════════════════
+
+    @Override
+    public void allocated(Doctor doctor, int slotIndex, Token token) {
+        long seq = next.getAndIncrement();
+        if (subscribers.isEmpty()) return;
+        publish(seq, doctor, "allocated", tokenFields(token).append(", \"slot\": ").append(slotIndex).append('}'));
+    }
+
+    @Override
+    public void bumped(Doctor doctor, int slotIndex, Token token) {
+        long seq = next.getAndIncrement();
+        if (subscribers.isEmpty()) return;
+        publish(seq, doctor, "bumped", new StringBuilder("{\"token\": ").append(JsonWriter.quote(token.getId()))
+            .append(", \"slot\": ").append(slotIndex).append('}'));
+    }
+
+    @Override
+    public void waitingListed(Doctor doctor, Token token) {
+        long seq = next.getAndIncrement();
+        if (subscribers.isEmpty()) return;
+        publish(seq, doctor, "waiting", tokenFields(token).append('}'));
+    }
+
+    @Override
+    public void cancelled(Doctor doctor, String tokenId) {
+        long seq = next.getAndIncrement();
+        if (subscribers.isEmpty()) return;
+        publish(seq, doctor, "cancelled", new StringBuilder("{\"token\": ").append(JsonWriter.quote(tokenId)).append('}'));
+    }
+
+    @Override
+    public void noShow(Doctor doctor, String tokenId) {
+        long seq = next.getAndIncrement();
+        if (subscribers.isEmpty()) return;
+        publish(seq, doctor, "noshow", new StringBuilder("{\"token\": ").append(JsonWriter.quote(tokenId)).append('}'));
+    }
+
+    @Override
+    public void slotDelayed(Doctor doctor, int slotIndex) {
+        long seq = next.getAndIncrement();
+        if (subscribers.isEmpty()) return;
+        publish(seq, doctor, "delayed", new StringBuilder("{\"slot\": ").append(slotIndex).append('}'));
+    }
+
+    private static StringBuilder tokenFields(Token token) {
+        return new StringBuilder("{\"token\": ").append(JsonWriter.quote(token.getId()))
+            .append(", \"patient\": ").append(JsonWriter.quote(token.getPatientName()))
+            .append(", \"type\": \"").append(token.getType().name()).append('"');
+    }
+
+    private void publish(long seq, Doctor doctor, String kind, StringBuilder data) {
+        String frame = "id: " + seq + "\nevent: " + kind + "\ndata: " + data + "\n\n";
+        ring.set((int) seq & mask, new Event(seq, doctor.getName(), frame.getBytes(StandardCharsets.UTF_8)));
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.sleeping) {
+                LockSupport.unpark(subscriber.thread);
+            }
+        }
+    }
+
+    /**
+     * Frame for the initial state of a doctor (JSON as GET /doctors/{name});
+     * its id is the one just before position, for Last-Event-ID
+     */
+    public static byte[] snapshotFrame(long position, String doctorJson) {
+        return ("id: " + (position - 1) + "\nevent: snapshot\ndata: " + doctorJson + "\n\n")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Subscribers
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * One open /events connection, with its own sender thread
+     */
+    public class Subscriber {
+        private final String doctor;
+        private volatile Thread thread;
+        private volatile boolean sleeping;
+        private volatile boolean done;
+        private OutputStream out;
+        private long cursor;
+
+        private Subscriber(String doctor) {
+            this.doctor = doctor;
+        }
+
+        /**
+         * Send this doctor's frames from seq on, until the client goes away
+         */
+        public void start(OutputStream out, long seq) {
+            this.out = out;
+            this.cursor = seq;
+            Thread t = new Thread(this::sendLoop, "events-" + doctor);
+            t.setDaemon(true);
+            thread = t;
+            t.start();
+        }
+
+        /**
+         * Drop the subscription and close the connection
+         */
+        public void close() {
+            done = true;
+            subscribers.remove(this);
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            } else {
+                closeQuietly();
+            }
+        }
+
+        private void sendLoop() {
+            long lastWrite = System.nanoTime();
+            try {
+                while (!done) {
+                    boolean wrote = false;
+                    boolean waiting = false;
+                    long end = next.get();
+                    while (cursor < end) {
+                        Event event = ring.get((int) cursor & mask);
+                        if (event == null || event.seq < cursor) {
+                            waiting = true;  // claimed, not stored yet
+                            break;
+                        }
+                        if (event.seq > cursor) {
+                            resyncs.increment();
+                            out.write(RESYNC);
+                            out.flush();
+                            return;
+                        }
+                        if (doctor.equals(event.doctor)) {
+                            out.write(event.frame);
+                            wrote = true;
+                        }
+                        cursor++;
+                    }
+                    long now = System.nanoTime();
+                    if (wrote) {
+                        out.flush();
+                        lastWrite = now;
+                    } else if (now - lastWrite >= KEEPALIVE_NANOS) {
+                        out.write(KEEPALIVE);
+                        out.flush();
+                        lastWrite = now;
+                    }
+                    if (waiting) {
+                        LockSupport.parkNanos(50_000);
+                        continue;
+                    }
+                    sleeping = true;
+                    if (cursor >= next.get() && !done) {
+                        LockSupport.parkNanos(KEEPALIVE_NANOS);
+                    }
+                    sleeping = false;
+                }
+            } catch (IOException e) {
+                // client went away
+            } finally {
+                done = true;
+                subscribers.remove(this);
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
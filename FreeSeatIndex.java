@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Which doctor has the earliest free seat - without walking every doctor and slot
+ *
+ * One entry per timed slot that has a free seat, keyed by its absolute start
+ * minute (then doctor name and slot index), in an ordered set. A Doctor
+ * reports every seat change while its lock is held; the entry is only added
+ * or removed when the slot goes from full to free or back (O(log slots)).
+ *
+ * Nothing here depends on the minute asked about, so concurrent queries for
+ * different minutes never disturb each other. A query starts at the first
+ * slot that could still be running then - one starting less than the longest
+ * slot length before the minute - and skips the few that have already ended.
+ */
+public class FreeSeatIndex {
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+    private final AtomicInteger longestSlot = new AtomicInteger();  // minutes, only grows
+
+    /**
+     * A free slot (compared by start, then doctor name, then slot index)
+     */
+    static final class Entry implements Comparable<Entry> {
+        final int startMinute;
+        final int endMinute;  // startMinute when the end is unknown: counts only before it starts
+        final Doctor doctor;  // null for a search key, which sorts before its start's entries
+        final Slot slot;
+        final int slotIndex;
+
+        Entry(int startMinute, int endMinute, Doctor doctor, Slot slot, int slotIndex) {
+            this.startMinute = startMinute;
+            this.endMinute = endMinute;
+            this.doctor = doctor;
+            this.slot = slot;
+            this.slotIndex = slotIndex;
+        }
+
+        /**
+         * Still running or yet to start at minuteOfDay
+         */
+        boolean openAt(int minuteOfDay) {
+            return startMinute > minuteOfDay || endMinute > minuteOfDay;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int c = Integer.compare(startMinute, other.startMinute);
+            if (c != 0) return c;
+            if (doctor == null || other.doctor == null) {
+                return doctor == other.doctor ? 0 : doctor == null ? -1 : 1;
+            }
+            c = doctor.getName().compareTo(other.doctor.getName());
+            return c != 0 ? c : Integer.compare(slotIndex, other.slotIndex);
+        }
+    }
+
+    /**
+     * Add or drop the entry of one of the doctor's slots after its seats
+     * changed (caller holds the doctor lock)
+     */
+    void update(Doctor doctor, int slotIndex) {
+        Slot slot = doctor.getSlot(slotIndex);
+        int start = slot.getStartMinute();
+        if (start == Slot.NO_TIME) {
+            return;
+        }
+        Entry old = slot.freeSeatEntry;
+        if (slot.isFull()) {
+            if (old != null) {
+                entries.remove(old);
+                slot.freeSeatEntry = null;
+            }
+        } else if (old == null) {
+            int end = slot.getEndMinute() == Slot.NO_TIME ? start : slot.getEndMinute();
+            longestSlot.accumulateAndGet(end - start, Math::max);
+            Entry entry = new Entry(start, end, doctor, slot, slotIndex);
+            entries.add(entry);
+            slot.freeSeatEntry = entry;
+        }
+    }
+
+    /**
+     * Free slots that may be open at minuteOfDay, earliest start first
+     */
+    private Iterable<Entry> from(int minuteOfDay) {
+        int earliestStart = minuteOfDay - longestSlot.get() + 1;
+        return entries.tailSet(new Entry(earliestStart, earliestStart, null, null, -1));
+    }
+
+    /**
+     * The doctor with the earliest free slot still running or yet to start at
+     * minuteOfDay, or null when every such slot is full. Checked under the
+     * doctor's lock, so a seat taken since the entry was made moves on to the
+     * next slot.
+     */
+    public Doctor earliest(int minuteOfDay) {
+        for (Entry entry : from(minuteOfDay)) {
+            if (!entry.openAt(minuteOfDay)) {
+                continue;
+            }
+            synchronized (entry.doctor) {
+                if (entry.slot.freeSeatEntry == entry) {
+                    return entry.doctor;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Doctors with a free seat at minuteOfDay, earliest free slot first (as of the call)
+     */
+    public List<Doctor> doctors(int minuteOfDay) {
+        Set<Doctor> doctors = new LinkedHashSet<>();
+        for (Entry entry : from(minuteOfDay)) {
+            if (entry.openAt(minuteOfDay)) {
+                doctors.add(entry.doctor);
+            }
+        }
+        return new ArrayList<>(doctors);
+    }
+
+    /**
+     * Number of timed slots with a free seat
+     */
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull parser for JSON request bodies, reading the raw bytes in one pass
+ *
+ * Usage:
+ *   reader.beginObject();
+ *   while (reader.hasNext()) {
+ *       switch (reader.nextName()) {
+ *           case "slot": slot = reader.nextInt(); break;
+ *           default: reader.skipValue();
+ *       }
+ *   }
+ *   reader.endObject();
+ *
+ * Lenient where the old parser was: nextString() also takes a number or
+ * boolean, nextInt() also takes a string holding a number. Anything that
+ * is not JSON fails with MalformedJsonException (position included).
+ * Bodies larger than the limit are refused instead of read into memory.
+ */
+public class JsonReader {
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Kind of the next value, from its first character
+     */
+    public enum ValueType { OBJECT, ARRAY, STRING, NUMBER, BOOLEAN, NULL, END }
+
+    /**
+     * The body is not valid JSON, or not the shape the caller expected
+     */
+    public static class MalformedJsonException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+    private final InputStream in;
+    private final int maxBytes;
+    private final byte[] buf = new byte[512];  // request bodies are small; bigger ones just take more reads
+    private int pos;
+    private int limit;
+    private long consumed;      // bytes before buf[0]
+    private byte[] scratch = new byte[128];
+    private int depth;
+    private boolean expectComma;  // a value was read inside the current object/array
+
+    public JsonReader(InputStream in) {
+        this(in, DEFAULT_MAX_BYTES);
+    }
+
+    public JsonReader(InputStream in, int maxBytes) {
+        this.in = in;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Parser over a byte array (tests, benchmarks)
+     */
+    public static JsonReader of(byte[] json) {
+        return new JsonReader(new java.io.ByteArrayInputStream(json), Integer.MAX_VALUE);
+    }
+
+    public void beginObject() throws IOException {
+        beforeValue();
+        expect('{');
+        enter();
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+        leave();
+    }
+
+    public void beginArray() throws IOException {
+        beforeValue();
+        expect('[');
+        enter();
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+        leave();
+    }
+
+    /**
+     * What comes next without consuming it (END for a closing bracket or end of input)
+     */
+    public ValueType peek() throws IOException {
+        int c = peekNonSpace();
+        if (c == ',' && expectComma) {
+            pos++;
+            expectComma = false;
+            c = peekNonSpace();
+            if (c == '}' || c == ']' || c == -1) throw error("Expected a value after ','");
+        }
+        switch (c) {
+            case '{': return ValueType.OBJECT;
+            case '[': return ValueType.ARRAY;
+            case '"': return ValueType.STRING;
+            case 't': case 'f': return ValueType.BOOLEAN;
+            case 'n': return ValueType.NULL;
+            case '}': case ']': case -1: return ValueType.END;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return ValueType.NUMBER;
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * True while the current object or array has another member
+     */
+    public boolean hasNext() throws IOException {
+        int c = peekNonSpace();
+        if (c == '}' || c == ']') return false;
+        if (c == -1) throw error("Unexpected end of input");
+        return true;
+    }
+
+    public String nextName() throws IOException {
+        beforeValue();
+        int c = peekNonSpace();
+        if (c != '"') throw error("Expected a field name");
+        String name = readString();
+        expect(':');
+        expectComma = false;  // the value comes next, no comma before it
+        return name;
+    }
+
+    /**
+     * A string value (a number, true or false is returned as its text; null as null)
+     */
+    public String nextString() throws IOException {
+        beforeValue();
+        int c = peekNonSpace();
+        String value;
+        if (c == '"') {
+            value = readString();
+        } else if (c == 'n') {
+            readLiteral("null");
+            value = null;
+        } else if (c == 't' || c == 'f') {
+            value = readLiteral(c == 't' ? "true" : "false");
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            value = readNumberText();
+        } else {
+            throw error("Expected a string");
+        }
+        expectComma = true;
+        return value;
+    }
+
+    /**
+     * An int value, from a JSON number or a string like "3"
+     */
+    public int nextInt() throws IOException {
+        String text = nextString();
+        if (text == null) throw error("Expected a number, got null");
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw error("Expected a whole number, got \"" + text + "\"");
+        }
+    }
+
+    /**
+     * Skip the next value, whatever it is (nested objects and arrays included)
+     */
+    public void skipValue() throws IOException {
+        beforeValue();  // the comma before a nested value, or peekNonSpace() below would see it
+        int c = peekNonSpace();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext()) {
+                skipValue();
+            }
+            endArray();
+        } else {
+            nextString();
+        }
+    }
+
+    /**
+     * Check that nothing but whitespace follows the top-level value
+     */
+    public void endDocument() throws IOException {
+        if (peekNonSpace() != -1) throw error("Unexpected data after the JSON value");
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Structure
+    // ═══════════════════════════════════════════════════════════
+
+    private void beforeValue() throws IOException {
+        if (expectComma) {
+            expect(',');
+            expectComma = false;
+        }
+    }
+
+    private void enter() throws IOException {
+        if (++depth > MAX_DEPTH) throw error("Nested too deeply");
+        expectComma = false;
+    }
+
+    private void leave() {
+        depth--;
+        expectComma = depth > 0;
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peekNonSpace();
+        if (c != expected) {
+            throw error(c == -1 ? "Unexpected end of input, expected '" + expected + "'"
+                : "Expected '" + expected + "' but found '" + (char) c + "'");
+        }
+        pos++;
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Scalars
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Read a quoted string at the current position, decoding escapes into UTF-8 bytes
+     */
+    private String readString() throws IOException {
+        pos++;  // opening quote
+        int len = 0;
+        while (true) {
+            int b = read();
+            if (b == -1) throw error("Unterminated string");
+            if (b == '"') break;
+            if (b < 0x20) throw error("Control character in string");
+            if (b == '\\') {
+                int e = read();
+                switch (e) {
+                    case '"': case '\\': case '/': b = e; break;
+                    case 'n': b = '\n'; break;
+                    case 'r': b = '\r'; break;
+                    case 't': b = '\t'; break;
+                    case 'b': b = '\b'; break;
+                    case 'f': b = '\f'; break;
+                    case 'u':
+                        len = putCodeUnit(len, readHex4());
+                        continue;
+                    default:
+                        throw error("Bad escape in string");
+                }
+            }
+            if (len == scratch.length) grow();
+            scratch[len++] = (byte) b;
+        }
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Append a \\uXXXX escape as UTF-8, pairing surrogates when both halves are escaped
+     */
+    private int putCodeUnit(int len, int unit) throws IOException {
+        int cp = unit;
+        if (Character.isHighSurrogate((char) unit) && peekByte() == '\\') {
+            pos++;
+            if (read() != 'u') throw error("Bad escape in string");
+            int low = readHex4();
+            if (!Character.isLowSurrogate((char) low)) throw error("Unpaired surrogate in string");
+            cp = Character.toCodePoint((char) unit, (char) low);
+        } else if (Character.isSurrogate((char) unit)) {
+            cp = 0xFFFD;
+        }
+        while (len + 4 > scratch.length) grow();
+        if (cp < 0x80) {
+            scratch[len++] = (byte) cp;
+        } else if (cp < 0x800) {
+            scratch[len++] = (byte) (0xC0 | (cp >> 6));
+            scratch[len++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            scratch[len++] = (byte) (0xE0 | (cp >> 12));
+            scratch[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            scratch[len++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            scratch[len++] = (byte) (0xF0 | (cp >> 18));
+            scratch[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            scratch[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            scratch[len++] = (byte) (0x80 | (cp & 0x3F));
+        }
+        return len;
+    }
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int d = Character.digit(read(), 16);
+            if (d < 0) throw error("Bad \\u escape in string");
+            value = value * 16 + d;
+        }
+        return value;
+    }
+
+    private String readNumberText() throws IOException {
+        int len = 0;
+        while (true) {
+            int c = peekByte();
+            if (c == -1 || !(c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+            if (len == scratch.length) grow();
+            scratch[len++] = (byte) c;
+        }
+        String text = new String(scratch, 0, len, StandardCharsets.ISO_8859_1);
+        if (!isNumber(text)) {
+            throw error("Bad number " + text);
+        }
+        return text;
+    }
+
+    /**
+     * -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)? without a regex
+     */
+    private static boolean isNumber(String s) {
+        int i = 0;
+        int n = s.length();
+        if (i < n && s.charAt(i) == '-') i++;
+        if (i < n && s.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+            if (i == start) return false;
+        }
+        if (i < n && s.charAt(i) == '.') {
+            int start = ++i;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+            if (i == start) return false;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            int start = i;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+            if (i == start) return false;
+        }
+        return i == n;
+    }
+
+    private String readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) throw error("Expected " + literal);
+        }
+        return literal;
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Input
+    // ═══════════════════════════════════════════════════════════
+
+    private int peekNonSpace() throws IOException {
+        while (true) {
+            int c = peekByte();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private int peekByte() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        if (consumed >= maxBytes) {
+            if (in.read() == -1) return false;
+            throw error("Body larger than " + maxBytes + " bytes");
+        }
+        int n = in.read(buf, 0, (int) Math.min(buf.length, maxBytes - consumed));
+        if (n <= 0) return false;
+        limit = n;
+        return true;
+    }
+
+    private void grow() {
+        scratch = java.util.Arrays.copyOf(scratch, scratch.length * 2);
+    }
+
+    private MalformedJsonException error(String message) {
+        return new MalformedJsonException(message + " at byte " + (consumed + pos));
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes JSON as UTF-8 bytes into a reusable buffer (no String building)
+ *
+ * The caller writes the punctuation itself (ascii) and uses string() for any
+ * value that came from outside, which is quoted and escaped. writeTo() sends
+ * what is buffered to a stream and starts over, so a big response can go out
+ * piece by piece.
+ *
+ * Writers are pooled rather than kept per thread, so the buffers are also
+ * reused when every request runs on a new (virtual) thread:
+ *   JsonWriter w = JsonWriter.acquire();
+ *   try { ... } finally { JsonWriter.release(w); }
+ */
+public class JsonWriter {
+    private static final int INITIAL_SIZE = 8 * 1024;
+    private static final int MAX_KEPT_SIZE = 1024 * 1024;  // bigger buffers aren't pooled
+    private static final int MAX_POOLED = 64;
+    private static final ConcurrentLinkedQueue<JsonWriter> POOL = new ConcurrentLinkedQueue<>();
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int pos;
+
+    /**
+     * Take an empty writer from the pool (or a new one)
+     */
+    public static JsonWriter acquire() {
+        JsonWriter w = POOL.poll();
+        return w != null ? w : new JsonWriter();
+    }
+
+    public static void release(JsonWriter w) {
+        w.pos = 0;
+        if (w.buf.length <= MAX_KEPT_SIZE && POOL.size() < MAX_POOLED) {
+            POOL.offer(w);
+        }
+    }
+
+    /**
+     * A string as a quoted, escaped JSON value - for small responses built as Strings
+     */
+    public static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape = escape(c);
+            if (escape != null) {
+                sb.append(escape);
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Bytes written since the last writeTo()
+     */
+    public int size() {
+        return pos;
+    }
+
+    /**
+     * Drop what was written after size() returned mark
+     */
+    public void truncate(int mark) {
+        pos = Math.min(pos, mark);
+    }
+
+    /**
+     * Copy of the buffered bytes (the buffer is left as it is)
+     */
+    public byte[] toByteArray() {
+        return java.util.Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * Send the buffered bytes and empty the buffer
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+
+    /**
+     * Literal JSON text (punctuation, field names) - must be plain ASCII
+     */
+    public JsonWriter ascii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public JsonWriter number(long v) {
+        if (v == Long.MIN_VALUE) return ascii("-9223372036854775808");
+        ensure(20);
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte b = buf[i];
+            buf[i] = buf[j];
+            buf[j] = b;
+        }
+        return this;
+    }
+
+    public JsonWriter bool(boolean v) {
+        return ascii(v ? "true" : "false");
+    }
+
+    /**
+     * Quoted, escaped string value; null is written as JSON null
+     */
+    public JsonWriter string(String s) {
+        if (s == null) return ascii("null");
+        return openString().chars(s).closeString();
+    }
+
+    /**
+     * Build one string value from several parts: openString().chars(a).chars(b).closeString()
+     */
+    public JsonWriter openString() {
+        ensure(1);
+        buf[pos++] = '"';
+        return this;
+    }
+
+    public JsonWriter closeString() {
+        return openString();
+    }
+
+    /**
+     * Escaped UTF-8 of s inside an open string ("null" for null, like String concatenation)
+     */
+    public JsonWriter chars(String s) {
+        if (s == null) s = "null";
+        int n = s.length();
+        ensure(n * 3);  // enough for any UTF-8 char; escapes make room themselves
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x80 || c == '\u2028' || c == '\u2029') {
+                writeEscaped(c);
+                ensure((n - i) * 3);
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                if (Character.isSurrogate(c)) c = '\uFFFD';  // unpaired surrogate
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    private void writeEscaped(char c) {
+        String escape = escape(c);
+        if (escape != null) {
+            ascii(escape);
+            return;
+        }
+        ensure(6);
+        buf[pos++] = '\\';
+        buf[pos++] = 'u';
+        buf[pos++] = HEX[(c >> 12) & 0xF];
+        buf[pos++] = HEX[(c >> 8) & 0xF];
+        buf[pos++] = HEX[(c >> 4) & 0xF];
+        buf[pos++] = HEX[c & 0xF];
+    }
+
+    private static String escape(char c) {
+        switch (c) {
+            case '"': return "\\\"";
+            case '\\': return "\\\\";
+            case '\n': return "\\n";
+            case '\r': return "\\r";
+            case '\t': return "\\t";
+            case '\b': return "\\b";
+            case '\f': return "\\f";
+            default: return null;
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (pos + bytes > buf.length) {
+            byte[] bigger = new byte[Math.max(buf.length * 2, pos + bytes)];
+            System.arraycopy(buf, 0, bigger, 0, pos);
+            buf = bigger;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP load test for POST /tokens - starts an in-process ApiServer for each
+ * executor kind and transport and reports throughput and p50/p99 latency.
+ *
+ * A few "slow kiosk" clients keep trickling request bodies one byte at a time
+ * while the fast clients run, which is what blocks the single dispatcher thread.
+ *
+ * The second table compares the jdk and nio transports with keep-alive
+ * clients: each keeps one connection open and sends --pipeline requests
+ * back to back before reading the answers (1 = plain keep-alive). Latency
+ * is from sending a request to having its whole response.
+ *
+ * Usage: java LoadTest [--clients=32] [--requests=200] [--slow=4]
+ *                      [--transport=jdk|nio|both] [--pipeline=8]
+ */
+public class LoadTest {
+    private static final String BOOKING = "{\"doctor\":\"Load\",\"slot\":0,\"patient\":\"P\",\"type\":\"WALKIN\"}";
+
+    public static void main(String[] args) throws Exception {
+        int clients = 32;
+        int requests = 200;
+        int slowClients = 4;
+        int pipeline = 8;
+        ApiServer.Transport[] transports = ApiServer.Transport.values();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            switch (kv[0]) {
+                case "--clients": clients = Integer.parseInt(kv[1]); break;
+                case "--requests": requests = Integer.parseInt(kv[1]); break;
+                case "--slow": slowClients = Integer.parseInt(kv[1]); break;
+                case "--pipeline": pipeline = Integer.parseInt(kv[1]); break;
+                case "--transport":
+                    transports = kv[1].equals("both") ? ApiServer.Transport.values()
+                        : new ApiServer.Transport[] {ApiServer.Transport.valueOf(kv[1].toUpperCase())};
+                    break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+
+        System.out.println("▶ POST /tokens - " + clients + " clients x " + requests +
+            " requests, " + slowClients + " slow clients");
+        System.out.printf("  %-22s %12s %10s %10s %10s %10s%n",
+            "transport/executor", "req/sec", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (ApiServer.Transport transport : transports) {
+            for (ApiServer.ExecutorKind kind : ApiServer.ExecutorKind.values()) {
+                run(transport, kind, clients, requests, slowClients, 0);
+            }
+        }
+
+        System.out.println();
+        System.out.println("▶ POST /tokens over keep-alive connections, pipeline depth " + pipeline);
+        System.out.printf("  %-22s %12s %10s %10s %10s %10s%n",
+            "transport/executor", "req/sec", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (ApiServer.Transport transport : transports) {
+            run(transport, ApiServer.ExecutorKind.PLATFORM, clients, requests, slowClients, pipeline);
+        }
+    }
+
+    /**
+     * pipeline 0: a new HttpURLConnection per request; otherwise one socket per client
+     */
+    private static void run(ApiServer.Transport transport, ApiServer.ExecutorKind kind, int clients,
+            int requests, int slowClients, int pipeline) throws Exception {
+        PrintStream console = System.out;
+        // the engine narrates every booking; keep that out of the report
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        TokenManager manager = new TokenManager();
+        Doctor doctor = manager.addDoctor("Load");
+        for (int i = 0; i < 20; i++) {
+            doctor.addSlot(i + ":00", (i + 1) + ":00", 50);
+        }
+        ApiServer api = new ApiServer(manager);
+        api.setTransport(transport);
+        api.setExecutorKind(kind);
+        api.setBacklog(1024);
+        api.start(0);
+        int port = api.getPort();
+
+        long[] latencies = new long[clients * requests];
+        AtomicInteger failures = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] slow = new Thread[slowClients];
+        Thread[] fast = new Thread[clients];
+        long start;
+        try {
+            for (int i = 0; i < slowClients; i++) {
+                slow[i] = new Thread(() -> {
+                    while (running.get()) slowBooking(port);
+                });
+                slow[i].start();
+            }
+            Thread.sleep(100);
+
+            start = System.nanoTime();
+            for (int c = 0; c < clients; c++) {
+                int offset = c * requests;
+                fast[c] = new Thread(() -> {
+                    if (pipeline > 0) {
+                        failures.addAndGet(keepAliveBookings(port, requests, pipeline, latencies, offset));
+                        return;
+                    }
+                    for (int r = 0; r < requests; r++) {
+                        long t0 = System.nanoTime();
+                        if (!postBooking(port)) failures.incrementAndGet();
+                        latencies[offset + r] = System.nanoTime() - t0;
+                    }
+                });
+                fast[c].start();
+            }
+            for (Thread t : fast) t.join();
+        } finally {
+            running.set(false);
+            api.stop();
+            System.setOut(console);
+        }
+        long elapsed = System.nanoTime() - start;
+        for (Thread t : slow) t.join();
+
+        Arrays.sort(latencies);
+        String label = transport.name().toLowerCase() + "/" + kind.name().toLowerCase();
+        if (api.getExecutorKind() != kind) {
+            label += " -> " + api.getExecutorKind().name().toLowerCase();
+        }
+        System.out.printf("  %-22s %12.0f %10.2f %10.2f %10.2f %10.2f%s%n", label,
+            latencies.length / (elapsed / 1e9),
+            percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+            percentile(latencies, 99.9) / 1e6, latencies[latencies.length - 1] / 1e6,
+            failures.get() > 0 ? "  (" + failures.get() + " failed)" : "");
+    }
+
+    private static boolean postBooking(int port) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection)
+                new URL("http://localhost:" + port + "/tokens").openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(BOOKING.getBytes(StandardCharsets.UTF_8));
+            }
+            int status = conn.getResponseCode();
+            try (InputStream in = conn.getInputStream()) {
+                in.readAllBytes();
+            }
+            return status == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * requests bookings over one connection, depth at a time without waiting
+     * for the answers in between; returns how many failed
+     */
+    private static int keepAliveBookings(int port, int requests, int depth, long[] latencies, int offset) {
+        byte[] body = BOOKING.getBytes(StandardCharsets.UTF_8);
+        byte[] request = ("POST /tokens HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n" +
+            "Content-Length: " + body.length + "\r\n\r\n" + BOOKING).getBytes(StandardCharsets.UTF_8);
+        int failed = 0;
+        int done = 0;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (done < requests) {
+                int batch = Math.min(depth, requests - done);
+                long t0 = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    out.write(request);
+                }
+                out.flush();
+                for (int i = 0; i < batch; i++) {
+                    if (readResponse(in) != 200) failed++;
+                    latencies[offset + done++] = System.nanoTime() - t0;
+                }
+            }
+        } catch (IOException e) {
+            failed += requests - done;
+            Arrays.fill(latencies, offset + done, offset + requests, Long.MAX_VALUE);
+        }
+        return failed;
+    }
+
+    /**
+     * Read one Content-Length response off a keep-alive connection; returns its status
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+        int length = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                length = Integer.parseInt(line.substring(colon + 1).trim());
+            }
+        }
+        if (in.readNBytes(length).length < length) {
+            throw new IOException("Connection closed mid-response");
+        }
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new IOException("Connection closed");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * A kiosk on bad Wi-Fi: sends headers, then the body one byte every 10 ms
+     */
+    private static void slowBooking(int port) {
+        byte[] body = BOOKING.getBytes(StandardCharsets.UTF_8);
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /tokens HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n" +
+                "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            for (byte b : body) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(10);
+            }
+            socket.getInputStream().read();
+        } catch (IOException e) {
+            // server stopped first - fine for a load test
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
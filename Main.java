@@ -16,6 +16,7 @@ public class Main {
 
         Token.resetCounter();
         TokenManager manager = new TokenManager();
+        manager.setListener(new ConsoleBookingListener());
 
         // ═══════════════════════════════════════════════════════════
         // SETUP: Create 3 doctors with slots
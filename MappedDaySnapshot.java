@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed-layout, memory-mapped copy of the day's Doctor / Slot / Token tables
+ *
+ * A restarted server maps this file (FileChannel.map) and can answer
+ * GET /doctors straight from it, without building any Token objects, while
+ * the full recovery runs. It reflects the last snapshot, not the journal tail.
+ *
+ * Layout (big-endian, offsets in bytes from the start of the file):
+ *   header   64 bytes  magic, version, counts, table offsets
+ *   doctors  20 bytes  name, first slot, slot count, first waiting token, waiting count
+ *   slots    20 bytes  start time, end time, capacity, first token, token count
+ *   tokens   32 bytes  id number, id width, type, name, createdAt, allocatedAt
+ *   strings            int length + UTF-8 bytes, each distinct string stored once
+ *
+ * A token ID "T00042" is stored as number 42 with width 5 and rebuilt on read;
+ * an ID that isn't T + digits goes to the string pool (width 0, number = offset).
+ * Times are epoch nanos (NO_TIME when unset). Whole file must stay under 2 GB.
+ */
+public class MappedDaySnapshot {
+    private static final int MAGIC = 0x4F50444D;  // "OPDM"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int DOCTOR_SIZE = 20;
+    private static final int SLOT_SIZE = 20;
+    private static final int TOKEN_SIZE = 32;
+    private static final int NULL_STRING = -1;
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final MappedByteBuffer buffer;
+    private final int doctorCount;
+    private final int doctorTable;
+    private final int slotTable;
+    private final int tokenTable;
+    private final int stringPool;
+    private final Map<String, Integer> doctorsByName;
+
+    private MappedDaySnapshot(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a mapped day snapshot");
+        }
+        this.doctorCount = buffer.getInt(8);
+        this.doctorTable = buffer.getInt(20);
+        this.slotTable = buffer.getInt(24);
+        this.tokenTable = buffer.getInt(28);
+        this.stringPool = buffer.getInt(32);
+        this.doctorsByName = new HashMap<>();
+        for (int d = 0; d < doctorCount; d++) {
+            doctorsByName.put(getDoctorName(d), d);
+        }
+    }
+
+    /**
+     * Map an existing file read-only
+     */
+    public static MappedDaySnapshot open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedDaySnapshot(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Reading - everything is an index into the fixed-size tables
+    // ═══════════════════════════════════════════════════════════
+
+    public int getDoctorCount() {
+        return doctorCount;
+    }
+
+    /**
+     * Doctor index by name, or -1
+     */
+    public int findDoctor(String name) {
+        Integer d = doctorsByName.get(name);
+        return d == null ? -1 : d;
+    }
+
+    public String getDoctorName(int d) {
+        return string(buffer.getInt(doctorTable + d * DOCTOR_SIZE));
+    }
+
+    public int getSlotCount(int d) {
+        return buffer.getInt(doctorTable + d * DOCTOR_SIZE + 8);
+    }
+
+    /**
+     * Global slot number of the doctor's i-th slot
+     */
+    public int getSlot(int d, int i) {
+        return buffer.getInt(doctorTable + d * DOCTOR_SIZE + 4) + i;
+    }
+
+    public int getWaitingCount(int d) {
+        return buffer.getInt(doctorTable + d * DOCTOR_SIZE + 16);
+    }
+
+    /**
+     * Global token number of the doctor's i-th waiting list entry
+     */
+    public int getWaitingToken(int d, int i) {
+        return buffer.getInt(doctorTable + d * DOCTOR_SIZE + 12) + i;
+    }
+
+    public String getSlotTimeRange(int s) {
+        return getSlotStartTime(s) + " - " + getSlotEndTime(s);
+    }
+
+    public String getSlotStartTime(int s) {
+        return string(buffer.getInt(slotTable + s * SLOT_SIZE));
+    }
+
+    public String getSlotEndTime(int s) {
+        return string(buffer.getInt(slotTable + s * SLOT_SIZE + 4));
+    }
+
+    public int getSlotCapacity(int s) {
+        return buffer.getInt(slotTable + s * SLOT_SIZE + 8);
+    }
+
+    public int getSlotTokenCount(int s) {
+        return buffer.getInt(slotTable + s * SLOT_SIZE + 16);
+    }
+
+    /**
+     * Global token number of the slot's i-th token (priority order)
+     */
+    public int getSlotToken(int s, int i) {
+        return buffer.getInt(slotTable + s * SLOT_SIZE + 12) + i;
+    }
+
+    public String getTokenId(int t) {
+        int base = tokenTable + t * TOKEN_SIZE;
+        long number = buffer.getLong(base);
+        int width = buffer.get(base + 8);
+        if (width == 0) {
+            return string((int) number);
+        }
+        char[] id = new char[width + 1];
+        id[0] = 'T';
+        for (int i = width; i >= 1; i--) {
+            id[i] = (char) ('0' + (int) (number % 10));
+            number /= 10;
+        }
+        return new String(id);
+    }
+
+    public TokenType getTokenType(int t) {
+        return TYPES[buffer.get(tokenTable + t * TOKEN_SIZE + 9)];
+    }
+
+    public String getTokenPatient(int t) {
+        return string(buffer.getInt(tokenTable + t * TOKEN_SIZE + 12));
+    }
+
+    public long getTokenCreatedAtNanos(int t) {
+        return buffer.getLong(tokenTable + t * TOKEN_SIZE + 16);
+    }
+
+    public long getTokenAllocatedAtNanos(int t) {
+        return buffer.getLong(tokenTable + t * TOKEN_SIZE + 24);
+    }
+
+    private String string(int offset) {
+        if (offset == NULL_STRING) return null;
+        int pos = stringPool + offset;
+        int length = buffer.getInt(pos);
+        byte[] bytes = new byte[length];
+        buffer.get(pos + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Writing
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Write the current state of every doctor (each copied under its lock)
+     * to a temp file and move it into place
+     */
+    public static void write(Path file, TokenManager manager) throws IOException {
+        List<DoctorCopy> doctors = new ArrayList<>();
+        int slotTotal = 0;
+        int tokenTotal = 0;
+        for (Doctor doctor : manager.getAllDoctors()) {
+            DoctorCopy copy = new DoctorCopy();
+            synchronized (doctor) {
+                copy.name = doctor.getName();
+                for (Slot slot : doctor.getSlots()) {
+                    copy.slots.add(slot);
+                    copy.slotCounts.add(slot.getCurrentCount());
+                    for (Token t : slot) copy.tokens.add(t);
+                }
+                copy.waiting = doctor.getWaitingList().size();
+                for (Token t : doctor.getWaitingList()) copy.tokens.add(t);
+            }
+            doctors.add(copy);
+            slotTotal += copy.slots.size();
+            tokenTotal += copy.tokens.size();
+        }
+
+        // intern every string first so the file size is known before mapping it
+        StringPool pool = new StringPool();
+        for (DoctorCopy copy : doctors) {
+            pool.offset(copy.name);
+            for (Slot slot : copy.slots) {
+                pool.offset(slot.getStartTime());
+                pool.offset(slot.getEndTime());
+            }
+            for (Token token : copy.tokens) {
+                pool.offset(token.getPatientName());
+                if (idNumber(token.getId()) < 0) pool.offset(token.getId());
+            }
+        }
+
+        int doctorTable = HEADER_SIZE;
+        int slotTable = doctorTable + doctors.size() * DOCTOR_SIZE;
+        int tokenTable = slotTable + slotTotal * SLOT_SIZE;
+        int stringPool = tokenTable + tokenTotal * TOKEN_SIZE;
+        long size = (long) stringPool + pool.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Day too large for a mapped snapshot: " + size + " bytes");
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(0, MAGIC).putInt(4, VERSION)
+                .putInt(8, doctors.size()).putInt(12, slotTotal).putInt(16, tokenTotal)
+                .putInt(20, doctorTable).putInt(24, slotTable).putInt(28, tokenTable).putInt(32, stringPool);
+
+            int s = 0;
+            int t = 0;
+            for (int d = 0; d < doctors.size(); d++) {
+                DoctorCopy copy = doctors.get(d);
+                int slotTokens = copy.tokens.size() - copy.waiting;
+                int base = doctorTable + d * DOCTOR_SIZE;
+                out.putInt(base, pool.offset(copy.name))
+                    .putInt(base + 4, s).putInt(base + 8, copy.slots.size())
+                    .putInt(base + 12, t + slotTokens).putInt(base + 16, copy.waiting);
+
+                int first = t;
+                for (int i = 0; i < copy.slots.size(); i++, s++) {
+                    Slot slot = copy.slots.get(i);
+                    int sb = slotTable + s * SLOT_SIZE;
+                    out.putInt(sb, pool.offset(slot.getStartTime()))
+                        .putInt(sb + 4, pool.offset(slot.getEndTime()))
+                        .putInt(sb + 8, slot.getCapacity())
+                        .putInt(sb + 12, t).putInt(sb + 16, copy.slotCounts.get(i));
+                    t += copy.slotCounts.get(i);
+                }
+                t += copy.waiting;
+                for (int i = 0; i < copy.tokens.size(); i++) {
+                    writeToken(out, tokenTable + (first + i) * TOKEN_SIZE, copy.tokens.get(i), pool);
+                }
+            }
+
+            out.position(stringPool);
+            pool.writeTo(out);
+            out.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeToken(ByteBuffer out, int base, Token token, StringPool pool) {
+        String id = token.getId();
+        long number = idNumber(id);
+        int width = id.length() - 1;
+        if (number < 0) {
+            number = pool.offset(id);
+            width = 0;
+        }
+        out.putLong(base, number)
+            .put(base + 8, (byte) width)
+            .put(base + 9, (byte) token.getType().ordinal())
+            .putInt(base + 12, pool.offset(token.getPatientName()))
+            .putLong(base + 16, token.getCreatedAtNanos())
+            .putLong(base + 24, token.getAllocatedAtNanos() == Token.NOT_ALLOCATED ? NO_TIME : token.getAllocatedAtNanos());
+    }
+
+    /**
+     * The digits of a "T" + digits ID as a number, or -1 for any other ID
+     */
+    private static long idNumber(String id) {
+        if (id.length() < 2 || id.length() > 19 || id.charAt(0) != 'T') return -1;
+        long number = 0;
+        for (int i = 1; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static class DoctorCopy {
+        String name;
+        final List<Slot> slots = new ArrayList<>();
+        final List<Integer> slotCounts = new ArrayList<>();
+        final List<Token> tokens = new ArrayList<>();
+        int waiting;
+    }
+
+    /**
+     * Collects distinct strings; offset() gives each one's place in the pool
+     */
+    private static class StringPool {
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int size;
+
+        int offset(String s) {
+            if (s == null) return NULL_STRING;
+            Integer existing = offsets.get(s);
+            if (existing != null) return existing;
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            int offset = size;
+            offsets.put(s, offset);
+            strings.add(bytes);
+            size += 4 + bytes.length;
+            return offset;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeTo(ByteBuffer out) {
+            for (byte[] bytes : strings) {
+                out.putInt(bytes.length);
+                out.put(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms for GET /metrics (Prometheus text format)
+ *
+ * Recording is a LongAdder add or a Histogram.record - safe from any thread,
+ * no locks and no allocation, so it stays on in production. Everything that
+ * can be read off the doctors themselves (waiting-list depth, seats taken) is
+ * not counted at all but gathered when /metrics is scraped.
+ */
+public class Metrics {
+    /**
+     * TokenManager operations that are timed (label op="book" etc)
+     */
+    public enum Operation {
+        BOOK, BOOK_BATCH, CANCEL, NO_SHOW, DELAY;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Histogram[] latency = new Histogram[OPERATIONS.length];
+    private final Histogram cascade = new Histogram();
+    private final LongAdder bumps = new LongAdder();
+    private final LongAdder waitingListed = new LongAdder();
+    private final LongAdder[] httpStatus = new LongAdder[600];
+    private final Histogram httpLatency = new Histogram();
+
+    public Metrics() {
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new Histogram();
+        }
+        for (int i = 0; i < httpStatus.length; i++) {
+            httpStatus[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * A successful operation took this long (journal wait included)
+     */
+    public void recordOperation(Operation operation, long nanos) {
+        latency[operation.ordinal()].record(nanos);
+    }
+
+    /**
+     * One booking's bump chain displaced this many tokens (0 = it just fit)
+     */
+    public void recordCascade(int length) {
+        cascade.record(length);
+        bumps.add(length);
+    }
+
+    public void recordWaitingListed() {
+        waitingListed.increment();
+    }
+
+    /**
+     * An HTTP response went out (status -1: the exchange was closed without one)
+     */
+    public void recordHttp(int status, long nanos) {
+        if (status >= 100 && status < httpStatus.length) {
+            httpStatus[status].increment();
+        }
+        httpLatency.record(nanos);
+    }
+
+    public Histogram getLatency(Operation operation) {
+        return latency[operation.ordinal()];
+    }
+
+    public Histogram getCascade() {
+        return cascade;
+    }
+
+    public long getHttpCount(int status) {
+        return httpStatus[status].sum();
+    }
+
+    /**
+     * Everything in the Prometheus text exposition format (version 0.0.4)
+     */
+    public void writePrometheus(StringBuilder out, TokenManager manager) {
+        header(out, "opd_operation_seconds", "summary",
+            "Time taken by successful TokenManager operations, journal fsync wait included");
+        for (Operation operation : OPERATIONS) {
+            summary(out, "opd_operation_seconds", "op=\"" + operation.label + "\"", latency[operation.ordinal()], 1e9);
+        }
+
+        header(out, "opd_bump_cascade_length", "summary", "Tokens displaced by one booking's bump chain");
+        summary(out, "opd_bump_cascade_length", null, cascade, 1);
+
+        header(out, "opd_bumps_total", "counter", "Tokens bumped out of their slot by a higher priority");
+        sample(out, "opd_bumps_total", null, bumps.sum());
+        header(out, "opd_waiting_listed_total", "counter", "Tokens that found no seat and went to a waiting list");
+        sample(out, "opd_waiting_listed_total", null, waitingListed.sum());
+        header(out, "opd_rebalance_sweeps_total", "counter", "Rebalance sweeps over a doctor's slots");
+        sample(out, "opd_rebalance_sweeps_total", null, manager.getRebalanceCount());
+        header(out, "opd_seats_recovered_total", "counter", "Free seats filled from waiting lists by rebalancing");
+        sample(out, "opd_seats_recovered_total", null, manager.getSeatsRecovered());
+
+        header(out, "opd_waiting_list_depth", "gauge", "Tokens on a doctor's waiting list");
+        StringBuilder utilization = new StringBuilder();
+        for (Doctor doctor : manager.getAllDoctors()) {
+            String label = "doctor=\"" + escapeLabel(doctor.getName()) + "\"";
+            long booked = 0;
+            long capacity = 0;
+            int waiting;
+            synchronized (doctor) {
+                for (Slot slot : doctor.getSlots()) {
+                    booked += slot.getCurrentCount();
+                    capacity += slot.getCapacity();
+                }
+                waiting = doctor.getWaitingList().size();
+            }
+            sample(out, "opd_waiting_list_depth", label, waiting);
+            sample(utilization, "opd_slot_utilization", label, capacity == 0 ? 0 : (double) booked / capacity);
+        }
+        header(out, "opd_slot_utilization", "gauge", "Booked share of a doctor's seats (0-1)");
+        out.append(utilization);
+
+        header(out, "opd_http_responses_total", "counter", "HTTP responses by status code");
+        for (int status = 100; status < httpStatus.length; status++) {
+            long count = httpStatus[status].sum();
+            if (count > 0) {
+                sample(out, "opd_http_responses_total", "code=\"" + status + "\"", count);
+            }
+        }
+        header(out, "opd_http_request_seconds", "summary", "Time from routing a request to its response");
+        summary(out, "opd_http_request_seconds", null, httpLatency, 1e9);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Histogram histogram, double unit) {
+        long[] values = histogram.quantiles(QUANTILES);
+        long count = histogram.getCount();
+        for (int i = 0; i < QUANTILES.length; i++) {
+            String quantile = "quantile=\"" + QUANTILES[i] + "\"";
+            sample(out, name, labels == null ? quantile : labels + "," + quantile, count == 0 ? Double.NaN : values[i] / unit);
+        }
+        sample(out, name + "_sum", labels, histogram.getSum() / unit);
+        sample(out, name + "_count", labels, count);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Label values escape backslash, double quote and newline
+     */
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
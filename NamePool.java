@@ -0,0 +1,40 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One shared String per distinct patient name (optional, see Token.setNamePool)
+ *
+ * Desks type the same names over and over, and every request body decodes a
+ * fresh String for them. Keeping one copy saves ~50 bytes per repeated name.
+ * The pool stops growing at maxNames, so a day of unique names can't blow it
+ * up; names past that are simply kept as they are.
+ */
+public class NamePool {
+    private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+    private final int maxNames;
+
+    public NamePool(int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    /**
+     * The pooled copy of name (name itself the first time, or when the pool is full)
+     */
+    public String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String pooled = names.get(name);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (names.size() >= maxNames) {
+            return name;
+        }
+        pooled = names.putIfAbsent(name, name);
+        return pooled != null ? pooled : name;
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,1016 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking HTTP/1.1 front-end, an alternative to com.sun's HttpServer
+ *
+ * One selector thread accepts, reads and writes every connection. Requests
+ * are parsed straight out of a pooled direct ByteBuffer: the request line and
+ * headers become the usual HttpExchange fields and the body is handed to the
+ * handler as a stream over the same buffer, so JsonReader reads it in place.
+ * Handlers run on the executor (on the selector thread when it is null) and
+ * are the ones ApiServer already has: the exchange given to them is an
+ * HttpExchange, so nothing above the transport changes.
+ *
+ * Connections are kept alive (HTTP/1.1 default, "Connection: close" and
+ * HTTP/1.0 without keep-alive close after the response). Pipelined requests
+ * are answered in order: while a request is being handled the connection is
+ * not read, and the next request is parsed from what is buffered (or read)
+ * once the response is fully written. Responses are written from pooled
+ * direct buffers; a fixed-length response goes out as one write when it fits,
+ * sendResponseHeaders(code, 0) streams chunked (GET /doctors, /events).
+ *
+ * A handler writing faster than the client reads waits once MAX_QUEUED bytes
+ * are queued for its connection (as a blocking socket would).
+ *
+ * Filters (getFilters) run around the handler in order, as they would on an
+ * HttpContext, and may wrap the request and response streams with
+ * setStreams. There is a single context: getHttpContext() is null.
+ */
+public class NioHttpServer implements Closeable {
+    static final int BUFFER_SIZE = 16 * 1024;
+    static final int MAX_HEAD = BUFFER_SIZE;
+    static final int MAX_REQUEST = 1024 * 1024;
+    static final long MAX_QUEUED = 1024 * 1024;
+    static final long IDLE_TIMEOUT_MILLIS = 60_000;
+    // room kept in front of / behind a chunk for its "size\r\n" and "\r\n"
+    private static final int CHUNK_HEAD = 8;
+    private static final int CHUNK_TAIL = 2;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private final int backlog;
+    private final HttpHandler handler;
+    private final Executor executor;
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE, 1024);
+    private final ConcurrentLinkedQueue<Connection> pending = new ConcurrentLinkedQueue<>();
+    private final List<Filter> filters = new CopyOnWriteArrayList<>();
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * executor null runs the handlers on the selector thread (like ExecutorKind.DISPATCHER)
+     */
+    public NioHttpServer(InetSocketAddress address, int backlog, HttpHandler handler, Executor executor) {
+        this.address = address;
+        this.backlog = backlog;
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, backlog);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(this::run, "nio-selector");
+        selectorThread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Filters run in this order before the handler, for every request (live list)
+     */
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null) {
+            try {
+                selectorThread.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Selector loop (everything here runs on the selector thread)
+    // ═══════════════════════════════════════════════════════════
+
+    private void run() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(1_000);
+                Connection conn;
+                while ((conn = pending.poll()) != null) {
+                    try {
+                        service(conn);
+                    } catch (IOException | RuntimeException e) {
+                        conn.close();
+                    }
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection c = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            service(c);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(c);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (key.attachment() instanceof Connection) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= 1_000) {
+                    sweepIdle(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("✗ NIO server stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                // shutting down anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+        }
+    }
+
+    /**
+     * Keep-alive connections with nothing in flight are closed after a minute
+     */
+    private void sweepIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                Connection conn = (Connection) key.attachment();
+                if (!conn.busy && conn.out.isEmpty() && now - conn.lastActive > IDLE_TIMEOUT_MILLIS) {
+                    conn.close();
+                }
+            }
+        }
+    }
+
+    private void read(Connection conn) throws IOException {
+        if (conn.in == null) {
+            conn.in = pool.acquire();
+        }
+        if (!conn.in.hasRemaining()) {
+            // parsed requests in front: move the rest down, else the request needs a bigger buffer
+            makeRoom(conn, conn.readPos > 0 ? conn.in.capacity() : conn.in.capacity() + 1);
+        }
+        int n = conn.channel.read(conn.in);
+        if (n < 0) {
+            conn.close();
+            return;
+        }
+        conn.lastActive = System.currentTimeMillis();
+        parse(conn);
+    }
+
+    /**
+     * Make the unparsed bytes start at 0 and the buffer hold at least need bytes
+     * (only while no request is in flight: its body is a view of this buffer)
+     */
+    private void makeRoom(Connection conn, int need) {
+        ByteBuffer in = conn.in;
+        int unparsed = in.position() - conn.readPos;
+        if (need <= in.capacity() && conn.readPos > 0) {
+            in.flip().position(conn.readPos);
+            in.compact();
+        } else if (need > in.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(need, in.capacity() * 2));
+            in.flip().position(conn.readPos);
+            bigger.put(in);
+            pool.release(conn.in);
+            conn.in = bigger;
+        }
+        // everything moved down by readPos, the scan position with it
+        conn.scanFrom = Math.max(0, conn.scanFrom - conn.readPos);
+        conn.readPos = 0;
+        conn.in.position(unparsed);
+    }
+
+    /**
+     * Parse the next buffered request and hand it to the handler, if it is complete
+     */
+    private void parse(Connection conn) throws IOException {
+        if (conn.busy || conn.closed) {
+            return;
+        }
+        ByteBuffer in = conn.in;
+        int start = conn.readPos;
+        int end = in.position();
+        if (start == end) {
+            // nothing left over: the buffer goes back to the pool until the next read
+            pool.release(in);
+            conn.in = null;
+            conn.readPos = 0;
+            conn.scanFrom = 0;
+            return;
+        }
+
+        int headEnd = findHeadEnd(in, Math.max(start, conn.scanFrom - 3), end);
+        if (headEnd < 0) {
+            conn.scanFrom = end;
+            if (end - start >= MAX_HEAD) {
+                reject(conn, 431, "Request header too large");
+            }
+            return;
+        }
+
+        Request request;
+        try {
+            request = parseHead(in, start, headEnd);
+        } catch (IllegalArgumentException e) {
+            reject(conn, 400, e.getMessage());
+            return;
+        }
+        if (request.chunked) {
+            reject(conn, 501, "Chunked request bodies are not supported, send a Content-Length");
+            return;
+        }
+        int bodyStart = headEnd + 4;
+        long total = (long) bodyStart - start + request.contentLength;
+        if (request.contentLength < 0 || total > MAX_REQUEST) {
+            reject(conn, 413, "Request too large");
+            return;
+        }
+        if (end < bodyStart + request.contentLength) {
+            if (start + total > in.capacity()) {
+                makeRoom(conn, (int) total);
+            }
+            if (request.expectContinue && !conn.continueSent) {
+                conn.continueSent = true;
+                conn.enqueue(ByteBuffer.wrap(CONTINUE));
+                flush(conn);
+            }
+            return;
+        }
+
+        ByteBuffer body = in.duplicate();
+        body.limit(bodyStart + request.contentLength).position(bodyStart);
+        conn.readPos = bodyStart + request.contentLength;
+        conn.scanFrom = conn.readPos;
+        conn.continueSent = false;
+        conn.busy = true;
+        conn.keepAlive = request.keepAlive;
+        conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+
+        NioExchange exchange = new NioExchange(conn, request, body.slice());
+        if (executor == null) {
+            handle(exchange);
+        } else {
+            executor.execute(() -> handle(exchange));
+        }
+    }
+
+    private void handle(NioExchange exchange) {
+        try {
+            if (filters.isEmpty()) {
+                handler.handle(exchange);
+            } else {
+                new Filter.Chain(filters, handler).doFilter(exchange);
+            }
+        } catch (IOException | RuntimeException e) {
+            exchange.conn.abort();
+        }
+    }
+
+    /**
+     * Answer a request that cannot be handled and close the connection after
+     */
+    private void reject(Connection conn, int status, String message) throws IOException {
+        byte[] body = ("{\"error\": " + JsonWriter.quote(message) + "}").getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\nContent-Type: application/json\r\n"
+            + "Content-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+        conn.busy = true;
+        conn.keepAlive = false;
+        conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+        conn.enqueue(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+        conn.enqueue(ByteBuffer.wrap(body));
+        conn.responseDone = true;
+        flush(conn);
+    }
+
+    /**
+     * A connection some other thread queued output for, finished or aborted
+     */
+    private void service(Connection conn) throws IOException {
+        if (conn.aborted) {
+            conn.close();
+            return;
+        }
+        if (!conn.closed) {
+            flush(conn);
+        }
+    }
+
+    /**
+     * Write what is queued; when the response is complete and written, go on
+     * with the next request (or close)
+     */
+    private void flush(Connection conn) throws IOException {
+        ByteBuffer b;
+        while ((b = conn.out.peek()) != null) {
+            int n = conn.channel.write(b);
+            conn.queued.addAndGet(-n);
+            if (b.hasRemaining()) {
+                break;
+            }
+            conn.out.poll();
+            pool.release(b);
+        }
+        conn.wakeWriters();
+        boolean drained = conn.out.isEmpty();
+        int ops = conn.key.interestOps();
+        conn.key.interestOps(drained ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE);
+        if (drained && conn.responseDone) {
+            conn.responseDone = false;
+            conn.busy = false;
+            conn.lastActive = System.currentTimeMillis();
+            if (!conn.keepAlive) {
+                conn.close();
+                return;
+            }
+            conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_READ);
+            if (conn.in != null) {
+                parse(conn);  // a pipelined request may be waiting already
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Request head parsing
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Request line and headers, read from the buffer as ISO-8859-1
+     */
+    static final class Request {
+        String method;
+        URI uri;
+        String protocol;
+        final Headers headers = new Headers();
+        int contentLength;
+        boolean chunked;
+        boolean keepAlive;
+        boolean expectContinue;
+    }
+
+    /**
+     * Position of the "\r\n\r\n" ending the head, or -1
+     */
+    static int findHeadEnd(ByteBuffer in, int from, int end) {
+        for (int i = Math.max(from, 0); i + 3 < end; i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static Request parseHead(ByteBuffer in, int start, int headEnd) {
+        Request request = new Request();
+        int lineEnd = indexOf(in, start, headEnd, '\r');
+        if (lineEnd < 0) lineEnd = headEnd;
+        int sp1 = indexOf(in, start, lineEnd, ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(in, sp1 + 1, lineEnd, ' ');
+        if (sp1 <= start || sp2 <= sp1 + 1) {
+            throw new IllegalArgumentException("Bad request line");
+        }
+        request.method = ascii(in, start, sp1);
+        String target = ascii(in, sp1 + 1, sp2);
+        try {
+            request.uri = new URI(target);
+        } catch (java.net.URISyntaxException e) {
+            throw new IllegalArgumentException("Bad request target: " + target);
+        }
+        request.protocol = ascii(in, sp2 + 1, lineEnd);
+        if (!request.protocol.startsWith("HTTP/1.")) {
+            throw new IllegalArgumentException("Unsupported protocol: " + request.protocol);
+        }
+
+        String connection = null;
+        int pos = lineEnd + 2;
+        while (pos < headEnd) {
+            int eol = indexOf(in, pos, headEnd, '\r');
+            if (eol < 0) eol = headEnd;
+            int colon = indexOf(in, pos, eol, ':');
+            if (colon <= pos) {
+                throw new IllegalArgumentException("Bad header line");
+            }
+            String name = ascii(in, pos, colon);
+            String value = ascii(in, colon + 1, eol).trim();
+            request.headers.add(name, value);
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    request.contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad Content-Length: " + value);
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                request.chunked = value.toLowerCase().contains("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                connection = value;
+            } else if (name.equalsIgnoreCase("Expect")) {
+                request.expectContinue = value.equalsIgnoreCase("100-continue");
+            }
+            pos = eol + 2;
+        }
+        request.keepAlive = request.protocol.equals("HTTP/1.1")
+            ? !"close".equalsIgnoreCase(connection)
+            : "keep-alive".equalsIgnoreCase(connection);
+        return request;
+    }
+
+    private static int indexOf(ByteBuffer in, int from, int end, char c) {
+        for (int i = from; i < end; i++) {
+            if (in.get(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static String ascii(ByteBuffer in, int from, int end) {
+        byte[] bytes = new byte[end - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = in.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    static String reason(int status) {
+        switch (status) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Connections and exchanges
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * One client socket. Fields without a note are only touched by the selector
+     * thread; out, queued, responseDone, aborted and closed are shared with the
+     * thread writing the response.
+     */
+    final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in;        // bytes read, unparsed ones from readPos; null while there are none
+        int readPos;
+        int scanFrom;         // where the search for the end of the head goes on
+        boolean busy;         // a request is being handled, don't read or parse
+        boolean keepAlive;
+        boolean continueSent;
+        long lastActive = System.currentTimeMillis();
+        final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final AtomicLong queued = new AtomicLong();
+        volatile boolean responseDone;
+        volatile boolean aborted;
+        volatile boolean closed;
+        private volatile boolean writerWaiting;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void enqueue(ByteBuffer buffer) throws IOException {
+            if (closed) {
+                pool.release(buffer);
+                throw new ClosedChannelException();
+            }
+            queued.addAndGet(buffer.remaining());
+            out.add(buffer);
+        }
+
+        /**
+         * Ask the selector to write (and finish the exchange if responseDone);
+         * a thread other than the selector waits while too much is queued
+         */
+        void wake(boolean mayWait) throws IOException {
+            if (Thread.currentThread() == selectorThread) {
+                flush(this);
+                return;
+            }
+            pending.add(this);
+            selector.wakeup();
+            if (!mayWait || queued.get() <= MAX_QUEUED) {
+                return;
+            }
+            synchronized (this) {
+                writerWaiting = true;
+                try {
+                    while (!closed && queued.get() > MAX_QUEUED / 2) {
+                        wait(1_000);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while writing");
+                } finally {
+                    writerWaiting = false;
+                }
+            }
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        void wakeWriters() {
+            if (writerWaiting) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Give up on the connection mid-response (from any thread)
+         */
+        void abort() {
+            aborted = true;
+            if (Thread.currentThread() == selectorThread) {
+                close();
+            } else {
+                pending.add(this);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Close and give the buffers back (selector thread)
+         */
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            if (in != null && !busy) {  // a running handler may still read its body from it
+                pool.release(in);
+            }
+            in = null;
+            ByteBuffer b;
+            while ((b = out.poll()) != null) {
+                pool.release(b);
+            }
+            wakeWriters();
+        }
+    }
+
+    /**
+     * The HttpExchange handlers see. The response is written into pooled direct
+     * buffers and handed to the selector; the request body is read in place.
+     */
+    final class NioExchange extends HttpExchange {
+        final Connection conn;
+        private final Request request;
+        private final InputStream body;
+        private final Headers responseHeaders = new Headers();
+        private ResponseStream response;
+        private InputStream filteredBody;      // set by a filter through setStreams
+        private OutputStream filteredResponse;
+        private OutputStream unsentResponse;   // what a filter wraps before the headers are sent
+        private int responseCode = -1;
+        private Map<String, Object> attributes;
+
+        NioExchange(Connection conn, Request request, ByteBuffer body) {
+            this.conn = conn;
+            this.request = request;
+            this.body = new BodyStream(body);
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return request.headers;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return request.uri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return request.method;
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        /**
+         * Finish the response; one that is incomplete (or was never started) closes the connection
+         */
+        @Override
+        public void close() {
+            try {
+                if (filteredResponse != null && response != null) {
+                    filteredResponse.close();  // lets a wrapper write what it still holds
+                }
+                if (response == null) {
+                    conn.abort();
+                } else {
+                    response.close();
+                }
+            } catch (IOException e) {
+                conn.abort();
+            }
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return filteredBody != null ? filteredBody : body;
+        }
+
+        /**
+         * The response stream; before sendResponseHeaders, one that forwards to
+         * it once the headers are sent (for filters to wrap)
+         */
+        @Override
+        public OutputStream getResponseBody() {
+            if (filteredResponse != null) {
+                return filteredResponse;
+            }
+            if (response != null) {
+                return response;
+            }
+            if (unsentResponse == null) {
+                unsentResponse = new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        sent().write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        sent().write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        if (response != null) response.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        if (response != null) response.close();
+                    }
+                };
+            }
+            return unsentResponse;
+        }
+
+        private ResponseStream sent() throws IOException {
+            if (response == null) {
+                throw new IOException("sendResponseHeaders first");
+            }
+            return response;
+        }
+
+        /**
+         * length > 0: exactly that many bytes follow; 0: chunked; -1: no body
+         */
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            if (response != null) {
+                throw new IOException("Headers already sent");
+            }
+            responseCode = code;
+            boolean noBody = length < 0 || code == 304 || code == 204;
+            StringBuilder head = new StringBuilder(128);
+            head.append(request.protocol.equals("HTTP/1.0") ? "HTTP/1.0 " : "HTTP/1.1 ")
+                .append(code).append(' ').append(reason(code)).append("\r\n");
+            for (Map.Entry<String, java.util.List<String>> header : responseHeaders.entrySet()) {
+                for (String value : header.getValue()) {
+                    head.append(header.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+            if (noBody) {
+                if (code != 304 && code != 204) head.append("Content-Length: 0\r\n");
+            } else if (length == 0) {
+                head.append("Transfer-Encoding: chunked\r\n");
+            } else {
+                head.append("Content-Length: ").append(length).append("\r\n");
+            }
+            if (request.keepAlive && request.protocol.equals("HTTP/1.0")) {
+                head.append("Connection: keep-alive\r\n");
+            } else if (!request.keepAlive) {
+                head.append("Connection: close\r\n");
+            }
+            head.append("\r\n");
+            response = new ResponseStream(conn, noBody ? -1 : length);
+            response.writeHead(head);
+            if (noBody) {
+                response.close();
+            }
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            try {
+                return (InetSocketAddress) conn.channel.getRemoteAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            try {
+                return (InetSocketAddress) conn.channel.getLocalAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String getProtocol() {
+            return request.protocol;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes == null ? null : attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            if (attributes == null) attributes = new HashMap<>();
+            attributes.put(name, value);
+        }
+
+        /**
+         * For filters: later getRequestBody / getResponseBody calls return these
+         * (null keeps that side as it is); they must wrap the current streams
+         */
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            if (i != null) filteredBody = i;
+            if (o != null) filteredResponse = o;
+        }
+
+        @Override
+        public com.sun.net.httpserver.HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+
+    /**
+     * The request body, read straight from the connection's buffer
+     */
+    static final class BodyStream extends InputStream {
+        private final ByteBuffer body;
+
+        BodyStream(ByteBuffer body) {
+            this.body = body;
+        }
+
+        @Override
+        public int read() {
+            return body.hasRemaining() ? body.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!body.hasRemaining()) return -1;
+            int n = Math.min(len, body.remaining());
+            body.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return body.remaining();
+        }
+    }
+
+    /**
+     * Response bytes go into pooled direct buffers, each one queued on the
+     * connection when full, on flush() and on close(). In chunked mode every
+     * buffer is one chunk: room is kept in front for its size line and behind
+     * for the CRLF, so a chunk is never copied.
+     */
+    final class ResponseStream extends OutputStream {
+        private final Connection conn;
+        private final long length;  // -1 no body, 0 chunked, else Content-Length
+        private ByteBuffer buf;
+        private long written;
+        private boolean closed;
+
+        ResponseStream(Connection conn, long length) {
+            this.conn = conn;
+            this.length = length;
+        }
+
+        void writeHead(CharSequence head) throws IOException {
+            buf = pool.acquire();
+            for (int i = 0; i < head.length(); i++) {
+                if (!buf.hasRemaining()) emit(false);
+                buf.put((byte) head.charAt(i));
+            }
+            if (length == 0) {
+                emit(false);  // chunks start in a buffer of their own
+            }
+        }
+
+        private ByteBuffer fresh() {
+            ByteBuffer b = pool.acquire();
+            if (length == 0) {
+                b.position(CHUNK_HEAD).limit(b.capacity() - CHUNK_TAIL);
+            }
+            return b;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            check(1);
+            if (!buf.hasRemaining()) emit(true);
+            buf.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            check(len);
+            while (len > 0) {
+                if (!buf.hasRemaining()) emit(true);
+                int n = Math.min(len, buf.remaining());
+                buf.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void check(int n) throws IOException {
+            if (closed) throw new IOException("Response already closed");
+            if (length < 0) throw new IOException("This response has no body");
+            written += n;
+            if (length > 0 && written > length) {
+                throw new IOException("More than the " + length + " bytes announced");
+            }
+        }
+
+        /**
+         * Queue the current buffer (as a chunk in chunked mode) and start a new one
+         */
+        private void emit(boolean mayWait) throws IOException {
+            ByteBuffer b = buf;
+            buf = null;
+            if (length == 0 && b.position() >= CHUNK_HEAD && b.limit() == b.capacity() - CHUNK_TAIL) {
+                int size = b.position() - CHUNK_HEAD;
+                if (size == 0) {
+                    buf = b;
+                    return;
+                }
+                b.limit(b.capacity());
+                b.put((byte) '\r').put((byte) '\n');
+                b.flip();
+                byte[] line = (Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                int from = CHUNK_HEAD - line.length;
+                for (int i = 0; i < line.length; i++) b.put(from + i, line[i]);
+                b.position(from);
+            } else {
+                b.flip();
+            }
+            conn.enqueue(b);
+            conn.wake(mayWait);
+            buf = fresh();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed && buf != null && buf.position() > (length == 0 ? CHUNK_HEAD : 0)) {
+                emit(true);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (buf == null || (length > 0 && written < length)) {
+                pool.release(buf);
+                conn.abort();
+                return;
+            }
+            ByteBuffer b = buf;
+            if (length == 0) {
+                // last data chunk, then the terminating zero chunk
+                if (b.position() > CHUNK_HEAD) {
+                    emitLast();
+                    b = pool.acquire();
+                } else {
+                    b.clear();
+                }
+                b.put(LAST_CHUNK);
+            }
+            b.flip();
+            buf = null;
+            if (b.hasRemaining()) {
+                conn.enqueue(b);
+            } else {
+                pool.release(b);
+            }
+            conn.responseDone = true;  // after the last bytes are queued, or the selector could finish early
+            conn.wake(false);
+        }
+
+        private void emitLast() throws IOException {
+            closed = false;
+            try {
+                emit(false);
+            } finally {
+                closed = true;
+            }
+            pool.release(buf);
+            buf = null;
+        }
+    }
+}
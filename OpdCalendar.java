@@ -0,0 +1,498 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Many departments, many days: one TokenManager per (department, date)
+ *
+ * Each shard is a complete, independent engine - its own doctors, slots,
+ * waiting lists, token index and metrics - so shards share no locks and
+ * bookings for different departments or days run on different cores.
+ *
+ * The directory maps a doctor to a department and a daily slot plan. The
+ * first booking for a (department, date) builds that day's shard from the
+ * plans of the department's doctors; later changes to a plan are applied to
+ * the shards already open as well. Bookings are taken from today up to
+ * horizonDays ahead.
+ *
+ * Days before today are archived (a SnapshotFile per shard under
+ * archiveDir/department/date.bin, when an archive directory is set) and
+ * dropped from the heap by archivePastDays, which startArchiving runs on a
+ * timer - at most departments x (horizonDays + 1) shards are ever live.
+ *
+ * Archiving takes a day out of the map first, then waits for the calls
+ * already inside it (each routed call holds its day's read lock) before
+ * writing it, so a cancel either lands in the archive or finds no day.
+ *
+ * Token ids come from the shared Token id generator, so they are unique
+ * across shards; the calendar remembers which day each token it booked went
+ * to, so cancel and no-show by id alone go straight to that shard. Tokens
+ * booked directly on a shard (shardFor, getShard) are not known by id here.
+ *
+ * Not served yet: ApiServer, BookingJournal and CommandPipeline all work on
+ * the single TokenManager they are given, so the calendar is only usable as
+ * a library, and its open days are not journaled (only archived days are
+ * written, as snapshots).
+ */
+public class OpdCalendar implements Closeable {
+    public static final int DEFAULT_HORIZON_DAYS = 30;
+
+    private final Clock clock;
+    private final int horizonDays;
+    private final Path archiveDir;
+    // doctor name -> department and slot plan (changed under the calendar lock)
+    private final Map<String, Schedule> directory = new ConcurrentHashMap<>();
+    private final Map<ShardKey, Day> shards = new ConcurrentHashMap<>();
+    // token id -> day it was booked on, for tokens booked through the calendar
+    private final Map<String, ShardKey> tokenShards = new ConcurrentHashMap<>();
+    private volatile BookingListener listener = BookingListener.NONE;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * A doctor's department and the slots every one of their days gets
+     */
+    private static class Schedule {
+        final String department;
+        final List<SlotRequest> slots = new ArrayList<>();
+
+        Schedule(String department) {
+            this.department = department;
+        }
+    }
+
+    /**
+     * An open shard, and the lock that lets archiving wait for the calls in it
+     */
+    private static final class Day {
+        final ShardKey key;
+        final TokenManager manager;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        boolean archived;  // under the write lock; calls that find it set do nothing
+
+        Day(ShardKey key, TokenManager manager) {
+            this.key = key;
+            this.manager = manager;
+        }
+    }
+
+    /**
+     * One shard: a department on one date
+     */
+    static final class ShardKey {
+        final String department;
+        final LocalDate date;
+
+        ShardKey(String department, LocalDate date) {
+            this.department = department;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ShardKey)) return false;
+            ShardKey other = (ShardKey) o;
+            return department.equals(other.department) && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return department.hashCode() * 31 + date.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return department + "/" + date;
+        }
+    }
+
+    public OpdCalendar() {
+        this(Clock.systemDefaultZone(), DEFAULT_HORIZON_DAYS, null);
+    }
+
+    /**
+     * archiveDir may be null: past days are then dropped without being written
+     */
+    public OpdCalendar(Clock clock, int horizonDays, Path archiveDir) {
+        this.clock = clock;
+        this.horizonDays = horizonDays;
+        this.archiveDir = archiveDir;
+    }
+
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    /**
+     * Last date that can be booked (today + horizonDays)
+     */
+    public LocalDate lastBookableDate() {
+        return today().plusDays(horizonDays);
+    }
+
+    public boolean isBookable(LocalDate date) {
+        return date != null && !date.isBefore(today()) && !date.isAfter(lastBookableDate());
+    }
+
+    /**
+     * Narration for every shard, open or opened later (BookingListener.NONE for silence)
+     */
+    public void setListener(BookingListener listener) {
+        this.listener = listener;
+        for (Day day : shards.values()) {
+            day.manager.setListener(listener);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Directory
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Register a doctor in a department; false if the name is already taken
+     */
+    public synchronized boolean addDoctor(String department, String name) {
+        if (directory.containsKey(name)) {
+            return false;
+        }
+        directory.put(name, new Schedule(department));
+        for (Map.Entry<ShardKey, Day> shard : shards.entrySet()) {
+            if (shard.getKey().department.equals(department)) {
+                shard.getValue().manager.addDoctor(name);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a slot to a doctor's daily plan (and to their days already open)
+     */
+    public synchronized boolean addSlot(String doctorName, String startTime, String endTime, int capacity) {
+        Schedule schedule = directory.get(doctorName);
+        if (schedule == null) {
+            return false;
+        }
+        schedule.slots.add(new SlotRequest(startTime, endTime, capacity));
+        for (Map.Entry<ShardKey, Day> shard : shards.entrySet()) {
+            if (shard.getKey().department.equals(schedule.department)) {
+                shard.getValue().manager.addSlot(doctorName, startTime, endTime, capacity);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Department of a doctor, or null when there is no such doctor
+     */
+    public String getDepartment(String doctorName) {
+        Schedule schedule = directory.get(doctorName);
+        return schedule != null ? schedule.department : null;
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Shards
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * The engine holding a doctor's day, opened on first use; null when the
+     * doctor is unknown or the date is not bookable
+     */
+    public TokenManager shardFor(String doctorName, LocalDate date) {
+        Day day = dayFor(doctorName, date);
+        return day != null ? day.manager : null;
+    }
+
+    /**
+     * Open shard of a department's day, or null if nothing was booked there yet
+     */
+    public TokenManager getShard(String department, LocalDate date) {
+        Day day = shards.get(new ShardKey(department, date));
+        return day != null ? day.manager : null;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Every open shard (a copy)
+     */
+    public Map<ShardKey, TokenManager> getShards() {
+        Map<ShardKey, TokenManager> open = new HashMap<>();
+        for (Map.Entry<ShardKey, Day> entry : shards.entrySet()) {
+            open.put(entry.getKey(), entry.getValue().manager);
+        }
+        return open;
+    }
+
+    private Day dayFor(String doctorName, LocalDate date) {
+        Schedule schedule = directory.get(doctorName);
+        if (schedule == null || !isBookable(date)) {
+            return null;
+        }
+        Day day = shards.get(new ShardKey(schedule.department, date));
+        return day != null ? day : openShard(schedule.department, date);
+    }
+
+    /**
+     * Build a department's day from the plans (under the calendar lock, so a
+     * doctor or slot added meanwhile is either in the plan or added to the
+     * shard); null when the date went out of range meanwhile
+     */
+    private synchronized Day openShard(String department, LocalDate date) {
+        ShardKey key = new ShardKey(department, date);
+        Day day = shards.get(key);
+        if (day != null) {
+            return day;
+        }
+        if (!isBookable(date)) {
+            return null;  // archived (or about to be) while the caller was on its way
+        }
+        TokenManager shard = new TokenManager();
+        for (Map.Entry<String, Schedule> entry : directory.entrySet()) {
+            Schedule schedule = entry.getValue();
+            if (!schedule.department.equals(department)) continue;
+            Doctor doctor = shard.addDoctor(entry.getKey());
+            for (SlotRequest slot : schedule.slots) {
+                doctor.addSlot(slot.getStart(), slot.getEnd(), slot.getCapacity());
+            }
+        }
+        shard.setListener(listener);
+        day = new Day(key, shard);
+        shards.put(key, day);
+        return day;
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Routed operations
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Book a token for a doctor's day; null when the doctor is unknown, the
+     * date is outside today..lastBookableDate or the slot does not exist
+     */
+    public Token bookToken(String doctorName, LocalDate date, int slotIndex, String patientName, TokenType type) {
+        return book(doctorName, date, slotIndex, null, patientName, type);
+    }
+
+    /**
+     * Book the slot running at the requested time on that date (or the next one)
+     */
+    public Token bookTokenAt(String doctorName, LocalDate date, LocalTime time, String patientName, TokenType type) {
+        return book(doctorName, date, 0, time, patientName, type);
+    }
+
+    private Token book(String doctorName, LocalDate date, int slotIndex, LocalTime time, String patientName, TokenType type) {
+        Day day = dayFor(doctorName, date);
+        if (day == null) {
+            return null;
+        }
+        day.lock.readLock().lock();
+        try {
+            if (day.archived) {
+                return null;
+            }
+            Token token = time != null
+                ? day.manager.bookTokenAt(doctorName, time, patientName, type)
+                : day.manager.bookToken(doctorName, slotIndex, patientName, type);
+            if (token != null) {
+                tokenShards.put(token.getId(), day.key);
+            }
+            return token;
+        } finally {
+            day.lock.readLock().unlock();
+        }
+    }
+
+    public boolean delaySlot(String doctorName, LocalDate date, int slotIndex) {
+        Day day = dayFor(doctorName, date);
+        if (day == null) {
+            return false;
+        }
+        day.lock.readLock().lock();
+        try {
+            if (day.archived) {
+                return false;
+            }
+            return day.manager.delaySlot(doctorName, slotIndex, true);
+        } finally {
+            day.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A doctor's state on one date, or null when that day has no shard yet
+     */
+    public Doctor getDoctor(String doctorName, LocalDate date) {
+        String department = getDepartment(doctorName);
+        if (department == null) {
+            return null;
+        }
+        TokenManager shard = getShard(department, date);
+        return shard != null ? shard.getDoctor(doctorName) : null;
+    }
+
+    /**
+     * Doctor of a department with the earliest free seat on that date from
+     * minuteOfDay on, or null (nothing booked there yet means nobody is open:
+     * the shard is opened then, like for a booking)
+     */
+    public Doctor findEarliestAvailable(String department, LocalDate date, int minuteOfDay) {
+        if (!isBookable(date)) {
+            return null;
+        }
+        Day day = shards.get(new ShardKey(department, date));
+        if (day == null) {
+            day = openShard(department, date);
+        }
+        return day != null ? day.manager.findEarliestAvailable(minuteOfDay) : null;
+    }
+
+    /**
+     * Shard the calendar booked the token on, while that day is open, or null
+     */
+    public TokenManager findShard(String tokenId) {
+        Day day = dayOf(tokenId);
+        return day != null ? day.manager : null;
+    }
+
+    private Day dayOf(String tokenId) {
+        ShardKey key = tokenShards.get(tokenId);
+        return key != null ? shards.get(key) : null;
+    }
+
+    public TokenLocation findToken(String tokenId) {
+        TokenManager shard = findShard(tokenId);
+        return shard != null ? shard.findToken(tokenId) : null;
+    }
+
+    public boolean cancelToken(String tokenId) {
+        return remove(tokenId, false);
+    }
+
+    public boolean markNoShow(String tokenId) {
+        return remove(tokenId, true);
+    }
+
+    private boolean remove(String tokenId, boolean noShow) {
+        Day day = dayOf(tokenId);
+        if (day == null) {
+            return false;
+        }
+        day.lock.readLock().lock();
+        try {
+            if (day.archived) {
+                return false;
+            }
+            boolean removed = noShow ? day.manager.markNoShow(tokenId) : day.manager.cancelToken(tokenId);
+            if (removed) {
+                tokenShards.remove(tokenId);
+            }
+            return removed;
+        } finally {
+            day.lock.readLock().unlock();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Archiving
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Archive and drop every shard dated before today; returns how many went
+     */
+    public int archivePastDays() throws IOException {
+        LocalDate today = today();
+        List<Map.Entry<ShardKey, Day>> past = new ArrayList<>();
+        synchronized (this) {  // no doctor or slot is added to a day on its way out
+            for (ShardKey key : new ArrayList<>(shards.keySet())) {
+                if (key.date.isBefore(today)) {
+                    past.add(Map.entry(key, shards.remove(key)));
+                }
+            }
+        }
+        for (Map.Entry<ShardKey, Day> entry : past) {
+            ShardKey key = entry.getKey();
+            Day day = entry.getValue();
+            day.lock.writeLock().lock();  // the calls that found the day before it was removed are done
+            try {
+                day.archived = true;
+            } finally {
+                day.lock.writeLock().unlock();
+            }
+            forgetTokens(day.manager);
+            if (archiveDir != null) {
+                Path dir = archiveDir.resolve(key.department);
+                Files.createDirectories(dir);
+                SnapshotFile.write(dir.resolve(key.date + ".bin"), day.manager, 0);
+            }
+        }
+        return past.size();
+    }
+
+    private void forgetTokens(TokenManager shard) {
+        for (Doctor doctor : shard.getAllDoctors()) {
+            for (Slot slot : doctor.getSlots()) {
+                for (Token token : slot) {
+                    tokenShards.remove(token.getId());
+                }
+            }
+            for (Token token : doctor.getWaitingList()) {
+                tokenShards.remove(token.getId());
+            }
+        }
+    }
+
+    /**
+     * Run archivePastDays every intervalSeconds
+     */
+    public void startArchiving(long intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archivePastDays();
+            } catch (IOException | RuntimeException e) {
+                System.out.println("✗ Archiving failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Load an archived day back (read-only use: reports, audits)
+     */
+    public TokenManager loadArchived(String department, LocalDate date) throws IOException {
+        if (archiveDir == null) {
+            return null;
+        }
+        Path file = archiveDir.resolve(department).resolve(date + ".bin");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        TokenManager day = new TokenManager();
+        SnapshotFile.load(file, day);
+        return day;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a TokenManager's state on disk: a snapshot plus a write-ahead journal
+ *
+ * Startup: load snapshot.bin, replay the journal records the snapshot does not
+ * cover yet (each doctor remembers the last LSN it has seen), then attach a
+ * fresh journal so every new change is logged.
+ *
+ * Snapshot: start a new journal segment, write the snapshot, delete the old
+ * segments. Recovery then only replays the journal written since.
+ *
+ * With mapped snapshots on, day.map (MappedDaySnapshot) is written next to
+ * snapshot.bin so a restarted server can answer reads before recovery ends.
+ */
+public class Persistence implements Closeable {
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String MAPPED_SNAPSHOT = "day.map";
+
+    private final Path dir;
+    private final BookingJournal.SyncMode mode;
+    private TokenManager manager;
+    private BookingJournal journal;
+    private ScheduledExecutorService scheduler;
+    private long recordsAtLastSnapshot;
+    private boolean mappedSnapshots;
+
+    public Persistence(Path dir, BookingJournal.SyncMode mode) {
+        this.dir = dir;
+        this.mode = mode;
+    }
+
+    /**
+     * Also write day.map on every snapshot
+     */
+    public void setMappedSnapshots(boolean mappedSnapshots) {
+        this.mappedSnapshots = mappedSnapshots;
+    }
+
+    /**
+     * Map the last day.map read-only, or null if there is none (or it is unreadable)
+     */
+    public MappedDaySnapshot openMappedSnapshot() {
+        Path file = dir.resolve(MAPPED_SNAPSHOT);
+        if (!Files.exists(file)) return null;
+        try {
+            return MappedDaySnapshot.open(file);
+        } catch (IOException e) {
+            System.out.println("⚠ Ignoring " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rebuild state into an empty manager and start journaling its changes
+     */
+    public void recover(TokenManager manager) throws IOException {
+        long start = System.nanoTime();
+        this.manager = manager;
+
+        long snapshotLsn = SnapshotFile.load(dir.resolve(SNAPSHOT), manager);
+        long[] replayed = new long[1];
+        BookingListener listener = manager.getListener();
+        manager.setListener(BookingListener.NONE);  // replay quietly
+        long journalLsn;
+        try {
+            journalLsn = BookingJournal.replay(dir, record -> {
+                if (apply(record)) replayed[0]++;
+            });
+        } finally {
+            manager.setListener(listener);
+        }
+
+        journal = new BookingJournal(dir, mode, Math.max(snapshotLsn, journalLsn));
+        manager.setJournal(journal);
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("✓ Recovered " + manager.getAllDoctors().size() + " doctors from " + dir +
+            " (" + replayed[0] + " journal records replayed) in " + millis + " ms");
+    }
+
+    /**
+     * Take a snapshot every intervalSeconds, skipped when nothing changed
+     */
+    public void startSnapshots(long intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (journal.getRecordCount() != recordsAtLastSnapshot) {
+                    snapshot();
+                }
+            } catch (IOException e) {
+                System.out.println("✗ Snapshot failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void snapshot() throws IOException {
+        long records = journal.getRecordCount();
+        journal.rotate();
+        SnapshotFile.write(dir.resolve(SNAPSHOT), manager, journal.getLastLsn());
+        if (mappedSnapshots) {
+            MappedDaySnapshot.write(dir.resolve(MAPPED_SNAPSHOT), manager);
+        }
+        journal.deleteOldSegments();
+        recordsAtLastSnapshot = records;
+    }
+
+    public BookingJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Stop snapshots, take a final one so the next start is quick, close the journal
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (journal != null) {
+            snapshot();
+            journal.close();
+        }
+    }
+
+    /**
+     * Re-apply one journal record; false when the snapshot already had it
+     */
+    private boolean apply(BookingJournal.Record r) {
+        Doctor doctor = manager.getDoctor(r.doctor);
+        if (doctor != null && r.lsn <= doctor.getLastLsn()) {
+            return false;
+        }
+        if ((doctor == null) != (r.op == BookingJournal.ADD_DOCTOR)) {
+            return false;  // nothing to apply to, or a second add (older journals allowed them)
+        }
+
+        switch (r.op) {
+            case BookingJournal.ADD_DOCTOR:
+                doctor = manager.addDoctor(r.doctor);
+                break;
+            case BookingJournal.ADD_SLOT:
+                doctor.addSlot(r.startTime, r.endTime, r.capacity);
+                break;
+            case BookingJournal.BOOK:
+                Token token = new Token(r.tokenId, r.patient, r.type, r.createdAtNanos);
+                manager.replayBooking(doctor, r.slotIndex, token);
+                TokenIdGenerator ids = Token.getIdGenerator();
+                ids.advancePast(ids.sequenceOf(r.tokenId));
+                break;
+            case BookingJournal.CANCEL:
+                manager.replayCancel(doctor, r.tokenId);
+                break;
+            case BookingJournal.NO_SHOW:
+                manager.replayNoShow(doctor, r.tokenId);
+                break;
+            case BookingJournal.DELAY:
+                manager.replayDelay(doctor, r.slotIndex);
+                break;
+            case BookingJournal.REBALANCE:
+                manager.replayRebalance(doctor);
+                break;
+            default:
+                return false;
+        }
+        doctor.setLastLsn(r.lsn);
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Receives each change to a doctor's queue as it is made (for live screens)
+ *
+ * Unlike BookingListener, which narrates every step of an operation, this
+ * only reports where tokens end up: applied in order to the doctor's state
+ * at some point, they give the state after. A token bumped or moved on by
+ * a delay is reported again where it lands (another slot or the waiting list).
+ *
+ * Called while the doctor's lock is held, so implementations must be quick.
+ * Every method does nothing by default.
+ */
+public interface QueueChangeListener {
+    /**
+     * Listener that ignores everything
+     */
+    QueueChangeListener NONE = new QueueChangeListener() {};
+
+    /**
+     * The token now sits in this slot (new, bumped along, or out of the waiting list)
+     */
+    default void allocated(Doctor doctor, int slotIndex, Token token) {}
+
+    /**
+     * The token was pushed out of this slot by a higher priority
+     */
+    default void bumped(Doctor doctor, int slotIndex, Token token) {}
+
+    default void waitingListed(Doctor doctor, Token token) {}
+
+    /**
+     * Cancelled, from a slot or from the waiting list
+     */
+    default void cancelled(Doctor doctor, String tokenId) {}
+
+    default void noShow(Doctor doctor, String tokenId) {}
+
+    /**
+     * The slot was emptied; its tokens follow as allocated / waitingListed
+     */
+    default void slotDelayed(Doctor doctor, int slotIndex) {}
+}
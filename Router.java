@@ -0,0 +1,170 @@
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing table for ApiServer, built once at startup
+ *
+ * Routes like "/doctors/{name}/delay/{slot}" are stored as a trie of path
+ * segments; a literal segment wins over a {variable} at the same level.
+ * Matching walks the request path once, without regex or split, and
+ * collects the variables. The result tells apart an unknown path (404)
+ * from a known path with the wrong method (405, with the allowed methods).
+ */
+public class Router {
+    public interface Handler {
+        void handle(HttpExchange exchange, Match match) throws IOException;
+    }
+
+    /**
+     * Outcome of routing one request
+     */
+    public static class Match {
+        public static final int FOUND = 200;
+        public static final int NOT_FOUND = 404;
+        public static final int METHOD_NOT_ALLOWED = 405;
+
+        private final int status;
+        private final Handler handler;
+        private final String[] names;
+        private final String[] values;
+        private final String allowed;
+
+        private Match(int status, Handler handler, String[] names, String[] values, String allowed) {
+            this.status = status;
+            this.handler = handler;
+            this.names = names;
+            this.values = values;
+            this.allowed = allowed;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Handler getHandler() {
+            return handler;
+        }
+
+        /**
+         * Value of a {variable} from the path, or null
+         */
+        public String get(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) return values[i];
+            }
+            return null;
+        }
+
+        /**
+         * Methods the path does support, for the Allow header of a 405 ("GET, POST")
+         */
+        public String getAllowed() {
+            return allowed;
+        }
+    }
+
+    private static class Node {
+        final List<String> literalNames = new ArrayList<>();  // few per level, scanned in order
+        final List<Node> literals = new ArrayList<>();
+        Node variable;
+        String variableName;
+        final Map<String, Handler> handlers = new LinkedHashMap<>();
+        String[] variableNames = new String[0];  // of the route ending here
+        String allowed;
+    }
+
+    private static final String[] NONE = new String[0];
+    private static final Match NOT_FOUND = new Match(Match.NOT_FOUND, null, NONE, NONE, null);
+
+    private final Node root = new Node();
+
+    /**
+     * Register a handler, e.g. add("PUT", "/tokens/{id}/noshow", this::markNoShow)
+     */
+    public Router add(String method, String pattern, Handler handler) {
+        Node node = root;
+        List<String> names = new ArrayList<>();
+        for (String segment : pattern.split("/")) {
+            if (segment.isEmpty()) continue;
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.variable == null) {
+                    node.variable = new Node();
+                    node.variableName = name;
+                } else if (!node.variableName.equals(name)) {
+                    throw new IllegalArgumentException("Conflicting variable {" + name + "} in " + pattern);
+                }
+                names.add(name);
+                node = node.variable;
+            } else {
+                int i = node.literalNames.indexOf(segment);
+                if (i < 0) {
+                    node.literalNames.add(segment);
+                    node.literals.add(new Node());
+                    i = node.literals.size() - 1;
+                }
+                node = node.literals.get(i);
+            }
+        }
+        if (node.handlers.put(method, handler) != null) {
+            throw new IllegalArgumentException("Duplicate route " + method + " " + pattern);
+        }
+        node.variableNames = names.toArray(NONE);
+        node.allowed = String.join(", ", node.handlers.keySet());
+        return this;
+    }
+
+    /**
+     * Find the handler for a request path (already URL-decoded); empty segments are ignored
+     */
+    public Match route(String method, String path) {
+        Node node = root;
+        String[] values = null;
+        int count = 0;
+        int length = path.length();
+        int start = 0;
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) end = length;
+            if (end > start) {
+                Node next = findLiteral(node, path, start, end);
+                if (next == null) {
+                    if (node.variable == null) return NOT_FOUND;
+                    if (values == null) values = new String[4];
+                    if (count == values.length) values = java.util.Arrays.copyOf(values, count * 2);
+                    values[count++] = path.substring(start, end);
+                    next = node.variable;
+                }
+                node = next;
+            }
+            start = end + 1;
+        }
+
+        if (node.handlers.isEmpty()) return NOT_FOUND;
+        Handler handler = node.handlers.get(method);
+        if (handler == null) {
+            return new Match(Match.METHOD_NOT_ALLOWED, null, NONE, NONE, node.allowed);
+        }
+        if (count == 0) {
+            return new Match(Match.FOUND, handler, NONE, NONE, node.allowed);
+        }
+        return new Match(Match.FOUND, handler, node.variableNames, values, node.allowed);
+    }
+
+    /**
+     * Literal child matching path[start, end), compared in place (no substring)
+     */
+    private static Node findLiteral(Node node, String path, int start, int end) {
+        for (int i = 0; i < node.literalNames.size(); i++) {
+            String literal = node.literalNames.get(i);
+            if (literal.length() == end - start && path.regionMatches(start, literal, 0, end - start)) {
+                return node.literals.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -1,21 +1,50 @@
+import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Represents a time slot for a doctor with token capacity
+ *
+ * Tokens are kept in one FIFO bucket per TokenType (indexed by ordinal), so the
+ * slot is always in priority order without sorting on every insert.
+ *
+ * The display times ("9:00 AM", "14:30") are parsed once into minutes of the day
+ * (NO_TIME when missing or unreadable), and the "start - end" range is built once.
  */
-public class Slot {
+public class Slot implements Iterable<Token> {
+    private static final TokenType[] TYPES = TokenType.values();
+    public static final int NO_TIME = -1;
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
     private final String startTime;
     private final String endTime;
+    private final String timeRange;
+    private final int startMinute;
+    private final int endMinute;
     private final int capacity;
-    private final List<Token> tokens;
+    private final TokenRing[] buckets;
+    private int size;
+    private Doctor owner;  // told about every seat change (null for copies)
+    private int treePos;
+    FreeSeatIndex.Entry freeSeatEntry;  // its entry in the manager's index while it has a free seat
 
     public Slot(String startTime, String endTime, int capacity) {
         this.startTime = startTime;
         this.endTime = endTime;
+        this.timeRange = startTime + " - " + endTime;
+        this.startMinute = parseMinuteOfDay(startTime);
+        int end = parseMinuteOfDay(endTime);
+        if (end != NO_TIME && startMinute != NO_TIME && end <= startMinute) {
+            end += MINUTES_PER_DAY;  // "11:00 PM - 12:00 AM" ends at midnight
+        }
+        this.endMinute = end;
         this.capacity = capacity;
-        this.tokens = new ArrayList<>();
+        this.buckets = new TokenRing[TYPES.length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new TokenRing(Math.min(capacity, 16));
+        }
     }
 
     public String getStartTime() {
@@ -26,69 +55,140 @@ public class Slot {
         return endTime;
     }
 
+    /**
+     * Start as minutes since midnight, or NO_TIME
+     */
+    public int getStartMinute() {
+        return startMinute;
+    }
+
+    /**
+     * End as minutes since midnight (past MINUTES_PER_DAY when the slot runs
+     * over midnight), or NO_TIME
+     */
+    public int getEndMinute() {
+        return endMinute;
+    }
+
+    /**
+     * Start as a LocalTime, or null when the start time could not be read
+     */
+    public LocalTime getStart() {
+        return startMinute == NO_TIME ? null : LocalTime.of(startMinute / 60, startMinute % 60);
+    }
+
+    public LocalTime getEnd() {
+        return endMinute == NO_TIME ? null : LocalTime.of(endMinute / 60 % 24, endMinute % 60);
+    }
+
+    /**
+     * Whether minuteOfDay falls in [start, end)
+     */
+    public boolean covers(int minuteOfDay) {
+        return startMinute != NO_TIME && endMinute != NO_TIME
+            && minuteOfDay >= startMinute && minuteOfDay < endMinute;
+    }
+
     public int getCapacity() {
         return capacity;
     }
 
+    public int getFreeSeats() {
+        return Math.max(0, capacity - size);
+    }
+
+    /**
+     * Copy of the tokens in priority order
+     */
     public List<Token> getTokens() {
-        return new ArrayList<>(tokens);
+        List<Token> list = new ArrayList<>(size);
+        for (Token t : this) {
+            list.add(t);
+        }
+        return list;
     }
 
     public int getCurrentCount() {
-        return tokens.size();
+        return size;
+    }
+
+    /**
+     * Number of tokens of one type in this slot
+     */
+    public int getCount(TokenType type) {
+        return buckets[type.ordinal()].size();
     }
 
     public boolean isFull() {
-        return tokens.size() >= capacity;
+        return size >= capacity;
     }
 
     public boolean isEmpty() {
-        return tokens.isEmpty();
+        return size == 0;
     }
 
     /**
-     * Add token and maintain priority order (lower priority number = higher priority)
+     * Add token and maintain priority order (lower priority number = higher priority).
+     * Within a priority, tokens stay ordered by creation time.
      */
     public void addToken(Token token) {
-        tokens.add(token);
-        // Sort by priority (ascending), then by creation time
-        tokens.sort(Comparator
-            .comparingInt(Token::getPriority)
-            .thenComparing(Token::getCreatedAt));
+        buckets[token.getType().ordinal()].insertByCreatedAt(token);
+        size++;
+        if (owner != null) {
+            owner.seatsChanged(treePos, getFreeSeats());
+        }
     }
 
     /**
      * Remove a specific token
      */
     public boolean removeToken(Token token) {
-        return tokens.remove(token);
+        if (buckets[token.getType().ordinal()].remove(token)) {
+            size--;
+            if (owner != null) {
+                owner.seatsChanged(treePos, getFreeSeats());
+            }
+            return true;
+        }
+        return false;
     }
 
     /**
      * Remove token by ID
      */
     public Token removeTokenById(String tokenId) {
-        for (int i = 0; i < tokens.size(); i++) {
-            if (tokens.get(i).getId().equals(tokenId)) {
-                return tokens.remove(i);
-            }
+        Token token = findTokenById(tokenId);
+        if (token != null) {
+            removeToken(token);
         }
-        return null;
+        return token;
+    }
+
+    /**
+     * Report seat changes to this doctor, as position treePos of its time order
+     */
+    void attach(Doctor owner, int treePos) {
+        this.owner = owner;
+        this.treePos = treePos;
     }
 
     /**
      * Get the lowest priority token in this slot (highest priority number)
      */
     public Token getLowestPriorityToken() {
-        if (tokens.isEmpty()) return null;
-        return tokens.get(tokens.size() - 1);
+        for (int i = buckets.length - 1; i >= 0; i--) {
+            if (buckets[i].size() > 0) {
+                return buckets[i].peekLast();
+            }
+        }
+        return null;
     }
 
     /**
      * Find token by ID - simple loop through all tokens
      */
     public Token findTokenById(String tokenId) {
-        for (Token t : tokens) {
+        for (Token t : this) {
             if (t.getId().equals(tokenId)) {
                 return t;
             }
@@ -96,15 +196,97 @@ public class Slot {
         return null;
     }
 
+    /**
+     * Iterate tokens in priority order without copying
+     */
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+            private int bucket = 0;
+            private int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (bucket < buckets.length && pos >= buckets[bucket].size()) {
+                    bucket++;
+                    pos = 0;
+                }
+                return bucket < buckets.length;
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return buckets[bucket].get(pos++);
+            }
+        };
+    }
+
+    /**
+     * New slot with the same times, capacity and tokens (for printing later)
+     */
+    Slot copy() {
+        Slot copy = new Slot(startTime, endTime, capacity);
+        for (Token t : this) {
+            copy.addToken(t);
+        }
+        return copy;
+    }
+
     public String getTimeRange() {
-        return startTime + " - " + endTime;
+        return timeRange;
+    }
+
+    /**
+     * Minutes since midnight for "9:00 AM", "9 AM", "12:30 PM", "14:30" or "9";
+     * NO_TIME for null or anything else
+     */
+    public static int parseMinuteOfDay(String time) {
+        if (time == null) return NO_TIME;
+        String t = time.trim().toUpperCase();
+        int half = NO_TIME;  // 0 for AM, 12 for PM, NO_TIME for a 24-hour clock
+        if (t.endsWith("AM") || t.endsWith("PM")) {
+            half = t.endsWith("PM") ? 12 : 0;
+            t = t.substring(0, t.length() - 2).trim();
+        }
+        int colon = t.indexOf(':');
+        int hour = parseDigits(colon < 0 ? t : t.substring(0, colon));
+        int minute = colon < 0 ? 0 : parseDigits(t.substring(colon + 1));
+        if (hour < 0 || minute < 0 || minute > 59 || (colon >= 0 && t.length() - colon - 1 != 2)) {
+            return NO_TIME;
+        }
+        if (half != NO_TIME) {
+            if (hour < 1 || hour > 12) return NO_TIME;
+            hour = hour % 12 + half;
+        } else if (hour > 23) {
+            return NO_TIME;
+        }
+        return hour * 60 + minute;
+    }
+
+    /**
+     * LocalTime as minutes since midnight
+     */
+    public static int minuteOfDay(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    private static int parseDigits(String s) {
+        if (s.isEmpty() || s.length() > 2) return -1;
+        int value = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
     }
 
     /**
      * Get visual capacity bar
      */
     public String getCapacityBar() {
-        int filled = (int) ((double) tokens.size() / capacity * 12);
+        int filled = (int) ((double) size / capacity * 12);
         StringBuilder bar = new StringBuilder();
         for (int i = 0; i < 12; i++) {
             bar.append(i < filled ? "█" : "░");
@@ -115,13 +297,92 @@ public class Slot {
     public String getStatus() {
         if (isFull()) return "FULL";
         if (isEmpty()) return "EMPTY";
-        return tokens.size() + "/" + capacity;
+        return size + "/" + capacity;
     }
 
     @Override
     public String toString() {
-        return String.format("%s [%d/%d] %s %s", 
-            getTimeRange(), tokens.size(), capacity, getCapacityBar(), 
+        return String.format("%s [%d/%d] %s %s",
+            getTimeRange(), size, capacity, getCapacityBar(),
             isFull() ? "FULL" : "");
     }
+
+    /**
+     * Growable ring buffer of tokens ordered by creation time.
+     * New tokens are almost always the newest, so inserts are an append;
+     * an older (bumped) token walks back from the tail to its place.
+     */
+    private static class TokenRing {
+        private Token[] items;
+        private int head;
+        private int count;
+
+        TokenRing(int initialCapacity) {
+            items = new Token[Math.max(initialCapacity, 2)];
+        }
+
+        int size() {
+            return count;
+        }
+
+        Token get(int i) {
+            return items[(head + i) % items.length];
+        }
+
+        Token peekLast() {
+            return get(count - 1);
+        }
+
+        void insertByCreatedAt(Token token) {
+            if (count == items.length) grow();
+            int pos = count;
+            while (pos > 0 && get(pos - 1).getCreatedAtNanos() > token.getCreatedAtNanos()) {
+                pos--;
+            }
+            for (int i = count; i > pos; i--) {
+                items[(head + i) % items.length] = get(i - 1);
+            }
+            items[(head + pos) % items.length] = token;
+            count++;
+        }
+
+        boolean remove(Token token) {
+            // bumps remove the newest token, so search from the tail
+            for (int i = count - 1; i >= 0; i--) {
+                if (get(i) == token) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Close the gap by shifting whichever side is shorter
+         */
+        private void removeAt(int i) {
+            if (i < count / 2) {
+                for (int j = i; j > 0; j--) {
+                    items[(head + j) % items.length] = get(j - 1);
+                }
+                items[head] = null;
+                head = (head + 1) % items.length;
+            } else {
+                for (int j = i; j < count - 1; j++) {
+                    items[(head + j) % items.length] = get(j + 1);
+                }
+                items[(head + count - 1) % items.length] = null;
+            }
+            count--;
+        }
+
+        private void grow() {
+            Token[] bigger = new Token[items.length * 2];
+            for (int i = 0; i < count; i++) {
+                bigger[i] = get(i);
+            }
+            items = bigger;
+            head = 0;
+        }
+    }
 }
@@ -0,0 +1,55 @@
+import java.io.IOException;
+
+/**
+ * Body of POST /doctors/{name}/slots: {"start": "9:00 AM", "end": "10:00 AM", "capacity": 5}
+ */
+public class SlotRequest {
+    private String start;
+    private String end;
+    private int capacity = 5;
+
+    public SlotRequest(String start, String end, int capacity) {
+        this.start = start;
+        this.end = end;
+        this.capacity = capacity;
+    }
+
+    private SlotRequest() {
+    }
+
+    /**
+     * Read one slot object; unknown fields are skipped
+     */
+    public static SlotRequest read(JsonReader reader) throws IOException {
+        SlotRequest request = new SlotRequest();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "start": request.start = reader.nextString(); break;
+                case "end": request.end = reader.nextString(); break;
+                case "capacity": request.capacity = reader.nextInt(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (request.start == null || request.end == null) {
+            throw new JsonReader.MalformedJsonException("start and end are required");
+        }
+        if (request.capacity <= 0) {
+            throw new JsonReader.MalformedJsonException("capacity must be positive");
+        }
+        return request;
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
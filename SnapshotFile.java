@@ -0,0 +1,180 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Compact binary snapshot of all Doctor / Slot / Token state
+ *
+ * Layout:
+ *   int magic, int version, long journal LSN, long token id sequence
+ *   repeated: byte 1, int length, doctor block     (byte 0 ends the file)
+ * Doctor block:
+ *   name, long lastLsn, int slots, per slot: start, end, capacity, tokens
+ *   then the waiting list tokens
+ * Tokens: int count, then per token id, patient, byte type, long createdAt,
+ *   long allocatedAt (epoch nanos, NO_TIME when not allocated)
+ * Strings are an int byte length (-1 for a missing slot time) and UTF-8
+ * bytes, as in the journal. Version 1 files used writeUTF, which cannot hold
+ * more than 64 KB; they are still read.
+ *
+ * Each doctor is serialized into memory while its lock is held, so the file
+ * is consistent per doctor and the doctor's lastLsn says which journal
+ * records are already included.
+ */
+public class SnapshotFile {
+    private static final int MAGIC = 0x4F504453;  // "OPDS"
+    private static final int VERSION = 2;
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * Write the snapshot to a temp file, fsync it and move it into place
+     */
+    public static void write(Path file, TokenManager manager, long journalLsn) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream raw = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(raw, 256 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalLsn);
+            out.writeLong(Token.getIdGenerator().current());
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            for (Doctor doctor : manager.getAllDoctors()) {
+                block.reset();
+                synchronized (doctor) {
+                    writeDoctor(new DataOutputStream(block), doctor);
+                }
+                out.writeByte(1);
+                out.writeInt(block.size());
+                block.writeTo(out);
+            }
+            out.writeByte(0);
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+            java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a snapshot into an empty TokenManager. Returns the journal LSN it
+     * was taken at, or 0 if there is no snapshot yet.
+     */
+    public static long load(Path file, TokenManager manager) throws IOException {
+        if (!Files.exists(file)) return 0;
+        TokenIdGenerator ids = Token.getIdGenerator();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 256 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unknown snapshot version " + version + ": " + file);
+            }
+            long journalLsn = in.readLong();
+            ids.advancePast(in.readLong());
+
+            while (in.readByte() == 1) {
+                in.readInt();  // block length, only needed to skip
+                Doctor doctor = new Doctor(readString(in, version));
+                doctor.setLastLsn(in.readLong());
+                manager.restoreDoctor(doctor);
+
+                int slotCount = in.readInt();
+                for (int i = 0; i < slotCount; i++) {
+                    doctor.addSlot(readOptional(in, version), readOptional(in, version), in.readInt());
+                    int count = in.readInt();
+                    for (int j = 0; j < count; j++) {
+                        manager.restoreToSlot(doctor, i, readToken(in, version, ids));
+                    }
+                }
+                int waiting = in.readInt();
+                for (int j = 0; j < waiting; j++) {
+                    manager.restoreToWaitingList(doctor, readToken(in, version, ids));
+                }
+            }
+            return journalLsn;
+        }
+    }
+
+    private static void writeDoctor(DataOutputStream out, Doctor doctor) throws IOException {
+        writeString(out, doctor.getName());
+        out.writeLong(doctor.getLastLsn());
+        List<Slot> slots = doctor.getSlots();
+        out.writeInt(slots.size());
+        for (Slot slot : slots) {
+            writeString(out, slot.getStartTime());
+            writeString(out, slot.getEndTime());
+            out.writeInt(slot.getCapacity());
+            out.writeInt(slot.getCurrentCount());
+            for (Token t : slot) {
+                writeToken(out, t);
+            }
+        }
+        out.writeInt(doctor.getWaitingList().size());
+        for (Token t : doctor.getWaitingList()) {
+            writeToken(out, t);
+        }
+    }
+
+    private static void writeToken(DataOutputStream out, Token t) throws IOException {
+        writeString(out, t.getId());
+        writeString(out, t.getPatientName());
+        out.writeByte(t.getType().ordinal());
+        out.writeLong(t.getCreatedAtNanos());
+        out.writeLong(t.getAllocatedAtNanos() == Token.NOT_ALLOCATED ? NO_TIME : t.getAllocatedAtNanos());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int version) throws IOException {
+        if (version == 1) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readOptional(DataInputStream in, int version) throws IOException {
+        if (version == 1) {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+        return readString(in, version);
+    }
+
+    private static Token readToken(DataInputStream in, int version, TokenIdGenerator ids) throws IOException {
+        String id = readString(in, version);
+        Token token = new Token(id, readString(in, version), TokenType.values()[in.readByte()], in.readLong());
+        long allocated = in.readLong();
+        if (allocated != NO_TIME) {
+            token.setAllocatedAtNanos(allocated);
+        }
+        ids.advancePast(ids.sequenceOf(id));
+        return token;
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates token IDs like "T001" - lock-free and without String.format
+ *
+ * The sequence is an AtomicLong, so concurrent bookings never share an ID.
+ * When several servers book at once, each gets a node number (0-99) which is
+ * written as two digits and a dash right after the "T": node 7 gives "T07-001",
+ * "T07-002"... The dash keeps them apart from single-server IDs (T12001 is
+ * sequence 12001 there), since token indexes on any node key on the ID alone.
+ */
+public class TokenIdGenerator {
+    private static final int MIN_SEQUENCE_DIGITS = 3;
+    private static final int NODE_PREFIX = 4;  // "T07-"
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final int nodeId;
+
+    /**
+     * Single-server IDs: T001, T002, ...
+     */
+    public TokenIdGenerator() {
+        this.nodeId = -1;
+    }
+
+    /**
+     * IDs prefixed with a two digit node number: T07-001, T07-002, ...
+     */
+    public TokenIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > 99) {
+            throw new IllegalArgumentException("Node id must be 0-99: " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public String nextId() {
+        return format(sequence.incrementAndGet());
+    }
+
+    /**
+     * Last sequence number handed out
+     */
+    public long current() {
+        return sequence.get();
+    }
+
+    public void reset() {
+        sequence.set(0);
+    }
+
+    /**
+     * Make sure future IDs come after the given sequence number
+     * (used when tokens are restored from disk)
+     */
+    public void advancePast(long value) {
+        sequence.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Sequence number inside an ID made by this generator, or -1 if it isn't one
+     */
+    public long sequenceOf(String id) {
+        int start = nodeId < 0 ? 1 : NODE_PREFIX;
+        if (id.length() <= start || id.charAt(0) != 'T') return -1;
+        if (nodeId >= 0 && (id.charAt(1) - '0' != nodeId / 10 || id.charAt(2) - '0' != nodeId % 10
+                || id.charAt(3) != '-')) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Write "T" [node "-"] zero-padded sequence straight into a char array
+     */
+    String format(long value) {
+        int digits = Math.max(MIN_SEQUENCE_DIGITS, digitCount(value));
+        int prefix = nodeId < 0 ? 1 : NODE_PREFIX;
+        char[] buf = new char[prefix + digits];
+        buf[0] = 'T';
+        if (nodeId >= 0) {
+            buf[1] = (char) ('0' + nodeId / 10);
+            buf[2] = (char) ('0' + nodeId % 10);
+            buf[3] = '-';
+        }
+        for (int i = buf.length - 1; i >= prefix; i--) {
+            buf[i] = (char) ('0' + (int) (value % 10));
+            value /= 10;
+        }
+        return new String(buf);
+    }
+
+    private static int digitCount(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
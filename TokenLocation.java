@@ -0,0 +1,52 @@
+/**
+ * Where a token currently sits - either a doctor's slot or the doctor's waiting list.
+ * Kept up to date by TokenManager so tokens can be found by ID without scanning slots.
+ */
+public class TokenLocation {
+    private final Token token;
+    private final Doctor doctor;
+    private Slot slot;
+    private int slotIndex;
+
+    public TokenLocation(Token token, Doctor doctor) {
+        this.token = token;
+        this.doctor = doctor;
+        this.slotIndex = -1;
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    public Doctor getDoctor() {
+        return doctor;
+    }
+
+    /**
+     * Slot holding the token, or null when it is in the waiting list
+     */
+    public Slot getSlot() {
+        return slot;
+    }
+
+    /**
+     * Index of the slot in the doctor's slot list, or -1 when in the waiting list
+     */
+    public int getSlotIndex() {
+        return slotIndex;
+    }
+
+    public boolean isInWaitingList() {
+        return slot == null;
+    }
+
+    void moveToSlot(Slot slot, int slotIndex) {
+        this.slot = slot;
+        this.slotIndex = slotIndex;
+    }
+
+    void moveToWaitingList() {
+        this.slot = null;
+        this.slotIndex = -1;
+    }
+}
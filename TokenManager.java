@@ -1,27 +1,109 @@
-import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Manages token booking, cancellation, and slot operations with priority bumping
+ *
+ * Thread-safe: the doctor registry and token index are concurrent maps, and every
+ * operation on a doctor's slots and waiting list holds that doctor's lock
+ * (synchronized on the Doctor). Bookings for different doctors run in parallel,
+ * while a bump chain inside one doctor stays atomic.
+ *
+ * Bump chains are worked out in one forward sweep over the slots (allocateAll),
+ * also when a delay or a batch moves many tokens at once - no recursion.
+ *
+ * When a BookingJournal is attached every successful change is appended to it
+ * while the doctor lock is held (so the log has each doctor's changes in order),
+ * and the caller then waits for the journal to be on disk outside the lock.
+ * CommandPipeline uses the package-private variants that skip that wait and
+ * waits once for a whole batch instead.
+ *
+ * Nothing is printed here: every step is reported to a BookingListener
+ * (none by default, Main uses ConsoleBookingListener for the narration).
  */
 public class TokenManager {
     private final Map<String, Doctor> doctors;
+    private final Map<String, TokenLocation> tokenIndex;
+    private volatile BookingJournal journal;
+    private volatile BookingListener listener = BookingListener.NONE;
+    private volatile QueueChangeListener changes = QueueChangeListener.NONE;
+    // doctors that may have free seats while patients wait (see rebalancePending)
+    private final Set<Doctor> unbalanced = ConcurrentHashMap.newKeySet();
+    private final LongAdder rebalances = new LongAdder();
+    private final LongAdder seatsRecovered = new LongAdder();
+    private final Metrics metrics = new Metrics();
+    private final FreeSeatIndex freeSeats = new FreeSeatIndex();
 
     public TokenManager() {
-        this.doctors = new HashMap<>();
+        this.doctors = new ConcurrentHashMap<>();
+        this.tokenIndex = new ConcurrentHashMap<>();
     }
 
     /**
-     * Register a new doctor
+     * Register a new doctor; null if the name is already taken (the existing
+     * doctor keeps its slots, tokens and index entries)
+     *
+     * The doctor is put in the map and journaled under its lock, the lock a
+     * snapshot takes to write it: a snapshot either sees it with the record's
+     * LSN or rotated the journal before the record, which then survives it.
      */
     public Doctor addDoctor(String name) {
+        return addDoctor(name, true);
+    }
+
+    Doctor addDoctor(String name, boolean await) {
         Doctor doctor = new Doctor(name);
-        doctors.put(name, doctor);
+        doctor.setFreeSeatIndex(freeSeats);
+        long lsn = 0;
+        synchronized (doctor) {
+            if (doctors.putIfAbsent(name, doctor) != null) {
+                return null;
+            }
+            if (journal != null) {
+                lsn = logged(doctor, journal.logAddDoctor(name));
+            }
+        }
+        if (await) {
+            awaitDurable(lsn);
+        }
         return doctor;
     }
 
+    /**
+     * Add a time slot to a doctor (journaled, unlike calling Doctor.addSlot directly)
+     */
+    public boolean addSlot(String doctorName, String startTime, String endTime, int capacity) {
+        return addSlot(doctorName, startTime, endTime, capacity, true);
+    }
+
+    boolean addSlot(String doctorName, String startTime, String endTime, int capacity, boolean await) {
+        Doctor doctor = doctors.get(doctorName);
+        if (doctor == null) {
+            return false;
+        }
+        long lsn = 0;
+        synchronized (doctor) {
+            doctor.addSlot(startTime, endTime, capacity);
+            if (journal != null) {
+                lsn = logged(doctor, journal.logAddSlot(doctorName, startTime, endTime, capacity));
+            }
+        }
+        if (await) {
+            awaitDurable(lsn);
+        }
+        return true;
+    }
+
     public Doctor getDoctor(String name) {
         return doctors.get(name);
     }
@@ -30,208 +112,944 @@ public class TokenManager {
         return doctors.values();
     }
 
+    /**
+     * Look up where a token currently is (slot or waiting list) without scanning
+     */
+    public TokenLocation findToken(String tokenId) {
+        return tokenIndex.get(tokenId);
+    }
+
+    /**
+     * Doctor with the earliest free seat in a slot still running or yet to start
+     * at minuteOfDay, or null when every such slot is full. O(log slots) plus
+     * the free slots that started within the longest slot length before the
+     * minute (see FreeSeatIndex).
+     */
+    public Doctor findEarliestAvailable(int minuteOfDay) {
+        return freeSeats.earliest(minuteOfDay);
+    }
+
+    /**
+     * Doctors with a free seat at minuteOfDay, earliest free slot first
+     */
+    public List<Doctor> findAvailable(int minuteOfDay) {
+        return freeSeats.doctors(minuteOfDay);
+    }
+
+    public BookingJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Start logging every change to the journal (set once, after recovery)
+     */
+    public void setJournal(BookingJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Latency, bump and HTTP counters (see GET /metrics)
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Where each token ends up after every change (ApiServer's /events stream)
+     */
+    public void setChangeListener(QueueChangeListener changes) {
+        this.changes = changes != null ? changes : QueueChangeListener.NONE;
+    }
+
+    public QueueChangeListener getChangeListener() {
+        return changes;
+    }
+
+    public BookingListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Where the step-by-step events go (BookingListener.NONE for silence)
+     */
+    public void setListener(BookingListener listener) {
+        this.listener = listener;
+    }
+
     /**
      * Book a token for a patient with the specified priority
      * Implements bumping algorithm when slot is full
      */
     public Token bookToken(String doctorName, int slotIndex, String patientName, TokenType type) {
-        printOperationHeader("Booking " + type + " token");
+        return bookToken(doctorName, slotIndex, patientName, type, true);
+    }
+
+    /**
+     * await false: don't wait for the journal or record the latency, the caller
+     * does both (CommandPipeline, once per batch) - the same for the overloads below
+     */
+    Token bookToken(String doctorName, int slotIndex, String patientName, TokenType type, boolean await) {
+        long start = System.nanoTime();
+        BookingListener listener = this.listener;
+        listener.bookingStarted(doctorName, patientName, type);
         
         Doctor doctor = doctors.get(doctorName);
         if (doctor == null) {
-            System.out.println("✗ Doctor not found: " + doctorName);
+            listener.doctorNotFound(doctorName);
             return null;
         }
 
-        Slot targetSlot = doctor.getSlot(slotIndex);
-        if (targetSlot == null) {
-            System.out.println("✗ Invalid slot index: " + slotIndex);
-            return null;
-        }
+        Token newToken;
+        long lsn = 0;
+        synchronized (doctor) {
+            Slot targetSlot = doctor.getSlot(slotIndex);
+            if (targetSlot == null) {
+                listener.invalidSlot(slotIndex);
+                return null;
+            }
 
-        // Create the new token
-        Token newToken = new Token(patientName, type);
-        System.out.println("✓ Token " + newToken.getId() + " created");
-        System.out.println("  Patient: " + patientName);
-        System.out.println("  Priority: " + type.getPriority() + " (" + type + ")");
+            // Create the new token
+            newToken = new Token(patientName, type);
+            listener.tokenCreated(newToken);
 
-        // Try to allocate token to the requested slot
-        allocateToken(doctor, slotIndex, newToken);
-        
-        // Display current slot status
-        displaySlotStatus(doctor, targetSlot);
-        
+            // Try to allocate token to the requested slot
+            allocateToken(doctor, slotIndex, newToken, false);
+            doctor.changed();
+            
+            // Report current slot status
+            listener.slotStatus(doctor, targetSlot);
+
+            if (journal != null) {
+                lsn = logged(doctor, journal.logBook(doctorName, slotIndex, newToken));
+            }
+        }
+        if (await) {
+            awaitDurable(lsn);
+            metrics.recordOperation(Metrics.Operation.BOOK, System.nanoTime() - start);
+        }
         return newToken;
     }
 
     /**
-     * Core allocation logic with bumping
+     * Book into the slot running at the requested time, or the next one to start
+     * (null, like bookToken, when there is no such doctor or no slot left that day)
+     */
+    public Token bookTokenAt(String doctorName, LocalTime time, String patientName, TokenType type) {
+        return bookTokenAt(doctorName, time, patientName, type, true);
+    }
+
+    Token bookTokenAt(String doctorName, LocalTime time, String patientName, TokenType type, boolean await) {
+        Doctor doctor = doctors.get(doctorName);
+        int slotIndex = -1;
+        if (doctor != null) {
+            synchronized (doctor) {
+                slotIndex = doctor.findSlotFrom(Slot.minuteOfDay(time));
+            }
+        }
+        return bookToken(doctorName, slotIndex, patientName, type, await);
+    }
+
+    /**
+     * Book many tokens at once (a registration desk uploading its walk-ins).
+     * Requests are grouped by doctor and each doctor is locked once; its tokens
+     * are ordered by priority (then as submitted) and placed in one forward sweep
+     * over the slots. The result is the same as calling bookToken for them in
+     * that order. Returns the tokens in request order, null where the doctor or
+     * slot does not exist. A request with a time goes to the slot bookTokenAt picks.
+     */
+    public List<Token> bookTokens(List<BookingRequest> requests) {
+        return bookTokens(requests, true);
+    }
+
+    List<Token> bookTokens(List<BookingRequest> requests, boolean await) {
+        long start = System.nanoTime();
+        BookingListener listener = this.listener;
+        Token[] booked = new Token[requests.size()];
+        Map<String, List<Integer>> byDoctor = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            BookingRequest request = requests.get(i);
+            listener.bookingStarted(request.getDoctor(), request.getPatient(), request.getType());
+            byDoctor.computeIfAbsent(request.getDoctor(), name -> new ArrayList<>()).add(i);
+        }
+
+        long lsn = 0;
+        for (Map.Entry<String, List<Integer>> entry : byDoctor.entrySet()) {
+            Doctor doctor = doctors.get(entry.getKey());
+            if (doctor == null) {
+                listener.doctorNotFound(entry.getKey());
+                continue;
+            }
+
+            synchronized (doctor) {
+                // created in submission order, so equal priorities keep that order in the slots
+                List<Token> tokens = new ArrayList<>();
+                List<Integer> entrySlots = new ArrayList<>();
+                for (int i : entry.getValue()) {
+                    BookingRequest request = requests.get(i);
+                    int slotIndex = request.getTime() != null
+                        ? doctor.findSlotFrom(Slot.minuteOfDay(request.getTime())) : request.getSlot();
+                    if (doctor.getSlot(slotIndex) == null) {
+                        listener.invalidSlot(slotIndex);
+                        continue;
+                    }
+                    Token token = new Token(request.getPatient(), request.getType());
+                    listener.tokenCreated(token);
+                    booked[i] = token;
+                    tokens.add(token);
+                    entrySlots.add(slotIndex);
+                }
+
+                Integer[] order = new Integer[tokens.size()];
+                for (int i = 0; i < order.length; i++) order[i] = i;
+                Arrays.sort(order, Comparator.comparingInt(i -> tokens.get(i).getPriority()));  // stable
+
+                Token[] sorted = new Token[order.length];
+                int[] sortedSlots = new int[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    sorted[i] = tokens.get(order[i]);
+                    sortedSlots[i] = entrySlots.get(order[i]);
+                }
+                allocateAll(doctor, sortedSlots, sorted, false, false);
+                doctor.changed();
+
+                if (journal != null) {
+                    // journaled in placement order, so replay gives the same slots
+                    for (int i = 0; i < sorted.length; i++) {
+                        lsn = Math.max(lsn, logged(doctor, journal.logBook(doctor.getName(), sortedSlots[i], sorted[i])));
+                    }
+                }
+            }
+        }
+        if (await) {
+            awaitDurable(lsn);
+            metrics.recordOperation(Metrics.Operation.BOOK_BATCH, System.nanoTime() - start);
+        }
+        return Arrays.asList(booked);
+    }
+
+    /**
+     * Core allocation logic with bumping (caller holds the doctor lock)
      * When slot is full:
      *   - If new token has higher priority than lowest in slot: bump lowest
      *   - Otherwise: try next slot or add to waiting list
      */
-    private void allocateToken(Doctor doctor, int slotIndex, Token token) {
-        Slot slot = doctor.getSlot(slotIndex);
-        
-        if (slot == null) {
-            // No more slots available, add to waiting list
-            System.out.println("→ No slots available, adding to waiting list");
-            doctor.addToWaitingList(token);
+    private void allocateToken(Doctor doctor, int slotIndex, Token token, boolean replay) {
+        allocateAll(doctor, new int[] {slotIndex}, new Token[] {token}, false, replay);
+    }
+
+    /**
+     * Place several tokens in one forward sweep over the doctor's slots (caller
+     * holds the doctor lock). Token i enters at entrySlots[i]; the result is the
+     * same as allocateToken for token 0, then token 1, and so on - each one's
+     * bump chain run to the end before the next starts.
+     *
+     * Each of those chains carries exactly one token from slot to slot, so a
+     * slot sees the arrivals in chain order. The sweep keeps that order: at each
+     * slot it merges what spilled from the previous slot with the tokens entering
+     * there (both ordered by chain number), applies the bump rule to each arrival
+     * and carries the spill on. Whatever is still carried past the last slot goes
+     * to the waiting list. No recursion, and a full slot that none of the carried
+     * tokens can bump into is passed over in one step.
+     *
+     * Events are reported chain by chain, as the one-at-a-time version did
+     * (announceMoves adds movingToken before each chain, for delaySlot). With
+     * replay set, nothing is published to the change listener or the metrics.
+     */
+    private void allocateAll(Doctor doctor, int[] entrySlots, Token[] tokens, boolean announceMoves, boolean replay) {
+        int n = tokens.length;
+        if (n == 0) {
             return;
         }
+        BookingListener listener = this.listener;
+        QueueChangeListener changes = replay ? QueueChangeListener.NONE : this.changes;
+        CascadeEvents log = null;
+        if (listener != BookingListener.NONE && (n > 1 || announceMoves)) {
+            log = new CascadeEvents(n);
+        }
+        int[] byEntry = orderByEntrySlot(entrySlots);
+
+        // spill from the previous slot: chain number + token, in chain order
+        int[] carryIds = new int[n];
+        Token[] carry = new Token[n];
+        int carried = 0;
+        int bestCarried = Integer.MAX_VALUE;  // highest priority (lowest number) being carried
+        int[] nextIds = new int[n];
+        Token[] next = new Token[n];
+        int[] bumps = new int[n];  // tokens displaced by each chain, for the metrics
+
+        int entering = 0;
+        int slotCount = doctor.getSlots().size();
+        for (int slotIndex = entrySlots[byEntry[0]]; slotIndex < slotCount && (carried > 0 || entering < n);
+                slotIndex++) {
+            boolean entersHere = entering < n && entrySlots[byEntry[entering]] == slotIndex;
+            if (carried == 0 && !entersHere) {
+                slotIndex = entrySlots[byEntry[entering]] - 1;  // nothing moving until the next entry
+                continue;
+            }
+            Slot slot = doctor.getSlot(slotIndex);
+            if (!entersHere && log == null && listener == BookingListener.NONE && slot.isFull()
+                    && bestCarried >= slot.getLowestPriorityToken().getPriority()) {
+                continue;  // nobody carried can bump in here, they all move on
+            }
+
+            int spilled = 0;
+            int best = Integer.MAX_VALUE;
+            int c = 0;
+            while (c < carried || entersHere) {
+                int id;
+                Token token;
+                if (entersHere && (c == carried || byEntry[entering] < carryIds[c])) {
+                    id = byEntry[entering++];
+                    token = tokens[id];
+                    entersHere = entering < n && entrySlots[byEntry[entering]] == slotIndex;
+                } else {
+                    id = carryIds[c];
+                    token = carry[c++];
+                }
+
+                Token out = placeInSlot(doctor, slotIndex, slot, token, log != null ? log.of(id) : listener, changes);
+                if (out != null) {
+                    if (out != token) bumps[id]++;
+                    nextIds[spilled] = id;
+                    next[spilled++] = out;
+                    best = Math.min(best, out.getPriority());
+                }
+            }
+
+            int[] ids = carryIds;
+            carryIds = nextIds;
+            nextIds = ids;
+            Token[] swap = carry;
+            carry = next;
+            next = swap;
+            carried = spilled;
+            bestCarried = best;
+        }
+
+        // past the last slot: what is still carried, and tokens entering there (delaying the
+        // last slot), go to the waiting list in chain order
+        if (carried > 0 || entering < n) {
+            Token[] leftOver = new Token[n];
+            for (int c = 0; c < carried; c++) leftOver[carryIds[c]] = carry[c];
+            while (entering < n) leftOver[byEntry[entering]] = tokens[byEntry[entering++]];
+            for (int id = 0; id < n; id++) {
+                if (leftOver[id] == null) continue;
+                (log != null ? log.of(id) : listener).waitingListed(leftOver[id]);
+                if (!replay) {
+                    metrics.recordWaitingListed();
+                }
+                doctor.addToWaitingList(leftOver[id]);
+                locate(doctor, leftOver[id]).moveToWaitingList();
+                changes.waitingListed(doctor, leftOver[id]);
+            }
+            unbalanced.add(doctor);  // an earlier slot may have room
+        }
+
+        if (!announceMoves && !replay) {  // bookings, not tokens moved on by a delay
+            for (int chain : bumps) {
+                metrics.recordCascade(chain);
+            }
+        }
+        if (log != null) {
+            log.replay(listener, announceMoves ? tokens : null);
+        }
+    }
 
+    /**
+     * Positions of the tokens ordered by entry slot, keeping chain order within a slot
+     */
+    private static int[] orderByEntrySlot(int[] entrySlots) {
+        int[] order = new int[entrySlots.length];
+        boolean sorted = true;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            if (i > 0 && entrySlots[i] < entrySlots[i - 1]) sorted = false;
+        }
+        if (!sorted) {
+            Integer[] boxed = new Integer[order.length];
+            for (int i = 0; i < order.length; i++) boxed[i] = i;
+            Arrays.sort(boxed, Comparator.comparingInt(i -> entrySlots[i]));  // stable
+            for (int i = 0; i < order.length; i++) order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    /**
+     * One arrival at a slot: returns the token that has to move on (the arrival
+     * itself or the one it bumped), or null when the slot took it without a spill
+     */
+    private Token placeInSlot(Doctor doctor, int slotIndex, Slot slot, Token token, BookingListener events,
+            QueueChangeListener changes) {
         if (!slot.isFull()) {
             // Slot has space, add directly
             slot.addToken(token);
-            token.setAllocatedAt(LocalDateTime.now());
-            System.out.println("✓ " + token.getId() + " allocated to " + slot.getTimeRange());
-            return;
+            token.setAllocatedAtNanos(Token.nowNanos());
+            locate(doctor, token).moveToSlot(slot, slotIndex);
+            events.allocated(token, slot);
+            changes.allocated(doctor, slotIndex, token);
+            return null;
         }
 
         // Slot is full - apply bumping logic
-        System.out.println("\n⚠ Slot " + slot.getTimeRange() + " is FULL (" + 
-            slot.getCurrentCount() + "/" + slot.getCapacity() + ")");
-
+        events.slotFull(slot, slot.getCurrentCount());
         Token lowestInSlot = slot.getLowestPriorityToken();
-        
+
         // Check if new token has higher priority (lower number) than lowest in slot
         if (token.getPriority() < lowestInSlot.getPriority()) {
-            // Bump the lowest priority token
-            System.out.println("→ Bumping " + lowestInSlot.getId() + " (" + 
-                lowestInSlot.getPatientName() + "-" + lowestInSlot.getType() + 
-                ") to next slot");
-            
+            events.bumped(lowestInSlot);
             slot.removeToken(lowestInSlot);
+            changes.bumped(doctor, slotIndex, lowestInSlot);
             slot.addToken(token);
-            token.setAllocatedAt(LocalDateTime.now());
-            System.out.println("✓ " + token.getId() + " allocated to " + slot.getTimeRange());
-            
-            // Recursively try to place bumped token in next slot
-            allocateToken(doctor, slotIndex + 1, lowestInSlot);
-        } else {
-            // New token doesn't have higher priority, move it to next slot
-            System.out.println("→ Moving " + token.getId() + " to next slot (lower priority)");
-            allocateToken(doctor, slotIndex + 1, token);
+            token.setAllocatedAtNanos(Token.nowNanos());
+            locate(doctor, token).moveToSlot(slot, slotIndex);
+            events.allocated(token, slot);
+            changes.allocated(doctor, slotIndex, token);
+            return lowestInSlot;
         }
+        // New token doesn't have higher priority, it moves to the next slot
+        events.movedToNextSlot(token);
+        return token;
     }
 
     /**
-     * Cancel a token and potentially fill from waiting list
+     * Events of a sweep kept per chain, so they can be reported in the order the
+     * one-chain-at-a-time allocation produced them (the narration only shows a
+     * slot's time range and capacity, which don't change in the meantime)
+     */
+    private static class CascadeEvents {
+        private final List<List<Consumer<BookingListener>>> chains = new ArrayList<>();
+        private final BookingListener[] recorders;
+
+        CascadeEvents(int chainCount) {
+            recorders = new BookingListener[chainCount];
+            for (int i = 0; i < chainCount; i++) {
+                List<Consumer<BookingListener>> events = new ArrayList<>();
+                chains.add(events);
+                recorders[i] = new BookingListener() {
+                    @Override
+                    public void allocated(Token token, Slot slot) {
+                        events.add(l -> l.allocated(token, slot));
+                    }
+
+                    @Override
+                    public void slotFull(Slot slot, int count) {
+                        events.add(l -> l.slotFull(slot, count));
+                    }
+
+                    @Override
+                    public void bumped(Token token) {
+                        events.add(l -> l.bumped(token));
+                    }
+
+                    @Override
+                    public void movedToNextSlot(Token token) {
+                        events.add(l -> l.movedToNextSlot(token));
+                    }
+
+                    @Override
+                    public void waitingListed(Token token) {
+                        events.add(l -> l.waitingListed(token));
+                    }
+                };
+            }
+        }
+
+        BookingListener of(int chain) {
+            return recorders[chain];
+        }
+
+        /**
+         * Report everything chain by chain (movingToken first when moved is given)
+         */
+        void replay(BookingListener listener, Token[] moved) {
+            for (int i = 0; i < chains.size(); i++) {
+                if (moved != null) {
+                    listener.movingToken(moved[i]);
+                }
+                for (Consumer<BookingListener> event : chains.get(i)) {
+                    event.accept(listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel a token by ID alone - the token index knows which doctor holds it
+     */
+    public boolean cancelToken(String tokenId) {
+        return cancelToken(null, tokenId);
+    }
+
+    /**
+     * Cancel a token and potentially fill from waiting list.
+     * doctorName is optional; when given the token must belong to that doctor.
      */
     public boolean cancelToken(String doctorName, String tokenId) {
-        printOperationHeader("Cancelling token " + tokenId);
+        return cancelToken(doctorName, tokenId, true);
+    }
+
+    boolean cancelToken(String doctorName, String tokenId, boolean await) {
+        long start = System.nanoTime();
+        BookingListener listener = this.listener;
+        listener.cancelStarted(tokenId);
         
-        Doctor doctor = doctors.get(doctorName);
-        if (doctor == null) {
-            System.out.println("✗ Doctor not found: " + doctorName);
+        if (doctorName != null && doctors.get(doctorName) == null) {
+            listener.doctorNotFound(doctorName);
             return false;
         }
 
-        // Check if token is in waiting list
-        if (doctor.removeFromWaitingList(tokenId)) {
-            System.out.println("✓ Token " + tokenId + " removed from waiting list");
-            return true;
-        }
-
-        // Find and remove from slot
-        Slot slot = doctor.findSlotWithToken(tokenId);
-        if (slot == null) {
-            System.out.println("✗ Token " + tokenId + " not found");
+        TokenLocation location = tokenIndex.get(tokenId);
+        if (location == null || !belongsTo(location, doctorName)) {
+            listener.tokenNotFound(tokenId);
             return false;
         }
+        Doctor doctor = location.getDoctor();
 
-        Token removed = slot.removeTokenById(tokenId);
-        System.out.println("✓ Token " + tokenId + " (" + removed.getPatientName() + 
-            ") cancelled from " + slot.getTimeRange());
+        long lsn = 0;
+        synchronized (doctor) {
+            // Lost a race with another cancel/no-show of the same token
+            if (!tokenIndex.remove(tokenId, location)) {
+                listener.tokenNotFound(tokenId);
+                return false;
+            }
 
-        // Try to fill vacancy from waiting list
-        fillFromWaitingList(doctor, slot);
-        
-        displaySlotStatus(doctor, slot);
+            cancel(doctor, location, false);
+            doctor.changed();
+
+            if (journal != null) {
+                lsn = logged(doctor, journal.logCancel(doctor.getName(), tokenId));
+            }
+        }
+        if (await) {
+            awaitDurable(lsn);
+            metrics.recordOperation(Metrics.Operation.CANCEL, System.nanoTime() - start);
+        }
         return true;
     }
 
+    /**
+     * Take a token (already out of the index) from its slot or the waiting list,
+     * and fill the seat it frees (caller holds the doctor lock)
+     */
+    private void cancel(Doctor doctor, TokenLocation location, boolean replay) {
+        QueueChangeListener changes = replay ? QueueChangeListener.NONE : this.changes;
+        String tokenId = location.getToken().getId();
+        if (location.isInWaitingList()) {
+            // Token is in waiting list
+            doctor.removeFromWaitingList(tokenId);
+            listener.removedFromWaitingList(tokenId);
+            changes.cancelled(doctor, tokenId);
+        } else {
+            Slot slot = location.getSlot();
+            Token removed = location.getToken();
+            slot.removeToken(removed);
+            listener.cancelled(removed, slot);
+            changes.cancelled(doctor, tokenId);
+
+            // Try to fill vacancy from waiting list
+            fillFromWaitingList(doctor, location.getSlotIndex(), replay);
+
+            listener.slotStatus(doctor, slot);
+        }
+    }
+
     /**
      * Fill slot vacancy from waiting list
      */
-    private void fillFromWaitingList(Doctor doctor, Slot slot) {
+    private void fillFromWaitingList(Doctor doctor, int slotIndex, boolean replay) {
+        Slot slot = doctor.getSlot(slotIndex);
         if (!slot.isFull() && !doctor.getWaitingList().isEmpty()) {
             Token waitingToken = doctor.pollWaitingList();
             slot.addToken(waitingToken);
-            waitingToken.setAllocatedAt(LocalDateTime.now());
-            System.out.println("→ " + waitingToken.getId() + " (" + waitingToken.getPatientName() + 
-                ") moved from waiting list to " + slot.getTimeRange());
+            waitingToken.setAllocatedAtNanos(Token.nowNanos());
+            locate(doctor, waitingToken).moveToSlot(slot, slotIndex);
+            listener.filledFromWaitingList(waitingToken, slot);
+            if (!replay) {
+                changes.allocated(doctor, slotIndex, waitingToken);
+            }
+        }
+    }
+
+    /**
+     * Fill every free seat of a doctor's slots from the waiting list, earliest slot
+     * first, highest priority first. Returns the number of seats filled (-1 when
+     * there is no such doctor).
+     *
+     * Cancel and no-show only refill the seat they free, so seats can stay empty
+     * while patients wait: a booking for a later slot overflows to the waiting
+     * list, a delay empties its slot (which is not closed - bookings can still
+     * land in it, so it is refilled like any other). This fixes them all in one
+     * pass over the slots.
+     */
+    public int rebalance(String doctorName) {
+        return rebalance(doctorName, true);
+    }
+
+    int rebalance(String doctorName, boolean await) {
+        Doctor doctor = doctors.get(doctorName);
+        if (doctor == null) {
+            listener.doctorNotFound(doctorName);
+            return -1;
+        }
+        return rebalance(doctor, await);
+    }
+
+    /**
+     * Rebalance every doctor marked since the last call - one sweep per doctor
+     * however many bookings and delays marked it (WaitingListCompactor calls this)
+     */
+    public int rebalancePending() {
+        int filled = 0;
+        for (Doctor doctor : takeUnbalanced()) {
+            filled += rebalance(doctor, true);
+        }
+        return filled;
+    }
+
+    /**
+     * The doctors marked since the last call, unmarked (marks made from here
+     * on are kept for next time)
+     */
+    List<Doctor> takeUnbalanced() {
+        List<Doctor> marked = new ArrayList<>();
+        for (Doctor doctor : unbalanced) {
+            unbalanced.remove(doctor);
+            marked.add(doctor);
         }
+        return marked;
+    }
+
+    /**
+     * Number of rebalance sweeps run so far
+     */
+    public long getRebalanceCount() {
+        return rebalances.sum();
+    }
+
+    /**
+     * Seats filled from waiting lists by rebalancing so far
+     */
+    public long getSeatsRecovered() {
+        return seatsRecovered.sum();
+    }
+
+    private int rebalance(Doctor doctor, boolean await) {
+        int filled;
+        long lsn = 0;
+        synchronized (doctor) {
+            filled = refill(doctor, false);
+            if (filled > 0 && journal != null) {
+                lsn = logged(doctor, journal.logRebalance(doctor.getName()));
+            }
+        }
+        rebalances.increment();
+        seatsRecovered.add(filled);
+        if (await) {
+            awaitDurable(lsn);
+        }
+        return filled;
+    }
+
+    /**
+     * Fill free seats from the waiting list, earliest slot first (caller holds
+     * the doctor lock); returns the number filled
+     */
+    private int refill(Doctor doctor, boolean replay) {
+        QueueChangeListener changes = replay ? QueueChangeListener.NONE : this.changes;
+        int filled = 0;
+        WaitingList waiting = doctor.getWaitingList();
+        List<Slot> slots = doctor.getSlots();
+        for (int i = 0; i < slots.size() && !waiting.isEmpty(); i++) {
+            Slot slot = slots.get(i);
+            while (!slot.isFull() && !waiting.isEmpty()) {
+                Token token = waiting.poll();
+                slot.addToken(token);
+                token.setAllocatedAtNanos(Token.nowNanos());
+                locate(doctor, token).moveToSlot(slot, i);
+                listener.filledFromWaitingList(token, slot);
+                changes.allocated(doctor, i, token);
+                filled++;
+            }
+        }
+        if (filled > 0) {
+            doctor.changed();
+        }
+        return filled;
     }
 
     /**
      * Delay a slot - shifts all tokens to subsequent slots
      */
     public void delaySlot(String doctorName, int slotIndex) {
-        printOperationHeader("Delaying slot");
+        delaySlot(doctorName, slotIndex, true);
+    }
+
+    /**
+     * false when there is no such doctor or slot
+     */
+    boolean delaySlot(String doctorName, int slotIndex, boolean await) {
+        long start = System.nanoTime();
+        BookingListener listener = this.listener;
+        listener.delayStarted(doctorName, slotIndex);
         
         Doctor doctor = doctors.get(doctorName);
         if (doctor == null) {
-            System.out.println("✗ Doctor not found: " + doctorName);
-            return;
+            listener.doctorNotFound(doctorName);
+            return false;
         }
 
-        Slot slot = doctor.getSlot(slotIndex);
-        if (slot == null) {
-            System.out.println("✗ Invalid slot index: " + slotIndex);
-            return;
+        long lsn = 0;
+        synchronized (doctor) {
+            Slot slot = doctor.getSlot(slotIndex);
+            if (slot == null) {
+                listener.invalidSlot(slotIndex);
+                return false;
+            }
+
+            delay(doctor, slotIndex, false);
+
+            if (journal != null) {
+                lsn = logged(doctor, journal.logDelay(doctorName, slotIndex));
+            }
         }
+        if (await) {
+            awaitDurable(lsn);
+            metrics.recordOperation(Metrics.Operation.DELAY, System.nanoTime() - start);
+        }
+        return true;
+    }
 
-        System.out.println("⚠ Delaying " + slot.getTimeRange() + " for Dr. " + doctorName);
-        System.out.println("→ Shifting all tokens to subsequent slots...\n");
+    /**
+     * Empty a slot and move its tokens on to the following slots, in one sweep
+     * (caller holds the doctor lock and has checked the slot exists)
+     */
+    private void delay(Doctor doctor, int slotIndex, boolean replay) {
+        Slot slot = doctor.getSlot(slotIndex);
+        listener.slotDelaying(doctor.getName(), slot);
 
         // Get all tokens from this slot
         java.util.List<Token> tokensToMove = slot.getTokens();
-        
+
         // Clear the slot
         for (Token t : tokensToMove) {
             slot.removeToken(t);
         }
-
-        // Move each token to next available slot (cascade)
-        for (Token token : tokensToMove) {
-            System.out.println("  Moving " + token.getId() + " (" + token.getPatientName() + ")...");
-            allocateToken(doctor, slotIndex + 1, token);
+        if (!replay) {
+            changes.slotDelayed(doctor, slotIndex);
         }
 
-        System.out.println("\n✓ Slot delay completed");
-        doctor.displayStatus();
+        // Move every token on to the following slots, in one sweep
+        Token[] moving = tokensToMove.toArray(new Token[0]);
+        int[] entrySlots = new int[moving.length];
+        Arrays.fill(entrySlots, slotIndex + 1);
+        allocateAll(doctor, entrySlots, moving, true, replay);
+        doctor.changed();
+
+        listener.delayCompleted(doctor);
+        unbalanced.add(doctor);
+    }
+
+    /**
+     * Mark a token as no-show by ID alone
+     */
+    public boolean markNoShow(String tokenId) {
+        return markNoShow(null, tokenId);
     }
 
     /**
-     * Mark a token as no-show and fill from waiting list
+     * Mark a token as no-show and fill from waiting list.
+     * doctorName is optional; when given the token must belong to that doctor.
      */
     public boolean markNoShow(String doctorName, String tokenId) {
-        printOperationHeader("Marking NO-SHOW: " + tokenId);
+        return markNoShow(doctorName, tokenId, true);
+    }
+
+    boolean markNoShow(String doctorName, String tokenId, boolean await) {
+        long start = System.nanoTime();
+        BookingListener listener = this.listener;
+        listener.noShowStarted(tokenId);
         
-        Doctor doctor = doctors.get(doctorName);
-        if (doctor == null) {
-            System.out.println("✗ Doctor not found: " + doctorName);
+        if (doctorName != null && doctors.get(doctorName) == null) {
+            listener.doctorNotFound(doctorName);
             return false;
         }
 
-        Slot slot = doctor.findSlotWithToken(tokenId);
-        if (slot == null) {
-            System.out.println("✗ Token " + tokenId + " not found");
+        // Only tokens sitting in a slot can be a no-show
+        TokenLocation location = tokenIndex.get(tokenId);
+        if (location == null || !belongsTo(location, doctorName)) {
+            listener.tokenNotFound(tokenId);
             return false;
         }
+        Doctor doctor = location.getDoctor();
 
-        Token removed = slot.removeTokenById(tokenId);
-        System.out.println("✗ Token " + tokenId + " (" + removed.getPatientName() + 
-            ") marked as NO-SHOW from " + slot.getTimeRange());
+        long lsn = 0;
+        synchronized (doctor) {
+            // Only tokens sitting in a slot can be a no-show
+            if (location.isInWaitingList() || !tokenIndex.remove(tokenId, location)) {
+                listener.tokenNotFound(tokenId);
+                return false;
+            }
 
-        // Fill vacancy from waiting list
-        fillFromWaitingList(doctor, slot);
-        
-        displaySlotStatus(doctor, slot);
+            noShow(doctor, location, false);
+            doctor.changed();
+
+            if (journal != null) {
+                lsn = logged(doctor, journal.logNoShow(doctor.getName(), tokenId));
+            }
+        }
+        if (await) {
+            awaitDurable(lsn);
+            metrics.recordOperation(Metrics.Operation.NO_SHOW, System.nanoTime() - start);
+        }
         return true;
     }
 
+    /**
+     * Take a token (already out of the index) from its slot and fill the seat
+     * from the waiting list (caller holds the doctor lock)
+     */
+    private void noShow(Doctor doctor, TokenLocation location, boolean replay) {
+        Slot slot = location.getSlot();
+        Token removed = location.getToken();
+        slot.removeToken(removed);
+        listener.noShow(removed, slot);
+        if (!replay) {
+            changes.noShow(doctor, removed.getId());
+        }
+
+        // Fill vacancy from waiting list
+        fillFromWaitingList(doctor, location.getSlotIndex(), replay);
+
+        listener.slotStatus(doctor, slot);
+    }
+
+    /**
+     * Get the index entry for a token, creating it the first time the token is placed
+     * (caller holds the doctor lock)
+     */
+    private TokenLocation locate(Doctor doctor, Token token) {
+        TokenLocation location = tokenIndex.get(token.getId());
+        if (location == null) {
+            location = new TokenLocation(token, doctor);
+            tokenIndex.put(token.getId(), location);
+        }
+        return location;
+    }
+
+    private boolean belongsTo(TokenLocation location, String doctorName) {
+        return doctorName == null || location.getDoctor().getName().equals(doctorName);
+    }
+
+    /**
+     * Remember the journal position on the doctor (caller holds the doctor lock)
+     */
+    private long logged(Doctor doctor, long lsn) {
+        doctor.setLastLsn(lsn);
+        return lsn;
+    }
+
+    /**
+     * Wait for a journaled change to reach the disk (no-op without a journal)
+     */
+    private void awaitDurable(long lsn) {
+        if (lsn > 0) {
+            journal.awaitDurable(lsn);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Restore helpers used by Persistence - these are not journaled, and
+    // publish nothing to the change listener or the metrics
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Register a doctor loaded from a snapshot
+     */
+    void restoreDoctor(Doctor doctor) {
+        doctor.setFreeSeatIndex(freeSeats);
+        doctors.put(doctor.getName(), doctor);
+    }
+
+    /**
+     * Put a restored token straight into a slot, no bumping (snapshot order is final)
+     */
+    void restoreToSlot(Doctor doctor, int slotIndex, Token token) {
+        Slot slot = doctor.getSlot(slotIndex);
+        slot.addToken(token);
+        locate(doctor, token).moveToSlot(slot, slotIndex);
+        doctor.changed();
+    }
+
+    void restoreToWaitingList(Doctor doctor, Token token) {
+        doctor.addToWaitingList(token);
+        locate(doctor, token).moveToWaitingList();
+        unbalanced.add(doctor);
+        doctor.changed();
+    }
+
+    /**
+     * Re-run a journaled booking with the token it originally created
+     */
+    void replayBooking(Doctor doctor, int slotIndex, Token token) {
+        synchronized (doctor) {
+            allocateToken(doctor, slotIndex, token, true);
+            doctor.changed();
+        }
+    }
+
+    /**
+     * Re-run a journaled cancel (false when the token is not the doctor's)
+     */
+    boolean replayCancel(Doctor doctor, String tokenId) {
+        synchronized (doctor) {
+            TokenLocation location = tokenIndex.get(tokenId);
+            if (location == null || location.getDoctor() != doctor || !tokenIndex.remove(tokenId, location)) {
+                return false;
+            }
+            cancel(doctor, location, true);
+            doctor.changed();
+            return true;
+        }
+    }
+
+    /**
+     * Re-run a journaled no-show (false when the token is not seated with the doctor)
+     */
+    boolean replayNoShow(Doctor doctor, String tokenId) {
+        synchronized (doctor) {
+            TokenLocation location = tokenIndex.get(tokenId);
+            if (location == null || location.getDoctor() != doctor || location.isInWaitingList()
+                    || !tokenIndex.remove(tokenId, location)) {
+                return false;
+            }
+            noShow(doctor, location, true);
+            doctor.changed();
+            return true;
+        }
+    }
+
+    /**
+     * Re-run a journaled delay (false when there is no such slot)
+     */
+    boolean replayDelay(Doctor doctor, int slotIndex) {
+        synchronized (doctor) {
+            if (doctor.getSlot(slotIndex) == null) {
+                return false;
+            }
+            delay(doctor, slotIndex, true);
+            return true;
+        }
+    }
+
+    /**
+     * Re-run a journaled rebalance; returns the number of seats filled
+     */
+    int replayRebalance(Doctor doctor) {
+        synchronized (doctor) {
+            return refill(doctor, true);
+        }
+    }
+
     /**
      * Display all doctors and their status
      */
@@ -241,27 +1059,11 @@ public class TokenManager {
         System.out.println("═".repeat(60));
         
         for (Doctor doctor : doctors.values()) {
-            doctor.displayStatus();
+            synchronized (doctor) {
+                doctor.displayStatus();
+            }
         }
         
         System.out.println("\n" + "═".repeat(60));
     }
-
-    private void printOperationHeader(String operation) {
-        System.out.println("\n" + "═".repeat(50));
-        System.out.println("OPERATION: " + operation);
-        System.out.println("═".repeat(50));
-    }
-
-    private void displaySlotStatus(Doctor doctor, Slot slot) {
-        System.out.println("\nDR. " + doctor.getName().toUpperCase() + " - " + slot);
-        java.util.List<Token> tokens = slot.getTokens();
-        for (int i = 0; i < tokens.size(); i++) {
-            System.out.println("  " + (i + 1) + ". " + tokens.get(i));
-        }
-        
-        if (!doctor.getWaitingList().isEmpty()) {
-            System.out.println("\nWAITING LIST: " + doctor.getWaitingList().size() + " patients");
-        }
-    }
 }
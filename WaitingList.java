@@ -0,0 +1,152 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A doctor's waiting list: one FIFO queue per TokenType plus an index by token id
+ *
+ * poll() hands out the highest priority first, so an EMERGENCY that overflowed
+ * no longer waits behind ONLINE patients; within a type it is first come, first
+ * served. Adding, polling, removing by id and the per-type counts are all O(1).
+ *
+ * Not thread-safe on its own: guarded by the doctor lock, like the slots.
+ */
+public class WaitingList implements Iterable<Token> {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private static class Node {
+        final Token token;
+        Node prev;
+        Node next;
+
+        Node(Token token) {
+            this.token = token;
+        }
+    }
+
+    private final Node[] heads = new Node[TYPES.length];
+    private final Node[] tails = new Node[TYPES.length];
+    private final int[] counts = new int[TYPES.length];
+    private final Map<String, Node> byId = new HashMap<>();
+    private int size;
+
+    /**
+     * Add at the back of the token's priority queue
+     */
+    public void add(Token token) {
+        Node node = new Node(token);
+        int type = token.getType().ordinal();
+        if (tails[type] == null) {
+            heads[type] = node;
+        } else {
+            tails[type].next = node;
+            node.prev = tails[type];
+        }
+        tails[type] = node;
+        counts[type]++;
+        size++;
+        byId.put(token.getId(), node);
+    }
+
+    /**
+     * Remove and return the longest-waiting token of the highest priority (null when empty)
+     */
+    public Token poll() {
+        for (int type = 0; type < heads.length; type++) {
+            if (heads[type] != null) {
+                Node node = heads[type];
+                unlink(node);
+                return node.token;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The token poll() would return, without removing it
+     */
+    public Token peek() {
+        for (Node head : heads) {
+            if (head != null) return head.token;
+        }
+        return null;
+    }
+
+    /**
+     * Remove a token by ID, returns it (null when it isn't waiting)
+     */
+    public Token remove(String tokenId) {
+        Node node = byId.get(tokenId);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        return node.token;
+    }
+
+    public boolean contains(String tokenId) {
+        return byId.containsKey(tokenId);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of waiting tokens of one type
+     */
+    public int size(TokenType type) {
+        return counts[type.ordinal()];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate in poll() order (priority, then arrival) without copying
+     */
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+            private int type = 0;
+            private Node node = heads[0];
+
+            @Override
+            public boolean hasNext() {
+                while (node == null && type + 1 < heads.length) {
+                    node = heads[++type];
+                }
+                return node != null;
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Token token = node.token;
+                node = node.next;
+                return token;
+            }
+        };
+    }
+
+    private void unlink(Node node) {
+        int type = node.token.getType().ordinal();
+        if (node.prev == null) {
+            heads[type] = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tails[type] = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        counts[type]--;
+        size--;
+        byId.remove(node.token.getId());
+    }
+}
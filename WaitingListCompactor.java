@@ -0,0 +1,60 @@
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background refill of free seats from the waiting lists
+ *
+ * TokenManager marks a doctor whenever a token goes to the waiting list or a
+ * slot is delayed; every interval this runs one rebalance sweep per marked
+ * doctor. A burst of changes to one doctor costs a single sweep. With a
+ * CommandPipeline the sweeps run on the doctors' engine threads like every
+ * other change.
+ */
+public class WaitingListCompactor implements Closeable {
+    private final TokenManager manager;
+    private final CommandPipeline pipeline;
+    private ScheduledExecutorService scheduler;
+
+    public WaitingListCompactor(TokenManager manager) {
+        this(manager, null);
+    }
+
+    /**
+     * pipeline may be null (sweep on the compactor thread)
+     */
+    public WaitingListCompactor(TokenManager manager, CommandPipeline pipeline) {
+        this.manager = manager;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Rebalance every marked doctor now; the seats filled
+     */
+    public int sweep() {
+        return pipeline != null ? pipeline.rebalancePending().join() : manager.rebalancePending();
+    }
+
+    public void start(long intervalMillis) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                System.out.println("✗ Rebalance failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Earliest free seat across all doctors on a busy day: a scan of every doctor
+ * and slot vs FreeSeatIndex (AvailabilityTest checks both agree)
+ */
+public class AvailabilityBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Earliest free seat: FreeSeatIndex vs walking every doctor and slot");
+        int reps = 20_000;
+        System.out.printf("  %8s %8s %16s %16s%n", "doctors", "slots", "scan ns/query", "index ns/query");
+        for (int doctors : new int[] {20, 200}) {
+            for (int round = 0; round < 3; round++) {  // first two rounds warm up
+                DayGenerator generator = new DayGenerator(round, doctors, 100, 10);
+                generator.setFill(1.0);
+                TokenManager manager = generator.build();
+                // a few seats free late in the day, and one booking between queries
+                Random random = new Random(round);
+                List<String> ids = generator.shuffledIds(manager);
+                for (int i = 0; i < doctors; i++) manager.cancelToken(ids.get(i));
+                int minute = 10 * 60;
+                long scan = 0, index = 0;
+                for (int i = 0; i < reps; i++) {
+                    if (i % 10 == 0) {
+                        manager.bookToken(generator.nextDoctor(), generator.nextSlot(), "P", TokenType.ONLINE);
+                        manager.cancelToken(ids.get(doctors + random.nextInt(ids.size() - doctors)));
+                    }
+                    long start = System.nanoTime();
+                    sink += scanEarliest(manager, minute) == null ? 0 : 1;
+                    long middle = System.nanoTime();
+                    sink += manager.findEarliestAvailable(minute) == null ? 0 : 1;
+                    index += System.nanoTime() - middle;
+                    scan += middle - start;
+                }
+                if (round == 2) {
+                    System.out.printf("  %8d %8d %16.0f %16.0f%n", doctors, 100, (double) scan / reps,
+                        (double) index / reps);
+                }
+            }
+        }
+    }
+
+    /**
+     * The walk the index replaces: every doctor, every slot
+     */
+    private static Doctor scanEarliest(TokenManager manager, int minute) {
+        Doctor best = null;
+        int bestStart = Integer.MAX_VALUE;
+        for (Doctor doctor : manager.getAllDoctors()) {
+            synchronized (doctor) {
+                int slot = SlotTimeBenchmark.scanNextFree(doctor, minute);
+                if (slot < 0) continue;
+                int start = doctor.getSlot(slot).getStartMinute();
+                if (start < bestStart || (start == bestStart && doctor.getName().compareTo(best.getName()) < 0)) {
+                    best = doctor;
+                    bestStart = start;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A desk uploading its walk-ins: bookTokens vs one bookToken each, directly,
+ * with a journal and over HTTP (BatchBookingTest checks the batch matches the one-by-one bookings)
+ */
+public class BatchBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Batch booking");
+        int batchSize = 48;
+        System.out.printf("  %-34s %14s%n", batchSize + " walk-ins, 20 slots x 20 (full)", "bookings/sec");
+        measureBatch("one bookToken each", false, null, batchSize, 4000);
+        measureBatch("bookTokens", true, null, batchSize, 4000);
+        measureBatch("one bookToken each, journal", false, BookingJournal.SyncMode.GROUP_COMMIT, batchSize, 10);
+        measureBatch("bookTokens, journal", true, BookingJournal.SyncMode.GROUP_COMMIT, batchSize, 10);
+        measureBatchHttp("POST /tokens each", false, batchSize, 100);
+        measureBatchHttp("POST /tokens/batch", true, batchSize, 100);
+    }
+
+    private static void measureBatch(String label, boolean batch, BookingJournal.SyncMode sync, int batchSize, int reps) {
+        long elapsed = 0;
+        for (int round = 0; round < 3; round++) {  // first rounds warm up
+            elapsed = 0;
+            for (int rep = 0; rep < reps; rep++) {
+                Random random = new Random(rep);
+                TokenManager manager = new TokenManager();
+                fullDoctor(manager, "D", random);
+                List<BookingRequest> requests = batchRequests("D", batchSize, random);
+
+                Path dir = sync != null ? Bench.tempDir("batch") : null;
+                try (BookingJournal journal = sync != null ? new BookingJournal(dir, sync, 0) : null) {
+                    manager.setJournal(journal);
+                    long start = System.nanoTime();
+                    if (batch) {
+                        sink += manager.bookTokens(requests).size();
+                    } else {
+                        for (BookingRequest r : requests) {
+                            sink += manager.bookToken(r.getDoctor(), r.getSlot(), r.getPatient(), r.getType()) != null ? 1 : 0;
+                        }
+                    }
+                    elapsed += System.nanoTime() - start;
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    if (dir != null) Bench.deleteDir(dir);
+                }
+            }
+        }
+        System.out.printf("  %-34s %14.0f%n", label, (double) batchSize * reps / (elapsed / 1e9));
+    }
+
+    /**
+     * The same walk-ins sent to a running ApiServer over loopback HTTP
+     */
+    private static void measureBatchHttp(String label, boolean batch, int batchSize, int reps) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));  // start() prints the endpoints
+        TokenManager manager = new TokenManager();
+        ApiServer api = new ApiServer(manager);
+        api.setExecutorKind(ApiServer.ExecutorKind.PLATFORM);
+        try {
+            api.start(0);
+            java.net.http.HttpClient client = java.net.http.HttpClient.newHttpClient();
+            String base = "http://localhost:" + api.getPort();
+            long elapsed = 0;
+            for (int round = 0; round < 2; round++) {  // first round warms up
+                elapsed = 0;
+                for (int rep = 0; rep < reps; rep++) {
+                    Random random = new Random(rep);
+                    String doctor = "D" + round + "-" + rep;
+                    fullDoctor(manager, doctor, random);
+                    List<BookingRequest> requests = batchRequests(doctor, batchSize, random);
+                    List<String> bodies = new ArrayList<>();
+                    for (BookingRequest r : requests) {
+                        bodies.add("{\"doctor\": \"" + r.getDoctor() + "\", \"slot\": " + r.getSlot() +
+                            ", \"patient\": \"" + r.getPatient() + "\", \"type\": \"" + r.getType() + "\"}");
+                    }
+
+                    long start = System.nanoTime();
+                    if (batch) {
+                        sink += post(client, base + "/tokens/batch", "[" + String.join(", ", bodies) + "]");
+                    } else {
+                        for (String body : bodies) {
+                            sink += post(client, base + "/tokens", body);
+                        }
+                    }
+                    elapsed += System.nanoTime() - start;
+                }
+            }
+            console.printf("  %-34s %14.0f%n", label, (double) batchSize * reps / (elapsed / 1e9));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            api.stop();
+            System.setOut(console);
+        }
+    }
+
+    private static int post(java.net.http.HttpClient client, String url, String body)
+            throws IOException, InterruptedException {
+        java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder(java.net.URI.create(url))
+            .POST(java.net.http.HttpRequest.BodyPublishers.ofString(body)).build();
+        java.net.http.HttpResponse<String> response =
+            client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(url + " -> " + response.statusCode() + " " + response.body());
+        }
+        return response.body().length();
+    }
+
+    /**
+     * A doctor with 20 slots of 20, every slot already full
+     */
+    private static void fullDoctor(TokenManager manager, String name, Random random) {
+        TokenType[] types = TokenType.values();
+        Doctor doctor = manager.addDoctor(name);
+        for (int s = 0; s < 20; s++) {
+            doctor.addSlot(s + ":00", (s + 1) + ":00", 20);
+            for (int i = 0; i < 20; i++) {
+                manager.restoreToSlot(doctor, s, new Token("P" + i, types[random.nextInt(types.length)]));
+            }
+        }
+    }
+
+    private static List<BookingRequest> batchRequests(String doctor, int batchSize, Random random) {
+        TokenType[] types = TokenType.values();
+        List<BookingRequest> requests = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            requests.add(new BookingRequest(doctor, random.nextInt(4), "W" + i, types[random.nextInt(types.length)]));
+        }
+        return requests;
+    }
+}
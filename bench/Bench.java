@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Helpers shared by the benchmark scenarios
+ */
+public final class Bench {
+    private Bench() {
+    }
+
+    static Path tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory("opd-" + prefix);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void deleteDir(Path dir) {
+        try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    /**
+     * Bytes allocated so far by this thread (HotSpot only, 0 elsewhere)
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Heap in use after a few full collections (good enough for per-object averages over 500k)
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static Token[] randomTokens(int count, long seed) {
+        Random random = new Random(seed);
+        TokenType[] types = TokenType.values();
+        Token[] tokens = new Token[count];
+        for (int i = 0; i < count; i++) {
+            tokens[i] = new Token("P" + i, types[random.nextInt(types.length)]);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Micro-benchmarks for the token engine hot paths (plain Java, no framework).
+ * Each scenario is its own class next to this one (engine is EngineBenchmark,
+ * slottime is SlotTimeBenchmark...); this only picks which of them run.
+ *
+ * Usage: java -cp out Benchmark [scenario] [doctors=4] [slots=10,100,1000] [capacity=5,20,100] [seed=1]
+ *   engine     - every hot path on DayGenerator days for each slots x capacity pair:
+ *                bookToken without bump / with one bump / cascading through every slot,
+ *                cancelToken, markNoShow, delaySlot, Slot.addToken and the GET /doctors body
+ *   slot       - Slot.addToken / bump churn, sort-on-insert list vs priority buckets
+ *   concurrent - book/cancel/no-show/delay throughput from many threads
+ *                (ConcurrencyTest checks that no token is lost or duplicated)
+ *   ids        - token id generation, String.format + static int vs TokenIdGenerator
+ *                (TokenIdGeneratorTest checks uniqueness across threads)
+ *   journal    - journal appends from many threads: fsync per record vs group commit
+ *   json       - GET /doctors body for 200 doctors: StringBuilder + getBytes vs JsonWriter
+ *   parse      - request bodies: old split parser vs JsonReader
+ *                (JsonReaderTest checks fixed cases, round trips and damaged bodies)
+ *   listener   - bookToken throughput with console / async / no narration
+ *   batch      - bookTokens vs one bookToken per walk-in, directly, with a journal and over HTTP
+ *                (BatchBookingTest checks the batch matches the one-by-one bookings)
+ *   cascade    - delaying slot 0 of 50 full slots: the sweep in TokenManager against the
+ *                old recursive allocateToken (CascadeTest checks both place and narrate alike)
+ *   waiting    - waiting list: LinkedList scans vs WaitingList
+ *                (WaitingListTest checks it against a plain list model)
+ *   rebalance  - refilling free seats from the waiting list: one sweep per change vs one
+ *                sweep per burst (RebalanceTest checks no seat stays free while patients wait)
+ *   events     - 20 screens polling one doctor vs 20 SSE subscribers on /events
+ *                (EventStreamTest checks snapshot + deltas replay to the doctor, and resync)
+ *   etag       - GET /doctors/{name} bodies rebuilt per read vs cached per version
+ *                (DoctorVersionTest checks versions, the cache and 304s)
+ *   metrics    - the cost and garbage of recording an operation or an HTTP response
+ *                (MetricsTest checks quantiles against exact ones and the exposition)
+ *   heap       - retained bytes per token: the old LocalDateTime fields vs epoch nanos,
+ *                with and without the NamePool, the index + slot cost on top, and the
+ *                Token object against the same fields held as primitive columns
+ *   routing    - ApiServer request routing: the old regex/split if-chain vs Router
+ *                (RouterTest checks both find the same route and variables)
+ *   recovery   - snapshot + journal tail recovery time for 1M tokens (needs ~1.5 GB heap),
+ *                and how soon the mapped day.map can answer reads instead
+ *   slottime   - "slot covering T" and "next free slot after T": binary search over parsed
+ *                start minutes vs a linear scan (SlotTimeTest checks both agree)
+ *   availability - earliest free seat across all doctors on a busy day: a scan of every
+ *                doctor and slot vs FreeSeatIndex (AvailabilityTest checks both agree)
+ *   calendar   - OpdCalendar: 120 days of bookings 30 days ahead, live shards and heap
+ *                (OpdCalendarTest checks routing and archiving)
+ *   pipeline   - CommandPipeline: 16 / 64 / 256 threads booking and cancelling directly vs
+ *                through 1 and 4 engine threads, without and with a group-commit journal
+ *                (median of 5 rounds; CommandPipelineTest checks the results match)
+ */
+public class Benchmark {
+
+    public static void main(String[] args) {
+        String scenario = args.length > 0 ? args[0] : "all";
+
+        if (scenario.equals("all") || scenario.equals("engine")) {
+            EngineBenchmark.run(args);
+        }
+        if (scenario.equals("all") || scenario.equals("slot")) {
+            SlotBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("concurrent")) {
+            ConcurrentBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("ids")) {
+            IdsBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("journal")) {
+            JournalBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("json")) {
+            JsonBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("parse")) {
+            ParseBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("listener")) {
+            ListenerBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("batch")) {
+            BatchBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("cascade")) {
+            CascadeBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("waiting")) {
+            WaitingBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("rebalance")) {
+            RebalanceBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("events")) {
+            EventsBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("etag")) {
+            EtagBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("metrics")) {
+            MetricsBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("heap")) {
+            HeapBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("routing")) {
+            RoutingBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("recovery")) {
+            RecoveryBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("slottime")) {
+            SlotTimeBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("availability")) {
+            AvailabilityBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("calendar")) {
+            CalendarBenchmark.run();
+        }
+        if (scenario.equals("all") || scenario.equals("pipeline")) {
+            PipelineBenchmark.run();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * OpdCalendar: 120 days of bookings 30 days ahead, live shards and heap
+ * (OpdCalendarTest checks routing and archiving)
+ */
+public class CalendarBenchmark {
+    static void run() {
+        System.out.println("\n▶ OpdCalendar: one TokenManager per (department, date)");
+        int departments = 8, doctorsPerDepartment = 5, days = 120, bookingsPerDay = 4_000;
+        SettableClock clock = new SettableClock(java.time.LocalDate.of(2026, 1, 1));
+        OpdCalendar calendar = new OpdCalendar(clock, OpdCalendar.DEFAULT_HORIZON_DAYS, null);
+        for (int d = 0; d < departments; d++) {
+            for (int i = 0; i < doctorsPerDepartment; i++) {
+                String name = "Dep" + d + "Dr" + i;
+                calendar.addDoctor("Dep" + d, name);
+                for (int s = 0; s < 8; s++) {
+                    calendar.addSlot(name, (9 + s) + ":00", (10 + s) + ":00", 10);
+                }
+            }
+        }
+        Random random = new Random(5);
+        TokenType[] types = TokenType.values();
+        System.out.println("  " + departments + " departments x " + doctorsPerDepartment + " doctors, "
+            + bookingsPerDay + " bookings a day spread over the next " + OpdCalendar.DEFAULT_HORIZON_DAYS + " days");
+        System.out.printf("  %6s %12s %12s %14s%n", "day", "live shards", "archived", "heap MB");
+        int archived = 0;
+        long elapsed = 0;
+        long booked = 0;
+        for (int day = 1; day <= days; day++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < bookingsPerDay; i++) {
+                String doctor = "Dep" + random.nextInt(departments) + "Dr" + random.nextInt(doctorsPerDepartment);
+                java.time.LocalDate date = calendar.today().plusDays(random.nextInt(OpdCalendar.DEFAULT_HORIZON_DAYS + 1));
+                if (calendar.bookToken(doctor, date, random.nextInt(8), "P" + random.nextInt(5_000),
+                        types[random.nextInt(types.length)]) != null) {
+                    booked++;
+                }
+            }
+            clock.advanceDays(1);
+            try {
+                archived += calendar.archivePastDays();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            elapsed += System.nanoTime() - start;
+            if (day % 30 == 0) {
+                System.out.printf("  %6d %12d %12d %14.1f%n", day, calendar.getShardCount(), archived,
+                    Bench.usedHeap() / 1e6);
+            }
+        }
+        System.out.printf("  %d bookings, %.0f ns each (including shard opening and archiving)%n",
+            booked, (double) elapsed / booked);
+    }
+
+    /**
+     * Clock the benchmark moves forward a day at a time
+     */
+    private static class SettableClock extends java.time.Clock {
+        private volatile java.time.Instant now;
+
+        SettableClock(java.time.LocalDate date) {
+            now = date.atStartOfDay(java.time.ZoneOffset.UTC).plusHours(12).toInstant();
+        }
+
+        void advanceDays(int days) {
+            now = now.plus(java.time.Duration.ofDays(days));
+        }
+
+        @Override
+        public java.time.ZoneId getZone() {
+            return java.time.ZoneOffset.UTC;
+        }
+
+        @Override
+        public java.time.Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public java.time.Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Delaying slot 0 of 50 full slots: one forward sweep vs the old recursive
+ * allocateToken per token (CascadeTest checks both place and narrate alike)
+ */
+public class CascadeBenchmark {
+    static void run() {
+        System.out.println("\n▶ Bump cascades");
+        System.out.printf("  %-40s %12s%n", "delay slot 0, 50 full slots of 20", "us/delay");
+        for (int round = 0; round < 2; round++) {  // first round warms up
+            long legacy = 0;
+            long sweep = 0;
+            int reps = 300;
+            for (int rep = 0; rep < reps; rep++) {
+                Doctor old = cascadeDay(null, rep);
+                long start = System.nanoTime();
+                legacyDelay(old, 0, BookingListener.NONE);
+                legacy += System.nanoTime() - start;
+
+                TokenManager fresh = new TokenManager();
+                cascadeDay(fresh, rep);
+                start = System.nanoTime();
+                fresh.delaySlot("D", 0);
+                sweep += System.nanoTime() - start;
+            }
+            if (round == 1) {
+                System.out.printf("  %-40s %12.1f%n", "recursive allocateToken per token", legacy / 1e3 / reps);
+                System.out.printf("  %-40s %12.1f%n", "one sweep", sweep / 1e3 / reps);
+            }
+        }
+    }
+
+    /**
+     * A doctor "D" with 50 full slots of 20 random tokens, in the manager or standalone
+     */
+    static Doctor cascadeDay(TokenManager manager, long seed) {
+        Random random = new Random(seed);
+        TokenType[] types = TokenType.values();
+        Doctor doctor = manager != null ? manager.addDoctor("D") : new Doctor("D");
+        for (int s = 0; s < 50; s++) {
+            doctor.addSlot(s + ":00", (s + 1) + ":00", 20);
+            for (int i = 0; i < 20; i++) {
+                Token token = new Token("P" + i, types[random.nextInt(types.length)]);
+                if (manager != null) {
+                    manager.restoreToSlot(doctor, s, token);
+                } else {
+                    doctor.getSlot(s).addToken(token);
+                }
+            }
+        }
+        return doctor;
+    }
+
+    /**
+     * TokenManager.allocateToken as it was: one recursive call per slot of the chain
+     */
+    private static void legacyAllocate(Doctor doctor, int slotIndex, Token token, BookingListener listener) {
+        Slot slot = doctor.getSlot(slotIndex);
+        if (slot == null) {
+            listener.waitingListed(token);
+            doctor.addToWaitingList(token);
+            return;
+        }
+        if (!slot.isFull()) {
+            slot.addToken(token);
+            token.setAllocatedAt(java.time.LocalDateTime.now());
+            listener.allocated(token, slot);
+            return;
+        }
+        listener.slotFull(slot, slot.getCurrentCount());
+        Token lowestInSlot = slot.getLowestPriorityToken();
+        if (token.getPriority() < lowestInSlot.getPriority()) {
+            listener.bumped(lowestInSlot);
+            slot.removeToken(lowestInSlot);
+            slot.addToken(token);
+            token.setAllocatedAt(java.time.LocalDateTime.now());
+            listener.allocated(token, slot);
+            legacyAllocate(doctor, slotIndex + 1, lowestInSlot, listener);
+        } else {
+            listener.movedToNextSlot(token);
+            legacyAllocate(doctor, slotIndex + 1, token, listener);
+        }
+    }
+
+    /**
+     * TokenManager.delaySlot as it was: a full bump chain per moved token
+     */
+    private static void legacyDelay(Doctor doctor, int slotIndex, BookingListener listener) {
+        listener.delayStarted(doctor.getName(), slotIndex);
+        Slot slot = doctor.getSlot(slotIndex);
+        listener.slotDelaying(doctor.getName(), slot);
+        List<Token> tokensToMove = slot.getTokens();
+        for (Token t : tokensToMove) {
+            slot.removeToken(t);
+        }
+        for (Token token : tokensToMove) {
+            listener.movingToken(token);
+            legacyAllocate(doctor, slotIndex + 1, token, listener);
+        }
+        listener.delayCompleted(doctor);
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Book/cancel/no-show/delay throughput from many threads on several doctors
+ * (ConcurrencyTest checks that no token is lost or duplicated)
+ */
+public class ConcurrentBenchmark {
+    static void run() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("\n▶ Concurrent book/cancel/no-show/delay stress (8 doctors, 10 slots x 20)");
+        System.out.printf("  %-8s %12s %10s %10s %10s%n", "threads", "ops/sec", "booked", "removed", "live");
+        for (int threads : new int[] {1, Math.max(2, cores)}) {
+            runStress(threads, 8, 10, 20, 20_000);
+        }
+    }
+
+    private static void runStress(int threads, int doctorCount, int slotCount, int capacity, int opsPerThread) {
+        TokenManager manager = new TokenManager();
+        for (int d = 0; d < doctorCount; d++) {
+            Doctor doctor = manager.addDoctor("D" + d);
+            for (int s = 0; s < slotCount; s++) {
+                doctor.addSlot(s + ":00", (s + 1) + ":00", capacity);
+            }
+        }
+
+        Map<String, Token> booked = new ConcurrentHashMap<>();
+        Set<String> removed = ConcurrentHashMap.newKeySet();
+        AtomicReferenceArray<String> recent = new AtomicReferenceArray<>(1024);
+        TokenType[] types = TokenType.values();
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long seed = 1000 + t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < opsPerThread; i++) {
+                    int op = random.nextInt(100);
+                    String doctorName = "D" + random.nextInt(doctorCount);
+                    if (op < 70) {
+                        Token token = manager.bookToken(doctorName, random.nextInt(slotCount),
+                            "P" + i, types[random.nextInt(types.length)]);
+                        booked.put(token.getId(), token);
+                        recent.set(random.nextInt(recent.length()), token.getId());
+                    } else if (op < 85) {
+                        String id = recent.get(random.nextInt(recent.length()));
+                        if (id != null && manager.cancelToken(id)) {
+                            removed.add(id);
+                        }
+                    } else if (op < 97) {
+                        String id = recent.get(random.nextInt(recent.length()));
+                        if (id != null && manager.markNoShow(id)) {
+                            removed.add(id);
+                        }
+                    } else {
+                        manager.delaySlot(doctorName, random.nextInt(slotCount));
+                    }
+                }
+            });
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        try {
+            for (Thread w : workers) w.start();
+            for (Thread w : workers) w.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            System.setOut(console);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("  %-8d %12.0f %10d %10d %10d%n", threads,
+            (double) threads * opsPerThread / elapsed * 1e9, booked.size(), removed.size(),
+            booked.size() - removed.size());
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every engine hot path on DayGenerator days, one column per slots x capacity:
+ * bookToken without bump / with one bump / cascading through every slot,
+ * cancelToken, markNoShow, delaySlot, Slot.addToken and the GET /doctors body
+ */
+public class EngineBenchmark {
+    private static volatile long sink;
+
+    /**
+     * One timed run on a fresh day: returns {operations, elapsed nanos} (setup excluded)
+     */
+    private interface EngineCase {
+        long[] run(int doctors, int slots, int capacity, long seed);
+    }
+
+    static void run(String[] args) {
+        int doctors = 4;
+        int[] slotCounts = {10, 100, 1_000};
+        int[] capacities = {5, 20, 100};
+        long seed = 1;
+        for (int i = 1; i < args.length; i++) {
+            String[] kv = args[i].split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "doctors": doctors = Integer.parseInt(value); break;
+                case "slots": slotCounts = parseInts(value); break;
+                case "capacity": capacities = parseInts(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown parameter: " + args[i]);
+            }
+        }
+
+        Map<String, EngineCase> cases = new LinkedHashMap<>();
+        cases.put("bookToken, no bump", EngineBenchmark::engineBookFree);
+        cases.put("bookToken, one bump", EngineBenchmark::engineBookBump);
+        cases.put("bookToken, cascade", EngineBenchmark::engineBookCascade);
+        cases.put("cancelToken", (d, s, c, sd) -> engineRemove(d, s, c, sd, false));
+        cases.put("markNoShow", (d, s, c, sd) -> engineRemove(d, s, c, sd, true));
+        cases.put("delaySlot, full day", EngineBenchmark::engineDelay);
+        cases.put("Slot.addToken", EngineBenchmark::engineSlotAdd);
+        cases.put("GET /doctors body", EngineBenchmark::engineJson);
+
+        System.out.println("\n▶ Engine hot paths, " + doctors + " doctors, seed " + seed
+            + " (ns/op, best of 5 runs after 3 warm-up runs)");
+        System.out.printf("  %-22s", "");
+        for (int slots : slotCounts) {
+            for (int capacity : capacities) {
+                System.out.printf(" %11s", slots + "x" + capacity);
+            }
+        }
+        System.out.println();
+        for (Map.Entry<String, EngineCase> c : cases.entrySet()) {
+            System.out.printf("  %-22s", c.getKey());
+            for (int slots : slotCounts) {
+                for (int capacity : capacities) {
+                    double best = Double.MAX_VALUE;
+                    for (int run = 0; run < 8; run++) {
+                        long[] result = c.getValue().run(doctors, slots, capacity, seed + run);
+                        if (run >= 3 && result[0] > 0) {
+                            best = Math.min(best, (double) result[1] / result[0]);
+                        }
+                    }
+                    System.out.printf(best == Double.MAX_VALUE ? " %11s" : " %11.0f",
+                        best == Double.MAX_VALUE ? "-" : best);
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(v -> Integer.parseInt(v.trim())).toArray();
+    }
+
+    /**
+     * Half-full day, a quarter of every slot booked round-robin: no slot ever fills up
+     */
+    private static long[] engineBookFree(int doctors, int slots, int capacity, long seed) {
+        DayGenerator day = new DayGenerator(seed, doctors, slots, capacity);
+        day.setFill(0.5);
+        TokenManager manager = day.build();
+        int rounds = capacity / 4;
+        String[] names = new String[doctors * slots * rounds];
+        TokenType[] types = new TokenType[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = day.nextPatient();
+            types[i] = day.nextType();
+        }
+        int op = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int d = 0; d < doctors; d++) {
+                String doctor = "Dr" + d;
+                for (int s = 0; s < slots; s++, op++) {
+                    sink += manager.bookToken(doctor, s, names[op], types[op]).getPriority();
+                }
+            }
+        }
+        return new long[] {op, System.nanoTime() - start};
+    }
+
+    /**
+     * Full day, emergencies into the last slot: each bumps one token to the waiting list
+     */
+    private static long[] engineBookBump(int doctors, int slots, int capacity, long seed) {
+        TokenManager manager = new DayGenerator(seed, doctors, slots, capacity).build();
+        int perDoctor = Math.max(1, capacity / 4);
+        long start = System.nanoTime();
+        for (int d = 0; d < doctors; d++) {
+            String doctor = "Dr" + d;
+            for (int i = 0; i < perDoctor; i++) {
+                sink += manager.bookToken(doctor, slots - 1, "E" + i, TokenType.EMERGENCY).getPriority();
+            }
+        }
+        return new long[] {(long) doctors * perDoctor, System.nanoTime() - start};
+    }
+
+    /**
+     * Full day, emergencies into slot 0: each one pushes a token through every slot
+     */
+    private static long[] engineBookCascade(int doctors, int slots, int capacity, long seed) {
+        TokenManager manager = new DayGenerator(seed, doctors, slots, capacity).build();
+        int perDoctor = 2;
+        long start = System.nanoTime();
+        for (int d = 0; d < doctors; d++) {
+            String doctor = "Dr" + d;
+            for (int i = 0; i < perDoctor; i++) {
+                sink += manager.bookToken(doctor, 0, "E" + i, TokenType.EMERGENCY).getPriority();
+            }
+        }
+        return new long[] {(long) doctors * perDoctor, System.nanoTime() - start};
+    }
+
+    /**
+     * Full day, half of all tokens cancelled (or marked no-show) in random order
+     */
+    private static long[] engineRemove(int doctors, int slots, int capacity, long seed, boolean noShow) {
+        DayGenerator day = new DayGenerator(seed, doctors, slots, capacity);
+        TokenManager manager = day.build();
+        List<String> ids = day.shuffledIds(manager);
+        int count = Math.min(ids.size() / 2, 50_000);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            boolean removed = noShow ? manager.markNoShow(ids.get(i)) : manager.cancelToken(ids.get(i));
+            sink += removed ? 1 : 0;
+        }
+        return new long[] {count, System.nanoTime() - start};
+    }
+
+    /**
+     * Full day, the first few slots of every doctor delayed one after the other
+     */
+    private static long[] engineDelay(int doctors, int slots, int capacity, long seed) {
+        TokenManager manager = new DayGenerator(seed, doctors, slots, capacity).build();
+        int perDoctor = Math.min(4, slots - 1);
+        long start = System.nanoTime();
+        for (int d = 0; d < doctors; d++) {
+            for (int s = 0; s < perDoctor; s++) {
+                manager.delaySlot("Dr" + d, s);
+            }
+        }
+        return new long[] {(long) doctors * perDoctor, System.nanoTime() - start};
+    }
+
+    /**
+     * Fill standalone slots of the capacity with generated tokens (slots x doctors of them)
+     */
+    private static long[] engineSlotAdd(int doctors, int slots, int capacity, long seed) {
+        DayGenerator day = new DayGenerator(seed, doctors, slots, capacity);
+        Token[] tokens = new Token[capacity];
+        for (int i = 0; i < capacity; i++) {
+            tokens[i] = new Token(day.nextPatient(), day.nextType());
+        }
+        int count = Math.max(1, doctors * slots / 10);
+        Slot[] targets = new Slot[count];
+        for (int i = 0; i < count; i++) {
+            targets[i] = new Slot("9:00 AM", "10:00 AM", capacity);
+        }
+        long start = System.nanoTime();
+        for (Slot slot : targets) {
+            for (Token token : tokens) {
+                slot.addToken(token);
+            }
+        }
+        return new long[] {(long) count * capacity, System.nanoTime() - start};
+    }
+
+    /**
+     * Full day serialized the way GET /doctors streams it (one op = one whole body)
+     */
+    private static long[] engineJson(int doctors, int slots, int capacity, long seed) {
+        TokenManager manager = new DayGenerator(seed, doctors, slots, capacity).build();
+        OutputStream nowhere = OutputStream.nullOutputStream();
+        int polls = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < polls; i++) {
+            JsonWriter w = JsonWriter.acquire();
+            try {
+                w.ascii("{\"doctors\": [");
+                boolean first = true;
+                for (Doctor doctor : manager.getAllDoctors()) {
+                    if (!first) w.ascii(",");
+                    synchronized (doctor) {
+                        ApiServer.writeDoctor(w, doctor);
+                    }
+                    sink += w.size();
+                    w.writeTo(nowhere);
+                    first = false;
+                }
+                w.ascii("]}");
+                w.writeTo(nowhere);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                JsonWriter.release(w);
+            }
+        }
+        return new long[] {polls, System.nanoTime() - start};
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * GET /doctors/{name} bodies rebuilt per read vs cached per version
+ * (DoctorVersionTest checks versions, the cache and 304s)
+ */
+public class EtagBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Cached doctor JSON (ETag = version)");
+        int reads = 20_000;
+        System.out.println("  " + reads + " reads of one doctor (20 slots x 20), one booking every 100 reads");
+        System.out.printf("  %-28s %10s %14s%n", "", "ns/read", "bytes garbage");
+        for (int round = 0; round < 3; round++) {  // first two rounds warm up
+            for (boolean cached : new boolean[] {false, true}) {
+                TokenManager manager = new DayGenerator(round, 1, 20, 20).build();
+                ApiServer api = new ApiServer(manager);
+                Doctor doctor = manager.getDoctor("Dr0");
+                long allocatedBefore = Bench.allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    if (i % 100 == 0) {
+                        manager.bookToken("Dr0", i % 20, "P" + i, TokenType.WALKIN);
+                    }
+                    if (cached) {
+                        sink += api.doctorJson(doctor).json.length;
+                    } else {
+                        JsonWriter w = JsonWriter.acquire();
+                        try {
+                            synchronized (doctor) {
+                                ApiServer.writeDoctor(w, doctor);
+                            }
+                            sink += w.toByteArray().length;
+                        } finally {
+                            JsonWriter.release(w);
+                        }
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                long allocated = Bench.allocatedBytes() - allocatedBefore;
+                if (round == 2) {
+                    System.out.printf("  %-28s %10.0f %14.0f%n", cached ? "cached per version" : "rebuilt every read",
+                        (double) elapsed / reads, (double) allocated / reads);
+                }
+            }
+        }
+    }
+}
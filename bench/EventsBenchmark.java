@@ -0,0 +1,97 @@
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 20 screens polling one doctor vs 20 SSE subscribers on /events
+ * (EventStreamTest checks snapshot + deltas replay to the doctor, and resync)
+ */
+public class EventsBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Events (GET /events)");
+        int screens = 20;
+        int changes = 200;
+        System.out.println("  " + screens + " screens on one doctor (20 slots x 20), " + changes + " bookings/cancels");
+        System.out.printf("  %-30s %12s %16s%n", "", "server us", "KB per screen");
+        for (int round = 0; round < 3; round++) {  // first two rounds warm up
+            // polling: every screen fetches the whole doctor once per change (a fast poll rate)
+            TokenManager manager = new DayGenerator(round, 1, 20, 20).build();
+            Doctor doctor = manager.getDoctor("Dr0");
+            long bytes = 0;
+            long start = System.nanoTime();
+            for (int c = 0; c < changes; c++) {
+                eventChange(manager, c);
+                for (int screen = 0; screen < screens; screen++) {
+                    JsonWriter w = JsonWriter.acquire();
+                    try {
+                        synchronized (doctor) {
+                            ApiServer.writeDoctor(w, doctor);
+                        }
+                        bytes += w.size();
+                    } finally {
+                        JsonWriter.release(w);
+                    }
+                }
+            }
+            long pollNanos = System.nanoTime() - start;
+
+            // SSE: the same changes fanned out to the subscribers, until all of them have everything
+            manager = new DayGenerator(round, 1, 20, 20).build();
+            EventStream events = new EventStream();
+            manager.setChangeListener(events);
+            CountingStream[] outs = new CountingStream[screens];
+            for (int screen = 0; screen < screens; screen++) {
+                outs[screen] = new CountingStream();
+                events.subscribe("Dr0").start(outs[screen], events.position());
+            }
+            long first = events.position();
+            start = System.nanoTime();
+            for (int c = 0; c < changes; c++) {
+                eventChange(manager, c);
+            }
+            long frames = events.position() - first;
+            for (CountingStream out : outs) {
+                while (out.writes.sum() < frames) Thread.onSpinWait();
+            }
+            long sseNanos = System.nanoTime() - start;
+            events.close();
+            if (round == 2) {
+                System.out.printf("  %-30s %12.0f %16.1f%n", "poll GET /doctors/{name}", pollNanos / 1e3, bytes / 1024.0 / screens);
+                System.out.printf("  %-30s %12.0f %16.1f%n", "SSE deltas (" + frames + " frames)", sseNanos / 1e3,
+                    outs[0].bytes.sum() / 1024.0);
+            }
+        }
+    }
+
+    /**
+     * Change number c of the measured run: a booking, every third one a cancel
+     */
+    private static void eventChange(TokenManager manager, int c) {
+        List<Token> tokens = manager.getDoctor("Dr0").getSlot(c % 20).getTokens();
+        if (c % 3 == 2 && !tokens.isEmpty()) {
+            manager.cancelToken("Dr0", tokens.get(0).getId());
+        } else {
+            manager.bookToken("Dr0", c % 20, "Screen" + c, TokenType.values()[c % 5]);
+        }
+    }
+
+    /**
+     * Thread-safe sink that counts bytes and write calls
+     */
+    private static class CountingStream extends OutputStream {
+        final java.util.concurrent.atomic.LongAdder writes = new java.util.concurrent.atomic.LongAdder();
+        final java.util.concurrent.atomic.LongAdder bytes = new java.util.concurrent.atomic.LongAdder();
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes.add(len);
+            writes.increment();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+/**
+ * Retained bytes per token: the old LocalDateTime fields vs epoch nanos, with and
+ * without the NamePool, the index + slot cost on top, and the Token object against
+ * the same fields held as primitive columns
+ */
+public class HeapBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Heap per token (500k tokens, 20k distinct names, allocated)");
+        int count = 500_000;
+        TokenType[] types = TokenType.values();
+        System.out.printf("  %-34s %12s%n", "", "bytes/token");
+
+        Object[] keep = new Object[count];
+        long before = Bench.usedHeap();
+        for (int i = 0; i < count; i++) {
+            LegacyToken t = new LegacyToken("T" + i, "Patient " + (i % 20_000), types[i % types.length]);
+            t.allocatedAt = java.time.LocalDateTime.now();
+            keep[i] = t;
+        }
+        System.out.printf("  %-34s %12.1f%n", "LocalDateTime fields (old)", (Bench.usedHeap() - before) / (double) count);
+        Arrays.fill(keep, null);
+
+        before = Bench.usedHeap();
+        for (int i = 0; i < count; i++) {
+            Token t = new Token("Patient " + (i % 20_000), types[i % types.length]);
+            t.setAllocatedAtNanos(Token.nowNanos());
+            keep[i] = t;
+        }
+        System.out.printf("  %-34s %12.1f%n", "epoch nanos", (Bench.usedHeap() - before) / (double) count);
+        Arrays.fill(keep, null);
+
+        Token.setNamePool(new NamePool(50_000));
+        try {
+            before = Bench.usedHeap();
+            for (int i = 0; i < count; i++) {
+                Token t = new Token("Patient " + (i % 20_000), types[i % types.length]);
+                t.setAllocatedAtNanos(Token.nowNanos());
+                keep[i] = t;
+            }
+            System.out.printf("  %-34s %12.1f%n", "epoch nanos + NamePool", (Bench.usedHeap() - before) / (double) count);
+        } finally {
+            Token.setNamePool(null);
+        }
+
+        TokenManager manager = new TokenManager();
+        Doctor doctor = manager.addDoctor("D");
+        for (int s = 0; s < count / 1_000; s++) {
+            doctor.addSlot("09:00", "10:00", 1_000);
+        }
+        before = Bench.usedHeap();
+        for (int i = 0; i < count; i++) {
+            manager.restoreToSlot(doctor, i / 1_000, (Token) keep[i]);
+        }
+        System.out.printf("  %-34s %12.1f%n", "+ token index and slot", (Bench.usedHeap() - before) / (double) count);
+        sink += manager.getDoctor("D").getSlots().size() + keep.length;
+        keep = null;
+        manager = null;
+        doctor = null;
+
+        // What a columnar store (int handles into primitive arrays) would save:
+        // only the Token object itself - ids, names, index and slots stay
+        System.out.println("  of which the Token object, against the same fields as columns:");
+        Object[] objects = new Object[count];
+        before = Bench.usedHeap();
+        for (int i = 0; i < count; i++) {
+            Token t = new Token("T", "P", types[i % types.length], i);
+            t.setAllocatedAtNanos(i);
+            objects[i] = t;
+        }
+        System.out.printf("  %-34s %12.1f%n", "Token objects (shared id, name)", (Bench.usedHeap() - before) / (double) count);
+        Arrays.fill(objects, null);
+
+        before = Bench.usedHeap();
+        Object[] columns = {
+            new int[count],   // id sequence
+            new int[count],   // name offset
+            new byte[count],  // type
+            new long[count],  // created
+            new long[count],  // allocated
+        };
+        System.out.printf("  %-34s %12.1f%n", "int/int/byte/long/long columns", (Bench.usedHeap() - before) / (double) count);
+        sink += columns.length + objects.length;
+    }
+
+    /**
+     * Token as it was stored before the timestamps became epoch nanos
+     */
+    private static class LegacyToken {
+        final String id;
+        final String patientName;
+        final TokenType type;
+        final java.time.LocalDateTime createdAt = java.time.LocalDateTime.now();
+        java.time.LocalDateTime allocatedAt;
+
+        LegacyToken(String id, String patientName, TokenType type) {
+            this.id = id;
+            this.patientName = patientName;
+            this.type = type;
+        }
+    }
+}
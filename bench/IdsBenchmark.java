@@ -0,0 +1,47 @@
+/**
+ * Token id generation: String.format + a static int vs TokenIdGenerator
+ * (TokenIdGeneratorTest checks uniqueness across threads)
+ */
+public class IdsBenchmark {
+    private static int legacyCounter = 0;
+    private static volatile long sink;
+
+    private static String legacyNextId() {
+        return String.format("T%03d", ++legacyCounter);
+    }
+
+    static void run() {
+        int ops = 2_000_000;
+        TokenIdGenerator plain = new TokenIdGenerator();
+        TokenIdGenerator node = new TokenIdGenerator(7);
+
+        System.out.println("\n▶ Token id generation (" + ops + " ids, single thread)");
+        System.out.printf("  %-28s %10s %10s%n", "", "ns/op", "bytes/op");
+        for (int round = 0; round < 2; round++) {  // first round is warm-up
+            boolean print = round == 1;
+            legacyCounter = 0;
+            plain.reset();
+            node.reset();
+            measureIds("String.format(\"T%03d\")", ops, print, IdsBenchmark::legacyNextId);
+            measureIds("TokenIdGenerator", ops, print, plain::nextId);
+            measureIds("TokenIdGenerator node 07", ops, print, node::nextId);
+        }
+    }
+
+    private static void measureIds(String label, int ops, boolean print,
+                                   java.util.function.Supplier<String> ids) {
+        long length = 0;
+        long allocatedBefore = Bench.allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            length += ids.get().length();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = Bench.allocatedBytes() - allocatedBefore;
+        sink = length;  // keep the JIT from dropping the loop
+        if (print) {
+            System.out.printf("  %-28s %10.1f %10.1f%n", label, (double) elapsed / ops,
+                (double) allocated / ops);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Journal appends from many threads, each waiting for disk: fsync per record vs group commit
+ */
+public class JournalBenchmark {
+    static void run() {
+        int threads = 16;
+        int perThread = 250;
+        System.out.println("\n▶ Journal book records, " + threads + " threads x " + perThread + " (waits for disk)");
+        System.out.printf("  %-14s %12s%n", "sync mode", "records/sec");
+        Token token = new Token("Journal", TokenType.WALKIN);
+        for (BookingJournal.SyncMode mode : BookingJournal.SyncMode.values()) {
+            Path dir = Bench.tempDir("journal");
+            try (BookingJournal journal = new BookingJournal(dir, mode, 0)) {
+                Thread[] workers = new Thread[threads];
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            journal.awaitDurable(journal.logBook("D1", 0, token));
+                        }
+                    });
+                    workers[t].start();
+                }
+                for (Thread w : workers) w.join();
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("  %-14s %12.0f%n", mode.name().toLowerCase(),
+                    threads * perThread / (elapsed / 1e9));
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                Bench.deleteDir(dir);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One dashboard poll of GET /doctors for 200 doctors: StringBuilder + getBytes vs JsonWriter
+ */
+public class JsonBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        TokenManager manager = new TokenManager();
+        TokenType[] types = TokenType.values();
+        Random random = new Random(3);
+        for (int d = 0; d < 200; d++) {
+            Doctor doctor = manager.addDoctor("Dr" + d);
+            for (int s = 0; s < 8; s++) {
+                doctor.addSlot((9 + s) + ":00 AM", (10 + s) + ":00 AM", 20);
+                for (int i = 0; i < 20; i++) {
+                    manager.restoreToSlot(doctor, s, new Token("Patient" + i, types[random.nextInt(types.length)]));
+                }
+            }
+        }
+        OutputStream nowhere = OutputStream.nullOutputStream();
+        int polls = 500;
+        System.out.println("\n▶ GET /doctors body, 200 doctors x 8 slots x 20 tokens, " + polls + " polls");
+        System.out.printf("  %-28s %10s %14s%n", "writer", "ms/poll", "KB garbage/poll");
+        for (int round = 0; round < 3; round++) {  // first two rounds warm up
+            long allocatedBefore = Bench.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < polls; i++) {
+                byte[] body = legacyDoctorsJson(manager).getBytes();
+                sink += body.length;
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 2) {
+                System.out.printf("  %-28s %10.2f %14.0f%n", "StringBuilder + getBytes", elapsed / 1e6 / polls,
+                    allocated / 1024.0 / polls);
+            }
+
+            allocatedBefore = Bench.allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < polls; i++) {
+                JsonWriter w = JsonWriter.acquire();
+                try {
+                    w.ascii("{\"doctors\": [");
+                    boolean first = true;
+                    for (Doctor doctor : manager.getAllDoctors()) {
+                        if (!first) w.ascii(",");
+                        synchronized (doctor) {
+                            ApiServer.writeDoctor(w, doctor);
+                        }
+                        sink += w.size();
+                        w.writeTo(nowhere);
+                        first = false;
+                    }
+                    w.ascii("]}");
+                    w.writeTo(nowhere);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    JsonWriter.release(w);
+                }
+            }
+            elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 2) {
+                System.out.printf("  %-28s %10.2f %14.0f%n", "JsonWriter (streamed)", elapsed / 1e6 / polls,
+                    allocated / 1024.0 / polls);
+            }
+        }
+    }
+
+    /**
+     * The original ApiServer.getAllDoctorsJson
+     */
+    private static String legacyDoctorsJson(TokenManager manager) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"doctors\": [");
+        boolean first = true;
+        for (Doctor doctor : manager.getAllDoctors()) {
+            if (!first) sb.append(",");
+            sb.append("{\"name\": \"").append(doctor.getName()).append("\", \"slots\": [");
+            List<Slot> slots = doctor.getSlots();
+            for (int i = 0; i < slots.size(); i++) {
+                if (i > 0) sb.append(",");
+                Slot slot = slots.get(i);
+                sb.append("{\"time\": \"").append(slot.getTimeRange())
+                  .append("\", \"capacity\": ").append(slot.getCapacity())
+                  .append(", \"current\": ").append(slot.getCurrentCount())
+                  .append(", \"tokens\": [");
+                List<Token> tokens = slot.getTokens();
+                for (int j = 0; j < tokens.size(); j++) {
+                    if (j > 0) sb.append(",");
+                    Token t = tokens.get(j);
+                    sb.append("{\"id\": \"").append(t.getId())
+                      .append("\", \"patient\": \"").append(t.getPatientName())
+                      .append("\", \"type\": \"").append(t.getType()).append("\"}");
+                }
+                sb.append("]}");
+            }
+            sb.append("], \"waitingList\": ").append(doctor.getWaitingList().size()).append("}");
+            first = false;
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * What the narration costs bookToken: console / async / no listener
+ */
+public class ListenerBenchmark {
+    static void run() {
+        int threads = 4;
+        int perThread = 25_000;
+        Path dir = Bench.tempDir("listener");
+        System.out.println("\n▶ bookToken with each listener, " + threads + " threads x " + perThread +
+            " (16 doctors, 10 slots x 20)");
+        System.out.printf("  %-26s %12s %14s%n", "listener", "bookings/sec", "events dropped");
+        try (PrintStream file = new PrintStream(Files.newOutputStream(dir.resolve("narration.txt")), false, "UTF-8")) {
+            PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+            measureListener("console -> file (old)", new ConsoleBookingListener(file), threads, perThread);
+            measureListener("console -> discarded", new ConsoleBookingListener(nowhere), threads, perThread);
+            measureListener("async -> console -> file", new AsyncBookingListener(new ConsoleBookingListener(file)),
+                threads, perThread);
+            measureListener("none", BookingListener.NONE, threads, perThread);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Bench.deleteDir(dir);
+        }
+    }
+
+    private static void measureListener(String label, BookingListener listener, int threads, int perThread) {
+        for (int round = 0; round < 2; round++) {  // first round warms up
+            TokenManager manager = new TokenManager();
+            manager.setListener(listener);
+            for (int d = 0; d < 16; d++) {
+                Doctor doctor = manager.addDoctor("D" + d);
+                for (int s = 0; s < 10; s++) {
+                    doctor.addSlot(s + ":00", (s + 1) + ":00", 20);
+                }
+            }
+            TokenType[] types = TokenType.values();
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                long seed = 50 + t;
+                workers[t] = new Thread(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < perThread; i++) {
+                        manager.bookToken("D" + random.nextInt(16), random.nextInt(10), "P" + i,
+                            types[random.nextInt(types.length)]);
+                    }
+                });
+                workers[t].start();
+            }
+            try {
+                for (Thread w : workers) w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round == 1) {
+                long dropped = 0;
+                if (listener instanceof AsyncBookingListener) {
+                    ((AsyncBookingListener) listener).close();
+                    dropped = ((AsyncBookingListener) listener).getDropped();
+                }
+                System.out.printf("  %-26s %12.0f %14d%n", label, threads * perThread / (elapsed / 1e9), dropped);
+            }
+        }
+    }
+}
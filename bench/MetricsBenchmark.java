@@ -0,0 +1,40 @@
+/**
+ * The cost and garbage of recording an operation or an HTTP response
+ * (MetricsTest checks quantiles against exact ones and the exposition)
+ */
+public class MetricsBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Metrics");
+        Metrics metrics = new Metrics();
+        int records = 5_000_000;
+        System.out.printf("  %-28s %10s %14s%n", "", "ns/record", "bytes/record");
+        for (int round = 0; round < 3; round++) {  // first two rounds warm up
+            long allocatedBefore = Bench.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                metrics.recordOperation(Metrics.Operation.BOOK, i & 0xFFFFF);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 2) {
+                System.out.printf("  %-28s %10.1f %14.3f%n", "recordOperation", (double) elapsed / records,
+                    (double) allocated / records);
+            }
+
+            allocatedBefore = Bench.allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                metrics.recordHttp(i % 7 == 0 ? 404 : 200, i & 0xFFFFF);
+            }
+            elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 2) {
+                System.out.printf("  %-28s %10.1f %14.3f%n", "recordHttp", (double) elapsed / records,
+                    (double) allocated / records);
+            }
+        }
+        sink += metrics.getHttpCount(200);
+    }
+}
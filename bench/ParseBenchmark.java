@@ -0,0 +1,79 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Request bodies: the old split parser vs JsonReader
+ * (JsonReaderTest checks fixed cases, round trips and damaged bodies)
+ */
+public class ParseBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Request body parsing");
+        byte[] body = "{\"doctor\": \"Sharma\", \"slot\": 0, \"patient\": \"Priya Verma\", \"type\": \"ONLINE\"}"
+            .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        int ops = 300_000;
+        System.out.printf("  %-28s %10s %10s%n", "POST /tokens body", "ns/op", "bytes/op");
+        for (int round = 0; round < 2; round++) {
+            long allocatedBefore = Bench.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += legacyParseJsonBody(new ByteArrayInputStream(body)).size();
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 1) {
+                System.out.printf("  %-28s %10.1f %10.1f%n", "readLine + replaceAll/split",
+                    (double) elapsed / ops, (double) allocated / ops);
+            }
+
+            allocatedBefore = Bench.allocatedBytes();
+            start = System.nanoTime();
+            try {
+                for (int i = 0; i < ops; i++) {
+                    JsonReader reader = new JsonReader(new ByteArrayInputStream(body));
+                    sink += BookingRequest.read(reader).getSlot();
+                    reader.endDocument();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 1) {
+                System.out.printf("  %-28s %10.1f %10.1f%n", "JsonReader + BookingRequest",
+                    (double) elapsed / ops, (double) allocated / ops);
+            }
+        }
+    }
+
+    /**
+     * The original ApiServer.parseJsonBody
+     */
+    private static Map<String, String> legacyParseJsonBody(InputStream in) {
+        Map<String, String> result = new HashMap<>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            StringBuilder body = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                body.append(line);
+            }
+            String json = body.toString().replaceAll("[{}\"]", "");
+            for (String pair : json.split(",")) {
+                String[] kv = pair.split(":");
+                if (kv.length == 2) {
+                    result.put(kv[0].trim(), kv[1].trim());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+}
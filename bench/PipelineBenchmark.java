@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * CommandPipeline: many threads booking and cancelling directly vs through 1 and 4
+ * engine threads, without and with a group-commit journal
+ * (median of 5 rounds; CommandPipelineTest checks the results match)
+ */
+public class PipelineBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Single-writer command pipeline");
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("  request threads booking / cancelling on 8 doctors, 10 slots x 20;"
+            + " median of 5 rounds after a warm-up, " + cores + " cores");
+        System.out.printf("  %-34s %14s %14s %12s%n", "", "ops/sec", "ops/sec (jrnl)", "avg batch");
+        for (int threads : new int[] {Math.max(16, cores * 2), 64, 256}) {
+            measurePipeline(threads + " threads, direct (doctor locks)", 0, threads, 4_000);
+            measurePipeline(threads + " threads, pipeline, 1 engine", 1, threads, 4_000);
+            measurePipeline(threads + " threads, pipeline, 4 engines", 4, threads, 4_000);
+        }
+        System.out.println("  (without a journal the handoff to an engine thread costs more than the uncontended"
+            + " locks it saves; with one, only the engines wait on the journal instead of every request"
+            + " thread, which pays off once there are many of them - at 16 it is within the noise)");
+    }
+
+    /**
+     * threads x ops book (70%) / cancel (30%), first without a journal, then with
+     * a group-commit journal; shards 0 calls TokenManager directly. The median
+     * of 5 timed rounds, after one warm-up round.
+     */
+    private static void measurePipeline(String label, int shards, int threads, int opsPerThread) {
+        double[] rates = new double[2];
+        double avgBatch = 0;
+        int rounds = 5;
+        for (int withJournal = 0; withJournal < 2; withJournal++) {
+            double[] timed = new double[rounds];
+            for (int round = 0; round <= rounds; round++) {  // round 0 warms up
+                TokenManager manager = new TokenManager();
+                for (int d = 0; d < 8; d++) {
+                    Doctor doctor = manager.addDoctor("D" + d);
+                    for (int s = 0; s < 10; s++) {
+                        doctor.addSlot(s + ":00", (s + 1) + ":00", 20);
+                    }
+                }
+                Path dir = withJournal == 1 ? Bench.tempDir("pipeline") : null;
+                int ops = Math.max(50, (withJournal == 1 ? opsPerThread / 8 : opsPerThread) * 16 / threads);
+                try (BookingJournal journal = dir != null
+                        ? new BookingJournal(dir, BookingJournal.SyncMode.GROUP_COMMIT, 0) : null;
+                     CommandPipeline pipeline = shards > 0 ? new CommandPipeline(manager, shards) : null) {
+                    manager.setJournal(journal);
+                    Thread[] workers = new Thread[threads];
+                    for (int t = 0; t < threads; t++) {
+                        long seed = 500 + t;
+                        workers[t] = new Thread(() -> pipelineWorker(manager, pipeline, new Random(seed), ops));
+                    }
+                    long start = System.nanoTime();
+                    for (Thread w : workers) w.start();
+                    for (Thread w : workers) w.join();
+                    if (round > 0) {
+                        timed[round - 1] = (double) threads * ops / (System.nanoTime() - start) * 1e9;
+                    }
+                    if (pipeline != null && withJournal == 1) {
+                        avgBatch = (double) pipeline.getCommandCount() / pipeline.getBatchCount();
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    if (dir != null) Bench.deleteDir(dir);
+                }
+            }
+            Arrays.sort(timed);
+            rates[withJournal] = timed[rounds / 2];
+        }
+        System.out.printf("  %-34s %14.0f %14.0f %12s%n", label, rates[0], rates[1],
+            shards > 0 ? String.format("%.1f", avgBatch) : "-");
+    }
+
+    private static void pipelineWorker(TokenManager manager, CommandPipeline pipeline, Random random, int ops) {
+        TokenType[] types = TokenType.values();
+        String[] mine = new String[64];
+        for (int i = 0; i < ops; i++) {
+            String doctor = "D" + random.nextInt(8);
+            int k = random.nextInt(mine.length);
+            if (random.nextInt(100) < 70 || mine[k] == null) {
+                TokenType type = types[random.nextInt(types.length)];
+                Token token = pipeline != null
+                    ? pipeline.bookToken(doctor, random.nextInt(10), "P" + i, type).join()
+                    : manager.bookToken(doctor, random.nextInt(10), "P" + i, type);
+                mine[k] = token.getId();
+            } else {
+                sink += (pipeline != null ? pipeline.cancelToken(null, mine[k]).join()
+                    : manager.cancelToken(mine[k])) ? 1 : 0;
+                mine[k] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Refilling free seats from the waiting list: one sweep per change vs one per burst
+ * (RebalanceTest checks no seat stays free while patients wait)
+ */
+public class RebalanceBenchmark {
+    static void run() {
+        System.out.println("\n▶ Rebalance");
+        System.out.println("  200 cancels, then 200 bookings for the last slot (50 slots x 20)");
+        System.out.printf("  %-26s %10s %10s %14s%n", "", "us total", "sweeps", "seats filled");
+        for (int round = 0; round < 2; round++) {  // first round warms up
+            for (boolean eager : new boolean[] {true, false}) {
+                TokenManager manager = new TokenManager();
+                Doctor doctor = CascadeBenchmark.cascadeDay(manager, 9);
+                List<String> ids = new ArrayList<>();
+                for (Slot slot : doctor.getSlots()) {
+                    for (Token t : slot) ids.add(t.getId());
+                }
+                Collections.shuffle(ids, new Random(5));
+                for (int i = 0; i < 200; i++) {
+                    manager.cancelToken(ids.get(i));
+                }
+                manager.rebalancePending();  // the initial day is not part of the measurement
+                long sweepsBefore = manager.getRebalanceCount();
+                long seatsBefore = manager.getSeatsRecovered();
+
+                long start = System.nanoTime();
+                for (int i = 0; i < 200; i++) {
+                    manager.bookToken("D", 49, "Late" + i, TokenType.WALKIN);
+                    if (eager) manager.rebalancePending();
+                }
+                manager.rebalancePending();
+                long elapsed = System.nanoTime() - start;
+                if (round == 1) {
+                    System.out.printf("  %-26s %10.0f %10d %14d%n", eager ? "sweep after every change" : "one sweep for the burst",
+                        elapsed / 1e3, manager.getRebalanceCount() - sweepsBefore, manager.getSeatsRecovered() - seatsBefore);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Snapshot + journal tail recovery time for 1M tokens (needs ~1.5 GB heap), and
+ * how soon the mapped day.map can answer reads instead
+ */
+public class RecoveryBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        int doctorCount = 200, slotCount = 10, capacity = 500;  // 1,000,000 tokens
+        int tailBookings = 10_000;
+        Path dir = Bench.tempDir("recovery");
+        PrintStream console = System.out;
+        try {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            TokenManager manager = new TokenManager();
+            Persistence persistence = new Persistence(dir, BookingJournal.SyncMode.GROUP_COMMIT);
+            persistence.setMappedSnapshots(true);
+            persistence.recover(manager);
+
+            TokenType[] types = TokenType.values();
+            Random random = new Random(7);
+            for (int d = 0; d < doctorCount; d++) {
+                Doctor doctor = manager.addDoctor("Dr" + d);
+                for (int s = 0; s < slotCount; s++) {
+                    manager.addSlot(doctor.getName(), s + ":00", (s + 1) + ":00", capacity);
+                    for (int i = 0; i < capacity; i++) {
+                        manager.restoreToSlot(doctor, s, new Token("P" + i, types[random.nextInt(types.length)]));
+                    }
+                }
+            }
+
+            long start = System.nanoTime();
+            persistence.snapshot();
+            long snapshotMillis = (System.nanoTime() - start) / 1_000_000;
+            long snapshotBytes = Files.size(dir.resolve("snapshot.bin"));
+            long mappedBytes = Files.size(dir.resolve("day.map"));
+
+            // journal tail written after the snapshot, then "crash" (no close)
+            for (int i = 0; i < tailBookings; i++) {
+                manager.bookToken("Dr" + random.nextInt(doctorCount), random.nextInt(slotCount), "Tail" + i,
+                    types[random.nextInt(types.length)]);
+            }
+            manager = null;
+            persistence = null;
+            System.gc();
+
+            // what a restarted ApiServer does first: map day.map, answer GET /doctors/{name}
+            start = System.nanoTime();
+            MappedDaySnapshot mapped = new Persistence(dir, BookingJournal.SyncMode.GROUP_COMMIT).openMappedSnapshot();
+            long mappedOpenMicros = (System.nanoTime() - start) / 1_000;
+            start = System.nanoTime();
+            int d = mapped.findDoctor("Dr" + (doctorCount / 2));
+            long read = 0;
+            for (int i = 0; i < mapped.getSlotCount(d); i++) {
+                int slot = mapped.getSlot(d, i);
+                for (int j = 0; j < mapped.getSlotTokenCount(slot); j++) {
+                    int t = mapped.getSlotToken(slot, j);
+                    read += mapped.getTokenId(t).length() + mapped.getTokenPatient(t).length();
+                }
+            }
+            long mappedReadMicros = (System.nanoTime() - start) / 1_000;
+            sink = read;
+
+            start = System.nanoTime();
+            TokenManager recovered = new TokenManager();
+            new Persistence(dir, BookingJournal.SyncMode.GROUP_COMMIT).recover(recovered);
+            long recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+            System.setOut(console);
+
+            long tokens = 0;
+            for (Doctor doctor : recovered.getAllDoctors()) {
+                for (Slot slot : doctor.getSlots()) tokens += slot.getCurrentCount();
+                tokens += doctor.getWaitingList().size();
+            }
+            System.out.println("\n▶ Recovery: " + doctorCount + " doctors x " + slotCount + " slots x " + capacity +
+                " + " + tailBookings + " journaled bookings");
+            System.out.printf("  snapshot write   %8d ms  (%.1f MB)%n", snapshotMillis, snapshotBytes / 1e6);
+            System.out.printf("  day.map size     %8.1f MB%n", mappedBytes / 1e6);
+            System.out.printf("  day.map open     %8d us%n", mappedOpenMicros);
+            System.out.printf("  one doctor read  %8d us  (%d tokens, from the mapped file)%n",
+                mappedReadMicros, slotCount * capacity);
+            System.out.printf("  recovery         %8d ms  (%d tokens)%n", recoveryMillis, tokens);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            System.setOut(console);
+            Bench.deleteDir(dir);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * ApiServer request routing: the old regex/split if-chain vs Router
+ * (RouterTest checks both find the same route and variables)
+ */
+public class RoutingBenchmark {
+    private static volatile long sink;
+    private static final String[][] ROUTING_SAMPLES = {
+        {"GET", "/doctors"},
+        {"POST", "/doctors"},
+        {"GET", "/doctors/Sharma"},
+        {"POST", "/doctors/Sharma/slots"},
+        {"PUT", "/doctors/Sharma/delay/2"},
+        {"POST", "/tokens"},
+        {"GET", "/tokens/T1042"},
+        {"DELETE", "/tokens/T1042"},
+        {"PUT", "/tokens/T1042/noshow"},
+        {"GET", "/tokens/T1042/unknown"},
+    };
+
+    static void run() {
+        System.out.println("\n▶ Request routing (" + ROUTING_SAMPLES.length + " sample requests)");
+        Router router = new ApiServer(new TokenManager()).buildRouter();
+
+        int ops = 300_000;
+        System.out.printf("  %-28s %10s %10s%n", "route one request", "ns/op", "bytes/op");
+        for (int round = 0; round < 2; round++) {
+            long allocatedBefore = Bench.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                String[] sample = ROUTING_SAMPLES[i % ROUTING_SAMPLES.length];
+                sink += legacyRoute(sample[0], sample[1]).length();
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 1) {
+                System.out.printf("  %-28s %10.1f %10.1f%n", "path.matches + split",
+                    (double) elapsed / ops, (double) allocated / ops);
+            }
+
+            allocatedBefore = Bench.allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                String[] sample = ROUTING_SAMPLES[i % ROUTING_SAMPLES.length];
+                sink += router.route(sample[0], sample[1]).getStatus();
+            }
+            elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytes() - allocatedBefore;
+            if (round == 1) {
+                System.out.printf("  %-28s %10.1f %10.1f%n", "Router trie",
+                    (double) elapsed / ops, (double) allocated / ops);
+            }
+        }
+    }
+
+    /**
+     * The routing ApiServer used to do: "name slot id" of the matched route, or "none"
+     */
+    private static String legacyRoute(String method, String path) {
+        if (path.startsWith("/doctors")) {
+            if (path.equals("/doctors")) {
+                if ("GET".equals(method) || "POST".equals(method)) return "null null null";
+            } else if (path.matches("/doctors/[^/]+/slots")) {
+                if ("POST".equals(method)) return path.split("/")[2] + " null null";
+            } else if (path.matches("/doctors/[^/]+/delay/\\d+")) {
+                String[] parts = path.split("/");
+                if ("PUT".equals(method)) return parts[2] + " " + parts[4] + " null";
+            } else if (path.matches("/doctors/[^/]+")) {
+                if ("GET".equals(method)) return path.split("/")[2] + " null null";
+            }
+        } else if (path.startsWith("/tokens")) {
+            if (path.equals("/tokens")) {
+                if ("POST".equals(method)) return "null null null";
+            } else if (path.matches("/tokens/T\\d+")) {
+                String tokenId = path.split("/")[2];
+                if ("GET".equals(method) || "DELETE".equals(method)) return "null null " + tokenId;
+            } else if (path.matches("/tokens/T\\d+/noshow")) {
+                if ("PUT".equals(method)) return "null null " + path.split("/")[2];
+            }
+        }
+        return "none";
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Slot.addToken and bump churn: the old sort-on-insert list vs priority buckets
+ */
+public class SlotBenchmark {
+    private static final int[] SLOT_CAPACITIES = {5, 50, 500, 5_000, 10_000};
+
+    static void run() {
+        System.out.println("\n▶ Slot.addToken - fill to capacity, then bump churn (ns/op)");
+        System.out.printf("  %-10s %14s %14s %14s %14s%n",
+            "capacity", "sorted fill", "bucket fill", "sorted churn", "bucket churn");
+
+        for (int capacity : SLOT_CAPACITIES) {
+            Token[] tokens = Bench.randomTokens(capacity * 2, 42);
+            int reps = Math.max(3, 20_000 / capacity);
+
+            // warm-up
+            for (int r = 0; r < reps; r++) {
+                runSorted(tokens, capacity);
+                runBuckets(tokens, capacity);
+            }
+
+            long[] sorted = new long[2];
+            long[] buckets = new long[2];
+            for (int r = 0; r < reps; r++) {
+                long[] s = runSorted(tokens, capacity);
+                long[] b = runBuckets(tokens, capacity);
+                sorted[0] += s[0]; sorted[1] += s[1];
+                buckets[0] += b[0]; buckets[1] += b[1];
+            }
+
+            long ops = (long) reps * capacity;
+            System.out.printf("  %-10d %14.1f %14.1f %14.1f %14.1f%n", capacity,
+                (double) sorted[0] / ops, (double) buckets[0] / ops,
+                (double) sorted[1] / ops, (double) buckets[1] / ops);
+        }
+    }
+
+    private static long[] runBuckets(Token[] tokens, int capacity) {
+        Slot slot = new Slot("9:00 AM", "10:00 AM", capacity);
+        long start = System.nanoTime();
+        for (int i = 0; i < capacity; i++) {
+            slot.addToken(tokens[i]);
+        }
+        long fill = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = capacity; i < tokens.length; i++) {
+            Token lowest = slot.getLowestPriorityToken();
+            slot.removeToken(lowest);
+            slot.addToken(tokens[i]);
+        }
+        long churn = System.nanoTime() - start;
+        return new long[] {fill, churn};
+    }
+
+    private static long[] runSorted(Token[] tokens, int capacity) {
+        SortedListSlot slot = new SortedListSlot();
+        long start = System.nanoTime();
+        for (int i = 0; i < capacity; i++) {
+            slot.addToken(tokens[i]);
+        }
+        long fill = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = capacity; i < tokens.length; i++) {
+            Token lowest = slot.getLowestPriorityToken();
+            slot.removeToken(lowest);
+            slot.addToken(tokens[i]);
+        }
+        long churn = System.nanoTime() - start;
+        return new long[] {fill, churn};
+    }
+
+    /**
+     * The original Slot storage: append then sort the whole list on every insert
+     */
+    private static class SortedListSlot {
+        private final List<Token> tokens = new ArrayList<>();
+
+        void addToken(Token token) {
+            tokens.add(token);
+            tokens.sort(Comparator
+                .comparingInt(Token::getPriority)
+                .thenComparing(Token::getCreatedAt));
+        }
+
+        boolean removeToken(Token token) {
+            return tokens.remove(token);
+        }
+
+        Token getLowestPriorityToken() {
+            if (tokens.isEmpty()) return null;
+            return tokens.get(tokens.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * "Slot covering T" and "next free slot after T": binary search over parsed start
+ * minutes vs a linear scan (SlotTimeTest checks both agree)
+ */
+public class SlotTimeBenchmark {
+    private static volatile long sink;
+
+    static void run() {
+        System.out.println("\n▶ Slot times: binary search over parsed start minutes vs scanning the slots");
+        int reps = 200_000;
+        System.out.printf("  %8s %16s %16s %16s%n", "slots", "scan ns/query", "search ns/query", "next free ns");
+        for (int slots : new int[] {10, 100, 1000}) {
+            for (int round = 0; round < 3; round++) {  // first two rounds warm up
+                Doctor doctor = new DayGenerator(round, 1, slots, 4).build().getDoctor("Dr0");
+                Random random = new Random(round);
+                int[] times = new int[1024];
+                for (int i = 0; i < times.length; i++) times[i] = random.nextInt(Slot.MINUTES_PER_DAY);
+                long start = System.nanoTime();
+                for (int i = 0; i < reps; i++) sink += scanSlotAt(doctor, times[i & 1023]);
+                long scan = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < reps; i++) sink += doctor.findSlotAt(times[i & 1023]);
+                long search = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < reps; i++) sink += doctor.findNextFreeSlot(times[i & 1023]);
+                long nextFree = System.nanoTime() - start;
+                if (round == 2) {
+                    System.out.printf("  %8d %16.1f %16.1f %16.1f%n", slots, (double) scan / reps,
+                        (double) search / reps, (double) nextFree / reps);
+                }
+            }
+        }
+    }
+
+    private static int scanSlotAt(Doctor doctor, int minute) {
+        List<Slot> slots = doctor.getSlots();
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (slot.getStartMinute() <= minute && minute < slot.getEndMinute()) return i;
+        }
+        return -1;
+    }
+
+    static int scanNextFree(Doctor doctor, int minute) {
+        List<Slot> slots = doctor.getSlots();
+        int best = -1;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (slot.isFull() || slot.getEndMinute() <= minute) continue;
+            if (best < 0 || slot.getStartMinute() < slots.get(best).getStartMinute()) best = i;
+        }
+        return best;
+    }
+}
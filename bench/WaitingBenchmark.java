@@ -0,0 +1,50 @@
+import java.util.Random;
+
+/**
+ * Waiting list remove-by-id + add: LinkedList scans vs WaitingList
+ * (WaitingListTest checks it against a plain list model)
+ */
+public class WaitingBenchmark {
+    static void run() {
+        System.out.println("\n▶ Waiting list");
+        System.out.printf("  %-10s %-22s %12s%n", "waiting", "remove by id + add", "ns/op");
+        for (int size : new int[] {100, 1_000, 10_000}) {
+            Token[] tokens = Bench.randomTokens(size, size);
+            for (int round = 0; round < 2; round++) {  // first round warms up
+                java.util.LinkedList<Token> linked = new java.util.LinkedList<>();
+                WaitingList indexed = new WaitingList();
+                for (Token t : tokens) {
+                    linked.add(t);
+                    indexed.add(t);
+                }
+                Random random = new Random(3);
+                int ops = 20_000;
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    String id = tokens[random.nextInt(size)].getId();
+                    java.util.Iterator<Token> it = linked.iterator();
+                    while (it.hasNext()) {
+                        Token t = it.next();
+                        if (t.getId().equals(id)) {
+                            it.remove();
+                            linked.add(t);
+                            break;
+                        }
+                    }
+                }
+                long legacy = System.nanoTime() - start;
+
+                random = new Random(3);
+                start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    indexed.add(indexed.remove(tokens[random.nextInt(size)].getId()));
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round == 1) {
+                    System.out.printf("  %-10d %-22s %12.1f%n", size, "LinkedList scan", (double) legacy / ops);
+                    System.out.printf("  %-10d %-22s %12.1f%n", size, "WaitingList", (double) elapsed / ops);
+                }
+            }
+        }
+    }
+}
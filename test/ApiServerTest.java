@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * ApiServer routes over the default transport: what each endpoint answers,
+ * and the status codes for the requests it refuses
+ */
+public class ApiServerTest implements AutoCloseable {
+    private final TokenManager manager = new TokenManager();
+    private final ApiServer api = new ApiServer(manager);
+    private final RawHttp http;
+
+    public ApiServerTest() throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            api.start(0);
+        } finally {
+            System.setOut(console);
+        }
+        http = new RawHttp(api.getPort());
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        http.close();
+        api.stop();
+    }
+
+    private RawHttp.Response call(String method, String path, String json) throws IOException {
+        return http.exchange(RawHttp.request(method, path, json));
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Doctors and slots
+    // ═══════════════════════════════════════════════════════════
+
+    public void testAddDoctor() throws IOException {
+        RawHttp.Response response = call("POST", "/doctors", "{\"name\": \"Rao\"}");
+        Assert.assertEquals(200, response.status);
+        Assert.assertContains("message", response.body, "Doctor Rao added");
+        Assert.assertNotNull("registered", manager.getDoctor("Rao"));
+    }
+
+    public void testAddingATakenNameIs409AndKeepsTheDoctor() throws IOException {
+        Doctor original = manager.getDoctor("Sharma");
+        Token token = manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+
+        RawHttp.Response response = call("POST", "/doctors", "{\"name\": \"Sharma\"}");
+        Assert.assertEquals(409, response.status);
+        Assert.assertContains("error", response.body, "Doctor Sharma already exists");
+
+        Assert.assertTrue("original kept", manager.getDoctor("Sharma") == original);
+        RawHttp.Response found = call("GET", "/tokens/" + token.getId(), "");
+        Assert.assertEquals("token still found", 200, found.status);
+        Assert.assertContains("still listed", call("GET", "/doctors/Sharma", "").body, "Asha");
+    }
+
+    public void testAddDoctorWithoutANameIs400() throws IOException {
+        Assert.assertEquals(400, call("POST", "/doctors", "{}").status);
+        Assert.assertEquals(400, call("POST", "/doctors", "{\"name\": ").status);
+    }
+
+    public void testAddSlot() throws IOException {
+        RawHttp.Response response = call("POST", "/doctors/Sharma/slots",
+            "{\"start\": \"10:00 AM\", \"end\": \"11:00 AM\", \"capacity\": 3}");
+        Assert.assertEquals(200, response.status);
+        Assert.assertEquals(2, manager.getDoctor("Sharma").getSlots().size());
+        Assert.assertEquals(404, call("POST", "/doctors/Nobody/slots",
+            "{\"start\": \"10:00 AM\", \"end\": \"11:00 AM\", \"capacity\": 3}").status);
+    }
+
+    public void testDelaySlot() throws IOException {
+        manager.addSlot("Sharma", "10:00 AM", "11:00 AM", 1);
+        Token token = manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        RawHttp.Response response = call("PUT", "/doctors/Sharma/delay/0", "");
+        Assert.assertEquals(200, response.status);
+        Assert.assertContains("message", response.body, "Slot delayed");
+        Assert.assertEquals("moved on", 1, manager.findToken(token.getId()).getSlotIndex());
+        Assert.assertEquals("unknown slot", 404, call("PUT", "/doctors/Sharma/delay/5", "").status);
+        Assert.assertEquals("unknown doctor", 404, call("PUT", "/doctors/Nobody/delay/0", "").status);
+    }
+
+    public void testDelaySlotThroughThePipeline() throws IOException {
+        ApiServer piped = new ApiServer(manager);
+        piped.setSingleWriterShards(1);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            piped.start(0);
+        } finally {
+            System.setOut(console);
+        }
+        try (RawHttp client = new RawHttp(piped.getPort())) {
+            Assert.assertEquals(200, client.exchange(RawHttp.request("PUT", "/doctors/Sharma/delay/0", "")).status);
+            Assert.assertEquals("unknown slot", 404,
+                client.exchange(RawHttp.request("PUT", "/doctors/Sharma/delay/5", "")).status);
+            Assert.assertEquals("unknown doctor", 404,
+                client.exchange(RawHttp.request("PUT", "/doctors/Nobody/delay/0", "")).status);
+        } finally {
+            piped.stop();
+        }
+    }
+
+    public void testGetDoctor() throws IOException {
+        RawHttp.Response response = call("GET", "/doctors/Sharma", "");
+        Assert.assertEquals(200, response.status);
+        Assert.assertContains("name", response.body, "\"name\": \"Sharma\"");
+        Assert.assertEquals(404, call("GET", "/doctors/Nobody", "").status);
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Tokens
+    // ═══════════════════════════════════════════════════════════
+
+    public void testBookFindAndCancel() throws IOException {
+        RawHttp.Response booked = call("POST", "/tokens",
+            "{\"doctor\": \"Sharma\", \"slot\": 0, \"patient\": \"Asha\", \"type\": \"PAID\"}");
+        Assert.assertEquals(200, booked.status);
+        Assert.assertContains("type", booked.body, "\"type\": \"PAID\"");
+        String id = booked.body.replaceAll(".*\"tokenId\": \"([^\"]+)\".*", "$1");
+
+        Assert.assertEquals(200, call("GET", "/tokens/" + id, "").status);
+        Assert.assertEquals("{\"success\": true}", call("DELETE", "/tokens/" + id, "").body);
+        Assert.assertEquals(404, call("GET", "/tokens/" + id, "").status);
+        Assert.assertEquals("{\"success\": false}", call("DELETE", "/tokens/" + id, "").body);
+    }
+
+    public void testBookingForAnUnknownDoctorIs400() throws IOException {
+        RawHttp.Response response = call("POST", "/tokens",
+            "{\"doctor\": \"Nobody\", \"slot\": 0, \"patient\": \"Asha\", \"type\": \"PAID\"}");
+        Assert.assertEquals(400, response.status);
+        Assert.assertContains("error", response.body, "Failed to book token");
+    }
+
+    public void testBatchAnswersEveryBookingInOrder() throws IOException {
+        RawHttp.Response response = call("POST", "/tokens/batch",
+            "[{\"doctor\": \"Sharma\", \"slot\": 0, \"patient\": \"A\", \"type\": \"ONLINE\"},"
+            + " {\"doctor\": \"Nobody\", \"slot\": 0, \"patient\": \"B\", \"type\": \"ONLINE\"}]");
+        Assert.assertEquals(200, response.status);
+        Assert.assertContains("first booked", response.body, "\"patient\": \"A\"");
+        Assert.assertContains("second failed", response.body, "{\"error\": \"Failed to book token\"}");
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Routing
+    // ═══════════════════════════════════════════════════════════
+
+    public void testUnknownPathIs404AndWrongMethodIs405() throws IOException {
+        Assert.assertEquals(404, call("GET", "/nothing/here", "").status);
+        Assert.assertEquals(405, call("DELETE", "/doctors", "").status);
+    }
+
+    public void testFiltersRunOnTheJdkTransportToo() throws IOException {
+        ApiServer filtered = new ApiServer(manager);
+        filtered.addFilter(new com.sun.net.httpserver.Filter() {
+            @Override
+            public void doFilter(com.sun.net.httpserver.HttpExchange exchange, Chain chain) throws IOException {
+                exchange.getResponseHeaders().add("X-Filtered", "yes");
+                chain.doFilter(exchange);
+            }
+
+            @Override
+            public String description() {
+                return "marks responses";
+            }
+        });
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            filtered.start(0);
+        } finally {
+            System.setOut(console);
+        }
+        try (RawHttp client = new RawHttp(filtered.getPort())) {
+            RawHttp.Response response = client.exchange(RawHttp.get("/doctors/Sharma"));
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("yes", response.header("X-Filtered"));
+        } finally {
+            filtered.stop();
+        }
+    }
+}
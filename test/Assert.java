@@ -0,0 +1,70 @@
+import java.util.Objects;
+
+/**
+ * The assertions the tests use (failures are AssertionErrors with both values)
+ */
+public final class Assert {
+    /**
+     * Code expected to throw
+     */
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    private Assert() {
+    }
+
+    public static void assertEquals(Object expected, Object actual) {
+        assertEquals("", expected, actual);
+    }
+
+    public static void assertEquals(String what, Object expected, Object actual) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError((what.isEmpty() ? "" : what + ": ") + "expected <" + expected
+                + "> but was <" + actual + ">");
+        }
+    }
+
+    public static void assertTrue(String what, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    public static void assertFalse(String what, boolean condition) {
+        assertTrue(what, !condition);
+    }
+
+    public static void assertNull(String what, Object value) {
+        if (value != null) {
+            throw new AssertionError(what + ": expected null but was <" + value + ">");
+        }
+    }
+
+    public static void assertNotNull(String what, Object value) {
+        if (value == null) {
+            throw new AssertionError(what + ": was null");
+        }
+    }
+
+    public static void assertContains(String what, String text, String part) {
+        if (text == null || !text.contains(part)) {
+            throw new AssertionError(what + ": <" + text + "> does not contain <" + part + ">");
+        }
+    }
+
+    /**
+     * Run the action and return what it threw, failing unless it is a type
+     */
+    public static <T extends Throwable> T assertThrows(Class<T> type, Action action) {
+        try {
+            action.run();
+        } catch (Throwable t) {
+            if (type.isInstance(t)) {
+                return type.cast(t);
+            }
+            throw new AssertionError("expected " + type.getSimpleName() + " but got " + t, t);
+        }
+        throw new AssertionError("expected " + type.getSimpleName() + " but nothing was thrown");
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * FreeSeatIndex and the per-doctor free-seat trees, and GET /availability on
+ * top of them: the earliest free seat and the list of doctors with one
+ */
+public class AvailabilityTest implements AutoCloseable {
+    private final TokenManager manager = new TokenManager();
+    private final ApiServer api = new ApiServer(manager);
+    private final int port;
+
+    public AvailabilityTest() throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            api.start(0);
+        } finally {
+            System.setOut(console);
+        }
+        port = api.getPort();
+        manager.addDoctor("Late").addSlot("11:00 AM", "12:00 PM", 2);
+        manager.addDoctor("Early").addSlot("9:00 AM", "10:00 AM", 1);
+        manager.getDoctor("Early").addSlot("10:00 AM", "11:00 AM", 1);
+    }
+
+    @Override
+    public void close() {
+        api.stop();
+    }
+
+    private RawHttp.Response get(String path) throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            http.send(RawHttp.get(path));
+            return http.read();
+        }
+    }
+
+    public void testEarliestNamesTheDoctorAndSlot() throws IOException {
+        RawHttp.Response response = get("/availability?earliest=true&after=9:30%20AM");
+        Assert.assertEquals(200, response.status);
+        Assert.assertEquals("{\"available\": true, \"doctor\": \"Early\", \"slot\": 0, "
+            + "\"time\": \"9:00 AM - 10:00 AM\", \"freeSeats\": 1}", response.body);
+    }
+
+    public void testEarliestSkipsFullSlots() throws IOException {
+        manager.bookToken("Early", 0, "P1", TokenType.ONLINE);
+        RawHttp.Response response = get("/availability?earliest=true&after=9:30%20AM");
+        Assert.assertContains("next slot", response.body, "\"doctor\": \"Early\", \"slot\": 1");
+    }
+
+    public void testEarliestIsFalseWhenEverySlotIsFull() throws IOException {
+        Assert.assertEquals("{\"available\": false}", get("/availability?earliest=true&after=12:30%20PM").body);
+        manager.bookToken("Early", 0, "P1", TokenType.ONLINE);
+        manager.bookToken("Early", 1, "P2", TokenType.ONLINE);
+        manager.bookToken("Late", 0, "P3", TokenType.ONLINE);
+        manager.bookToken("Late", 0, "P4", TokenType.ONLINE);
+        Assert.assertEquals("{\"available\": false}", get("/availability?earliest=true&after=9:00%20AM").body);
+    }
+
+    public void testListsDoctorsEarliestFirst() throws IOException {
+        RawHttp.Response response = get("/availability?after=9:00%20AM");
+        Assert.assertEquals(200, response.status);
+        String body = response.body;
+        Assert.assertTrue("Early before Late: " + body, body.indexOf("\"Early\"") < body.indexOf("\"Late\""));
+        manager.bookToken("Early", 0, "P1", TokenType.ONLINE);
+        manager.bookToken("Early", 1, "P2", TokenType.ONLINE);
+        Assert.assertEquals("{\"available\": [{\"doctor\": \"Late\", \"slot\": 0, \"time\": \"11:00 AM - 12:00 PM\", "
+            + "\"freeSeats\": 2}]}", get("/availability?after=9:00%20AM").body);
+    }
+
+    public void testBadTimeGets400() throws IOException {
+        RawHttp.Response response = get("/availability?earliest=true&after=quarter%20past");
+        Assert.assertEquals(400, response.status);
+        Assert.assertContains("error", response.body, "Not a time");
+    }
+
+    /**
+     * A seat taken between the index lookup and writing the slot must give
+     * "available": false, never a half-written object
+     */
+    public void testEarliestStaysWellFormedWhileTheSeatComesAndGoes() throws Exception {
+        manager.bookToken("Late", 0, "P1", TokenType.ONLINE);
+        manager.bookToken("Late", 0, "P2", TokenType.ONLINE);
+        manager.bookToken("Early", 1, "P3", TokenType.ONLINE);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread churn = new Thread(() -> {
+            while (!done.get()) {
+                Token token = manager.bookToken("Early", 0, "Churn", TokenType.ONLINE);
+                manager.cancelToken(token.getId());
+            }
+        });
+        churn.start();
+        try (RawHttp http = new RawHttp(port)) {
+            for (int i = 0; i < 500; i++) {
+                http.send(RawHttp.get("/availability?earliest=true&after=9:00%20AM"));
+                String body = http.read().body;
+                if (!body.equals("{\"available\": false}")) {
+                    Assert.assertEquals("{\"available\": true, \"doctor\": \"Early\", \"slot\": 0, "
+                        + "\"time\": \"9:00 AM - 10:00 AM\", \"freeSeats\": 1}", body);
+                }
+                JsonReader reader = JsonReader.of(body.getBytes(StandardCharsets.UTF_8));
+                reader.skipValue();
+                reader.endDocument();
+            }
+        } finally {
+            done.set(true);
+            churn.join();
+        }
+    }
+
+    public void testRunningSlotCountsUntilItEnds() {
+        Assert.assertEquals("Early", manager.findEarliestAvailable(9 * 60 + 59).getName());
+        Assert.assertEquals("Early", manager.findEarliestAvailable(10 * 60).getName());
+        manager.bookToken("Early", 1, "P1", TokenType.ONLINE);
+        Assert.assertEquals("Early", manager.findEarliestAvailable(9 * 60 + 59).getName());
+        Assert.assertEquals("Late", manager.findEarliestAvailable(10 * 60).getName());
+        Assert.assertNull("after the last slot", manager.findEarliestAvailable(12 * 60));
+    }
+
+    public void testTiesGoToTheDoctorNameThenTheList() {
+        manager.addDoctor("Adams").addSlot("9:00 AM", "10:00 AM", 1);
+        Assert.assertEquals("Adams", manager.findEarliestAvailable(9 * 60).getName());
+        List<String> names = new ArrayList<>();
+        for (Doctor doctor : manager.findAvailable(9 * 60)) names.add(doctor.getName());
+        Assert.assertEquals(List.of("Adams", "Early", "Late"), names);
+    }
+
+    public void testOvernightSlotIsOpenPastMidnightStart() {
+        manager.addDoctor("Night").addSlot("11:00 PM", "12:00 AM", 1);
+        Assert.assertEquals("Night", manager.findEarliestAvailable(23 * 60 + 30).getName());
+    }
+
+    /**
+     * Queries for different minutes at the same time: each must get the
+     * answer for its own minute (nothing in the index depends on the minute)
+     */
+    public void testConcurrentQueriesForDifferentMinutes() throws Exception {
+        int[] minutes = {9 * 60 + 30, 10 * 60 + 30, 11 * 60 + 30};
+        String[] expected = {"Early", "Early", "Late"};
+        AtomicReference<String> wrong = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < minutes.length; t++) {
+            int minute = minutes[t];
+            String name = expected[t];
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20_000 && wrong.get() == null; i++) {
+                    Doctor found = manager.findEarliestAvailable(minute);
+                    List<Doctor> all = manager.findAvailable(minute);
+                    if (found == null || !found.getName().equals(name) || !all.get(0).getName().equals(name)) {
+                        wrong.set("at minute " + minute + " got " + (found == null ? null : found.getName()));
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        Assert.assertNull("wrong answer", wrong.get());
+    }
+
+    /**
+     * Slots added in any order keep the time order, the tree and the index
+     * right, checked against a walk over the slots after every addition
+     */
+    public void testSlotsAddedInAnyOrder() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            TokenManager shuffled = new TokenManager();
+            Doctor doctor = shuffled.addDoctor("Shuffle");
+            List<Integer> starts = new ArrayList<>();
+            for (int i = 0; i < 40; i++) starts.add(8 * 60 + 15 * i);
+            java.util.Collections.shuffle(starts, random);
+            for (int start : starts) {
+                doctor.addSlot(clock(start), clock(start + 15), 1);
+                if (random.nextBoolean()) {
+                    shuffled.bookToken("Shuffle", doctor.getSlots().size() - 1, "P", TokenType.ONLINE);
+                }
+                for (int minute = 8 * 60 - 5; minute < 18 * 60; minute += 7) {
+                    Assert.assertEquals("next free at " + minute, scanNextFree(doctor, minute),
+                        doctor.findNextFreeSlot(minute));
+                }
+            }
+            Doctor expected = scanEarliest(shuffled, 12 * 60);
+            Assert.assertEquals("earliest at noon", expected, shuffled.findEarliestAvailable(12 * 60));
+        }
+    }
+
+    /**
+     * Random bookings, cancellations, no-shows, delays, rebalances and new
+     * slots on generated days; the index must name the doctor a scan names
+     */
+    public void testIndexAgreesWithAScanAfterRandomChanges() {
+        Random random = new Random(29);
+        for (int day = 0; day < 60; day++) {
+            DayGenerator generator = new DayGenerator(day, 1 + random.nextInt(5), 1 + random.nextInt(8),
+                1 + random.nextInt(3));
+            generator.setFill(random.nextDouble());
+            TokenManager day0 = generator.build();
+            List<String> ids = generator.shuffledIds(day0);
+            for (int op = 0; op < 40; op++) {
+                String name = generator.nextDoctor();
+                int roll = random.nextInt(10);
+                if (roll < 5 || ids.isEmpty()) {
+                    ids.add(day0.bookToken(name, generator.nextSlot(), "P", generator.nextType()).getId());
+                } else if (roll < 7) {
+                    day0.cancelToken(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 8) {
+                    day0.markNoShow(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 9) {
+                    day0.delaySlot(name, generator.nextSlot());
+                } else {
+                    int start = 6 * 60 + random.nextInt(14 * 60);
+                    day0.addSlot(name, clock(start), clock(start + 5 + random.nextInt(90)), 1 + random.nextInt(3));
+                }
+                int minute = random.nextInt(Slot.MINUTES_PER_DAY);
+                Doctor expected = scanEarliest(day0, minute);
+                Doctor found = day0.findEarliestAvailable(minute);
+                Assert.assertEquals("day " + day + " op " + op + " minute " + minute,
+                    expected == null ? null : expected.getName(), found == null ? null : found.getName());
+            }
+        }
+    }
+
+    /**
+     * Every kind of change on generated days, batches and rebalances included;
+     * after each one the index must name the doctor a scan names and every
+     * doctor's free-seat tree must give the scan's next free slot
+     */
+    public void testIndexAndTreesAgreeWithAScanAfterEveryKindOfChange() {
+        Random random = new Random(29);
+        for (int day = 0; day < 300; day++) {
+            DayGenerator generator = new DayGenerator(29 + day, 1 + random.nextInt(5), 1 + random.nextInt(8),
+                1 + random.nextInt(3));
+            generator.setFill(random.nextDouble());
+            TokenManager manager = generator.build();
+            List<String> ids = generator.shuffledIds(manager);
+            for (int op = 0; op < 40; op++) {
+                String name = generator.nextDoctor();
+                int roll = random.nextInt(12);
+                if (roll < 5 || ids.isEmpty()) {
+                    ids.add(manager.bookToken(name, generator.nextSlot(), generator.nextPatient(), generator.nextType()).getId());
+                } else if (roll < 7) {
+                    manager.cancelToken(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 8) {
+                    manager.markNoShow(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 9) {
+                    manager.delaySlot(name, generator.nextSlot());
+                } else if (roll < 10) {
+                    manager.rebalance(name);
+                } else if (roll < 11) {
+                    List<Slot> slots = manager.getDoctor(name).getSlots();
+                    int start = slots.get(slots.size() - 1).getEndMinute();
+                    if (start + 30 < Slot.MINUTES_PER_DAY) {
+                        manager.addSlot(name, clock(start), clock(start + 30), 1 + random.nextInt(3));
+                    }
+                } else {
+                    List<BookingRequest> batch = new ArrayList<>();
+                    for (int i = 0; i < 3; i++) {
+                        batch.add(new BookingRequest(generator.nextDoctor(), generator.nextSlot(), generator.nextPatient(),
+                            generator.nextType()));
+                    }
+                    for (Token t : manager.bookTokens(batch)) ids.add(t.getId());
+                }
+                int minute = random.nextInt(4) == 0 ? random.nextInt(Slot.MINUTES_PER_DAY) : 9 * 60;
+                String what = "day " + day + " op " + op + " minute " + minute;
+                Doctor expected = scanEarliest(manager, minute);
+                Doctor found = manager.findEarliestAvailable(minute);
+                Assert.assertEquals(what, expected == null ? null : expected.getName(), found == null ? null : found.getName());
+                for (Doctor doctor : manager.getAllDoctors()) {
+                    Assert.assertEquals(what + " next free of " + doctor.getName(), scanNextFree(doctor, minute),
+                        doctor.findNextFreeSlot(minute));
+                }
+            }
+        }
+    }
+
+    private static String clock(int minute) {
+        return String.format("%d:%02d", minute / 60 % 24, minute % 60);
+    }
+
+    private static int scanNextFree(Doctor doctor, int minute) {
+        List<Slot> slots = doctor.getSlots();
+        int best = -1;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (slot.isFull() || slot.getEndMinute() <= minute) continue;
+            if (best < 0 || slot.getStartMinute() < slots.get(best).getStartMinute()) best = i;
+        }
+        return best;
+    }
+
+    /**
+     * Earliest free slot start over every doctor (ties by name), slot by slot
+     */
+    private static Doctor scanEarliest(TokenManager manager, int minute) {
+        Doctor best = null;
+        int bestStart = Integer.MAX_VALUE;
+        for (Doctor doctor : manager.getAllDoctors()) {
+            for (Slot slot : doctor.getSlots()) {
+                if (slot.isFull() || slot.getEndMinute() <= minute) continue;
+                int start = slot.getStartMinute();
+                if (start < bestStart || (start == bestStart && doctor.getName().compareTo(best.getName()) < 0)) {
+                    best = doctor;
+                    bestStart = start;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * TokenManager.bookTokens: a batch ends up exactly like booking the same
+ * requests one by one in priority order, with nulls where nothing was booked
+ */
+public class BatchBookingTest {
+    private final TokenManager manager = new TokenManager();
+
+    public BatchBookingTest() {
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 1);
+        manager.addSlot("Sharma", "10:00 AM", "11:00 AM", 1);
+    }
+
+    public void testHigherPriorityInTheBatchIsSeatedFirst() {
+        List<Token> booked = manager.bookTokens(List.of(
+            new BookingRequest("Sharma", 0, "A", TokenType.ONLINE),
+            new BookingRequest("Sharma", 0, "B", TokenType.WALKIN),
+            new BookingRequest("Sharma", 0, "C", TokenType.EMERGENCY)));
+        Assert.assertEquals("results in request order", List.of("A", "B", "C"),
+            List.of(booked.get(0).getPatientName(), booked.get(1).getPatientName(), booked.get(2).getPatientName()));
+        Assert.assertEquals("Sharma: [C ] [B ] waiting A\n", CommandPipelineTest.describeDay(manager));
+        Assert.assertTrue("A waits", manager.findToken(booked.get(0).getId()).isInWaitingList());
+    }
+
+    public void testUnknownDoctorOrSlotIsNullInPlace() {
+        List<Token> booked = manager.bookTokens(List.of(
+            new BookingRequest("Nobody", 0, "A", TokenType.ONLINE),
+            new BookingRequest("Sharma", 7, "B", TokenType.ONLINE),
+            new BookingRequest("Sharma", 1, "C", TokenType.ONLINE)));
+        Assert.assertEquals(3, booked.size());
+        Assert.assertNull("unknown doctor", booked.get(0));
+        Assert.assertNull("unknown slot", booked.get(1));
+        Assert.assertEquals("C", booked.get(2).getPatientName());
+        Assert.assertEquals("Sharma: [] [C ] waiting\n", CommandPipelineTest.describeDay(manager));
+    }
+
+    public void testEmptyBatchBooksNothing() {
+        Assert.assertEquals(List.of(), manager.bookTokens(List.of()));
+        Assert.assertEquals("Sharma: [] [] waiting\n", CommandPipelineTest.describeDay(manager));
+    }
+
+    public void testRequestWithATimeGoesToTheSlotRunningThen() throws IOException {
+        BookingRequest atTen = BookingRequest.read(JsonReader.of(
+            "{\"doctor\": \"Sharma\", \"patient\": \"A\", \"time\": \"10:30 AM\"}".getBytes(StandardCharsets.UTF_8)));
+        BookingRequest evening = BookingRequest.read(JsonReader.of(
+            "{\"doctor\": \"Sharma\", \"patient\": \"B\", \"time\": \"6:00 PM\"}".getBytes(StandardCharsets.UTF_8)));
+        List<Token> booked = manager.bookTokens(List.of(atTen, evening));
+        Assert.assertEquals(1, manager.findToken(booked.get(0).getId()).getSlotIndex());
+        Assert.assertNull("no slot that late", booked.get(1));
+    }
+
+    /**
+     * Book the same random batch both ways on identical days and compare every
+     * slot and waiting list
+     */
+    public void testRandomBatchesMatchOneByOneBookings() {
+        Random random = new Random(21);
+        TokenType[] types = TokenType.values();
+        for (int day = 0; day < 500; day++) {
+            TokenManager batch = new TokenManager();
+            TokenManager single = new TokenManager();
+            int doctorCount = 1 + random.nextInt(3);
+            for (int d = 0; d < doctorCount; d++) {
+                Doctor a = batch.addDoctor("D" + d);
+                Doctor b = single.addDoctor("D" + d);
+                int slots = 1 + random.nextInt(8);
+                for (int s = 0; s < slots; s++) {
+                    int capacity = 1 + random.nextInt(6);
+                    a.addSlot(s + ":00", (s + 1) + ":00", capacity);
+                    b.addSlot(s + ":00", (s + 1) + ":00", capacity);
+                    int residents = random.nextInt(capacity + 1);
+                    for (int i = 0; i < residents; i++) {
+                        String id = "R" + day + "-" + d + "-" + s + "-" + i;
+                        TokenType type = types[random.nextInt(types.length)];
+                        LocalDateTime createdAt = LocalDateTime.of(2024, 1, 1, 8, 0).plusSeconds(i);
+                        batch.restoreToSlot(a, s, new Token(id, id, type, createdAt));
+                        single.restoreToSlot(b, s, new Token(id, id, type, createdAt));
+                    }
+                }
+            }
+
+            List<BookingRequest> requests = new ArrayList<>();
+            int count = 1 + random.nextInt(60);
+            for (int i = 0; i < count; i++) {
+                String doctor = "D" + random.nextInt(doctorCount + 1);  // sometimes unknown
+                requests.add(new BookingRequest(doctor, random.nextInt(9), "W" + i, types[random.nextInt(types.length)]));
+            }
+
+            List<Token> booked = batch.bookTokens(requests);
+            List<BookingRequest> ordered = new ArrayList<>(requests);
+            ordered.sort(Comparator.comparingInt(r -> r.getType().getPriority()));
+            Map<String, Boolean> singleBooked = new HashMap<>();
+            for (BookingRequest r : ordered) {
+                singleBooked.put(r.getPatient(),
+                    single.bookToken(r.getDoctor(), r.getSlot(), r.getPatient(), r.getType()) != null);
+            }
+
+            for (int i = 0; i < count; i++) {
+                Assert.assertEquals("day " + day + " booked " + requests.get(i).getPatient(),
+                    singleBooked.get(requests.get(i).getPatient()), booked.get(i) != null);
+            }
+            Assert.assertEquals("day " + day, CommandPipelineTest.describeDay(single),
+                CommandPipelineTest.describeDay(batch));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bump cascades: the forward sweep in TokenManager places tokens and narrates
+ * exactly like the old recursive allocateToken, and needs no stack per slot
+ */
+public class CascadeTest {
+
+    /**
+     * The bumped token does not displace its equals, so it passes every full slot
+     */
+    public void testBumpedTokenRunsThroughEveryFullSlotIntoTheWaitingList() {
+        TokenManager manager = new TokenManager();
+        Doctor doctor = manager.addDoctor("D");
+        for (int s = 0; s < 3; s++) {
+            doctor.addSlot(s + ":00", (s + 1) + ":00", 1);
+            manager.restoreToSlot(doctor, s, new Token("T" + s, "P" + s, TokenType.ONLINE, LocalDateTime.of(2024, 1, 1, 8, s)));
+        }
+        Token urgent = manager.bookToken("D", 0, "Urgent", TokenType.EMERGENCY);
+        Assert.assertEquals("[" + urgent.getId() + " ] [T1 ] [T2 ] waiting T0", describeDoctor(doctor));
+        Assert.assertTrue("bumped one waits", manager.findToken("T0").isInWaitingList());
+        Assert.assertEquals(2, manager.findToken("T2").getSlotIndex());
+    }
+
+    public void testLowerPriorityMovesOnWithoutBumping() {
+        TokenManager manager = new TokenManager();
+        Doctor doctor = manager.addDoctor("D");
+        doctor.addSlot("9:00", "10:00", 1);
+        doctor.addSlot("10:00", "11:00", 1);
+        Token paid = manager.bookToken("D", 0, "Paid", TokenType.PAID);
+        Token online = manager.bookToken("D", 0, "Online", TokenType.ONLINE);
+        Assert.assertEquals(0, manager.findToken(paid.getId()).getSlotIndex());
+        Assert.assertEquals(1, manager.findToken(online.getId()).getSlotIndex());
+    }
+
+    public void testDelayOfTheLastSlotSendsItsTokensToTheWaitingList() {
+        TokenManager manager = new TokenManager();
+        manager.addDoctor("D");
+        manager.addSlot("D", "9:00", "10:00", 2);
+        Token a = manager.bookToken("D", 0, "A", TokenType.ONLINE);
+        Token b = manager.bookToken("D", 0, "B", TokenType.PAID);
+        manager.delaySlot("D", 0);
+        Assert.assertTrue("a waits", manager.findToken(a.getId()).isInWaitingList());
+        Assert.assertTrue("b waits", manager.findToken(b.getId()).isInWaitingList());
+        Assert.assertEquals("paid first", b, manager.getDoctor("D").getWaitingList().peek());
+    }
+
+    public void testDelayOfAnUnknownSlotOrDoctorChangesNothing() {
+        TokenManager manager = new TokenManager();
+        manager.addDoctor("D");
+        manager.addSlot("D", "9:00", "10:00", 2);
+        Token a = manager.bookToken("D", 0, "A", TokenType.ONLINE);
+        String before = describeDoctor(manager.getDoctor("D"));
+        manager.delaySlot("D", 3);
+        manager.delaySlot("Nobody", 0);
+        Assert.assertEquals(before, describeDoctor(manager.getDoctor("D")));
+        Assert.assertEquals(0, manager.findToken(a.getId()).getSlotIndex());
+    }
+
+    /**
+     * The recursive version needed one stack frame per slot of the chain
+     */
+    public void testBumpChainThroughAHundredThousandSlots() {
+        int slots = 100_000;
+        TokenManager manager = new TokenManager();
+        Doctor doctor = manager.addDoctor("Long");
+        for (int s = 0; s < slots; s++) {
+            doctor.addSlot("S" + s, "E" + s, 1);
+            manager.restoreToSlot(doctor, s, new Token("P" + s, TokenType.ONLINE));
+        }
+        manager.replayBooking(doctor, 0, new Token("Urgent", TokenType.EMERGENCY));
+        Assert.assertEquals("Urgent", doctor.getSlot(0).getTokens().get(0).getPatientName());
+        Assert.assertEquals("P" + (slots - 1), doctor.getSlot(slots - 1).getTokens().get(0).getPatientName());
+        Assert.assertEquals("P0", doctor.getWaitingList().peek().getPatientName());
+    }
+
+    /**
+     * Run the same random bookings and delays through TokenManager and through
+     * the old recursive code on a twin Doctor holding the same tokens, comparing
+     * the slots after every step and the narration at the end of the day
+     */
+    public void testRandomDaysMatchTheRecursiveAllocation() {
+        Random random = new Random(31);
+        TokenType[] types = TokenType.values();
+        for (int day = 0; day < 1_000; day++) {
+            ByteArrayOutputStream newText = new ByteArrayOutputStream();
+            ByteArrayOutputStream oldText = new ByteArrayOutputStream();
+            ConsoleBookingListener newConsole = new ConsoleBookingListener(new PrintStream(newText, true));
+            ConsoleBookingListener oldConsole = new ConsoleBookingListener(new PrintStream(oldText, true));
+
+            TokenManager manager = new TokenManager();
+            manager.setListener(newConsole);
+            Doctor doctor = manager.addDoctor("D");
+            Doctor twin = new Doctor("D");
+            int slots = 1 + random.nextInt(10);
+            for (int s = 0; s < slots; s++) {
+                int capacity = 1 + random.nextInt(5);
+                doctor.addSlot(s + ":00", (s + 1) + ":00", capacity);
+                twin.addSlot(s + ":00", (s + 1) + ":00", capacity);
+            }
+
+            int ops = 1 + random.nextInt(80);
+            for (int op = 0; op < ops; op++) {
+                int slot = random.nextInt(slots);
+                if (random.nextInt(4) == 0) {
+                    manager.delaySlot("D", slot);
+                    legacyDelay(twin, slot, oldConsole);
+                } else {
+                    Token token = new Token("P" + op, types[random.nextInt(types.length)]);
+                    manager.replayBooking(doctor, slot, token);
+                    legacyAllocate(twin, slot, token, oldConsole);
+                }
+                Assert.assertEquals("day " + day + " op " + op, describeDoctor(twin), describeDoctor(doctor));
+            }
+            Assert.assertEquals("day " + day + " narration", oldText.toString(), newText.toString());
+        }
+    }
+
+    private static String describeDoctor(Doctor doctor) {
+        StringBuilder sb = new StringBuilder();
+        for (Slot slot : doctor.getSlots()) {
+            sb.append('[');
+            for (Token t : slot) sb.append(t.getId()).append(' ');
+            sb.append("] ");
+        }
+        sb.append("waiting");
+        for (Token t : doctor.getWaitingList()) sb.append(' ').append(t.getId());
+        return sb.toString();
+    }
+
+    /**
+     * TokenManager.allocateToken as it was: one recursive call per slot of the chain
+     */
+    private static void legacyAllocate(Doctor doctor, int slotIndex, Token token, BookingListener listener) {
+        Slot slot = doctor.getSlot(slotIndex);
+        if (slot == null) {
+            listener.waitingListed(token);
+            doctor.addToWaitingList(token);
+            return;
+        }
+        if (!slot.isFull()) {
+            slot.addToken(token);
+            token.setAllocatedAt(LocalDateTime.now());
+            listener.allocated(token, slot);
+            return;
+        }
+        listener.slotFull(slot, slot.getCurrentCount());
+        Token lowestInSlot = slot.getLowestPriorityToken();
+        if (token.getPriority() < lowestInSlot.getPriority()) {
+            listener.bumped(lowestInSlot);
+            slot.removeToken(lowestInSlot);
+            slot.addToken(token);
+            token.setAllocatedAt(LocalDateTime.now());
+            listener.allocated(token, slot);
+            legacyAllocate(doctor, slotIndex + 1, lowestInSlot, listener);
+        } else {
+            listener.movedToNextSlot(token);
+            legacyAllocate(doctor, slotIndex + 1, token, listener);
+        }
+    }
+
+    /**
+     * TokenManager.delaySlot as it was: a full bump chain per moved token
+     */
+    private static void legacyDelay(Doctor doctor, int slotIndex, BookingListener listener) {
+        listener.delayStarted(doctor.getName(), slotIndex);
+        Slot slot = doctor.getSlot(slotIndex);
+        listener.slotDelaying(doctor.getName(), slot);
+        List<Token> tokensToMove = slot.getTokens();
+        for (Token t : tokensToMove) {
+            slot.removeToken(t);
+        }
+        for (Token token : tokensToMove) {
+            listener.movingToken(token);
+            legacyAllocate(doctor, slotIndex + 1, token, listener);
+        }
+        listener.delayCompleted(doctor);
+    }
+}
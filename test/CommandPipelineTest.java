@@ -0,0 +1,321 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CommandPipeline: every change to a doctor runs on its shard's engine
+ * thread, answers match the direct TokenManager calls, and nothing is
+ * answered before it is journaled
+ */
+public class CommandPipelineTest implements AutoCloseable {
+    private final TokenManager manager = new TokenManager();
+    private final CommandPipeline pipeline = new CommandPipeline(manager, 3);
+
+    public CommandPipelineTest() {
+        pipeline.addDoctor("Sharma").join();
+        pipeline.addSlot("Sharma", "9:00 AM", "10:00 AM", 1).join();
+        pipeline.addSlot("Sharma", "10:00 AM", "11:00 AM", 1).join();
+    }
+
+    @Override
+    public void close() {
+        pipeline.close();
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Each command
+    // ═══════════════════════════════════════════════════════════
+
+    public void testAddDoctorAndSlot() {
+        Doctor doctor = pipeline.addDoctor("Rao").join();
+        Assert.assertNotNull("added", doctor);
+        Assert.assertTrue("registered", manager.getDoctor("Rao") == doctor);
+        Assert.assertNull("name taken", pipeline.addDoctor("Rao").join());
+
+        Assert.assertTrue("slot added", pipeline.addSlot("Rao", "2:00 PM", "3:00 PM", 4).join());
+        Assert.assertEquals(4, doctor.getSlot(0).getCapacity());
+        Assert.assertFalse("unknown doctor", pipeline.addSlot("Nobody", "2:00 PM", "3:00 PM", 4).join());
+    }
+
+    public void testBookCancelAndNoShow() {
+        Token first = pipeline.bookToken("Sharma", 0, "Asha", TokenType.ONLINE).join();
+        Token second = pipeline.bookTokenAt("Sharma", LocalTime.of(10, 30), "Ben", TokenType.PAID).join();
+        Assert.assertEquals(0, manager.findToken(first.getId()).getSlotIndex());
+        Assert.assertEquals("slot at 10:30", 1, manager.findToken(second.getId()).getSlotIndex());
+        Assert.assertNull("unknown doctor", pipeline.bookToken("Nobody", 0, "Chen", TokenType.ONLINE).join());
+
+        Assert.assertTrue("cancelled by id", pipeline.cancelToken(null, first.getId()).join());
+        Assert.assertFalse("second cancel", pipeline.cancelToken(null, first.getId()).join());
+        Assert.assertTrue("no-show", pipeline.markNoShow("Sharma", second.getId()).join());
+        Assert.assertNull("gone", manager.findToken(second.getId()));
+    }
+
+    public void testDelayAndRebalance() {
+        Token moved = pipeline.bookToken("Sharma", 0, "Asha", TokenType.ONLINE).join();
+        Assert.assertTrue("delayed", pipeline.delaySlot("Sharma", 0).join());
+        Assert.assertEquals("moved on", 1, manager.findToken(moved.getId()).getSlotIndex());
+        Assert.assertFalse("unknown slot", pipeline.delaySlot("Sharma", 9).join());
+
+        Token waiting = pipeline.bookToken("Sharma", 1, "Ben", TokenType.ONLINE).join();
+        Assert.assertTrue("waiting", manager.findToken(waiting.getId()).isInWaitingList());
+        Assert.assertEquals("one seat filled", 1, (int) pipeline.rebalance("Sharma").join());
+        Assert.assertEquals("into slot 0", 0, manager.findToken(waiting.getId()).getSlotIndex());
+        Assert.assertEquals("unknown doctor", -1, (int) pipeline.rebalance("Nobody").join());
+    }
+
+    /**
+     * A batch over doctors on different shards is split between them and the
+     * tokens come back in request order
+     */
+    public void testBatchAcrossShardsKeepsRequestOrder() {
+        List<BookingRequest> requests = new ArrayList<>();
+        for (int d = 0; d < 6; d++) {
+            pipeline.addDoctor("D" + d).join();
+            pipeline.addSlot("D" + d, "9:00 AM", "10:00 AM", 5).join();
+        }
+        for (int i = 0; i < 30; i++) {
+            requests.add(new BookingRequest(i % 7 == 6 ? "Nobody" : "D" + (i % 7), 0, "P" + i, TokenType.ONLINE));
+        }
+        List<Token> tokens = pipeline.bookTokens(requests).join();
+
+        Assert.assertEquals(requests.size(), tokens.size());
+        for (int i = 0; i < requests.size(); i++) {
+            if (i % 7 == 6) {
+                Assert.assertNull("unknown doctor " + i, tokens.get(i));
+            } else {
+                Assert.assertEquals("P" + i, tokens.get(i).getPatientName());
+                Assert.assertEquals("D" + (i % 7), manager.findToken(tokens.get(i).getId()).getDoctor().getName());
+            }
+        }
+        Assert.assertEquals(List.of(), pipeline.bookTokens(List.of()).join());
+    }
+
+    public void testCompactorSweepsThroughThePipeline() {
+        pipeline.bookToken("Sharma", 1, "Asha", TokenType.ONLINE).join();
+        Token waiting = pipeline.bookToken("Sharma", 1, "Ben", TokenType.ONLINE).join();
+        try (WaitingListCompactor compactor = new WaitingListCompactor(manager, pipeline)) {
+            Assert.assertEquals("one seat filled", 1, compactor.sweep());
+            Assert.assertEquals("nothing left marked", 0, compactor.sweep());
+        }
+        Assert.assertEquals("into slot 0", 0, manager.findToken(waiting.getId()).getSlotIndex());
+    }
+
+    public void testClosedPipelineRefusesCommands() {
+        pipeline.close();
+        CompletableFuture<Token> book = pipeline.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        CompletionException e = Assert.assertThrows(CompletionException.class, book::join);
+        Assert.assertContains("cause", e.getCause().getMessage(), "Command pipeline closed");
+        Assert.assertThrows(CompletionException.class, () -> pipeline.addDoctor("Rao").join());
+        Assert.assertThrows(CompletionException.class, () -> pipeline.bookTokens(
+            List.of(new BookingRequest("Sharma", 0, "Ben", TokenType.ONLINE))).join());
+        Assert.assertNull("nothing applied", manager.getDoctor("Rao"));
+        Assert.assertTrue("nothing booked", manager.getDoctor("Sharma").getSlot(0).isEmpty());
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Engine threads and the journal
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Every journaled change - adding doctors and slots, batches and
+     * rebalancing included - is made on an engine thread, and the commands
+     * only complete once the journal is durable; replaying it gives the same day
+     */
+    public void testEveryChangeIsJournaledOnAnEngineThread() throws IOException {
+        Path dir = Files.createTempDirectory("opd-pipeline-test");
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));  // recovery reports
+        try {
+            Map<String, String> writers = new ConcurrentHashMap<>();  // journal call -> thread
+            TokenManager journaled = new TokenManager();
+            String before;
+            try (BookingJournal journal = new BookingJournal(dir, BookingJournal.SyncMode.GROUP_COMMIT, 0) {
+                    @Override
+                    public long logAddDoctor(String doctor) {
+                        writers.put("logAddDoctor", Thread.currentThread().getName());
+                        return super.logAddDoctor(doctor);
+                    }
+
+                    @Override
+                    public long logAddSlot(String doctor, String startTime, String endTime, int capacity) {
+                        writers.put("logAddSlot", Thread.currentThread().getName());
+                        return super.logAddSlot(doctor, startTime, endTime, capacity);
+                    }
+
+                    @Override
+                    public long logBook(String doctor, int slotIndex, Token token) {
+                        writers.put("logBook", Thread.currentThread().getName());
+                        return super.logBook(doctor, slotIndex, token);
+                    }
+
+                    @Override
+                    public long logCancel(String doctor, String tokenId) {
+                        writers.put("logCancel", Thread.currentThread().getName());
+                        return super.logCancel(doctor, tokenId);
+                    }
+
+                    @Override
+                    public long logRebalance(String doctor) {
+                        writers.put("logRebalance", Thread.currentThread().getName());
+                        return super.logRebalance(doctor);
+                    }
+                };
+                 CommandPipeline engines = new CommandPipeline(journaled, 2)) {
+                journaled.setJournal(journal);
+                for (String name : new String[] {"Sharma", "Rao", "Gupta"}) {
+                    engines.addDoctor(name).join();
+                    engines.addSlot(name, "9:00 AM", "10:00 AM", 1).join();
+                    engines.addSlot(name, "10:00 AM", "11:00 AM", 1).join();
+                }
+                engines.bookTokens(List.of(
+                    new BookingRequest("Sharma", 1, "A", TokenType.ONLINE),
+                    new BookingRequest("Rao", 1, "B", TokenType.PAID),
+                    new BookingRequest("Sharma", 1, "C", TokenType.ONLINE))).join();
+                Token gone = engines.bookToken("Gupta", 0, "D", TokenType.WALKIN).join();
+                engines.cancelToken(null, gone.getId()).join();
+                Assert.assertEquals("C refilled into slot 0", 1, (int) engines.rebalancePending().join());
+                before = PersistenceTest.describe(journaled);
+            }
+            Assert.assertEquals(5, writers.size());
+            for (Map.Entry<String, String> writer : writers.entrySet()) {
+                Assert.assertTrue(writer.getKey() + " on " + writer.getValue(), writer.getValue().startsWith("engine-"));
+            }
+
+            TokenManager recovered = new TokenManager();
+            Persistence persistence = new Persistence(dir, BookingJournal.SyncMode.GROUP_COMMIT);
+            persistence.recover(recovered);
+            persistence.getJournal().close();
+            Assert.assertEquals(before, PersistenceTest.describe(recovered));
+        } finally {
+            System.setOut(console);
+            try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Same results as direct calls
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Random bursts of book / cancel / no-show / delay / rebalance on two
+     * identical days: one gets them one call at a time, the other through a
+     * pipeline, the whole burst published before any answer is awaited. Per
+     * doctor the order is the same, so results, slots and waiting lists must match.
+     */
+    public void testRandomBurstsMatchDirectCalls() {
+        Random random = new Random(25);
+        TokenType[] types = TokenType.values();
+        for (int day = 0; day < 150; day++) {
+            TokenManager direct = new TokenManager();
+            TokenManager piped = new TokenManager();
+            int doctorCount = 1 + random.nextInt(4);
+            try (CommandPipeline burstPipeline = new CommandPipeline(piped, 1 + random.nextInt(3), 16, 1 + random.nextInt(8))) {
+                List<CompletableFuture<?>> added = new ArrayList<>();
+                for (int d = 0; d < doctorCount; d++) {
+                    direct.addDoctor("D" + d);
+                    added.add(burstPipeline.addDoctor("D" + d));
+                    int slots = 1 + random.nextInt(6);
+                    for (int s = 0; s < slots; s++) {
+                        int capacity = 1 + random.nextInt(4);
+                        direct.addSlot("D" + d, s + ":00", (s + 1) + ":00", capacity);
+                        added.add(burstPipeline.addSlot("D" + d, s + ":00", (s + 1) + ":00", capacity));
+                    }
+                }
+                added.forEach(CompletableFuture::join);
+
+                // patient name -> token id, per side (ids differ, names don't)
+                Map<String, String> directIds = new HashMap<>();
+                Map<String, String> pipedIds = new HashMap<>();
+                List<String> patients = new ArrayList<>();
+                int bursts = 1 + random.nextInt(6);
+                for (int burst = 0; burst < bursts; burst++) {
+                    List<Object> expected = new ArrayList<>();
+                    List<CompletableFuture<?>> answers = new ArrayList<>();
+                    List<String> bookedNow = new ArrayList<>();
+                    int count = 1 + random.nextInt(40);
+                    for (int i = 0; i < count; i++) {
+                        int op = random.nextInt(100);
+                        String doctor = "D" + random.nextInt(doctorCount + 1);  // sometimes unknown
+                        if (op < 60 || patients.isEmpty()) {
+                            String patient = "P" + day + "-" + burst + "-" + i;
+                            TokenType type = types[random.nextInt(types.length)];
+                            int slot = random.nextInt(7);
+                            Token token = direct.bookToken(doctor, slot, patient, type);
+                            expected.add(token != null);
+                            answers.add(burstPipeline.bookToken(doctor, slot, patient, type));
+                            if (token != null) {
+                                directIds.put(patient, token.getId());
+                                bookedNow.add(patient);
+                            }
+                        } else if (op < 92) {
+                            String patient = patients.get(random.nextInt(patients.size()));
+                            String byDoctor = random.nextBoolean() ? null : doctor;
+                            boolean noShow = op >= 80;
+                            expected.add(noShow ? direct.markNoShow(byDoctor, directIds.get(patient))
+                                : direct.cancelToken(byDoctor, directIds.get(patient)));
+                            answers.add(noShow ? burstPipeline.markNoShow(byDoctor, pipedIds.get(patient))
+                                : burstPipeline.cancelToken(byDoctor, pipedIds.get(patient)));
+                        } else if (op < 97) {
+                            int slot = random.nextInt(7);
+                            direct.delaySlot(doctor, slot);
+                            expected.add(direct.getDoctor(doctor) != null && direct.getDoctor(doctor).getSlot(slot) != null);
+                            answers.add(burstPipeline.delaySlot(doctor, slot));
+                        } else {
+                            expected.add(direct.rebalance(doctor));
+                            answers.add(burstPipeline.rebalance(doctor));
+                        }
+                    }
+
+                    for (int i = 0; i < answers.size(); i++) {
+                        Object answer = answers.get(i).join();
+                        if (answer instanceof Token) {
+                            Token token = (Token) answer;
+                            pipedIds.put(token.getPatientName(), token.getId());
+                            answer = true;
+                        } else if (answer == null) {
+                            answer = false;
+                        }
+                        Assert.assertEquals("day " + day + " burst " + burst + " command " + i, expected.get(i), answer);
+                    }
+                    patients.addAll(bookedNow);
+                    Assert.assertEquals("day " + day + " burst " + burst, describeDay(direct), describeDay(piped));
+                }
+            }
+        }
+    }
+
+    /**
+     * Patients per slot and in the waiting list, in order (ids differ between the two days, names don't)
+     */
+    static String describeDay(TokenManager manager) {
+        List<Doctor> doctors = new ArrayList<>(manager.getAllDoctors());
+        doctors.sort(Comparator.comparing(Doctor::getName));
+        StringBuilder sb = new StringBuilder();
+        for (Doctor doctor : doctors) {
+            sb.append(doctor.getName()).append(':');
+            for (Slot slot : doctor.getSlots()) {
+                sb.append(" [");
+                for (Token t : slot) sb.append(t.getPatientName()).append(' ');
+                sb.append(']');
+            }
+            sb.append(" waiting");
+            for (Token t : doctor.getWaitingList()) sb.append(' ').append(t.getPatientName());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
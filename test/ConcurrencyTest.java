@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TokenManager under concurrent book/cancel/no-show/delay: no token lost,
+ * duplicated or removed twice, and the token index agrees with the schedule
+ */
+public class ConcurrencyTest {
+    private static final int DOCTORS = 8;
+    private static final int SLOTS = 10;
+    private static final int CAPACITY = 20;
+
+    private final TokenManager manager = new TokenManager();
+
+    public ConcurrencyTest() {
+        for (int d = 0; d < DOCTORS; d++) {
+            manager.addDoctor("D" + d);
+            for (int s = 0; s < SLOTS; s++) {
+                manager.addSlot("D" + d, s + ":00", (s + 1) + ":00", CAPACITY);
+            }
+        }
+    }
+
+    /**
+     * Runs every worker at once and rethrows the first failure
+     */
+    private static void runAll(List<Runnable> work) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (Runnable r : work) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    r.run();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) t.join();
+        if (failure.get() != null) {
+            throw new AssertionError("worker failed", failure.get());
+        }
+    }
+
+    public void testRandomStressKeepsEveryTokenExactlyOnce() throws InterruptedException {
+        Map<String, Token> booked = new ConcurrentHashMap<>();
+        Set<String> removed = ConcurrentHashMap.newKeySet();
+        Set<String> duplicates = ConcurrentHashMap.newKeySet();
+        AtomicReferenceArray<String> recent = new AtomicReferenceArray<>(256);
+        TokenType[] types = TokenType.values();
+
+        List<Runnable> work = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long seed = 1000 + t;
+            work.add(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 5_000; i++) {
+                    int op = random.nextInt(100);
+                    String doctor = "D" + random.nextInt(DOCTORS);
+                    if (op < 70) {
+                        Token token = manager.bookToken(doctor, random.nextInt(SLOTS),
+                            "P" + i, types[random.nextInt(types.length)]);
+                        if (booked.putIfAbsent(token.getId(), token) != null) {
+                            duplicates.add(token.getId());
+                        }
+                        recent.set(random.nextInt(recent.length()), token.getId());
+                    } else if (op < 85) {
+                        String id = recent.get(random.nextInt(recent.length()));
+                        if (id != null && manager.cancelToken(id) && !removed.add(id)) {
+                            duplicates.add(id);
+                        }
+                    } else if (op < 97) {
+                        String id = recent.get(random.nextInt(recent.length()));
+                        if (id != null && manager.markNoShow(id) && !removed.add(id)) {
+                            duplicates.add(id);
+                        }
+                    } else {
+                        manager.delaySlot(doctor, random.nextInt(SLOTS));
+                    }
+                }
+            });
+        }
+        runAll(work);
+
+        Assert.assertEquals("duplicate ids or double removals", Collections.emptySet(), duplicates);
+        Assert.assertTrue("something was removed", !removed.isEmpty());
+
+        Set<Token> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Doctor doctor : manager.getAllDoctors()) {
+            List<Slot> slots = doctor.getSlots();
+            for (int i = 0; i < slots.size(); i++) {
+                Slot slot = slots.get(i);
+                Assert.assertTrue("over capacity: " + slot, slot.getCurrentCount() <= slot.getCapacity());
+                for (Token t : slot) {
+                    assertLive(booked, removed, seen, t);
+                    TokenLocation location = manager.findToken(t.getId());
+                    Assert.assertTrue("index slot of " + t.getId(), location.getSlot() == slot);
+                    Assert.assertEquals("index slot number of " + t.getId(), i, location.getSlotIndex());
+                }
+            }
+            for (Token t : doctor.getWaitingList()) {
+                assertLive(booked, removed, seen, t);
+                Assert.assertTrue("indexed as waiting: " + t.getId(), manager.findToken(t.getId()).isInWaitingList());
+            }
+        }
+        for (String id : removed) {
+            Assert.assertNull("removed but still indexed: " + id, manager.findToken(id));
+        }
+        Assert.assertEquals("live tokens", booked.size() - removed.size(), seen.size());
+    }
+
+    private static void assertLive(Map<String, Token> booked, Set<String> removed, Set<Token> seen, Token t) {
+        Assert.assertTrue("booked: " + t.getId(), booked.get(t.getId()) == t);
+        Assert.assertFalse("already removed: " + t.getId(), removed.contains(t.getId()));
+        Assert.assertTrue("placed twice: " + t.getId(), seen.add(t));
+    }
+
+    public void testOnlyOneRemovalOfATokenWins() throws InterruptedException {
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tokens.add(manager.bookToken("D0", i % SLOTS, "P" + i, TokenType.WALKIN));
+        }
+        AtomicInteger wins = new AtomicInteger();
+        List<Runnable> work = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            boolean cancel = t % 2 == 0;
+            work.add(() -> {
+                for (Token token : tokens) {
+                    boolean done = cancel ? manager.cancelToken(token.getId()) : manager.markNoShow(token.getId());
+                    if (done) wins.incrementAndGet();
+                }
+            });
+        }
+        runAll(work);
+
+        Assert.assertEquals("one win per token", tokens.size(), wins.get());
+        for (Token token : tokens) {
+            Assert.assertNull("gone: " + token.getId(), manager.findToken(token.getId()));
+        }
+        Assert.assertFalse("cancel after removal", manager.cancelToken(tokens.get(0).getId()));
+    }
+
+    public void testConcurrentBookingsNeverShareAnId() throws InterruptedException {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        AtomicInteger clashes = new AtomicInteger();
+        List<Runnable> work = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String doctor = "D" + t;
+            work.add(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    Token token = manager.bookToken(doctor, i % SLOTS, "P" + i, TokenType.ONLINE);
+                    if (!ids.add(token.getId())) clashes.incrementAndGet();
+                }
+            });
+        }
+        runAll(work);
+        Assert.assertEquals("clashing ids", 0, clashes.get());
+        Assert.assertEquals(4_000, ids.size());
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Doctor versions and the JSON ApiServer caches per version: any change to a
+ * doctor gives a new version, the cached body is always the current one, and
+ * GET /doctors/{name} and GET /doctors answer 304 while the ETag still matches
+ */
+public class DoctorVersionTest implements AutoCloseable {
+    private final TokenManager manager = new TokenManager();
+    private final ApiServer api = new ApiServer(manager);
+    private final RawHttp http;
+
+    public DoctorVersionTest() throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            api.start(0);
+        } finally {
+            System.setOut(console);
+        }
+        http = new RawHttp(api.getPort());
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        http.close();
+        api.stop();
+    }
+
+    private static String freshJson(Doctor doctor) {
+        JsonWriter w = JsonWriter.acquire();
+        try {
+            synchronized (doctor) {
+                ApiServer.writeDoctor(w, doctor);
+            }
+            return new String(w.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            JsonWriter.release(w);
+        }
+    }
+
+    /**
+     * On a connection of its own: the JDK transport closes the connection after
+     * a response without a body
+     */
+    private RawHttp.Response getIfNoneMatch(String path, String etag) throws IOException {
+        try (RawHttp conditional = new RawHttp(api.getPort())) {
+            return conditional.exchange("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + etag + "\r\n\r\n");
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Versions and the cached body
+    // ═══════════════════════════════════════════════════════════
+
+    public void testEveryChangeRaisesTheVersion() {
+        Doctor doctor = manager.getDoctor("Sharma");
+        long v0 = doctor.getVersion();
+        Token token = manager.bookToken("Sharma", 0, "A", TokenType.ONLINE);
+        long v1 = doctor.getVersion();
+        Assert.assertTrue("booking", v1 > v0);
+        manager.delaySlot("Sharma", 0);
+        long v2 = doctor.getVersion();
+        Assert.assertTrue("delay", v2 > v1);
+        manager.cancelToken(token.getId());
+        long v3 = doctor.getVersion();
+        Assert.assertTrue("cancel", v3 > v2);
+        manager.addSlot("Sharma", "10:00 AM", "11:00 AM", 1);
+        Assert.assertTrue("new slot", doctor.getVersion() > v3);
+    }
+
+    public void testRefusedChangesKeepTheVersion() {
+        Doctor doctor = manager.getDoctor("Sharma");
+        long before = doctor.getVersion();
+        Assert.assertNull("unknown slot", manager.bookToken("Sharma", 4, "A", TokenType.ONLINE));
+        Assert.assertFalse("unknown token", manager.cancelToken("T-NOPE"));
+        manager.delaySlot("Sharma", 4);
+        Assert.assertEquals(before, doctor.getVersion());
+    }
+
+    public void testCachedBodyIsReusedUntilTheDoctorChanges() {
+        Doctor doctor = manager.getDoctor("Sharma");
+        byte[] first = api.doctorJson(doctor).json;
+        Assert.assertTrue("same body", api.doctorJson(doctor).json == first);
+
+        manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        ApiServer.DoctorJson fresh = api.doctorJson(doctor);
+        Assert.assertFalse("rebuilt", fresh.json == first);
+        Assert.assertEquals(doctor.getVersion(), fresh.version);
+        Assert.assertContains("new patient", new String(fresh.json, StandardCharsets.UTF_8), "Asha");
+    }
+
+    /**
+     * Random operations on generated days; after each one, every doctor whose
+     * JSON differs from before must have a higher version, and ApiServer's
+     * cached body must be the fresh one
+     */
+    public void testRandomChangesAlwaysShowInTheVersionAndTheCache() {
+        Random random = new Random(71);
+        for (int day = 0; day < 100; day++) {
+            DayGenerator generator = new DayGenerator(71 + day, 2, 1 + random.nextInt(6), 1 + random.nextInt(4));
+            generator.setFill(random.nextDouble());
+            TokenManager manager = generator.build();
+            ApiServer api = new ApiServer(manager);
+            List<String> ids = generator.shuffledIds(manager);
+            Map<Doctor, String> before = new HashMap<>();
+            Map<Doctor, Long> versions = new HashMap<>();
+            for (Doctor doctor : manager.getAllDoctors()) {
+                before.put(doctor, freshJson(doctor));
+                versions.put(doctor, doctor.getVersion());
+                api.doctorJson(doctor);
+            }
+            for (int op = 0; op < 40; op++) {
+                String name = generator.nextDoctor();
+                int roll = random.nextInt(12);
+                if (roll < 5 || ids.isEmpty()) {
+                    ids.add(manager.bookToken(name, generator.nextSlot(), generator.nextPatient(), generator.nextType()).getId());
+                } else if (roll < 7) {
+                    manager.cancelToken(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 8) {
+                    manager.markNoShow(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 9) {
+                    manager.delaySlot(name, generator.nextSlot());
+                } else if (roll < 10) {
+                    manager.rebalance(name);
+                } else if (roll < 11) {
+                    manager.addSlot(name, "8:00 PM", "9:00 PM", 1 + random.nextInt(3));
+                } else {
+                    List<BookingRequest> batch = new ArrayList<>();
+                    for (int i = 0; i < 3; i++) {
+                        batch.add(new BookingRequest(generator.nextDoctor(), generator.nextSlot(), generator.nextPatient(),
+                            generator.nextType()));
+                    }
+                    for (Token t : manager.bookTokens(batch)) ids.add(t.getId());
+                }
+                for (Doctor doctor : manager.getAllDoctors()) {
+                    String json = freshJson(doctor);
+                    String what = "day " + day + " op " + op + " " + doctor.getName();
+                    if (!json.equals(before.get(doctor))) {
+                        Assert.assertTrue(what + " changed but kept version " + doctor.getVersion(),
+                            doctor.getVersion() > versions.get(doctor));
+                    }
+                    Assert.assertEquals(what + " cached JSON", json,
+                        new String(api.doctorJson(doctor).json, StandardCharsets.UTF_8));
+                    before.put(doctor, json);
+                    versions.put(doctor, doctor.getVersion());
+                }
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // ETag over HTTP
+    // ═══════════════════════════════════════════════════════════
+
+    public void testDoctorIsNotResentWhileTheEtagMatches() throws IOException {
+        RawHttp.Response first = http.exchange(RawHttp.get("/doctors/Sharma"));
+        Assert.assertEquals(200, first.status);
+        String etag = first.header("ETag");
+        Assert.assertNotNull("ETag", etag);
+        Assert.assertEquals("no-cache", first.header("Cache-Control"));
+
+        RawHttp.Response again = getIfNoneMatch("/doctors/Sharma", etag);
+        Assert.assertEquals(304, again.status);
+        Assert.assertEquals("", again.body);
+        Assert.assertEquals("weak form", 304, getIfNoneMatch("/doctors/Sharma", "W/" + etag).status);
+        Assert.assertEquals("in a list", 304, getIfNoneMatch("/doctors/Sharma", "\"x\", " + etag).status);
+        Assert.assertEquals("any", 304, getIfNoneMatch("/doctors/Sharma", "*").status);
+
+        manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        RawHttp.Response changed = getIfNoneMatch("/doctors/Sharma", etag);
+        Assert.assertEquals(200, changed.status);
+        Assert.assertFalse("new ETag", etag.equals(changed.header("ETag")));
+        Assert.assertContains("new body", changed.body, "Asha");
+    }
+
+    public void testDoctorListEtagChangesWithAnyDoctor() throws IOException {
+        String etag = http.exchange(RawHttp.get("/doctors")).header("ETag");
+        Assert.assertEquals(304, getIfNoneMatch("/doctors", etag).status);
+
+        manager.addDoctor("Rao");
+        RawHttp.Response added = getIfNoneMatch("/doctors", etag);
+        Assert.assertEquals("new doctor", 200, added.status);
+        Assert.assertContains("listed", added.body, "Rao");
+
+        String next = added.header("ETag");
+        manager.addSlot("Rao", "9:00 AM", "10:00 AM", 1);
+        Assert.assertEquals("slot added", 200, getIfNoneMatch("/doctors", next).status);
+    }
+
+    public void testStaleOrForeignEtagGetsTheBody() throws IOException {
+        Assert.assertEquals(200, getIfNoneMatch("/doctors/Sharma", "\"stale\"").status);
+        Assert.assertEquals(404, getIfNoneMatch("/doctors/Nobody", "*").status);
+    }
+}
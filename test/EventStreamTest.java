@@ -0,0 +1,332 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * EventStream: a snapshot plus the frames after it give exactly the doctor,
+ * frames go only to their doctor's subscribers, and a subscriber a whole ring
+ * behind is sent "resync" without holding up bookings
+ */
+public class EventStreamTest {
+    private static final long WAIT_NANOS = 5_000_000_000L;
+
+    /**
+     * Thread-safe sink that keeps what was written
+     */
+    private static class Sink extends OutputStream {
+        private final ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        private volatile boolean closed;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            synchronized (kept) {
+                kept.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        String text() {
+            synchronized (kept) {
+                return kept.toString(StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * Wait until the frame with this id has been written
+         */
+        void awaitFrame(long id) throws InterruptedException {
+            long deadline = System.nanoTime() + WAIT_NANOS;
+            while (!text().contains("id: " + id + "\n") && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static TokenManager twoDoctors(EventStream events) {
+        TokenManager manager = new TokenManager();
+        manager.setChangeListener(events);
+        for (String name : new String[] {"Sharma", "Rao"}) {
+            manager.addDoctor(name);
+            manager.addSlot(name, "9:00 AM", "10:00 AM", 1);
+        }
+        return manager;
+    }
+
+    public void testFramesAreWrittenForTheirDoctorOnly() throws InterruptedException {
+        EventStream events = new EventStream();
+        TokenManager manager = twoDoctors(events);
+        Sink out = new Sink();
+        events.subscribe("Sharma").start(out, events.position());
+
+        long first = events.position();
+        manager.bookToken("Rao", 0, "Other", TokenType.ONLINE);
+        Token a = manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        Token b = manager.bookToken("Sharma", 0, "Ben", TokenType.EMERGENCY);
+        manager.cancelToken(b.getId());
+        long last = events.position() - 1;
+        out.awaitFrame(last);
+        events.close();
+
+        String text = out.text();
+        Assert.assertFalse("Rao's booking left out", text.contains("Other"));
+        Assert.assertContains("allocated", text, "id: " + (first + 1) + "\nevent: allocated\ndata: {\"token\": \""
+            + a.getId() + "\", \"patient\": \"Asha\", \"type\": \"ONLINE\", \"slot\": 0}\n\n");
+        Assert.assertContains("bumped", text, "event: bumped\ndata: {\"token\": \"" + a.getId() + "\", \"slot\": 0}\n\n");
+        Assert.assertContains("waiting", text, "event: waiting\ndata: {\"token\": \"" + a.getId() + "\"");
+        Assert.assertContains("cancelled", text, "event: cancelled\ndata: {\"token\": \"" + b.getId() + "\"}\n\n");
+    }
+
+    public void testCloseDisconnectsEverySubscriber() throws InterruptedException {
+        EventStream events = new EventStream();
+        Sink out = new Sink();
+        events.subscribe("Sharma").start(out, events.position());
+        EventStream.Subscriber idle = events.subscribe("Rao");
+        Assert.assertEquals(2, events.getSubscriberCount());
+
+        events.close();
+        long deadline = System.nanoTime() + WAIT_NANOS;
+        while (!out.closed && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue("connection closed", out.closed);
+        Assert.assertEquals(0, events.getSubscriberCount());
+        Assert.assertThrows(IllegalStateException.class, () -> events.subscribe("Sharma"));
+        idle.close();  // closing twice is harmless
+    }
+
+    public void testCanResumeOnlyWhileTheFramesAreInTheRing() {
+        EventStream events = new EventStream(4);
+        TokenManager manager = twoDoctors(events);
+        EventStream.Subscriber subscriber = events.subscribe("Sharma");
+        long from = events.position();
+        manager.bookToken("Sharma", 0, "A", TokenType.ONLINE);
+        manager.bookToken("Sharma", 0, "B", TokenType.ONLINE);
+        Assert.assertTrue("two frames back", events.canResume(from));
+        Assert.assertTrue("up to date", events.canResume(events.position()));
+        Assert.assertFalse("id 0", events.canResume(0));
+        Assert.assertFalse("from the future", events.canResume(events.position() + 1));
+
+        for (int i = 0; i < 4; i++) {
+            manager.bookToken("Rao", 0, "P" + i, TokenType.ONLINE);
+        }
+        Assert.assertFalse("lapped", events.canResume(from));
+        subscriber.close();
+        events.close();
+    }
+
+    /**
+     * A subscriber stuck in write() while the ring laps it must get "resync" and
+     * must not hold up bookings
+     */
+    public void testLappedSubscriberGetsResyncWithoutBlockingBookings() throws InterruptedException {
+        TokenManager manager = new DayGenerator(3, 1, 4, 1_000).build();
+        EventStream events = new EventStream(64);
+        manager.setChangeListener(events);
+        CountDownLatch release = new CountDownLatch(1);
+        Sink out = new Sink() {
+            @Override
+            public void write(byte[] b, int off, int len) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.write(b, off, len);
+            }
+        };
+        events.subscribe("Dr0").start(out, events.position());
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            manager.bookToken("Dr0", i % 4, "P" + i, TokenType.WALKIN);
+        }
+        long elapsed = System.nanoTime() - start;
+        release.countDown();
+        long deadline = System.nanoTime() + WAIT_NANOS;
+        while (events.getSubscriberCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals("resyncs", 1L, events.getResyncCount());
+        Assert.assertTrue("resync frame sent", out.text().endsWith("event: resync\ndata: {}\n\n"));
+        Assert.assertTrue("bookings not blocked: " + elapsed / 1_000_000 + " ms", elapsed < WAIT_NANOS);
+        events.close();
+    }
+
+    /**
+     * Subscribe to one doctor on a generated day, run random operations on it and
+     * on a second doctor, then replay the snapshot and frames onto a model and
+     * compare with the doctor
+     */
+    public void testSnapshotPlusFramesReplayToTheDoctor() throws IOException, InterruptedException {
+        Random random = new Random(61);
+        for (int day = 0; day < 100; day++) {
+            DayGenerator generator = new DayGenerator(61 + day, 2, 1 + random.nextInt(8), 1 + random.nextInt(4));
+            generator.setFill(random.nextDouble());
+            TokenManager manager = generator.build();
+            EventStream events = new EventStream();
+            manager.setChangeListener(events);
+            Doctor doctor = manager.getDoctor("Dr0");
+
+            EventStream.Subscriber subscriber = events.subscribe("Dr0");
+            long from;
+            String snapshot;
+            JsonWriter w = JsonWriter.acquire();
+            try {
+                synchronized (doctor) {
+                    from = events.position();
+                    ApiServer.writeDoctor(w, doctor);
+                }
+                ByteArrayOutputStream json = new ByteArrayOutputStream();
+                w.writeTo(json);
+                snapshot = json.toString(StandardCharsets.UTF_8);
+            } finally {
+                JsonWriter.release(w);
+            }
+            Sink out = new Sink();
+            subscriber.start(out, from);
+
+            List<String> ids = generator.shuffledIds(manager);
+            for (int op = 0; op < 60; op++) {
+                String name = random.nextInt(4) == 0 ? "Dr1" : "Dr0";
+                int roll = random.nextInt(10);
+                if (roll < 5 || ids.isEmpty()) {
+                    Token t = manager.bookToken(name, generator.nextSlot(), generator.nextPatient(), generator.nextType());
+                    ids.add(t.getId());
+                } else if (roll < 7) {
+                    manager.cancelToken(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 8) {
+                    manager.markNoShow(ids.get(random.nextInt(ids.size())));
+                } else if (roll < 9) {
+                    manager.delaySlot(name, generator.nextSlot());
+                } else {
+                    manager.rebalance(name);
+                }
+            }
+            // a last change on Dr0 marks the end of its frames
+            manager.bookToken("Dr0", 0, "Last", TokenType.ONLINE);
+            out.awaitFrame(events.position() - 1);
+            subscriber.close();
+            events.close();
+
+            Assert.assertEquals("day " + day, describeQueue(doctor), replay(snapshot, out.text()));
+        }
+    }
+
+    private static String describeQueue(Doctor doctor) {
+        Map<String, Integer> place = new HashMap<>();
+        for (int s = 0; s < doctor.getSlots().size(); s++) {
+            for (Token t : doctor.getSlot(s)) place.put(t.getId(), s);
+        }
+        for (Token t : doctor.getWaitingList()) place.put(t.getId(), -1);
+        return describe(place, doctor.getSlots().size());
+    }
+
+    /**
+     * Token id -> slot (-1 = waiting) from the snapshot, then each frame applied
+     */
+    private static String replay(String snapshotJson, String frames) throws IOException {
+        Map<String, Integer> place = new HashMap<>();
+        int slotCount = 0;
+        JsonReader reader = JsonReader.of(snapshotJson.getBytes(StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("slots")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (; reader.hasNext(); slotCount++) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!reader.nextName().equals("tokens")) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        place.put(frameFields(reader).get("id"), slotCount);
+                    }
+                    reader.endArray();
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+
+        for (String frame : frames.split("\n\n")) {
+            if (frame.isEmpty() || frame.startsWith(":")) continue;
+            String kind = null;
+            String data = null;
+            for (String line : frame.split("\n")) {
+                if (line.startsWith("event: ")) kind = line.substring(7);
+                if (line.startsWith("data: ")) data = line.substring(6);
+            }
+            Map<String, String> fields = frameFields(JsonReader.of(data.getBytes(StandardCharsets.UTF_8)));
+            String token = fields.get("token");
+            switch (kind) {
+                case "allocated":
+                    place.put(token, Integer.parseInt(fields.get("slot")));
+                    break;
+                case "waiting":
+                    place.put(token, -1);
+                    break;
+                case "bumped":
+                case "cancelled":
+                case "noshow":
+                    place.remove(token);
+                    break;
+                case "delayed":
+                    int slot = Integer.parseInt(fields.get("slot"));
+                    place.values().removeIf(s -> s == slot);
+                    break;
+                default:
+                    throw new AssertionError("Unexpected event " + kind);
+            }
+        }
+        return describe(place, slotCount);
+    }
+
+    /**
+     * One flat object as name -> value text
+     */
+    private static Map<String, String> frameFields(JsonReader reader) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            fields.put(name, reader.nextString());
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private static String describe(Map<String, Integer> place, int slotCount) {
+        StringBuilder sb = new StringBuilder();
+        for (int s = -1; s < slotCount; s++) {
+            List<String> ids = new ArrayList<>();
+            for (Map.Entry<String, Integer> e : place.entrySet()) {
+                if (e.getValue() == s) ids.add(e.getKey());
+            }
+            Collections.sort(ids);
+            sb.append(s < 0 ? "waiting" : "slot " + s).append(": ").append(ids).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,468 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * JsonReader: the request shapes the handlers read, skipping unknown fields
+ * of every kind, the bodies it must refuse, and random documents and damaged
+ * bodies (round-trip through JsonWriter, or a clean MalformedJsonException)
+ */
+public class JsonReaderTest {
+
+    /**
+     * Read a flat object the way the handlers do: known fields as strings, the rest skipped
+     */
+    private static Map<String, String> readFields(String json, String... known) throws IOException {
+        JsonReader reader = JsonReader.of(json.getBytes(StandardCharsets.UTF_8));
+        Map<String, String> fields = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (Arrays.asList(known).contains(name)) {
+                fields.put(name, reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        reader.endDocument();
+        return fields;
+    }
+
+    public void testReadsStringsNumbersAndLiterals() throws IOException {
+        Map<String, String> fields = readFields(
+            "{\"doctor\": \"A\", \"slot\": 3, \"vip\": true, \"note\": null, \"neg\": -1.5e3}",
+            "doctor", "slot", "vip", "note", "neg");
+        Assert.assertEquals("A", fields.get("doctor"));
+        Assert.assertEquals("3", fields.get("slot"));
+        Assert.assertEquals("true", fields.get("vip"));
+        Assert.assertNull("note", fields.get("note"));
+        Assert.assertEquals("-1.5e3", fields.get("neg"));
+    }
+
+    public void testNextIntTakesANumberOrANumericString() throws IOException {
+        JsonReader reader = JsonReader.of("[7, \"12\", \" 4 \"]".getBytes(StandardCharsets.UTF_8));
+        reader.beginArray();
+        Assert.assertEquals(7, reader.nextInt());
+        Assert.assertEquals(12, reader.nextInt());
+        Assert.assertEquals(4, reader.nextInt());
+        Assert.assertFalse("no more elements", reader.hasNext());
+        reader.endArray();
+    }
+
+    public void testSkipsNestedArrays() throws IOException {
+        Map<String, String> fields = readFields("{\"doctor\":\"A\",\"patient\":\"x\",\"tags\":[1,[2]]}",
+            "doctor", "patient");
+        Assert.assertEquals("A", fields.get("doctor"));
+        Assert.assertEquals("x", fields.get("patient"));
+    }
+
+    public void testSkipsDeeplyNestedArraysBetweenKnownFields() throws IOException {
+        Map<String, String> fields = readFields(
+            "{\"doctor\": \"A\", \"grid\": [[1, 2], [], [[3], [4, [5, 6]]], \"z\"], \"patient\": \"x\"}",
+            "doctor", "patient");
+        Assert.assertEquals("A", fields.get("doctor"));
+        Assert.assertEquals("x", fields.get("patient"));
+    }
+
+    public void testSkipsArraysOfObjects() throws IOException {
+        Map<String, String> fields = readFields(
+            "{\"history\": [{\"slot\": 1, \"tags\": [\"a\"]}, {}, {\"slot\": 2}], \"patient\": \"Ravi\"}",
+            "patient");
+        Assert.assertEquals("Ravi", fields.get("patient"));
+        Assert.assertEquals(1, fields.size());
+    }
+
+    public void testSkipsTrailingUnknownFields() throws IOException {
+        Map<String, String> fields = readFields(
+            "{\"doctor\": \"A\", \"extra\": {\"a\": [1, {\"b\": null}]}, \"more\": [true, false], \"last\": 1}",
+            "doctor");
+        Assert.assertEquals("A", fields.get("doctor"));
+        Assert.assertEquals(1, fields.size());
+    }
+
+    public void testSkipsAWholeTopLevelValue() throws IOException {
+        JsonReader reader = JsonReader.of("[{\"a\": [1, [2, {\"b\": 3}]]}, 4]".getBytes(StandardCharsets.UTF_8));
+        reader.skipValue();
+        reader.endDocument();
+    }
+
+    public void testPeekReportsTheNextValueType() throws IOException {
+        JsonReader reader = JsonReader.of("[{}, [], \"s\", 1, true, null]".getBytes(StandardCharsets.UTF_8));
+        reader.beginArray();
+        JsonReader.ValueType[] expected = {
+            JsonReader.ValueType.OBJECT, JsonReader.ValueType.ARRAY, JsonReader.ValueType.STRING,
+            JsonReader.ValueType.NUMBER, JsonReader.ValueType.BOOLEAN, JsonReader.ValueType.NULL,
+        };
+        for (JsonReader.ValueType type : expected) {
+            Assert.assertEquals(type, reader.peek());
+            reader.skipValue();
+        }
+        Assert.assertEquals(JsonReader.ValueType.END, reader.peek());
+        reader.endArray();
+    }
+
+    public void testDecodesEscapesAndSurrogatePairs() throws IOException {
+        Map<String, String> fields = readFields(
+            "{\"name\": \"Dr. \\\"Q\\\" \\u00e9\\n\\ud83d\\ude00 ok\"}", "name");
+        Assert.assertEquals("Dr. \"Q\" é\n😀 ok", fields.get("name"));
+    }
+
+    public void testReadsUtf8AcrossBufferRefills() throws IOException {
+        String name = "Ärztin-" + "ü".repeat(600);
+        Map<String, String> fields = readFields("{\"name\": \"" + name + "\"}", "name");
+        Assert.assertEquals(name, fields.get("name"));
+    }
+
+    public void testRejectsMissingComma() {
+        JsonReader.MalformedJsonException e = Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> readFields("{\"doctor\": \"A\" \"patient\": \"x\"}", "doctor", "patient"));
+        Assert.assertContains("message", e.getMessage(), "at byte");
+    }
+
+    public void testRejectsTrailingComma() {
+        Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> readFields("{\"tags\": [1, 2,]}", "doctor"));
+    }
+
+    public void testRejectsUnterminatedInput() {
+        Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> readFields("{\"tags\": [1, [2]", "doctor"));
+        Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> readFields("{\"doctor\": \"A", "doctor"));
+    }
+
+    public void testRejectsBadNumbersAndLiterals() {
+        Assert.assertThrows(JsonReader.MalformedJsonException.class, () -> readFields("{\"n\": 01}", "n"));
+        Assert.assertThrows(JsonReader.MalformedJsonException.class, () -> readFields("{\"n\": 1.}", "n"));
+        Assert.assertThrows(JsonReader.MalformedJsonException.class, () -> readFields("{\"n\": tru}", "n"));
+    }
+
+    public void testRejectsNonIntegerForNextInt() {
+        JsonReader.MalformedJsonException e = Assert.assertThrows(JsonReader.MalformedJsonException.class, () -> {
+            JsonReader reader = JsonReader.of("{\"slot\": \"two\"}".getBytes(StandardCharsets.UTF_8));
+            reader.beginObject();
+            reader.nextName();
+            reader.nextInt();
+        });
+        Assert.assertContains("message", e.getMessage(), "whole number");
+    }
+
+    public void testRejectsDataAfterTheDocument() {
+        Assert.assertThrows(JsonReader.MalformedJsonException.class, () -> readFields("{} {}"));
+    }
+
+    public void testRejectsNestingBeyondTheLimit() {
+        String deep = "[".repeat(40) + "]".repeat(40);
+        JsonReader.MalformedJsonException e = Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> JsonReader.of(deep.getBytes(StandardCharsets.UTF_8)).skipValue());
+        Assert.assertContains("message", e.getMessage(), "Nested too deeply");
+    }
+
+    public void testRefusesBodiesOverTheLimit() {
+        byte[] body = ("{\"name\": \"" + "x".repeat(2000) + "\"}").getBytes(StandardCharsets.UTF_8);
+        JsonReader.MalformedJsonException e = Assert.assertThrows(JsonReader.MalformedJsonException.class, () -> {
+            JsonReader reader = new JsonReader(new ByteArrayInputStream(body), 1024);
+            reader.beginObject();
+            reader.nextName();
+            reader.nextString();
+        });
+        Assert.assertContains("message", e.getMessage(), "larger than 1024");
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Request bodies
+    // ═══════════════════════════════════════════════════════════
+
+    private static JsonReader reader(String json) {
+        return JsonReader.of(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void testSlotRequestReadsItsFields() throws IOException {
+        SlotRequest slot = SlotRequest.read(reader("{\"start\": \"9:00 AM\", \"end\": \"10:00 AM\", \"capacity\": 5}"));
+        Assert.assertEquals("9:00 AM", slot.getStart());
+        Assert.assertEquals("10:00 AM", slot.getEnd());
+        Assert.assertEquals(5, slot.getCapacity());
+        Assert.assertEquals("default capacity", 5,
+            SlotRequest.read(reader("{\"start\": \"9:00 AM\", \"end\": \"10:00 AM\"}")).getCapacity());
+    }
+
+    public void testSlotRequestNeedsTimesAndAPositiveCapacity() {
+        Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> SlotRequest.read(reader("{\"start\": \"9:00 AM\"}")));
+        JsonReader.MalformedJsonException e = Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> SlotRequest.read(reader("{\"start\": \"9:00 AM\", \"end\": \"10:00 AM\", \"capacity\": 0}")));
+        Assert.assertContains("message", e.getMessage(), "capacity");
+    }
+
+    public void testBookingRequestDecodesEscapesAndSkipsExtras() throws IOException {
+        BookingRequest booking = BookingRequest.read(reader(
+            "{ \"doctor\":\"Dr, \\\"Jr\\\"\" , \"slot\":\"2\", \"extra\": {\"a\": [1, 2.5e3, true, null]}, " +
+            "\"patient\": \"Zo\\u00eb \\ud83d\\ude00\", \"type\": \"paid\"}"));
+        Assert.assertEquals("Dr, \"Jr\"", booking.getDoctor());
+        Assert.assertEquals(2, booking.getSlot());
+        Assert.assertEquals("Zoë 😀", booking.getPatient());
+        Assert.assertEquals(TokenType.PAID, booking.getType());
+        Assert.assertNull("no time", booking.getTime());
+    }
+
+    public void testBookingRequestDefaultsAndTime() throws IOException {
+        BookingRequest booking = BookingRequest.read(reader("{\"doctor\": \"A\", \"patient\": \"B\"}"));
+        Assert.assertEquals(TokenType.ONLINE, booking.getType());
+        Assert.assertEquals(0, booking.getSlot());
+        booking = BookingRequest.read(reader("{\"doctor\": \"A\", \"patient\": \"B\", \"time\": \"2:30 PM\"}"));
+        Assert.assertEquals(LocalTime.of(14, 30), booking.getTime());
+    }
+
+    public void testBookingRequestRefusesMissingOrBadFields() {
+        JsonReader.MalformedJsonException e = Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> BookingRequest.read(reader("{\"doctor\": \"A\"}")));
+        Assert.assertContains("message", e.getMessage(), "required");
+        e = Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> BookingRequest.read(reader("{\"doctor\": \"A\", \"patient\": \"B\", \"type\": \"VIP\"}")));
+        Assert.assertContains("message", e.getMessage(), "Unknown token type");
+        e = Assert.assertThrows(JsonReader.MalformedJsonException.class,
+            () -> BookingRequest.read(reader("{\"doctor\": \"A\", \"patient\": \"B\", \"time\": \"soon\"}")));
+        Assert.assertContains("message", e.getMessage(), "Not a time");
+    }
+
+    public void testDoctorRequestRefusesBadBodies() throws IOException {
+        Assert.assertEquals("Rao", DoctorRequest.read(reader("{\"id\": 4, \"name\": \"Rao\"}")).getName());
+        String[] bad = {"", "{", "{\"name\"}", "{\"name\": }", "{\"name\": \"x\",}", "{\"name\": \"x\" \"y\": 1}",
+            "{\"name\": \"a\\x\"}", "{\"name\": 01}", "{\"name\": \"x\"} {}", "{}", "{\"name\": \"\"}",
+            "{\"name\": \"\n\"}"};
+        for (String json : bad) {
+            Assert.assertThrows(JsonReader.MalformedJsonException.class, () -> {
+                JsonReader reader = reader(json);
+                DoctorRequest.read(reader);
+                reader.endDocument();
+            });
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Fuzzing
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * Random documents written with JsonWriter must read back as the same tree
+     */
+    public void testRandomDocumentsRoundTripThroughJsonWriter() throws IOException {
+        Random random = new Random(11);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 5_000; i++) {
+            Object value = randomJson(random, 0);
+            JsonWriter w = JsonWriter.acquire();
+            try {
+                writeValue(w, value);
+                out.reset();
+                w.writeTo(out);
+            } finally {
+                JsonWriter.release(w);
+            }
+            JsonReader reader = new JsonReader(new ByteArrayInputStream(out.toByteArray()), Integer.MAX_VALUE);
+            Object read = readValue(reader);
+            reader.endDocument();
+            Assert.assertEquals("document " + i, value, read);
+        }
+    }
+
+    /**
+     * Damaged bodies must either parse or fail with MalformedJsonException - nothing else
+     */
+    public void testDamagedBodiesParseOrFailCleanly() {
+        Random random = new Random(12);
+        String[] seeds = {
+            "{\"doctor\": \"Sharma\", \"slot\": 0, \"patient\": \"Priya\", \"type\": \"ONLINE\"}",
+            "{\"start\": \"9:00 AM\", \"end\": \"10:00 AM\", \"capacity\": 5}",
+            "{\"name\": \"Zo\\u00eb\", \"list\": [1, -2.5e+3, true, false, null, {\"x\": [\"\\ud83d\\ude00\"]}]}"
+        };
+        int parsed = 0;
+        int rejected = 0;
+        for (int i = 0; i < 50_000; i++) {
+            byte[] doc = damage(seeds[random.nextInt(seeds.length)].getBytes(StandardCharsets.UTF_8), random);
+            try {
+                JsonReader reader = new JsonReader(new ByteArrayInputStream(doc), 1024);
+                if (random.nextBoolean()) {
+                    readValue(reader);
+                } else {
+                    BookingRequest.read(reader);
+                }
+                reader.endDocument();
+                parsed++;
+            } catch (JsonReader.MalformedJsonException e) {
+                rejected++;
+            } catch (IOException | RuntimeException e) {
+                throw new AssertionError("Parser failed badly on: " + new String(doc, StandardCharsets.UTF_8), e);
+            }
+        }
+        Assert.assertTrue("some damaged bodies still parse: " + parsed, parsed > 0);
+        Assert.assertTrue("most are rejected: " + rejected, rejected > parsed);
+    }
+
+    /**
+     * One to three random byte changes, truncations, insertions or deletions
+     */
+    private static byte[] damage(byte[] doc, Random random) {
+        int edits = 1 + random.nextInt(3);
+        for (int e = 0; e < edits && doc.length > 0; e++) {
+            int at = random.nextInt(doc.length);
+            switch (random.nextInt(4)) {
+                case 0:
+                    doc[at] = (byte) random.nextInt(256);
+                    break;
+                case 1:
+                    doc = Arrays.copyOf(doc, at);
+                    break;
+                case 2: {
+                    byte[] longer = new byte[doc.length + 1];
+                    System.arraycopy(doc, 0, longer, 0, at);
+                    String inserts = "{}[]\",:\\ 0-eu";
+                    longer[at] = (byte) inserts.charAt(random.nextInt(inserts.length()));
+                    System.arraycopy(doc, at, longer, at + 1, doc.length - at);
+                    doc = longer;
+                    break;
+                }
+                default: {
+                    byte[] shorter = new byte[doc.length - 1];
+                    System.arraycopy(doc, 0, shorter, 0, at);
+                    System.arraycopy(doc, at + 1, shorter, at, doc.length - at - 1);
+                    doc = shorter;
+                }
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Numbers and booleans in a fuzzed tree (strings are plain Strings)
+     */
+    private static class JsonLiteral {
+        final String text;
+
+        JsonLiteral(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof JsonLiteral && ((JsonLiteral) o).text.equals(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static Object randomJson(Random random, int depth) {
+        int kind = random.nextInt(depth >= 4 ? 4 : 6);
+        switch (kind) {
+            case 0: return randomString(random);
+            case 1: return new JsonLiteral(random.nextBoolean() ? Long.toString(random.nextLong() >> random.nextInt(64))
+                : (random.nextInt(2000) - 1000) + "." + random.nextInt(1000) + "e" + (random.nextInt(20) - 10));
+            case 2: return new JsonLiteral(random.nextBoolean() ? "true" : "false");
+            case 3: return null;
+            case 4: {
+                Map<String, Object> map = new LinkedHashMap<>();
+                int n = random.nextInt(5);
+                for (int i = 0; i < n; i++) map.put(randomString(random), randomJson(random, depth + 1));
+                return map;
+            }
+            default: {
+                List<Object> list = new ArrayList<>();
+                int n = random.nextInt(5);
+                for (int i = 0; i < n; i++) list.add(randomJson(random, depth + 1));
+                return list;
+            }
+        }
+    }
+
+    private static String randomString(Random random) {
+        String alphabet = "aZ09 :,{}[]\"\\/\n\t\u0001\u007f\u00e9\u20ac\u2028\uffff";
+        StringBuilder sb = new StringBuilder();
+        int n = random.nextInt(12);
+        for (int i = 0; i < n; i++) {
+            if (random.nextInt(10) == 0) {
+                sb.appendCodePoint(0x1F600 + random.nextInt(50));  // surrogate pair
+            } else {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(JsonWriter w, Object value) {
+        if (value == null) {
+            w.ascii("null");
+        } else if (value instanceof String) {
+            w.string((String) value);
+        } else if (value instanceof JsonLiteral) {
+            w.ascii(((JsonLiteral) value).text);
+        } else if (value instanceof Map) {
+            w.ascii("{");
+            boolean first = true;
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                if (!first) w.ascii(", ");
+                w.string(e.getKey()).ascii(": ");
+                writeValue(w, e.getValue());
+                first = false;
+            }
+            w.ascii("}");
+        } else {
+            w.ascii("[");
+            boolean first = true;
+            for (Object item : (List<Object>) value) {
+                if (!first) w.ascii(",");
+                writeValue(w, item);
+                first = false;
+            }
+            w.ascii("]");
+        }
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case OBJECT: {
+                Map<String, Object> map = new LinkedHashMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    map.put(name, readValue(reader));
+                }
+                reader.endObject();
+                return map;
+            }
+            case ARRAY: {
+                List<Object> list = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    list.add(readValue(reader));
+                }
+                reader.endArray();
+                return list;
+            }
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+            case BOOLEAN:
+                return new JsonLiteral(reader.nextString());
+            default:
+                return reader.nextString();  // null, or fails at a closing bracket / end of input
+        }
+    }
+}
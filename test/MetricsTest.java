@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Histogram quantiles against exact ones, and the counters Metrics writes
+ * out for GET /metrics
+ */
+public class MetricsTest {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+
+    // ═══════════════════════════════════════════════════════════
+    // Histogram
+    // ═══════════════════════════════════════════════════════════
+
+    public void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (long v = 0; v < 8; v++) {
+            histogram.record(v);
+        }
+        Assert.assertEquals(8L, histogram.getCount());
+        Assert.assertEquals(28L, histogram.getSum());
+        long[] values = histogram.quantiles(0.125, 0.5, 0.75, 1.0);
+        Assert.assertEquals("0.125", 0L, values[0]);
+        Assert.assertEquals("median", 3L, values[1]);
+        Assert.assertEquals("0.75", 5L, values[2]);
+        Assert.assertEquals("max", 7L, values[3]);
+    }
+
+    public void testEmptyHistogramReportsZero() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0L, histogram.getCount());
+        Assert.assertEquals(0L, histogram.getSum());
+        long[] values = histogram.quantiles(0.5, 1.0);
+        Assert.assertEquals(0L, values[0]);
+        Assert.assertEquals(0L, values[1]);
+    }
+
+    public void testNegativeValuesCountAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        Assert.assertEquals(1L, histogram.getCount());
+        Assert.assertEquals(0L, histogram.getSum());
+        Assert.assertEquals(0L, histogram.quantiles(1.0)[0]);
+    }
+
+    public void testValuesPastTheLastBucketAreStillCounted() {
+        Histogram histogram = new Histogram();
+        histogram.record(1L << 50);
+        histogram.record(Long.MAX_VALUE / 2);
+        Assert.assertEquals(2L, histogram.getCount());
+        Assert.assertEquals((1L << 50) + Long.MAX_VALUE / 2, histogram.getSum());
+        Assert.assertTrue("top bucket past 2^41", histogram.quantiles(1.0)[0] >= (1L << 41) - 1);
+    }
+
+    /**
+     * Log-uniform values from 1 ns to about 1 s with exact small values mixed
+     * in: every reported quantile is the exact one or at most one eighth above
+     */
+    public void testRandomQuantilesAreWithinOneBucketOfTheExactOnes() {
+        Random random = new Random(17);
+        for (int run = 0; run < 20; run++) {
+            int count = 1 + random.nextInt(100_000);
+            long[] values = new long[count];
+            long sum = 0;
+            Histogram histogram = new Histogram();
+            for (int i = 0; i < count; i++) {
+                values[i] = random.nextInt(10) == 0 ? random.nextInt(8) : (long) Math.exp(random.nextDouble() * 21);
+                histogram.record(values[i]);
+                sum += values[i];
+            }
+            Arrays.sort(values);
+            Assert.assertEquals("run " + run + " count", (long) count, histogram.getCount());
+            Assert.assertEquals("run " + run + " sum", sum, histogram.getSum());
+
+            long[] reported = histogram.quantiles(QUANTILES);
+            for (int q = 0; q < QUANTILES.length; q++) {
+                long exact = values[(int) Math.max(0, Math.ceil(QUANTILES[q] * count) - 1)];
+                String what = "run " + run + " quantile " + QUANTILES[q] + " of " + count + ": exact " + exact
+                    + ", reported " + reported[q];
+                Assert.assertTrue(what, reported[q] >= exact && reported[q] <= exact + exact / 8);
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Metrics
+    // ═══════════════════════════════════════════════════════════
+
+    public void testHttpStatusesAreCountedPerCode() {
+        Metrics metrics = new Metrics();
+        metrics.recordHttp(200, 1_000);
+        metrics.recordHttp(200, 2_000);
+        metrics.recordHttp(404, 3_000);
+        metrics.recordHttp(-1, 4_000);  // closed without a response
+        Assert.assertEquals(2L, metrics.getHttpCount(200));
+        Assert.assertEquals(1L, metrics.getHttpCount(404));
+        Assert.assertEquals(0L, metrics.getHttpCount(500));
+
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out, new TokenManager());
+        String text = out.toString();
+        Assert.assertContains("200s", text, "opd_http_responses_total{code=\"200\"} 2\n");
+        Assert.assertContains("404s", text, "opd_http_responses_total{code=\"404\"} 1\n");
+        Assert.assertFalse("unused codes left out", text.contains("code=\"500\""));
+        Assert.assertContains("every response timed", text, "opd_http_request_seconds_count 4\n");
+    }
+
+    public void testBookingsShowInTheExposition() {
+        TokenManager manager = new TokenManager();
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 2);
+        manager.bookToken("Sharma", 0, "A", TokenType.ONLINE);
+        manager.bookToken("Sharma", 0, "B", TokenType.ONLINE);
+        manager.bookToken("Sharma", 0, "C", TokenType.EMERGENCY);
+
+        StringBuilder out = new StringBuilder();
+        manager.getMetrics().writePrometheus(out, manager);
+        String text = out.toString();
+        Assert.assertContains("type line", text, "# TYPE opd_operation_seconds summary\n");
+        Assert.assertContains("bookings timed", text, "opd_operation_seconds_count{op=\"book\"} 3\n");
+        Assert.assertContains("no cancels", text, "opd_operation_seconds_count{op=\"cancel\"} 0\n");
+        Assert.assertContains("no cancel quantiles", text, "opd_operation_seconds{op=\"cancel\",quantile=\"0.5\"} NaN\n");
+        Assert.assertContains("one bump", text, "opd_bumps_total 1\n");
+        Assert.assertContains("one chain per booking", text, "opd_bump_cascade_length_count 3\n");
+        Assert.assertContains("bumped one waits", text, "opd_waiting_listed_total 1\n");
+        Assert.assertContains("depth", text, "opd_waiting_list_depth{doctor=\"Sharma\"} 1\n");
+        Assert.assertContains("utilization", text, "opd_slot_utilization{doctor=\"Sharma\"} 1\n");
+    }
+
+    public void testDoctorLabelsAreEscaped() {
+        TokenManager manager = new TokenManager();
+        manager.addDoctor("Dr \"Q\\\"");
+        StringBuilder out = new StringBuilder();
+        manager.getMetrics().writePrometheus(out, manager);
+        Assert.assertContains("escaped", out.toString(), "opd_waiting_list_depth{doctor=\"Dr \\\"Q\\\\\\\"\"} 0\n");
+        Assert.assertContains("no seats", out.toString(), "opd_slot_utilization{doctor=\"Dr \\\"Q\\\\\\\"\"} 0\n");
+    }
+}
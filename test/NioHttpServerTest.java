@@ -0,0 +1,357 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ApiServer on the nio transport, driven over raw sockets: keep-alive,
+ * pipelining (in one write, byte by byte and across the 16 KB read buffer),
+ * the requests it must refuse, and filters
+ */
+public class NioHttpServerTest implements AutoCloseable {
+    private final TokenManager manager = new TokenManager();
+    private final ApiServer api = new ApiServer(manager);
+    private final int port;
+
+    public NioHttpServerTest() throws IOException {
+        api.setTransport(ApiServer.Transport.NIO);
+        api.setExecutorKind(ApiServer.ExecutorKind.PLATFORM);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            api.start(0);
+        } finally {
+            System.setOut(console);
+        }
+        port = api.getPort();
+    }
+
+    @Override
+    public void close() {
+        api.stop();
+    }
+
+    public void testPipelinedGetThenPostInOneWrite() throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            http.send(RawHttp.get("/doctors") + RawHttp.post("/doctors", "{\"name\": \"Pipe\"}"));
+            RawHttp.Response first = http.read();
+            RawHttp.Response second = http.read();
+            Assert.assertEquals("GET /doctors", 200, first.status);
+            Assert.assertContains("GET /doctors", first.body, "\"doctors\"");
+            Assert.assertEquals("POST /doctors", 200, second.status);
+            Assert.assertContains("POST /doctors", second.body, "Doctor Pipe added");
+        }
+        Assert.assertNotNull("doctor registered", manager.getDoctor("Pipe"));
+    }
+
+    public void testManyPipelinedRequestsAnsweredInOrder() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            requests.append(RawHttp.post("/doctors", "{\"name\": \"D" + i + "\"}"));
+            requests.append(RawHttp.get("/doctors/D" + i));
+        }
+        requests.append(RawHttp.get("/no/such/path"));
+        try (RawHttp http = new RawHttp(port)) {
+            http.send(requests.toString());
+            for (int i = 0; i < 10; i++) {
+                Assert.assertContains("POST D" + i, http.read().body, "Doctor D" + i + " added");
+                RawHttp.Response doctor = http.read();
+                Assert.assertEquals("GET D" + i, 200, doctor.status);
+                Assert.assertContains("GET D" + i, doctor.body, "\"name\": \"D" + i + "\"");
+            }
+            Assert.assertEquals("unknown path", 404, http.read().status);
+        }
+    }
+
+    public void testKeepAliveServesRequestsOneAfterAnother() throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            for (int i = 0; i < 5; i++) {
+                http.send(RawHttp.post("/doctors", "{\"name\": \"K" + i + "\"}"));
+                RawHttp.Response response = http.read();
+                Assert.assertEquals("request " + i, 200, response.status);
+                Assert.assertNull("no Connection: close", response.header("Connection"));
+            }
+        }
+        Assert.assertEquals(5, manager.getAllDoctors().size());
+    }
+
+    /**
+     * Padded requests whose heads and bodies straddle the end of the read
+     * buffer, all sent in one write and then again in odd-sized pieces
+     */
+    public void testPipelinedRequestsAcrossTheBufferBoundary() throws IOException {
+        for (int pieceSize : new int[] {0, 1000, 7}) {
+            List<String> names = new ArrayList<>();
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; requests.length() < 3 * NioHttpServer.BUFFER_SIZE; i++) {
+                String name = "B" + pieceSize + "-" + i;
+                names.add(name);
+                String pad = "x".repeat(900 + 137 * i % 700);
+                String body = "{\"name\": \"" + name + "\", \"note\": \"" + pad + "\"}";
+                requests.append("POST /doctors HTTP/1.1\r\nHost: localhost\r\nX-Pad: ").append(pad)
+                    .append("\r\nContent-Length: ").append(body.length()).append("\r\n\r\n").append(body);
+            }
+            try (RawHttp http = new RawHttp(port)) {
+                byte[] bytes = requests.toString().getBytes(StandardCharsets.US_ASCII);
+                if (pieceSize == 0) {
+                    http.send(bytes);
+                } else {
+                    for (int from = 0; from < bytes.length; from += pieceSize) {
+                        http.send(java.util.Arrays.copyOfRange(bytes, from, Math.min(bytes.length, from + pieceSize)));
+                    }
+                }
+                for (String name : names) {
+                    RawHttp.Response response = http.read();
+                    Assert.assertEquals(name, 200, response.status);
+                    Assert.assertContains(name, response.body, "Doctor " + name + " added");
+                }
+            }
+            for (String name : names) {
+                Assert.assertNotNull(name + " registered", manager.getDoctor(name));
+            }
+        }
+    }
+
+    public void testBodyLargerThanTheReadBuffer() throws IOException {
+        String pad = "y".repeat(3 * NioHttpServer.BUFFER_SIZE);
+        try (RawHttp http = new RawHttp(port)) {
+            http.send(RawHttp.get("/doctors") + RawHttp.post("/doctors", "{\"name\": \"Big\", \"note\": \"" + pad + "\"}")
+                + RawHttp.get("/doctors/Big"));
+            Assert.assertEquals(200, http.read().status);
+            Assert.assertContains("big body", http.read().body, "Doctor Big added");
+            Assert.assertEquals("after the big body", 200, http.read().status);
+        }
+    }
+
+    public void testConnectionCloseIsHonoured() throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            http.send("GET /doctors HTTP/1.1\r\nConnection: close\r\n\r\n");
+            RawHttp.Response response = http.read();
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("close", response.header("Connection"));
+            Assert.assertTrue("closed after the response", http.isClosedByServer());
+        }
+    }
+
+    public void testHttp10ClosesWithoutKeepAlive() throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            http.send("GET /doctors HTTP/1.0\r\n\r\n");
+            Assert.assertEquals(200, http.read().status);
+            Assert.assertTrue("closed after the response", http.isClosedByServer());
+        }
+    }
+
+    public void testMalformedRequestLineGets400AndClose() throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            http.send("NONSENSE\r\n\r\n");
+            RawHttp.Response response = http.read();
+            Assert.assertEquals(400, response.status);
+            Assert.assertTrue("closed", http.isClosedByServer());
+        }
+    }
+
+    public void testChunkedRequestBodyGets501() throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            http.send("POST /doctors HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n");
+            Assert.assertEquals(501, http.read().status);
+        }
+    }
+
+    public void testOversizedRequestGets413() throws IOException {
+        try (RawHttp http = new RawHttp(port)) {
+            http.send("POST /doctors HTTP/1.1\r\nContent-Length: " + (2 * NioHttpServer.MAX_REQUEST) + "\r\n\r\n");
+            Assert.assertEquals(413, http.read().status);
+        }
+    }
+
+    public void testStreamedResponseIsChunked() throws IOException {
+        for (int i = 0; i < 300; i++) {
+            manager.addDoctor("S" + i).addSlot("9:00 AM", "10:00 AM", 5);
+        }
+        try (RawHttp http = new RawHttp(port)) {
+            http.send(RawHttp.get("/doctors") + RawHttp.get("/doctors/S7"));
+            RawHttp.Response all = http.read();
+            Assert.assertEquals("chunked", all.header("Transfer-Encoding"));
+            Assert.assertTrue("larger than one buffer", all.body.length() > NioHttpServer.BUFFER_SIZE);
+            Assert.assertTrue("complete JSON", all.body.endsWith("]}"));
+            Assert.assertContains("next response", http.read().body, "\"name\": \"S7\"");
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Filters
+    // ═══════════════════════════════════════════════════════════
+
+    /**
+     * A second server on the nio transport with these filters
+     */
+    private ApiServer filtered(Filter... filters) throws IOException {
+        ApiServer server = new ApiServer(manager);
+        server.setTransport(ApiServer.Transport.NIO);
+        server.setExecutorKind(ApiServer.ExecutorKind.PLATFORM);
+        for (Filter filter : filters) {
+            server.addFilter(filter);
+        }
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            server.start(0);
+        } finally {
+            System.setOut(console);
+        }
+        return server;
+    }
+
+    private static Filter filter(String name, List<String> trace) {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                trace.add(name + ">");
+                exchange.getResponseHeaders().add("X-Filter-" + name, "ran");
+                chain.doFilter(exchange);
+                trace.add("<" + name);
+            }
+
+            @Override
+            public String description() {
+                return name;
+            }
+        };
+    }
+
+    public void testFiltersRunInOrderAroundTheHandler() throws IOException, InterruptedException {
+        List<String> trace = new CopyOnWriteArrayList<>();
+        ApiServer server = filtered(filter("a", trace), filter("b", trace));
+        try (RawHttp http = new RawHttp(server.getPort())) {
+            RawHttp.Response response = http.exchange(RawHttp.post("/doctors", "{\"name\": \"F\"}"));
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("ran", response.header("X-Filter-a"));
+            Assert.assertEquals("ran", response.header("X-Filter-b"));
+            // the response is out before the filters unwind on the worker thread
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (trace.size() < 4 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(List.of("a>", "b>", "<b", "<a"), trace);
+            Assert.assertNotNull("handler ran", manager.getDoctor("F"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    public void testFilterCanAnswerWithoutTheHandler() throws IOException {
+        ApiServer server = filtered(new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (exchange.getRequestHeaders().getFirst("X-Key") == null) {
+                    exchange.sendResponseHeaders(401, -1);
+                    exchange.close();
+                    return;
+                }
+                chain.doFilter(exchange);
+            }
+
+            @Override
+            public String description() {
+                return "key required";
+            }
+        });
+        try (RawHttp http = new RawHttp(server.getPort())) {
+            RawHttp.Response refused = http.exchange(RawHttp.post("/doctors", "{\"name\": \"Nope\"}"));
+            Assert.assertEquals(401, refused.status);
+            Assert.assertNull("handler not run", manager.getDoctor("Nope"));
+
+            http.send("GET /doctors HTTP/1.1\r\nX-Key: yes\r\n\r\n");
+            Assert.assertEquals("same connection, with the key", 200, http.read().status);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * A filter wraps both streams before the handler sends anything: the
+     * handler reads and writes through the wrappers, fixed-length and chunked
+     */
+    public void testFilterWrapsRequestAndResponseStreams() throws IOException {
+        ByteArrayOutputStream seen = new ByteArrayOutputStream();
+        ApiServer server = filtered(new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                InputStream in = new FilterInputStream(exchange.getRequestBody()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b >= 0) seen.write(b);
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = super.read(b, off, len);
+                        if (n > 0) seen.write(b, off, n);
+                        return n;
+                    }
+                };
+                OutputStream out = new FilterOutputStream(exchange.getResponseBody()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        super.write(Character.toUpperCase(b));
+                    }
+                };
+                exchange.setStreams(in, out);
+                chain.doFilter(exchange);
+            }
+
+            @Override
+            public String description() {
+                return "upper case";
+            }
+        });
+        for (int i = 0; i < 300; i++) {
+            manager.addDoctor("w" + i).addSlot("9:00 AM", "10:00 AM", 5);
+        }
+        String json = "{\"name\": \"quiet\"}";
+        try (RawHttp http = new RawHttp(server.getPort())) {
+            RawHttp.Response added = http.exchange(RawHttp.post("/doctors", json));
+            Assert.assertEquals(200, added.status);
+            Assert.assertContains("through the wrapper", added.body, "DOCTOR QUIET ADDED");
+            Assert.assertEquals(json, seen.toString(StandardCharsets.UTF_8));
+
+            RawHttp.Response all = http.exchange(RawHttp.get("/doctors"));
+            Assert.assertEquals("chunked", all.header("Transfer-Encoding"));
+            Assert.assertTrue("complete", all.body.endsWith("]}"));
+            Assert.assertContains("chunked through the wrapper", all.body, "\"NAME\": \"W299\"");
+        } finally {
+            server.stop();
+        }
+    }
+
+    public void testFailingFilterClosesTheConnection() throws IOException {
+        ApiServer server = filtered(new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                throw new IOException("refused");
+            }
+
+            @Override
+            public String description() {
+                return "always fails";
+            }
+        });
+        try (RawHttp http = new RawHttp(server.getPort())) {
+            http.send(RawHttp.get("/doctors"));
+            Assert.assertTrue("dropped", http.isClosedByServer());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * OpdCalendar: routing by doctor and date, the booking horizon, cancel by id
+ * and archiving past days
+ */
+public class OpdCalendarTest implements AutoCloseable {
+    private final Path dir;
+    private final SettableClock clock = new SettableClock(LocalDate.of(2026, 3, 1));
+    private final OpdCalendar calendar;
+    private final LocalDate today;
+
+    public OpdCalendarTest() throws IOException {
+        dir = Files.createTempDirectory("opd-calendar-test");
+        calendar = new OpdCalendar(clock, 30, dir);
+        calendar.addDoctor("Cardiology", "Patel");
+        calendar.addDoctor("Ortho", "Gupta");
+        calendar.addSlot("Patel", "9:00 AM", "10:00 AM", 2);
+        calendar.addSlot("Gupta", "9:00 AM", "10:00 AM", 2);
+        today = calendar.today();
+    }
+
+    @Override
+    public void close() throws IOException {
+        calendar.close();
+        try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Clock the tests move forward a day at a time
+     */
+    private static class SettableClock extends Clock {
+        private volatile Instant now;
+
+        SettableClock(LocalDate date) {
+            now = date.atStartOfDay(ZoneOffset.UTC).plusHours(12).toInstant();
+        }
+
+        void advanceDays(int days) {
+            now = now.plus(Duration.ofDays(days));
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private static String patients(Doctor doctor) {
+        StringBuilder sb = new StringBuilder();
+        for (Slot slot : doctor.getSlots()) {
+            sb.append('[');
+            for (Token t : slot) sb.append(t.getPatientName());
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Routing
+    // ═══════════════════════════════════════════════════════════
+
+    public void testBookingsLandInTheirDepartmentsDay() {
+        calendar.bookToken("Patel", today, 0, "A", TokenType.WALKIN);
+        calendar.bookToken("Patel", today.plusDays(30), 0, "B", TokenType.WALKIN);
+        calendar.bookToken("Gupta", today, 0, "C", TokenType.PAID);
+
+        Assert.assertEquals(3, calendar.getShardCount());
+        Assert.assertEquals("[A]", patients(calendar.getDoctor("Patel", today)));
+        Assert.assertEquals("[B]", patients(calendar.getDoctor("Patel", today.plusDays(30))));
+        Assert.assertEquals("[C]", patients(calendar.getShard("Ortho", today).getDoctor("Gupta")));
+        Assert.assertNull("no day opened", calendar.getDoctor("Patel", today.plusDays(1)));
+    }
+
+    public void testDatesOutsideTheHorizonAndUnknownDoctorsAreRefused() {
+        Assert.assertNull("yesterday", calendar.bookToken("Patel", today.minusDays(1), 0, "A", TokenType.WALKIN));
+        Assert.assertNull("past horizon", calendar.bookToken("Patel", today.plusDays(31), 0, "A", TokenType.WALKIN));
+        Assert.assertNull("unknown doctor", calendar.bookToken("Nobody", today, 0, "A", TokenType.WALKIN));
+        Assert.assertNull("unknown slot", calendar.bookToken("Patel", today, 5, "A", TokenType.WALKIN));
+        Assert.assertFalse("delay unknown slot", calendar.delaySlot("Patel", today, 5));
+        Assert.assertEquals("only the unknown slot opened a day", 1, calendar.getShardCount());
+    }
+
+    /**
+     * addDoctor names the doctor in the directory before adding it to the days
+     * already open; a delay in between finds no doctor and must say so
+     */
+    public void testDelayWhileADoctorIsBeingAddedToOpenDays() throws InterruptedException {
+        calendar.bookToken("Patel", today, 0, "A", TokenType.WALKIN);
+        int doctors = 2_000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread delays = new Thread(() -> {
+            try {
+                for (int i = 0; i < doctors; i++) {
+                    while (calendar.getDepartment("New" + i) == null) Thread.onSpinWait();
+                    calendar.delaySlot("New" + i, today, 0);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        delays.start();
+        for (int i = 0; i < doctors; i++) {
+            calendar.addDoctor("Cardiology", "New" + i);
+        }
+        delays.join();
+        Assert.assertNull("delay failed", failure.get());
+        Assert.assertFalse("no slots", calendar.delaySlot("New0", today, 0));
+    }
+
+    public void testDoctorNamesAreUniqueAcrossDepartments() {
+        Assert.assertFalse("taken", calendar.addDoctor("Ortho", "Patel"));
+        Assert.assertEquals("Cardiology", calendar.getDepartment("Patel"));
+        Assert.assertFalse("unknown doctor", calendar.addSlot("Nobody", "9:00 AM", "10:00 AM", 1));
+    }
+
+    public void testSlotAddedLaterReachesOpenDays() {
+        calendar.bookToken("Patel", today, 0, "A", TokenType.WALKIN);
+        calendar.addSlot("Patel", "10:00 AM", "11:00 AM", 2);
+        Assert.assertEquals(2, calendar.getDoctor("Patel", today).getSlots().size());
+        calendar.bookToken("Patel", today.plusDays(3), 0, "B", TokenType.WALKIN);
+        Assert.assertEquals("new day from the plan", 2, calendar.getDoctor("Patel", today.plusDays(3)).getSlots().size());
+    }
+
+    public void testEarliestAvailableOpensTheDay() {
+        Assert.assertTrue("Patel free", calendar.findEarliestAvailable("Cardiology", today, 9 * 60)
+            == calendar.getShard("Cardiology", today).getDoctor("Patel"));
+        Assert.assertNull("after the last slot", calendar.findEarliestAvailable("Cardiology", today, 11 * 60));
+        Assert.assertNull("outside the horizon", calendar.findEarliestAvailable("Cardiology", today.plusDays(31), 9 * 60));
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // By token id
+    // ═══════════════════════════════════════════════════════════
+
+    public void testCancelAndNoShowByIdFindTheShard() {
+        Token a = calendar.bookToken("Patel", today.plusDays(7), 0, "A", TokenType.WALKIN);
+        Token b = calendar.bookToken("Gupta", today.plusDays(7), 0, "B", TokenType.WALKIN);
+        calendar.bookToken("Patel", today, 0, "C", TokenType.WALKIN);
+
+        Assert.assertTrue("shard of a", calendar.findShard(a.getId()) == calendar.getShard("Cardiology", today.plusDays(7)));
+        Assert.assertTrue("shard of b", calendar.findShard(b.getId()) == calendar.getShard("Ortho", today.plusDays(7)));
+        Assert.assertEquals(0, calendar.findToken(a.getId()).getSlotIndex());
+
+        Assert.assertTrue("cancel by id", calendar.cancelToken(a.getId()));
+        Assert.assertFalse("cancel twice", calendar.cancelToken(a.getId()));
+        Assert.assertNull("forgotten", calendar.findShard(a.getId()));
+        Assert.assertTrue("no-show by id", calendar.markNoShow(b.getId()));
+        Assert.assertFalse("unknown id", calendar.cancelToken("T-NOPE"));
+        Assert.assertEquals("[C]", patients(calendar.getDoctor("Patel", today)));
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Archiving
+    // ═══════════════════════════════════════════════════════════
+
+    public void testArchivedDayLoadsBackUnchanged() throws IOException {
+        Token a = calendar.bookToken("Patel", today, 0, "A", TokenType.WALKIN);
+        calendar.bookToken("Patel", today, 0, "B", TokenType.EMERGENCY);
+        calendar.bookToken("Gupta", today, 0, "C", TokenType.PAID);
+        calendar.bookToken("Patel", today.plusDays(1), 0, "D", TokenType.ONLINE);
+        String before = patients(calendar.getDoctor("Patel", today));
+
+        clock.advanceDays(1);
+        Assert.assertEquals("archived", 2, calendar.archivePastDays());
+        Assert.assertEquals("tomorrow still open", 1, calendar.getShardCount());
+        Assert.assertNull("archived token", calendar.findToken(a.getId()));
+        Assert.assertFalse("archived token can't be cancelled", calendar.cancelToken(a.getId()));
+        Assert.assertEquals(before, patients(calendar.loadArchived("Cardiology", today).getDoctor("Patel")));
+        Assert.assertNull("never opened", calendar.loadArchived("Cardiology", today.plusDays(5)));
+        Assert.assertEquals("nothing left to archive", 0, calendar.archivePastDays());
+    }
+
+    /**
+     * A cancel already inside a past day when archiving starts: it must end up
+     * in the archive, or be refused - never reported done and then lost
+     */
+    public void testCancelDuringArchivingIsArchivedOrRefused() throws Exception {
+        Token token = calendar.bookToken("Patel", today, 0, "A", TokenType.WALKIN);
+        clock.advanceDays(1);
+        AtomicReference<Thread> archiver = new AtomicReference<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        calendar.setListener(new BookingListener() {
+            @Override
+            public void cancelStarted(String tokenId) {
+                Thread t = new Thread(() -> {
+                    try {
+                        calendar.archivePastDays();
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                });
+                archiver.set(t);
+                t.start();
+                try {
+                    t.join(200);  // the old code archived (and dropped the day) right here
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        boolean cancelled = calendar.cancelToken(token.getId());
+        archiver.get().join();
+        Assert.assertNull("archive written", failure.get());
+
+        Doctor archived = calendar.loadArchived("Cardiology", today).getDoctor("Patel");
+        Assert.assertEquals("archive agrees with the answer", cancelled ? "[]" : "[A]", patients(archived));
+        Assert.assertEquals(0, calendar.getShardCount());
+    }
+
+    public void testPastDayIsNotReopenedAfterArchiving() throws IOException {
+        calendar.bookToken("Patel", today, 0, "A", TokenType.WALKIN);
+        clock.advanceDays(1);
+        calendar.archivePastDays();
+        Assert.assertNull("booking yesterday", calendar.bookToken("Patel", today, 0, "B", TokenType.WALKIN));
+        Assert.assertNull("earliest yesterday", calendar.findEarliestAvailable("Cardiology", today, 9 * 60));
+        Assert.assertEquals(0, calendar.getShardCount());
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistence: snapshot plus journal, recovered after a "crash" (the journal
+ * closed without the final snapshot close() would take)
+ */
+public class PersistenceTest implements AutoCloseable {
+    private final Path dir;
+    private final PrintStream console = System.out;
+
+    public PersistenceTest() throws IOException {
+        dir = Files.createTempDirectory("opd-persistence-test");
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));  // recovery reports
+    }
+
+    @Override
+    public void close() throws IOException {
+        System.setOut(console);
+        try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private Persistence open(TokenManager manager) throws IOException {
+        Persistence persistence = new Persistence(dir, BookingJournal.SyncMode.GROUP_COMMIT);
+        persistence.recover(manager);
+        return persistence;
+    }
+
+    private static void crash(Persistence persistence) throws IOException {
+        persistence.getJournal().close();
+    }
+
+    private TokenManager recovered() throws IOException {
+        TokenManager manager = new TokenManager();
+        crash(open(manager));
+        return manager;
+    }
+
+    /**
+     * Doctors by name, slots with their patients, then the waiting list
+     */
+    static String describe(TokenManager manager) {
+        List<Doctor> doctors = new ArrayList<>(manager.getAllDoctors());
+        doctors.sort(Comparator.comparing(Doctor::getName));
+        StringBuilder sb = new StringBuilder();
+        for (Doctor doctor : doctors) {
+            sb.append(doctor.getName()).append(':');
+            for (Slot slot : doctor.getSlots()) {
+                sb.append(" [").append(slot.getTimeRange()).append(' ').append(slot.getCapacity());
+                for (Token t : slot) sb.append(' ').append(t.getId()).append('=').append(t.getPatientName());
+                sb.append(']');
+            }
+            sb.append(" waiting");
+            for (Token t : doctor.getWaitingList()) sb.append(' ').append(t.getId());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void testSnapshotAndJournalTailRestoreTheDay() throws IOException {
+        TokenManager manager = new TokenManager();
+        Persistence persistence = open(manager);
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 2);
+        manager.addSlot("Sharma", "10:00 AM", "11:00 AM", 1);
+        manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        manager.bookToken("Sharma", 0, "Ben", TokenType.PAID);
+        persistence.snapshot();
+        Token bumped = manager.bookToken("Sharma", 0, "Chen", TokenType.EMERGENCY);
+        manager.addDoctor("Rao");
+        manager.addSlot("Rao", "2:00 PM", "3:00 PM", 3);
+        manager.bookToken("Rao", 0, "Dev", TokenType.WALKIN);
+        manager.cancelToken(bumped.getId());
+        String before = describe(manager);
+        crash(persistence);
+
+        Assert.assertEquals(before, describe(recovered()));
+    }
+
+    /**
+     * Replayed records are history: they must not count as live operations in
+     * the metrics or go out to the change listener
+     */
+    public void testReplayLeavesMetricsAndChangeEventsAlone() throws IOException {
+        TokenManager manager = new TokenManager();
+        Persistence persistence = open(manager);
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 1);
+        manager.addSlot("Sharma", "10:00 AM", "11:00 AM", 1);
+        Token asha = manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        manager.bookToken("Sharma", 0, "Ben", TokenType.EMERGENCY);
+        Token chen = manager.bookToken("Sharma", 1, "Chen", TokenType.PAID);
+        manager.bookToken("Sharma", 1, "Dev", TokenType.WALKIN);
+        manager.markNoShow(chen.getId());
+        manager.delaySlot("Sharma", 0);
+        manager.cancelToken(asha.getId());
+        manager.rebalance("Sharma");
+        String before = describe(manager);
+        crash(persistence);
+
+        TokenManager restarted = new TokenManager();
+        List<String> events = new ArrayList<>();
+        restarted.setChangeListener(new QueueChangeListener() {
+            @Override
+            public void allocated(Doctor doctor, int slotIndex, Token token) {
+                events.add("allocated " + token.getId());
+            }
+
+            @Override
+            public void waitingListed(Doctor doctor, Token token) {
+                events.add("waiting " + token.getId());
+            }
+
+            @Override
+            public void cancelled(Doctor doctor, String tokenId) {
+                events.add("cancelled " + tokenId);
+            }
+
+            @Override
+            public void noShow(Doctor doctor, String tokenId) {
+                events.add("noshow " + tokenId);
+            }
+
+            @Override
+            public void slotDelayed(Doctor doctor, int slotIndex) {
+                events.add("delayed " + slotIndex);
+            }
+        });
+        crash(open(restarted));
+
+        Assert.assertEquals(before, describe(restarted));
+        Assert.assertEquals("no change events", List.of(), events);
+        Metrics metrics = restarted.getMetrics();
+        for (Metrics.Operation operation : Metrics.Operation.values()) {
+            Assert.assertEquals(operation + " count", 0L, metrics.getLatency(operation).getCount());
+        }
+        Assert.assertEquals("cascades", 0L, metrics.getCascade().getCount());
+        Assert.assertEquals("rebalance sweeps", 0L, restarted.getRebalanceCount());
+        Assert.assertEquals("seats recovered", 0L, restarted.getSeatsRecovered());
+    }
+
+    public void testRecoveryWithoutAJournalTail() throws IOException {
+        TokenManager manager = new TokenManager();
+        Persistence persistence = open(manager);
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 2);
+        manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        String before = describe(manager);
+        persistence.close();
+
+        Assert.assertEquals(before, describe(recovered()));
+    }
+
+    public void testEmptyDirectoryRecoversNothing() throws IOException {
+        Assert.assertEquals("", describe(recovered()));
+    }
+
+    public void testCorruptSnapshotIsRefused() throws IOException {
+        Files.write(dir.resolve("snapshot.bin"), new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        Assert.assertThrows(IOException.class, () -> open(new TokenManager()));
+    }
+
+    /**
+     * When ADD_DOCTOR is journaled the doctor must already be in the map, or a
+     * snapshot rotating in between would drop both the record and the doctor
+     */
+    public void testDoctorIsVisibleBeforeItIsJournaled() throws IOException {
+        TokenManager manager = new TokenManager();
+        List<String> missing = new ArrayList<>();
+        try (BookingJournal journal = new BookingJournal(dir, BookingJournal.SyncMode.NONE, 0) {
+            @Override
+            public long logAddDoctor(String doctor) {
+                if (manager.getDoctor(doctor) == null) missing.add(doctor);
+                return super.logAddDoctor(doctor);
+            }
+        }) {
+            manager.setJournal(journal);
+            manager.addDoctor("Sharma");
+            manager.addDoctor("Rao");
+        }
+        Assert.assertEquals("journaled before visible", List.of(), missing);
+    }
+
+    /**
+     * Doctors added while snapshots rotate the journal and delete the old
+     * segments: each one must be in a snapshot or in a surviving segment
+     */
+    public void testDoctorsAddedWhileSnapshotsRunSurviveACrash() throws Exception {
+        TokenManager manager = new TokenManager();
+        Persistence persistence = open(manager);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread adder = new Thread(() -> {
+            for (int i = 0; i < 400; i++) {
+                manager.addDoctor("Dr" + i);
+                manager.addSlot("Dr" + i, "9:00 AM", "10:00 AM", 1);
+            }
+            done.set(true);
+        });
+        adder.start();
+        while (!done.get()) {
+            persistence.snapshot();
+        }
+        adder.join();
+        String before = describe(manager);
+        crash(persistence);
+
+        TokenManager after = recovered();
+        Assert.assertEquals(400, after.getAllDoctors().size());
+        Assert.assertEquals(before, describe(after));
+    }
+
+    /**
+     * Names longer than writeUTF's 64 KB limit: the snapshot holding them,
+     * and every snapshot after it, must still be written and read back
+     */
+    public void testNamesLongerThan64KbSurviveSnapshots() throws IOException {
+        String doctor = "Dr " + "\u00e9".repeat(40_000);   // 80,003 bytes of UTF-8
+        String patient = "P" + "x".repeat(70_000);
+        TokenManager manager = new TokenManager();
+        Persistence persistence = open(manager);
+        manager.addDoctor(doctor);
+        manager.addSlot(doctor, "9:00 AM", "10:00 AM", 2);
+        manager.bookToken(doctor, 0, patient, TokenType.ONLINE);
+        persistence.snapshot();
+        manager.addDoctor("Rao");
+        manager.addSlot("Rao", "2:00 PM", "3:00 PM", 1);
+        persistence.snapshot();
+        manager.bookToken("Rao", 0, "Dev", TokenType.WALKIN);
+        String before = describe(manager);
+        crash(persistence);
+
+        TokenManager after = recovered();
+        Assert.assertEquals(before, describe(after));
+        Assert.assertEquals(patient, after.getDoctor(doctor).getSlot(0).getTokens().get(0).getPatientName());
+    }
+
+    /**
+     * A snapshot written by the first format (writeUTF strings, presence flags
+     * for slot times) still loads
+     */
+    public void testVersion1SnapshotStillLoads() throws IOException {
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(
+                Files.newOutputStream(dir.resolve("snapshot.bin")))) {
+            out.writeInt(0x4F504453);
+            out.writeInt(1);
+            out.writeLong(0);  // journal LSN
+            out.writeLong(0);  // token id sequence
+            java.io.ByteArrayOutputStream block = new java.io.ByteArrayOutputStream();
+            java.io.DataOutputStream doctor = new java.io.DataOutputStream(block);
+            doctor.writeUTF("Sharma");
+            doctor.writeLong(0);
+            doctor.writeInt(2);
+            doctor.writeBoolean(true);
+            doctor.writeUTF("9:00 AM");
+            doctor.writeBoolean(true);
+            doctor.writeUTF("10:00 AM");
+            doctor.writeInt(3);
+            doctor.writeInt(1);
+            doctor.writeUTF("T-OLD-1");
+            doctor.writeUTF("Asha");
+            doctor.writeByte(TokenType.PAID.ordinal());
+            doctor.writeLong(1_000L);
+            doctor.writeLong(Long.MIN_VALUE);
+            doctor.writeBoolean(false);
+            doctor.writeBoolean(false);
+            doctor.writeInt(1);
+            doctor.writeInt(0);
+            doctor.writeInt(0);
+            out.writeByte(1);
+            out.writeInt(block.size());
+            block.writeTo(out);
+            out.writeByte(0);
+        }
+        TokenManager manager = recovered();
+        Doctor doctor = manager.getDoctor("Sharma");
+        Assert.assertNotNull("doctor", doctor);
+        Assert.assertEquals(2, doctor.getSlots().size());
+        Assert.assertEquals("9:00 AM - 10:00 AM", doctor.getSlot(0).getTimeRange());
+        Assert.assertNull("missing start time", doctor.getSlot(1).getStartTime());
+        Token token = doctor.getSlot(0).getTokens().get(0);
+        Assert.assertEquals("Asha", token.getPatientName());
+        Assert.assertEquals(TokenType.PAID, token.getType());
+    }
+
+    public void testUnknownSnapshotVersionIsRefused() throws IOException {
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(
+                Files.newOutputStream(dir.resolve("snapshot.bin")))) {
+            out.writeInt(0x4F504453);
+            out.writeInt(99);
+        }
+        IOException e = Assert.assertThrows(IOException.class, () -> open(new TokenManager()));
+        Assert.assertContains("message", e.getMessage(), "Unknown snapshot version 99");
+    }
+}
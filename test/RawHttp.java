@@ -0,0 +1,140 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One raw client connection: requests are written as given (several at once
+ * for pipelining) and responses are read one by one, Content-Length or chunked
+ */
+public class RawHttp implements Closeable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+
+    /**
+     * A parsed response
+     */
+    public static class Response {
+        public final int status;
+        public final Map<String, String> headers = new LinkedHashMap<>();  // names in lower case
+        public String body;
+
+        Response(int status) {
+            this.status = status;
+        }
+
+        public String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    public RawHttp(int port) throws IOException {
+        socket = new Socket("localhost", port);
+        socket.setSoTimeout(5_000);
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        in = new BufferedInputStream(socket.getInputStream());
+    }
+
+    public static String get(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    }
+
+    public static String post(String path, String json) {
+        return request("POST", path, json);
+    }
+
+    /**
+     * Any method, with a JSON body (empty for none)
+     */
+    public static String request(String method, String path, String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return method + " " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+            + "Content-Length: " + body.length + "\r\n\r\n" + json;
+    }
+
+    /**
+     * Send one request and read its response
+     */
+    public Response exchange(String request) throws IOException {
+        send(request);
+        return read();
+    }
+
+    /**
+     * Write the bytes in one go (one TCP segment train, so the server reads them together)
+     */
+    public void send(String requests) throws IOException {
+        send(requests.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void send(byte[] requests) throws IOException {
+        out.write(requests);
+        out.flush();
+    }
+
+    /**
+     * The next response (a read timeout means the server never answered)
+     */
+    public Response read() throws IOException {
+        String statusLine = readLine();
+        Response response = new Response(Integer.parseInt(statusLine.split(" ")[1]));
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            response.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                line.substring(colon + 1).trim());
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if ("chunked".equalsIgnoreCase(response.header("Transfer-Encoding"))) {
+            int size;
+            while ((size = Integer.parseInt(readLine().trim(), 16)) > 0) {
+                body.write(readExactly(size));
+                readLine();
+            }
+            readLine();
+        } else if (response.header("Content-Length") != null) {
+            body.write(readExactly(Integer.parseInt(response.header("Content-Length"))));
+        }
+        response.body = body.toString(StandardCharsets.UTF_8);
+        return response;
+    }
+
+    /**
+     * True when the server closed the connection (nothing more to read)
+     */
+    public boolean isClosedByServer() throws IOException {
+        return in.read() < 0;
+    }
+
+    private byte[] readExactly(int n) throws IOException {
+        byte[] bytes = in.readNBytes(n);
+        if (bytes.length < n) {
+            throw new IOException("Connection closed mid-response");
+        }
+        return bytes;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new IOException("Connection closed");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
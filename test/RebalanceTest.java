@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Rebalancing: free seats refilled from the waiting list, one sweep per marked
+ * doctor, and no seat left free while patients wait
+ */
+public class RebalanceTest {
+    private final TokenManager manager = new TokenManager();
+
+    public RebalanceTest() {
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 2);
+        manager.addSlot("Sharma", "10:00 AM", "11:00 AM", 1);
+        manager.addDoctor("Rao");
+        manager.addSlot("Rao", "9:00 AM", "10:00 AM", 1);
+    }
+
+    public void testFreeSeatsBeforeAnOverflowAreRefilled() {
+        manager.bookToken("Sharma", 1, "A", TokenType.ONLINE);
+        Token online = manager.bookToken("Sharma", 1, "B", TokenType.ONLINE);
+        Token paid = manager.bookToken("Sharma", 1, "C", TokenType.PAID);
+        Assert.assertEquals("paid took slot 1", paid, manager.getDoctor("Sharma").getSlot(1).getTokens().get(0));
+
+        Assert.assertEquals(2, manager.rebalance("Sharma"));
+        Assert.assertEquals(0, manager.findToken(online.getId()).getSlotIndex());
+        Assert.assertTrue("nobody waits", manager.getDoctor("Sharma").getWaitingList().isEmpty());
+        Assert.assertEquals("nothing left to fill", 0, manager.rebalance("Sharma"));
+    }
+
+    public void testFullDayLeavesTheWaitingListAlone() {
+        manager.bookToken("Rao", 0, "A", TokenType.ONLINE);
+        Token waiting = manager.bookToken("Rao", 0, "B", TokenType.ONLINE);
+        Assert.assertEquals(0, manager.rebalance("Rao"));
+        Assert.assertTrue("still waiting", manager.findToken(waiting.getId()).isInWaitingList());
+    }
+
+    public void testUnknownDoctorIsMinusOne() {
+        Assert.assertEquals(-1, manager.rebalance("Nobody"));
+    }
+
+    public void testPendingSweepsOnlyTheMarkedDoctorsOnce() {
+        manager.bookToken("Sharma", 1, "A", TokenType.ONLINE);
+        manager.bookToken("Sharma", 1, "B", TokenType.ONLINE);
+        manager.bookToken("Sharma", 1, "C", TokenType.ONLINE);
+        long sweeps = manager.getRebalanceCount();
+        long seats = manager.getSeatsRecovered();
+
+        Assert.assertEquals(2, manager.rebalancePending());
+        Assert.assertEquals("one sweep for two overflows", 1L, manager.getRebalanceCount() - sweeps);
+        Assert.assertEquals(2L, manager.getSeatsRecovered() - seats);
+        Assert.assertEquals("marks were taken", 0, manager.rebalancePending());
+        Assert.assertEquals(1L, manager.getRebalanceCount() - sweeps);
+    }
+
+    /**
+     * Random bookings, cancels, no-shows and delays; after rebalancePending every
+     * doctor with a waiting list has all slots full, and no token is lost
+     */
+    public void testRandomDaysLeaveNoSeatFreeWhilePatientsWait() {
+        Random random = new Random(51);
+        TokenType[] types = TokenType.values();
+        for (int day = 0; day < 1_000; day++) {
+            TokenManager manager = new TokenManager();
+            int doctorCount = 1 + random.nextInt(3);
+            for (int d = 0; d < doctorCount; d++) {
+                manager.addDoctor("D" + d);
+                int slots = 1 + random.nextInt(8);
+                for (int s = 0; s < slots; s++) {
+                    manager.addSlot("D" + d, s + ":00", (s + 1) + ":00", 1 + random.nextInt(5));
+                }
+            }
+            List<String> live = new ArrayList<>();
+            int ops = 1 + random.nextInt(120);
+            for (int op = 0; op < ops; op++) {
+                String doctor = "D" + random.nextInt(doctorCount);
+                int kind = random.nextInt(10);
+                if (kind < 6 || live.isEmpty()) {
+                    Token t = manager.bookToken(doctor, random.nextInt(8), "P" + op, types[random.nextInt(types.length)]);
+                    if (t != null) live.add(t.getId());
+                } else if (kind < 8) {
+                    Assert.assertTrue("cancel", manager.cancelToken(live.remove(random.nextInt(live.size()))));
+                } else if (kind < 9) {
+                    String id = live.get(random.nextInt(live.size()));
+                    if (manager.markNoShow(id)) live.remove(id);
+                } else {
+                    manager.delaySlot(doctor, random.nextInt(8));
+                }
+            }
+            manager.rebalancePending();
+
+            int placed = 0;
+            for (Doctor doctor : manager.getAllDoctors()) {
+                for (int s = 0; s < doctor.getSlots().size(); s++) {
+                    Slot slot = doctor.getSlot(s);
+                    Assert.assertTrue("day " + day + " " + doctor.getName() + " slot " + s + " free while patients wait",
+                        doctor.getWaitingList().isEmpty() || slot.isFull());
+                    for (Token t : slot) {
+                        Assert.assertEquals("day " + day + " index of " + t.getId(), s,
+                            manager.findToken(t.getId()).getSlotIndex());
+                        placed++;
+                    }
+                }
+                for (Token t : doctor.getWaitingList()) {
+                    Assert.assertTrue("day " + day + " index of " + t.getId(),
+                        manager.findToken(t.getId()).isInWaitingList());
+                    placed++;
+                }
+            }
+            Assert.assertEquals("day " + day + " tokens", live.size(), placed);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Router: path variables, literal segments ahead of variables, 404 vs 405, and
+ * ApiServer's table against the regex/split routing it replaced
+ */
+public class RouterTest {
+    private final Router.Handler list = (exchange, match) -> { };
+    private final Router.Handler create = (exchange, match) -> { };
+    private final Router.Handler show = (exchange, match) -> { };
+    private final Router.Handler delay = (exchange, match) -> { };
+    private final Router.Handler batch = (exchange, match) -> { };
+
+    private final Router router = new Router()
+        .add("GET", "/doctors", list)
+        .add("POST", "/doctors", create)
+        .add("GET", "/doctors/{name}", show)
+        .add("PUT", "/doctors/{name}/delay/{slot}", delay)
+        .add("POST", "/tokens/batch", batch)
+        .add("GET", "/tokens/{id}", show);
+
+    public void testVariablesAreTakenFromThePath() {
+        Router.Match match = router.route("PUT", "/doctors/Sharma/delay/2");
+        Assert.assertEquals(Router.Match.FOUND, match.getStatus());
+        Assert.assertTrue("handler", match.getHandler() == delay);
+        Assert.assertEquals("Sharma", match.get("name"));
+        Assert.assertEquals("2", match.get("slot"));
+        Assert.assertNull("not in this route", match.get("id"));
+    }
+
+    public void testMethodPicksTheHandler() {
+        Assert.assertTrue("GET", router.route("GET", "/doctors").getHandler() == list);
+        Assert.assertTrue("POST", router.route("POST", "/doctors").getHandler() == create);
+        Assert.assertNull("no variables", router.route("GET", "/doctors").get("name"));
+    }
+
+    public void testLiteralSegmentWinsOverAVariable() {
+        Router.Match match = router.route("POST", "/tokens/batch");
+        Assert.assertTrue("batch", match.getHandler() == batch);
+        Assert.assertNull("not an id", match.get("id"));
+        Assert.assertEquals("T7", router.route("GET", "/tokens/T7").get("id"));
+    }
+
+    public void testEmptySegmentsAreIgnored() {
+        Assert.assertEquals(Router.Match.FOUND, router.route("GET", "/doctors/").getStatus());
+        Assert.assertEquals("Sharma", router.route("GET", "//doctors//Sharma").get("name"));
+    }
+
+    public void testUnknownPathIsNotFound() {
+        Assert.assertEquals(Router.Match.NOT_FOUND, router.route("GET", "/patients").getStatus());
+        Assert.assertEquals(Router.Match.NOT_FOUND, router.route("GET", "/doctors/Sharma/slots").getStatus());
+        Assert.assertEquals("inner node", Router.Match.NOT_FOUND, router.route("PUT", "/doctors/Sharma/delay").getStatus());
+        Assert.assertEquals("root", Router.Match.NOT_FOUND, router.route("GET", "/").getStatus());
+    }
+
+    public void testWrongMethodListsTheAllowedOnes() {
+        Router.Match match = router.route("DELETE", "/doctors");
+        Assert.assertEquals(Router.Match.METHOD_NOT_ALLOWED, match.getStatus());
+        Assert.assertNull("no handler", match.getHandler());
+        Assert.assertEquals("GET, POST", match.getAllowed());
+        Assert.assertEquals("GET", router.route("PUT", "/tokens/T1").getAllowed());
+    }
+
+    public void testDuplicateOrConflictingRoutesAreRefused() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/doctors/{name}", list));
+        Assert.assertThrows(IllegalArgumentException.class, () -> router.add("DELETE", "/doctors/{id}", list));
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // ApiServer's table against the old if-chain
+    // ═══════════════════════════════════════════════════════════
+
+    private static final String[][] SAMPLES = {
+        {"GET", "/doctors"},
+        {"POST", "/doctors"},
+        {"DELETE", "/doctors"},
+        {"GET", "/doctors/Sharma"},
+        {"POST", "/doctors/Sharma/slots"},
+        {"GET", "/doctors/Sharma/slots"},
+        {"PUT", "/doctors/Sharma/delay/2"},
+        {"POST", "/tokens"},
+        {"GET", "/tokens/T1042"},
+        {"DELETE", "/tokens/T1042"},
+        {"PUT", "/tokens/T1042/noshow"},
+        {"GET", "/tokens/T1042/unknown"},
+        {"GET", "/unknown"},
+    };
+
+    public void testApiServerRoutesMatchTheOldIfChain() {
+        Router api = new ApiServer(new TokenManager()).buildRouter();
+        for (String[] sample : SAMPLES) {
+            Router.Match match = api.route(sample[0], sample[1]);
+            String routed = match.getStatus() != Router.Match.FOUND ? "none"
+                : match.get("name") + " " + match.get("slot") + " " + match.get("id");
+            Assert.assertEquals(sample[0] + " " + sample[1], legacyRoute(sample[0], sample[1]), routed);
+        }
+    }
+
+    /**
+     * The routing ApiServer used to do: "name slot id" of the matched route, or "none"
+     */
+    private static String legacyRoute(String method, String path) {
+        if (path.startsWith("/doctors")) {
+            if (path.equals("/doctors")) {
+                if ("GET".equals(method) || "POST".equals(method)) return "null null null";
+            } else if (path.matches("/doctors/[^/]+/slots")) {
+                if ("POST".equals(method)) return path.split("/")[2] + " null null";
+            } else if (path.matches("/doctors/[^/]+/delay/\\d+")) {
+                String[] parts = path.split("/");
+                if ("PUT".equals(method)) return parts[2] + " " + parts[4] + " null";
+            } else if (path.matches("/doctors/[^/]+")) {
+                if ("GET".equals(method)) return path.split("/")[2] + " null null";
+            }
+        } else if (path.startsWith("/tokens")) {
+            if (path.equals("/tokens")) {
+                if ("POST".equals(method)) return "null null null";
+            } else if (path.matches("/tokens/T\\d+")) {
+                String tokenId = path.split("/")[2];
+                if ("GET".equals(method) || "DELETE".equals(method)) return "null null " + tokenId;
+            } else if (path.matches("/tokens/T\\d+/noshow")) {
+                if ("PUT".equals(method)) return "null null " + path.split("/")[2];
+            }
+        }
+        return "none";
+    }
+}
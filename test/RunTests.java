@@ -0,0 +1,81 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plain-Java test runner (no framework, like the rest of the tree)
+ *
+ * Every public void no-argument method whose name starts with "test" is run
+ * on a fresh instance of its class; an exception fails the test. Exits with
+ * status 1 when anything failed.
+ *
+ * Usage: javac -encoding UTF-8 -d out *.java test/*.java
+ *        java -cp out RunTests [TestClass ...]
+ */
+public class RunTests {
+    static final String[] ALL = {
+        "ApiServerTest",
+        "AvailabilityTest",
+        "BatchBookingTest",
+        "CascadeTest",
+        "CommandPipelineTest",
+        "ConcurrencyTest",
+        "DoctorVersionTest",
+        "EventStreamTest",
+        "JsonReaderTest",
+        "MetricsTest",
+        "NioHttpServerTest",
+        "OpdCalendarTest",
+        "PersistenceTest",
+        "RebalanceTest",
+        "RouterTest",
+        "SlotTimeTest",
+        "TokenIdGeneratorTest",
+        "TokenManagerTest",
+        "TokenTest",
+        "WaitingListTest",
+    };
+
+    public static void main(String[] args) throws Exception {
+        String[] names = args.length > 0 ? args : ALL;
+        int passed = 0;
+        List<String> failures = new ArrayList<>();
+        for (String name : names) {
+            Class<?> type = Class.forName(name);
+            System.out.println("▶ " + name);
+            Method[] methods = type.getMethods();
+            Arrays.sort(methods, Comparator.comparing(Method::getName));
+            for (Method method : methods) {
+                if (!method.getName().startsWith("test") || method.getParameterCount() != 0
+                        || Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                try {
+                    Object instance = type.getDeclaredConstructor().newInstance();
+                    try {
+                        method.invoke(instance);
+                    } finally {
+                        if (instance instanceof AutoCloseable) {
+                            ((AutoCloseable) instance).close();
+                        }
+                    }
+                    passed++;
+                    System.out.println("  ✓ " + method.getName());
+                } catch (InvocationTargetException e) {
+                    failures.add(name + "." + method.getName());
+                    System.out.println("  ✗ " + method.getName() + ": " + e.getCause());
+                    e.getCause().printStackTrace(System.out);
+                }
+            }
+        }
+        System.out.println("\n" + passed + " passed, " + failures.size() + " failed");
+        if (!failures.isEmpty()) {
+            System.out.println("Failed: " + failures);
+            System.exit(1);
+        }
+    }
+}
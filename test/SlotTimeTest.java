@@ -0,0 +1,136 @@
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Slot times parsed once into minutes of the day, and Doctor's binary-search
+ * lookups ("slot running at T", "next free slot after T") against a plain scan
+ */
+public class SlotTimeTest {
+
+    public void testParsesTwelveAndTwentyFourHourClocks() {
+        Assert.assertEquals("9:00 AM", 540, Slot.parseMinuteOfDay("9:00 AM"));
+        Assert.assertEquals("12:00 PM", 720, Slot.parseMinuteOfDay("12:00 PM"));
+        Assert.assertEquals("12:30 AM", 30, Slot.parseMinuteOfDay("12:30 AM"));
+        Assert.assertEquals("11 pm", 23 * 60, Slot.parseMinuteOfDay("11 pm"));
+        Assert.assertEquals("14:30", 870, Slot.parseMinuteOfDay("14:30"));
+        Assert.assertEquals("0:05", 5, Slot.parseMinuteOfDay("0:05"));
+        Assert.assertEquals("hour only", 9 * 60, Slot.parseMinuteOfDay("9"));
+        Assert.assertEquals("spaces", 9 * 60 + 15, Slot.parseMinuteOfDay("  9:15am "));
+    }
+
+    public void testUnreadableTimesAreNoTime() {
+        for (String bad : new String[] {null, "", "13:00 PM", "9:5", "24:00", "9:60", "noon", "0:00 AM", "9:005", "-1:00"}) {
+            Assert.assertEquals("parse " + bad, Slot.NO_TIME, Slot.parseMinuteOfDay(bad));
+        }
+    }
+
+    public void testSlotKeepsItsMinutesAndTimes() {
+        Slot slot = new Slot("9:00 AM", "10:30 AM", 1);
+        Assert.assertEquals(540, slot.getStartMinute());
+        Assert.assertEquals(630, slot.getEndMinute());
+        Assert.assertEquals(LocalTime.of(10, 30), slot.getEnd());
+        Assert.assertEquals("9:00 AM - 10:30 AM", slot.getTimeRange());
+        Assert.assertTrue("start covered", slot.covers(540));
+        Assert.assertFalse("end not covered", slot.covers(630));
+    }
+
+    public void testSlotOverMidnightEndsTheNextDay() {
+        Slot slot = new Slot("11:00 PM", "12:00 AM", 1);
+        Assert.assertEquals(24 * 60, slot.getEndMinute());
+        Assert.assertEquals(LocalTime.MIDNIGHT, slot.getEnd());
+        Assert.assertTrue("last minute", slot.covers(24 * 60 - 1));
+    }
+
+    public void testUntimedSlotCoversNothing() {
+        Slot slot = new Slot("morning", "10:00 AM", 1);
+        Assert.assertEquals(Slot.NO_TIME, slot.getStartMinute());
+        Assert.assertNull("no start", slot.getStart());
+        Assert.assertFalse("covers", slot.covers(9 * 60));
+
+        Doctor doctor = new Doctor("Sharma");
+        doctor.addSlot("morning", "10:00 AM", 1);
+        doctor.addSlot("10:00 AM", "11:00 AM", 1);
+        Assert.assertEquals(1, doctor.findSlotAt(10 * 60));
+        Assert.assertEquals("untimed slot skipped", 1, doctor.findNextFreeSlot(0));
+    }
+
+    public void testLookupsOnAGappedDay() {
+        Doctor doctor = new Doctor("Sharma");
+        doctor.addSlot("2:00 PM", "3:00 PM", 1);
+        doctor.addSlot("9:00 AM", "10:00 AM", 1);
+        doctor.addSlot("11:00 AM", "12:00 PM", 1);
+        doctor.getSlot(2).addToken(new Token("P", TokenType.WALKIN));
+
+        Assert.assertEquals("running", 1, doctor.findSlotAt(LocalTime.of(9, 30)));
+        Assert.assertEquals("gap", -1, doctor.findSlotAt(10 * 60 + 30));
+        Assert.assertEquals("before the day", -1, doctor.findSlotAt(8 * 60));
+        Assert.assertEquals("next to start", 2, doctor.findSlotFrom(10 * 60 + 30));
+        Assert.assertEquals("full slot skipped", 0, doctor.findNextFreeSlot(10 * 60 + 30));
+        Assert.assertEquals("running and free", 1, doctor.findNextFreeSlot(9 * 60 + 59));
+        Assert.assertEquals("day over", -1, doctor.findNextFreeSlot(15 * 60));
+        Assert.assertEquals("day over", -1, doctor.findSlotFrom(15 * 60));
+    }
+
+    /**
+     * Random doctors with unsorted, gapped slots in both clock styles, some
+     * full; every query is compared with a plain scan over the slot list
+     */
+    public void testRandomQueriesMatchALinearScan() {
+        Random random = new Random(13);
+        for (int d = 0; d < 500; d++) {
+            Doctor doctor = new Doctor("Dr" + d);
+            int count = 1 + random.nextInt(30);
+            List<Integer> starts = new ArrayList<>();
+            for (int m = random.nextInt(60); m < Slot.MINUTES_PER_DAY - 30 && starts.size() < count; m += 30 + random.nextInt(60)) {
+                starts.add(m);
+            }
+            Collections.shuffle(starts, random);
+            for (int start : starts) {
+                int length = 15 + random.nextInt(16);
+                String from = random.nextBoolean() ? clock24(start) : clock12(start);
+                doctor.addSlot(from, clock24(start + length), 1 + random.nextInt(3));
+            }
+            for (Slot slot : doctor.getSlots()) {
+                while (!slot.isFull() && random.nextBoolean()) slot.addToken(new Token("P", TokenType.WALKIN));
+            }
+            for (int q = 0; q < 100; q++) {
+                int minute = random.nextInt(Slot.MINUTES_PER_DAY);
+                String what = "doctor " + d + " at " + minute;
+                Assert.assertEquals(what + " slot at", scanSlotAt(doctor, minute), doctor.findSlotAt(minute));
+                Assert.assertEquals(what + " next free", scanNextFree(doctor, minute), doctor.findNextFreeSlot(minute));
+            }
+        }
+    }
+
+    private static int scanSlotAt(Doctor doctor, int minute) {
+        List<Slot> slots = doctor.getSlots();
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (slot.getStartMinute() <= minute && minute < slot.getEndMinute()) return i;
+        }
+        return -1;
+    }
+
+    private static int scanNextFree(Doctor doctor, int minute) {
+        List<Slot> slots = doctor.getSlots();
+        int best = -1;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (slot.isFull() || slot.getEndMinute() <= minute) continue;
+            if (best < 0 || slot.getStartMinute() < slots.get(best).getStartMinute()) best = i;
+        }
+        return best;
+    }
+
+    private static String clock24(int minute) {
+        return String.format("%d:%02d", minute / 60 % 24, minute % 60);
+    }
+
+    private static String clock12(int minute) {
+        int hour = minute / 60 % 24;
+        return String.format("%d:%02d %s", hour % 12 == 0 ? 12 : hour % 12, minute % 60, hour < 12 ? "AM" : "PM");
+    }
+}
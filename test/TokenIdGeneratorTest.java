@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TokenIdGenerator: the T + digits shape, node prefixes, reading ids back and
+ * uniqueness across threads
+ */
+public class TokenIdGeneratorTest {
+
+    public void testIdsArePaddedToThreeDigitsAndThenGrow() {
+        TokenIdGenerator ids = new TokenIdGenerator();
+        Assert.assertEquals("T001", ids.nextId());
+        Assert.assertEquals("T002", ids.nextId());
+        ids.advancePast(998);
+        Assert.assertEquals("T999", ids.nextId());
+        Assert.assertEquals("T1000", ids.nextId());
+        Assert.assertEquals(1000L, ids.current());
+    }
+
+    public void testNodeNumberFollowsTheT() {
+        TokenIdGenerator ids = new TokenIdGenerator(7);
+        Assert.assertEquals("T07-001", ids.nextId());
+        Assert.assertEquals(7, ids.getNodeId());
+        Assert.assertEquals("T99-001", new TokenIdGenerator(99).nextId());
+    }
+
+    /**
+     * Token indexes key on the ID alone, so no node ID may equal a single-server one
+     */
+    public void testNodeIdsNeverEqualSingleServerIds() {
+        TokenIdGenerator single = new TokenIdGenerator();
+        single.advancePast(12_000);
+        Assert.assertEquals("T12001", single.nextId());
+        Assert.assertEquals("T12-001", new TokenIdGenerator(12).nextId());
+
+        Set<String> seen = new java.util.HashSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            seen.add(single.format(i));
+        }
+        for (int n = 0; n < 100; n++) {
+            TokenIdGenerator other = new TokenIdGenerator(n);
+            for (int i = 0; i < 2_000; i++) {
+                String id = other.format(i);
+                Assert.assertFalse(id + " is also a single-server id", seen.contains(id));
+                Assert.assertEquals("single server reads " + id, -1L, single.sequenceOf(id));
+            }
+        }
+    }
+
+    public void testNodeNumberOutOfRangeIsRefused() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> new TokenIdGenerator(100));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new TokenIdGenerator(-1));
+    }
+
+    public void testSequenceOfReadsItsOwnIdsOnly() {
+        TokenIdGenerator single = new TokenIdGenerator();
+        TokenIdGenerator node = new TokenIdGenerator(7);
+        Assert.assertEquals(42L, single.sequenceOf("T042"));
+        Assert.assertEquals(1234L, single.sequenceOf("T1234"));
+        Assert.assertEquals(42L, node.sequenceOf("T07-042"));
+        Assert.assertEquals("other node", -1L, node.sequenceOf("T08-042"));
+        Assert.assertEquals("no dash", -1L, node.sequenceOf("T07042"));
+        Assert.assertEquals("no digits", -1L, single.sequenceOf("T"));
+        Assert.assertEquals("no T", -1L, single.sequenceOf("X042"));
+        Assert.assertEquals("not a number", -1L, single.sequenceOf("T04a"));
+    }
+
+    public void testAdvancePastNeverMovesBack() {
+        TokenIdGenerator ids = new TokenIdGenerator();
+        ids.advancePast(50);
+        ids.advancePast(10);
+        Assert.assertEquals("T051", ids.nextId());
+        ids.reset();
+        Assert.assertEquals("T001", ids.nextId());
+    }
+
+    public void testConcurrentIdsAreUnique() throws InterruptedException {
+        TokenIdGenerator ids = new TokenIdGenerator();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread w = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    if (!seen.add(ids.nextId())) duplicates.incrementAndGet();
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) w.join();
+        Assert.assertEquals("duplicates", 0, duplicates.get());
+        Assert.assertEquals(200_000L, ids.current());
+    }
+}
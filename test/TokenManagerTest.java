@@ -0,0 +1,122 @@
+import java.util.List;
+
+/**
+ * TokenManager: registering doctors and slots, booking with bumping and the
+ * waiting list, cancel, no-show, delay and rebalance
+ */
+public class TokenManagerTest {
+    private final TokenManager manager = new TokenManager();
+
+    public TokenManagerTest() {
+        manager.addDoctor("Sharma");
+        manager.addSlot("Sharma", "9:00 AM", "10:00 AM", 2);
+        manager.addSlot("Sharma", "10:00 AM", "11:00 AM", 1);
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Doctors and slots
+    // ═══════════════════════════════════════════════════════════
+
+    public void testAddDoctorRegistersIt() {
+        Doctor doctor = manager.addDoctor("Rao");
+        Assert.assertNotNull("new doctor", doctor);
+        Assert.assertTrue("same object", manager.getDoctor("Rao") == doctor);
+        Assert.assertEquals(2, manager.getAllDoctors().size());
+    }
+
+    /**
+     * A second add with the same name used to replace the doctor, orphaning its
+     * tokens in the token index and its free slots in the FreeSeatIndex
+     */
+    public void testAddDoctorRefusesATakenName() {
+        Doctor original = manager.getDoctor("Sharma");
+        Token token = manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+
+        Assert.assertNull("duplicate refused", manager.addDoctor("Sharma"));
+
+        Assert.assertTrue("original kept", manager.getDoctor("Sharma") == original);
+        Assert.assertEquals(2, original.getSlots().size());
+        TokenLocation location = manager.findToken(token.getId());
+        Assert.assertTrue("token still indexed to the original", location.getDoctor() == original);
+        Assert.assertTrue("index still names it", manager.findEarliestAvailable(9 * 60) == original);
+        Assert.assertTrue("cancel still works", manager.cancelToken(token.getId()));
+    }
+
+    public void testAddSlotToUnknownDoctorFails() {
+        Assert.assertFalse("unknown doctor", manager.addSlot("Nobody", "9:00 AM", "10:00 AM", 1));
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Booking
+    // ═══════════════════════════════════════════════════════════
+
+    public void testBookingFillsTheRequestedSlot() {
+        Token token = manager.bookToken("Sharma", 0, "Asha", TokenType.ONLINE);
+        TokenLocation location = manager.findToken(token.getId());
+        Assert.assertEquals(0, location.getSlotIndex());
+        Assert.assertEquals(1, manager.getDoctor("Sharma").getSlot(0).getFreeSeats());
+    }
+
+    public void testBookingUnknownDoctorOrSlotReturnsNull() {
+        Assert.assertNull("unknown doctor", manager.bookToken("Nobody", 0, "Asha", TokenType.ONLINE));
+        Assert.assertNull("unknown slot", manager.bookToken("Sharma", 7, "Asha", TokenType.ONLINE));
+    }
+
+    public void testHigherPriorityBumpsTheLowestIntoTheNextSlot() {
+        Token online = manager.bookToken("Sharma", 0, "Online", TokenType.ONLINE);
+        manager.bookToken("Sharma", 0, "Paid", TokenType.PAID);
+        manager.bookToken("Sharma", 0, "Emergency", TokenType.EMERGENCY);
+
+        Assert.assertEquals("bumped on", 1, manager.findToken(online.getId()).getSlotIndex());
+        List<Token> first = manager.getDoctor("Sharma").getSlot(0).getTokens();
+        Assert.assertEquals(TokenType.EMERGENCY, first.get(0).getType());
+        Assert.assertEquals(TokenType.PAID, first.get(1).getType());
+    }
+
+    public void testOverflowGoesToTheWaitingList() {
+        manager.bookToken("Sharma", 1, "A", TokenType.ONLINE);
+        Token late = manager.bookToken("Sharma", 1, "B", TokenType.ONLINE);
+        Assert.assertTrue("waiting", manager.findToken(late.getId()).isInWaitingList());
+        Assert.assertEquals(1, manager.getDoctor("Sharma").getWaitingList().size());
+    }
+
+    // ═══════════════════════════════════════════════════════════
+    // Cancel, no-show, delay, rebalance
+    // ═══════════════════════════════════════════════════════════
+
+    public void testCancelFreesTheSeatForTheWaitingList() {
+        Token seated = manager.bookToken("Sharma", 1, "A", TokenType.ONLINE);
+        Token waiting = manager.bookToken("Sharma", 1, "B", TokenType.ONLINE);
+        Assert.assertTrue("cancelled", manager.cancelToken(seated.getId()));
+        Assert.assertNull("gone from the index", manager.findToken(seated.getId()));
+        Assert.assertEquals("promoted", 1, manager.findToken(waiting.getId()).getSlotIndex());
+        Assert.assertFalse("second cancel", manager.cancelToken(seated.getId()));
+    }
+
+    public void testCancelUnknownTokenFails() {
+        Assert.assertFalse("unknown id", manager.cancelToken("T-NOPE"));
+        Assert.assertFalse("unknown doctor", manager.cancelToken("Nobody", "T-NOPE"));
+    }
+
+    public void testNoShowRemovesTheToken() {
+        Token token = manager.bookToken("Sharma", 0, "A", TokenType.ONLINE);
+        Assert.assertTrue("no-show", manager.markNoShow(token.getId()));
+        Assert.assertNull("gone", manager.findToken(token.getId()));
+        Assert.assertFalse("unknown", manager.markNoShow(token.getId()));
+    }
+
+    public void testDelayMovesTokensOn() {
+        Token token = manager.bookToken("Sharma", 0, "A", TokenType.ONLINE);
+        manager.delaySlot("Sharma", 0);
+        Assert.assertEquals("moved on", 1, manager.findToken(token.getId()).getSlotIndex());
+        Assert.assertTrue("delayed slot empty", manager.getDoctor("Sharma").getSlot(0).isEmpty());
+    }
+
+    public void testRebalanceFillsFreeSeatsFromTheWaitingList() {
+        manager.bookToken("Sharma", 1, "A", TokenType.ONLINE);
+        Token waiting = manager.bookToken("Sharma", 1, "B", TokenType.ONLINE);
+        Assert.assertEquals("one seat filled", 1, manager.rebalance("Sharma"));
+        Assert.assertEquals("into slot 0", 0, manager.findToken(waiting.getId()).getSlotIndex());
+        Assert.assertEquals("unknown doctor", -1, manager.rebalance("Nobody"));
+    }
+}
@@ -0,0 +1,64 @@
+import java.time.LocalDateTime;
+
+/**
+ * Token: timestamps kept as epoch nanos, and patient names shared through a NamePool
+ */
+public class TokenTest implements AutoCloseable {
+
+    @Override
+    public void close() {
+        Token.setNamePool(null);
+    }
+
+    public void testTimestampsRoundTripThroughEpochNanos() {
+        LocalDateTime created = LocalDateTime.of(2026, 3, 1, 9, 15, 30, 123_456_789);
+        Token token = new Token("T001", "Asha", TokenType.PAID, created);
+        Assert.assertEquals(created, token.getCreatedAt());
+        Assert.assertEquals(Token.toEpochNanos(created), token.getCreatedAtNanos());
+
+        LocalDateTime before1970 = LocalDateTime.of(1969, 12, 31, 23, 59, 59, 500);
+        Assert.assertEquals(before1970, Token.fromEpochNanos(Token.toEpochNanos(before1970)));
+    }
+
+    public void testAllocatedAtIsNullUntilPlaced() {
+        Token token = new Token("Asha", TokenType.ONLINE);
+        Assert.assertNull("not placed", token.getAllocatedAt());
+        Assert.assertEquals(Token.NOT_ALLOCATED, token.getAllocatedAtNanos());
+
+        LocalDateTime seated = LocalDateTime.of(2026, 3, 1, 10, 0);
+        token.setAllocatedAt(seated);
+        Assert.assertEquals(seated, token.getAllocatedAt());
+        token.setAllocatedAt(null);
+        Assert.assertEquals(Token.NOT_ALLOCATED, token.getAllocatedAtNanos());
+    }
+
+    public void testNowNanosIsLocalWallClock() {
+        LocalDateTime before = LocalDateTime.now().minusSeconds(1);
+        LocalDateTime now = Token.fromEpochNanos(Token.nowNanos());
+        LocalDateTime after = LocalDateTime.now().plusSeconds(1);
+        Assert.assertTrue("after " + before + ": " + now, now.isAfter(before));
+        Assert.assertTrue("before " + after + ": " + now, now.isBefore(after));
+    }
+
+    public void testNamePoolSharesRepeatedNames() {
+        Token.setNamePool(new NamePool(10));
+        Token first = new Token(new String("Asha"), TokenType.ONLINE);
+        Token second = new Token(new String("Asha"), TokenType.PAID);
+        Assert.assertTrue("one String", first.getPatientName() == second.getPatientName());
+
+        Token.setNamePool(null);
+        Token third = new Token(new String("Asha"), TokenType.PAID);
+        Assert.assertFalse("pool off", third.getPatientName() == first.getPatientName());
+    }
+
+    public void testNamePoolStopsGrowingAtItsLimit() {
+        NamePool pool = new NamePool(2);
+        pool.intern("A");
+        pool.intern("B");
+        String c = new String("C");
+        Assert.assertTrue("kept as is", pool.intern(c) == c);
+        Assert.assertFalse("not pooled", pool.intern(new String("C")) == c);
+        Assert.assertEquals(2, pool.size());
+        Assert.assertNull("null name", pool.intern(null));
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * WaitingList: highest priority first, FIFO within a type, removal by id and
+ * per-type counts, checked against a plain list model
+ */
+public class WaitingListTest {
+    private final WaitingList list = new WaitingList();
+
+    private static List<String> patients(WaitingList list) {
+        List<String> names = new ArrayList<>();
+        for (Token t : list) names.add(t.getPatientName());
+        return names;
+    }
+
+    public void testPollTakesTheHighestPriorityThenTheLongestWaiting() {
+        list.add(new Token("Online1", TokenType.ONLINE));
+        list.add(new Token("Walkin", TokenType.WALKIN));
+        list.add(new Token("Online2", TokenType.ONLINE));
+        list.add(new Token("Emergency", TokenType.EMERGENCY));
+
+        Assert.assertEquals(List.of("Emergency", "Walkin", "Online1", "Online2"), patients(list));
+        Assert.assertEquals("Emergency", list.peek().getPatientName());
+        Assert.assertEquals("Emergency", list.poll().getPatientName());
+        Assert.assertEquals("Walkin", list.poll().getPatientName());
+        Assert.assertEquals("Online1", list.poll().getPatientName());
+        Assert.assertEquals(1, list.size());
+    }
+
+    public void testRemoveByIdKeepsTheOthersInOrder() {
+        Token a = new Token("A", TokenType.PAID);
+        Token b = new Token("B", TokenType.PAID);
+        Token c = new Token("C", TokenType.PAID);
+        list.add(a);
+        list.add(b);
+        list.add(c);
+
+        Assert.assertTrue("removed", list.remove(b.getId()) == b);
+        Assert.assertFalse("no longer waiting", list.contains(b.getId()));
+        Assert.assertEquals(List.of("A", "C"), patients(list));
+        Assert.assertEquals(2, list.size(TokenType.PAID));
+        Assert.assertTrue("head removed", list.remove(a.getId()) == a);
+        Assert.assertTrue("tail removed", list.remove(c.getId()) == c);
+        Assert.assertTrue("empty", list.isEmpty());
+    }
+
+    public void testRemovingAnUnknownOrRemovedIdReturnsNull() {
+        Token a = new Token("A", TokenType.ONLINE);
+        list.add(a);
+        Assert.assertNull("never added", list.remove("T-NOPE"));
+        list.remove(a.getId());
+        Assert.assertNull("removed twice", list.remove(a.getId()));
+        Assert.assertEquals(0, list.size());
+    }
+
+    public void testEmptyListPollsAndPeeksNull() {
+        Assert.assertNull("poll", list.poll());
+        Assert.assertNull("peek", list.peek());
+        Iterator<Token> it = list.iterator();
+        Assert.assertFalse("nothing to iterate", it.hasNext());
+        Assert.assertThrows(NoSuchElementException.class, it::next);
+    }
+
+    /**
+     * Random add/poll/remove against a plain list sorted by priority (stable, so
+     * FIFO within a type)
+     */
+    public void testRandomOperationsMatchTheModel() {
+        Random random = new Random(41);
+        TokenType[] types = TokenType.values();
+        List<Token> model = new ArrayList<>();
+        for (int op = 0; op < 50_000; op++) {
+            int kind = random.nextInt(10);
+            if (kind < 5 || model.isEmpty()) {
+                Token t = new Token("W" + op, types[random.nextInt(types.length)]);
+                list.add(t);
+                model.add(t);
+            } else if (kind < 8) {
+                Token expected = model.get(0);
+                for (Token t : model) {
+                    if (t.getPriority() < expected.getPriority()) expected = t;
+                }
+                model.remove(expected);
+                Assert.assertEquals("poll at op " + op, expected, list.poll());
+            } else {
+                Token victim = model.remove(random.nextInt(model.size()));
+                Assert.assertEquals("remove at op " + op, victim, list.remove(victim.getId()));
+                Assert.assertNull("remove twice at op " + op, list.remove(victim.getId()));
+            }
+
+            if (op % 97 == 0) {
+                List<Token> ordered = new ArrayList<>(model);
+                ordered.sort(Comparator.comparingInt(Token::getPriority));
+                List<Token> actual = new ArrayList<>();
+                for (Token t : list) actual.add(t);
+                Assert.assertEquals("order at op " + op, ordered, actual);
+                for (TokenType type : types) {
+                    long count = model.stream().filter(t -> t.getType() == type).count();
+                    Assert.assertEquals(type + " count at op " + op, (int) count, list.size(type));
+                }
+            }
+            Assert.assertEquals("size at op " + op, model.size(), list.size());
+        }
+    }
+}